@@ -0,0 +1,758 @@
+package mediatheque;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import mediatheque.document.Audio;
+import mediatheque.document.Document;
+import mediatheque.document.Livre;
+import mediatheque.document.StockageEtat;
+import mediatheque.document.Video;
+import util.InvariantBroken;
+
+/**
+ * La classe <code>CatalogueMappe</code> est un stockage optionnel des
+ * documents hors du tas Java. Les documents sont ranges dans des
+ * enregistrements de taille fixe d'un fichier projete en memoire
+ * (<code>MappedByteBuffer</code>). La table de hachage qui associe
+ * un code de document a son enregistrement est elle aussi dans le
+ * fichier : l'ouverture d'un catalogue existant ne charge rien dans
+ * le tas.
+ * <P>
+ * Organisation du fichier :
+ * <UL>
+ * <LI>entete : magique, capacite, taille d'enregistrement, nombre
+ * d'enregistrements utilises, nombre de documents, liste des libres,
+ * nombre de cases supprimees de l'index</LI>
+ * <LI>index : table a adressage ouvert de <code>int</code>
+ * (0 = vide, -1 = supprime, sinon numero d'enregistrement + 1).
+ * Quand documents et cases supprimees occupent les trois quarts de
+ * l'index, il est reconstruit a partir des enregistrements actifs :
+ * une recherche trouve toujours une case vide.</LI>
+ * <LI>enregistrements : etat, indicateurs empruntable/emprunte,
+ * nombre d'emprunts, hachage et code du document, type (livre, audio,
+ * video), champ entier du type (pages, duree), puis titre, auteur,
+ * annee, nom du genre, salle, rayon et champ texte du type (vide,
+ * classification, mention legale), chacun precede de sa longueur.</LI>
+ * </UL>
+ * Les changements d'etat d'un document (empruntable, emprunte, nombre
+ * d'emprunts) sont ecrits sur place dans son enregistrement, sans
+ * toucher aux autres champs. Un document absent du tas est reconstruit
+ * a partir de ces champs, sans deserialisation. Seuls les documents
+ * empruntes restent references dans le tas, afin que la fiche
+ * d'emprunt et le catalogue partagent la meme instance.
+ * La taille totale du fichier est limitee a 2 Go.
+ */
+public final class CatalogueMappe extends AbstractMap<String, Document>
+		implements StockageEtat, Serializable {
+	/** serial version. */
+	private static final long serialVersionUID = 1L;
+	/** Taille d'enregistrement par defaut en octets. */
+	public static final int TAILLE_ENREG = 1024;
+	/** Longueur maximale du code d'un document en octets. */
+	public static final int LONGUEUR_CODE = 64;
+
+	/** Nombre magique du fichier. */
+	private static final int MAGIQUE = 0x4D454443;
+	/** Taille de l'entete. */
+	private static final int ENTETE = 32;
+	/** Position de la capacite dans l'entete. */
+	private static final int POS_CAPACITE = 4;
+	/** Position de la taille d'enregistrement dans l'entete. */
+	private static final int POS_TAILLE = 8;
+	/** Position du nombre d'enregistrements utilises dans l'entete. */
+	private static final int POS_UTILISES = 12;
+	/** Position du nombre de documents dans l'entete. */
+	private static final int POS_NB = 16;
+	/** Position de la tete de la liste des libres dans l'entete. */
+	private static final int POS_LIBRE = 20;
+	/** Position du nombre de cases supprimees de l'index dans l'entete. */
+	private static final int POS_SUPPRIMES = 24;
+	/** Position de la version du format dans l'entete. */
+	private static final int POS_VERSION = 28;
+	/** Version du format des enregistrements. */
+	private static final int VERSION = 2;
+
+	/** Deplacement de l'etat dans un enregistrement. */
+	private static final int ENR_ETAT = 0;
+	/** Deplacement des indicateurs dans un enregistrement. */
+	private static final int ENR_INDIC = 1;
+	/** Deplacement du nombre d'emprunts (ou du suivant si libre). */
+	private static final int ENR_NBEMPRUNTS = 2;
+	/** Deplacement du hachage du code. */
+	private static final int ENR_HACHAGE = 6;
+	/** Deplacement de la longueur du code. */
+	private static final int ENR_LGCODE = 10;
+	/** Deplacement du code. */
+	private static final int ENR_CODE = 12;
+	/** Deplacement du type du document. */
+	private static final int ENR_TYPE = ENR_CODE + LONGUEUR_CODE;
+	/** Deplacement du champ entier du type. */
+	private static final int ENR_ENTIER = ENR_TYPE + 1;
+	/** Deplacement des champs textes, chacun precede de sa longueur. */
+	private static final int ENR_TEXTES = ENR_ENTIER + 4;
+	/** Nombre de champs textes. */
+	private static final int NB_TEXTES = 7;
+
+	/** Enregistrement libre. */
+	private static final byte LIBRE = 0;
+	/** Enregistrement occupe. */
+	private static final byte ACTIF = 1;
+	/** Indicateur empruntable. */
+	private static final byte EMPRUNTABLE = 1;
+	/** Indicateur emprunte. */
+	private static final byte EMPRUNTE = 2;
+	/** Type livre. */
+	private static final byte LIVRE = 'L';
+	/** Type audio. */
+	private static final byte AUDIO = 'A';
+	/** Type video. */
+	private static final byte VIDEO = 'V';
+	/** Case d'index vide. */
+	private static final int VIDE = 0;
+	/** Case d'index supprimee. */
+	private static final int SUPPRIME = -1;
+
+	/** Chemin du fichier. */
+	private final transient Path fichier;
+	/** Projection du fichier. */
+	private final transient MappedByteBuffer zone;
+	/** Nombre maximal de documents. */
+	private final transient int capacite;
+	/** Taille d'un enregistrement. */
+	private final transient int tailleEnreg;
+	/** Nombre de cases de l'index (puissance de 2). */
+	private final transient int tailleIndex;
+	/** Debut de la zone des enregistrements. */
+	private final transient int debutEnregs;
+	/** Mediatheque qui resout genres et localisations. */
+	private transient Mediatheque media;
+	/** Documents empruntes, partages avec les fiches d'emprunt. */
+	private final transient Map<String, Document> enCirculation =
+			new HashMap<String, Document>();
+
+	/**
+	 * Constructeur prive, voir <code>ouvrir</code>.
+	 * @param f chemin du fichier
+	 * @param z projection du fichier
+	 */
+	private CatalogueMappe(final Path f, final MappedByteBuffer z) {
+		fichier = f;
+		zone = z;
+		capacite = z.getInt(POS_CAPACITE);
+		tailleEnreg = z.getInt(POS_TAILLE);
+		tailleIndex = tailleIndex(capacite);
+		debutEnregs = ENTETE + 4 * tailleIndex;
+	}
+
+	/**
+	 * Ouvre un catalogue existant ou le cree s'il n'existe pas.
+	 * Les parametres de taille ne servent qu'a la creation.
+	 * @param f chemin du fichier
+	 * @param cap nombre maximal de documents
+	 * @param taille taille d'un enregistrement en octets
+	 * @return le catalogue
+	 * @throws IOException fichier illisible ou trop grand
+	 */
+	public static CatalogueMappe ouvrir(final Path f, final int cap,
+			final int taille) throws IOException {
+		try (FileChannel canal = FileChannel.open(f,
+				StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			boolean nouveau = canal.size() == 0;
+			long lg;
+			if (nouveau) {
+				if (taille <= ENR_TEXTES + 4 * NB_TEXTES) {
+					throw new IOException("Taille d'enregistrement trop petite "
+							+ taille);
+				}
+				lg = ENTETE + 4L * tailleIndex(cap) + (long) cap * taille;
+			} else {
+				lg = canal.size();
+			}
+			if (lg > Integer.MAX_VALUE) {
+				throw new IOException("Catalogue trop grand " + lg);
+			}
+			MappedByteBuffer z = canal.map(FileChannel.MapMode.READ_WRITE,
+					0, lg);
+			if (nouveau) {
+				z.putInt(0, MAGIQUE);
+				z.putInt(POS_CAPACITE, cap);
+				z.putInt(POS_TAILLE, taille);
+				z.putInt(POS_VERSION, VERSION);
+			} else if (z.getInt(0) != MAGIQUE) {
+				throw new IOException("Fichier " + f + " n'est pas un catalogue");
+			} else if (z.getInt(POS_VERSION) != VERSION) {
+				throw new IOException("Catalogue " + f + " au format "
+						+ z.getInt(POS_VERSION) + " au lieu de " + VERSION);
+			}
+			return new CatalogueMappe(f, z);
+		}
+	}
+
+	/**
+	 * Nombre de cases de l'index pour une capacite : puissance de 2
+	 * au moins double de la capacite.
+	 * @param cap capacite
+	 * @return nombre de cases
+	 */
+	private static int tailleIndex(final int cap) {
+		int n = 2;
+		while (n < 2 * cap) {
+			n <<= 1;
+		}
+		return n;
+	}
+
+	/**
+	 * Associe le catalogue a la mediatheque qui resout les genres et
+	 * localisations des documents relus.
+	 * @param m mediatheque
+	 */
+	void attacher(final Mediatheque m) {
+		media = m;
+	}
+
+	/**
+	 * Enregistre l'instance d'un document emprunte detenue par une
+	 * fiche d'emprunt afin que le catalogue retourne cette instance.
+	 * @param doc document emprunte
+	 */
+	synchronized void enregistrer(final Document doc) {
+		doc.attacherStockage(this);
+		etatModifie(doc);
+	}
+
+	/**
+	 * Force l'ecriture des modifications sur disque.
+	 */
+	public synchronized void forcer() {
+		zone.force();
+	}
+
+	/**
+	 * retourne le chemin du fichier du catalogue.
+	 * @return chemin
+	 */
+	public Path getFichier() {
+		return fichier;
+	}
+
+	/**
+	 * retourne vrai si le document est emprunte, sans le relire.
+	 * @param code code du document
+	 * @return true si le document existe et est emprunte
+	 */
+	public synchronized boolean estEmprunte(final String code) {
+		int enr = trouver(code);
+		return enr >= 0
+				&& (zone.get(adresse(enr) + ENR_INDIC) & EMPRUNTE) != 0;
+	}
+
+	@Override
+	public synchronized int size() {
+		return zone.getInt(POS_NB);
+	}
+
+	@Override
+	public synchronized boolean containsKey(final Object key) {
+		return key instanceof String && trouver((String) key) >= 0;
+	}
+
+	@Override
+	public synchronized Document get(final Object key) {
+		if (!(key instanceof String)) {
+			return null;
+		}
+		Document d = enCirculation.get(key);
+		if (d != null) {
+			return d;
+		}
+		int enr = trouver((String) key);
+		if (enr < 0) {
+			return null;
+		}
+		return lire(enr);
+	}
+
+	/**
+	 * Ajoute ou remplace un document.
+	 * @param code code du document
+	 * @param doc document
+	 * @return document precedent ou null
+	 * @throws IllegalArgumentException code ou document trop long
+	 * @throws IllegalStateException catalogue plein
+	 */
+	@Override
+	public synchronized Document put(final String code, final Document doc) {
+		if (!code.equals(doc.getCode())) {
+			throw new IllegalArgumentException("Code " + code
+					+ " different du document " + doc.getCode());
+		}
+		byte[] cle = code.getBytes(StandardCharsets.UTF_8);
+		if (cle.length > LONGUEUR_CODE) {
+			throw new IllegalArgumentException("Code trop long " + code);
+		}
+		byte[][] textes = textes(doc);
+		Document ancien = null;
+		int enr = trouver(code);
+		if (enr >= 0) {
+			ancien = get(code);
+		} else {
+			enr = allouer();
+			indexer(hachage(code), enr);
+			zone.putInt(POS_NB, zone.getInt(POS_NB) + 1);
+		}
+		int a = adresse(enr);
+		zone.put(a + ENR_ETAT, ACTIF);
+		zone.putInt(a + ENR_HACHAGE, hachage(code));
+		zone.putShort(a + ENR_LGCODE, (short) cle.length);
+		zone.put(a + ENR_CODE, cle);
+		ecrireChamps(a, doc, textes);
+		ecrireEtat(a, doc);
+		doc.attacherStockage(this);
+		circulation(doc);
+		return ancien;
+	}
+
+	@Override
+	public synchronized Document remove(final Object key) {
+		if (!(key instanceof String)) {
+			return null;
+		}
+		String code = (String) key;
+		int i = caseDe(code);
+		if (i < 0) {
+			return null;
+		}
+		int v = zone.getInt(ENTETE + 4 * i);
+		Document ancien = get(code);
+		int a = adresse(v - 1);
+		zone.putInt(ENTETE + 4 * i, SUPPRIME);
+		zone.put(a + ENR_ETAT, LIBRE);
+		zone.putInt(a + ENR_NBEMPRUNTS, zone.getInt(POS_LIBRE));
+		zone.putInt(POS_LIBRE, v);
+		zone.putInt(POS_NB, zone.getInt(POS_NB) - 1);
+		zone.putInt(POS_SUPPRIMES, zone.getInt(POS_SUPPRIMES) + 1);
+		if (4L * (zone.getInt(POS_NB) + zone.getInt(POS_SUPPRIMES))
+				> 3L * tailleIndex) {
+			reindexer();
+		}
+		enCirculation.remove(code);
+		ancien.attacherStockage(null);
+		return ancien;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Document>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Document>>() {
+			@Override
+			public int size() {
+				return CatalogueMappe.this.size();
+			}
+
+			@Override
+			public Iterator<Map.Entry<String, Document>> iterator() {
+				return new Parcours();
+			}
+		};
+	}
+
+	/**
+	 * Ecrit sur place l'etat d'un document apres un changement d'etat.
+	 * @param doc document modifie
+	 */
+	@Override
+	public synchronized void etatModifie(final Document doc) {
+		int enr = trouver(doc.getCode());
+		if (enr < 0) {
+			return;
+		}
+		ecrireEtat(adresse(enr), doc);
+		circulation(doc);
+	}
+
+	/**
+	 * Conserve dans le tas les seuls documents empruntes.
+	 * @param doc document dont l'etat vient d'etre ecrit
+	 */
+	private void circulation(final Document doc) {
+		if (doc.estEmprunte()) {
+			enCirculation.put(doc.getCode(), doc);
+		} else {
+			enCirculation.remove(doc.getCode());
+		}
+	}
+
+	/**
+	 * Ecrit indicateurs et nombre d'emprunts.
+	 * @param a adresse de l'enregistrement
+	 * @param doc document
+	 */
+	private void ecrireEtat(final int a, final Document doc) {
+		byte indic = 0;
+		if (doc.estEmpruntable()) {
+			indic |= EMPRUNTABLE;
+		}
+		if (doc.estEmprunte()) {
+			indic |= EMPRUNTE;
+		}
+		zone.put(a + ENR_INDIC, indic);
+		zone.putInt(a + ENR_NBEMPRUNTS, doc.getNbEmprunts());
+	}
+
+	/**
+	 * Ecrit type, champ entier et champs textes d'un document.
+	 * @param a adresse de l'enregistrement
+	 * @param doc document
+	 * @param textes champs textes en UTF-8, voir <code>textes</code>
+	 */
+	private void ecrireChamps(final int a, final Document doc,
+			final byte[][] textes) {
+		if (doc instanceof Livre) {
+			zone.put(a + ENR_TYPE, LIVRE);
+			zone.putInt(a + ENR_ENTIER, ((Livre) doc).getNombrePages());
+		} else if (doc instanceof Audio) {
+			zone.put(a + ENR_TYPE, AUDIO);
+			zone.putInt(a + ENR_ENTIER, 0);
+		} else {
+			zone.put(a + ENR_TYPE, VIDEO);
+			zone.putInt(a + ENR_ENTIER, ((Video) doc).getDureeFilm());
+		}
+		int pos = a + ENR_TEXTES;
+		for (byte[] t : textes) {
+			zone.putInt(pos, t.length);
+			zone.put(pos + 4, t);
+			pos += 4 + t.length;
+		}
+	}
+
+	/**
+	 * Champs textes d'un document en UTF-8, dans l'ordre de
+	 * l'enregistrement.
+	 * @param doc document
+	 * @return champs textes
+	 * @throws IllegalArgumentException type inconnu ou document trop
+	 * volumineux
+	 */
+	private byte[][] textes(final Document doc) {
+		String type;
+		if (doc instanceof Livre) {
+			type = "";
+		} else if (doc instanceof Audio) {
+			type = ((Audio) doc).getClassification();
+		} else if (doc instanceof Video) {
+			type = ((Video) doc).getMentionLegale();
+		} else {
+			throw new IllegalArgumentException("Document " + doc.getCode()
+					+ " de type " + doc.getClass().getName() + " non pris en charge");
+		}
+		String[] champs = {doc.getTitre(), doc.getAuteur(), doc.getAnnee(),
+				doc.getGenre().getNom(), doc.getLocalisation().getSalle(),
+				doc.getLocalisation().getRayon(), type};
+		byte[][] res = new byte[NB_TEXTES][];
+		int lg = ENR_TEXTES;
+		for (int i = 0; i < NB_TEXTES; i++) {
+			res[i] = champs[i].getBytes(StandardCharsets.UTF_8);
+			lg += 4 + res[i].length;
+		}
+		if (lg > tailleEnreg) {
+			throw new IllegalArgumentException("Document " + doc.getCode()
+					+ " trop volumineux (" + lg + " octets)");
+		}
+		return res;
+	}
+
+	/**
+	 * Reconstruit le document d'un enregistrement a partir de ses
+	 * champs.
+	 * @param enr numero d'enregistrement
+	 * @return document rattache au catalogue
+	 */
+	private Document lire(final int enr) {
+		int a = adresse(enr);
+		String[] champs = new String[NB_TEXTES];
+		int pos = a + ENR_TEXTES;
+		for (int i = 0; i < NB_TEXTES; i++) {
+			byte[] t = new byte[zone.getInt(pos)];
+			zone.get(pos + 4, t);
+			champs[i] = new String(t, StandardCharsets.UTF_8);
+			pos += 4 + t.length;
+		}
+		byte[] cle = new byte[zone.getShort(a + ENR_LGCODE)];
+		zone.get(a + ENR_CODE, cle);
+		String code = new String(cle, StandardCharsets.UTF_8);
+		Genre g = media.chercherGenre(champs[3]);
+		Localisation l = media.chercherLocalisation(champs[4], champs[5]);
+		int entier = zone.getInt(a + ENR_ENTIER);
+		try {
+			Document d;
+			switch (zone.get(a + ENR_TYPE)) {
+			case LIVRE:
+				d = new Livre(code, l, champs[0], champs[1], champs[2], g,
+						entier);
+				break;
+			case AUDIO:
+				d = new Audio(code, l, champs[0], champs[1], champs[2], g,
+						champs[6]);
+				break;
+			case VIDEO:
+				d = new Video(code, l, champs[0], champs[1], champs[2], g,
+						entier, champs[6]);
+				break;
+			default:
+				throw new IllegalStateException("Enregistrement " + enr
+						+ " de type inconnu");
+			}
+			byte indic = zone.get(a + ENR_INDIC);
+			d.restaurerEtat((indic & EMPRUNTABLE) != 0,
+					(indic & EMPRUNTE) != 0, zone.getInt(a + ENR_NBEMPRUNTS));
+			d.attacherStockage(this);
+			media.suivre(d);
+			return d;
+		} catch (OperationImpossible | InvariantBroken e) {
+			throw new IllegalStateException("Enregistrement " + enr
+					+ " illisible", e);
+		}
+	}
+
+	/**
+	 * Cherche l'enregistrement d'un code dans l'index.
+	 * @param code code du document
+	 * @return numero d'enregistrement ou -1
+	 */
+	private int trouver(final String code) {
+		int i = caseDe(code);
+		return i < 0 ? -1 : zone.getInt(ENTETE + 4 * i) - 1;
+	}
+
+	/**
+	 * Cherche la case d'index d'un code, en au plus
+	 * <code>tailleIndex</code> essais.
+	 * @param code code du document
+	 * @return numero de case ou -1
+	 */
+	private int caseDe(final String code) {
+		int h = hachage(code);
+		int masque = tailleIndex - 1;
+		int i = h & masque;
+		for (int essais = 0; essais < tailleIndex; essais++) {
+			int v = zone.getInt(ENTETE + 4 * i);
+			if (v == VIDE) {
+				return -1;
+			}
+			if (v != SUPPRIME && memeCode(v - 1, code, h)) {
+				return i;
+			}
+			i = (i + 1) & masque;
+		}
+		return -1;
+	}
+
+	/**
+	 * Ajoute une entree dans l'index, en reutilisant la premiere case
+	 * supprimee rencontree.
+	 * @param h hachage du code
+	 * @param enr numero d'enregistrement
+	 */
+	private void indexer(final int h, final int enr) {
+		int masque = tailleIndex - 1;
+		int i = h & masque;
+		for (int essais = 0; essais < tailleIndex; essais++) {
+			int v = zone.getInt(ENTETE + 4 * i);
+			if (v == VIDE || v == SUPPRIME) {
+				if (v == SUPPRIME) {
+					zone.putInt(POS_SUPPRIMES, zone.getInt(POS_SUPPRIMES) - 1);
+				}
+				zone.putInt(ENTETE + 4 * i, enr + 1);
+				return;
+			}
+			i = (i + 1) & masque;
+		}
+		throw new IllegalStateException("Index du catalogue plein");
+	}
+
+	/**
+	 * Reconstruit l'index sans cases supprimees a partir des
+	 * enregistrements actifs.
+	 */
+	private void reindexer() {
+		for (int i = 0; i < tailleIndex; i++) {
+			zone.putInt(ENTETE + 4 * i, VIDE);
+		}
+		zone.putInt(POS_SUPPRIMES, 0);
+		int utilises = zone.getInt(POS_UTILISES);
+		for (int enr = 0; enr < utilises; enr++) {
+			int a = adresse(enr);
+			if (zone.get(a + ENR_ETAT) == ACTIF) {
+				indexer(zone.getInt(a + ENR_HACHAGE), enr);
+			}
+		}
+	}
+
+	/**
+	 * Alloue un enregistrement, d'abord dans la liste des libres.
+	 * @return numero d'enregistrement
+	 * @throws IllegalStateException catalogue plein
+	 */
+	private int allouer() {
+		int libre = zone.getInt(POS_LIBRE);
+		if (libre != 0) {
+			zone.putInt(POS_LIBRE,
+					zone.getInt(adresse(libre - 1) + ENR_NBEMPRUNTS));
+			return libre - 1;
+		}
+		int utilises = zone.getInt(POS_UTILISES);
+		if (utilises >= capacite) {
+			throw new IllegalStateException("Catalogue plein (" + capacite
+					+ " documents)");
+		}
+		zone.putInt(POS_UTILISES, utilises + 1);
+		return utilises;
+	}
+
+	/**
+	 * Compare le code d'un enregistrement sans le decoder.
+	 * @param enr numero d'enregistrement
+	 * @param code code cherche
+	 * @param h hachage du code cherche
+	 * @return true si meme code
+	 */
+	private boolean memeCode(final int enr, final String code, final int h) {
+		int a = adresse(enr);
+		if (zone.getInt(a + ENR_HACHAGE) != h) {
+			return false;
+		}
+		byte[] cle = new byte[zone.getShort(a + ENR_LGCODE)];
+		zone.get(a + ENR_CODE, cle);
+		return code.equals(new String(cle, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Adresse d'un enregistrement dans la projection.
+	 * @param enr numero d'enregistrement
+	 * @return adresse
+	 */
+	private int adresse(final int enr) {
+		return debutEnregs + enr * tailleEnreg;
+	}
+
+	/**
+	 * Hachage d'un code, melange pour l'adressage ouvert.
+	 * @param code code du document
+	 * @return hachage
+	 */
+	private static int hachage(final String code) {
+		int h = code.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * La serialisation de la mediatheque n'ecrit que le chemin du
+	 * catalogue : les documents restent dans le fichier projete.
+	 * @return reference sur le fichier
+	 * @throws ObjectStreamException jamais
+	 */
+	private Object writeReplace() throws ObjectStreamException {
+		forcer();
+		return new Reference(fichier.toString());
+	}
+
+	/**
+	 * Forme serialisee d'un catalogue : son chemin.
+	 */
+	private static final class Reference implements Serializable {
+		/** serial version. */
+		private static final long serialVersionUID = 1L;
+		/** Chemin du fichier. */
+		private final String chemin;
+
+		/**
+		 * Constructeur.
+		 * @param c chemin du fichier
+		 */
+		Reference(final String c) {
+			chemin = c;
+		}
+
+		/**
+		 * Rouvre le catalogue a la deserialisation.
+		 * @return le catalogue
+		 * @throws ObjectStreamException fichier illisible
+		 */
+		private Object readResolve() throws ObjectStreamException {
+			try {
+				return ouvrir(Paths.get(chemin), 0, 0);
+			} catch (IOException ioe) {
+				throw new java.io.InvalidObjectException(
+						"Catalogue " + chemin + " : " + ioe);
+			}
+		}
+	}
+
+	/**
+	 * Parcours des enregistrements actifs.
+	 */
+	private final class Parcours
+	implements Iterator<Map.Entry<String, Document>> {
+		/** Prochain enregistrement a examiner. */
+		private int suivant = 0;
+		/** Dernier code retourne. */
+		private String dernier;
+
+		@Override
+		public boolean hasNext() {
+			synchronized (CatalogueMappe.this) {
+				int utilises = zone.getInt(POS_UTILISES);
+				while (suivant < utilises
+						&& zone.get(adresse(suivant) + ENR_ETAT) != ACTIF) {
+					suivant++;
+				}
+				return suivant < utilises;
+			}
+		}
+
+		@Override
+		public Map.Entry<String, Document> next() {
+			synchronized (CatalogueMappe.this) {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				int a = adresse(suivant);
+				byte[] cle = new byte[zone.getShort(a + ENR_LGCODE)];
+				zone.get(a + ENR_CODE, cle);
+				dernier = new String(cle, StandardCharsets.UTF_8);
+				Document d = enCirculation.get(dernier);
+				if (d == null) {
+					d = lire(suivant);
+				}
+				suivant++;
+				return new AbstractMap.SimpleImmutableEntry<String, Document>(
+						dernier, d);
+			}
+		}
+
+		@Override
+		public void remove() {
+			if (dernier == null) {
+				throw new IllegalStateException();
+			}
+			CatalogueMappe.this.remove(dernier);
+			dernier = null;
+		}
+	}
+}
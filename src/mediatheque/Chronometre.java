@@ -0,0 +1,48 @@
+package mediatheque;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * La classe <code>Chronometre</code> mesure la duree des etapes
+ * successives d'un traitement, par exemple le demarrage de la
+ * mediatheque.
+ */
+final class Chronometre {
+	/** Duree de chaque etape en millisecondes, dans l'ordre. */
+	private final Map<String, Long> durees = new LinkedHashMap<String, Long>();
+	/** Fin de l'etape precedente. */
+	private long depart = System.nanoTime();
+
+	/**
+	 * Termine une etape commencee a la fin de la precedente.
+	 * @param etape nom de l'etape
+	 */
+	void etape(final String etape) {
+		long fin = System.nanoTime();
+		Long avant = durees.get(etape);
+		long ms = TimeUnit.NANOSECONDS.toMillis(fin - depart);
+		durees.put(etape, avant == null ? ms : avant + ms);
+		depart = fin;
+	}
+
+	/**
+	 * Durees mesurees.
+	 * @return duree de chaque etape en millisecondes, dans l'ordre
+	 */
+	Map<String, Long> durees() {
+		return Collections.unmodifiableMap(durees);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Long> e : durees.entrySet()) {
+			sb.append(e.getKey()).append(" : ").append(e.getValue())
+					.append(" ms\n");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,259 @@
+package mediatheque;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import mediatheque.client.Client;
+
+/**
+ * La classe <code>Courrier</code> imprime les lettres de rappel dans un
+ * fichier : une lettre par client, qui liste tous ses documents a
+ * rendre. Les lettres sont composees une a une a partir de modeles et
+ * ecrites par lots dans un tampon de taille fixe : seule la lettre en
+ * cours est en memoire.
+ * <P>
+ * Un modele est un texte ou <code>${variable}</code> est remplace par
+ * sa valeur. Variables de la lettre : mediatheque, date, nom, prenom,
+ * adresse, documents ; variables d'une ligne de document : code,
+ * titre, auteur, limite, rappel.
+ * @see Mediatheque#imprimerRappels(Path, java.util.List)
+ */
+public final class Courrier implements Closeable {
+	/** Modele de lettre par defaut. */
+	public static final String LETTRE = "${nom} ${prenom}\n${adresse}\n\n"
+			+ "${mediatheque}, le ${date}\n\nMadame, Monsieur,\n\n"
+			+ "Les documents suivants auraient du etre rendus :\n"
+			+ "${documents}\nMerci de les rapporter au plus vite.\n\f\n";
+	/** Modele de ligne de document par defaut. */
+	public static final String LIGNE = "  - ${code} ${titre} (${auteur}), "
+			+ "a rendre le ${limite} : ${rappel}\n";
+	/** Taille d'un lot d'ecriture. */
+	private static final int TAILLE_LOT = 64 * 1024;
+
+	/** Fichier des lettres. */
+	private final FileChannel canal;
+	/** Lot en cours. */
+	private final ByteBuffer lot = ByteBuffer.allocateDirect(TAILLE_LOT);
+	/** Encodage des lettres ; un texte mal forme est remplace. */
+	private final CharsetEncoder codeur = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	/** Modele de lettre. */
+	private final Modele lettre;
+	/** Modele de ligne de document. */
+	private final Modele ligne;
+	/** Nom de la mediatheque. */
+	private final String mediatheque;
+	/** Lettre en cours de composition. */
+	private final StringBuilder texte = new StringBuilder();
+	/** Valeurs des variables. */
+	private final Map<String, String> valeurs = new LinkedHashMap<String, String>();
+	/** Nombre de lettres imprimees. */
+	private int nbLettres;
+
+	/**
+	 * Constructeur avec les modeles par defaut.
+	 * @param fichier fichier a creer
+	 * @param nomMedia nom de la mediatheque
+	 * @throws IOException creation du fichier impossible
+	 */
+	public Courrier(final Path fichier, final String nomMedia)
+			throws IOException {
+		this(fichier, nomMedia, LETTRE, LIGNE);
+	}
+
+	/**
+	 * Constructeur.
+	 * @param fichier fichier a creer, qui ne doit pas exister
+	 * @param nomMedia nom de la mediatheque
+	 * @param modeleLettre modele de lettre
+	 * @param modeleLigne modele de ligne de document
+	 * @throws IOException creation du fichier impossible
+	 */
+	public Courrier(final Path fichier, final String nomMedia,
+			final String modeleLettre, final String modeleLigne)
+			throws IOException {
+		lettre = new Modele(modeleLettre);
+		ligne = new Modele(modeleLigne);
+		mediatheque = nomMedia;
+		canal = FileChannel.open(fichier, StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Imprime les rappels, regroupes par client dans l'ordre de leur
+	 * premier rappel.
+	 * @param rappels rappels a envoyer
+	 * @return nombre de lettres imprimees
+	 * @throws IOException ecriture impossible
+	 */
+	public int imprimer(final List<Rappel> rappels) throws IOException {
+		Map<Client, List<Rappel>> parClient =
+				new LinkedHashMap<Client, List<Rappel>>();
+		for (Rappel r : rappels) {
+			List<Rappel> l = parClient.get(r.getClient());
+			if (l == null) {
+				l = new ArrayList<Rappel>(2);
+				parClient.put(r.getClient(), l);
+			}
+			l.add(r);
+		}
+		int n = 0;
+		for (Map.Entry<Client, List<Rappel>> e : parClient.entrySet()) {
+			imprimer(e.getKey(), e.getValue());
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Imprime la lettre d'un client.
+	 * @param client client a relancer
+	 * @param rappels rappels du client
+	 * @throws IOException ecriture impossible
+	 */
+	public void imprimer(final Client client, final List<Rappel> rappels)
+			throws IOException {
+		texte.setLength(0);
+		StringBuilder docs = new StringBuilder();
+		for (Rappel r : rappels) {
+			valeurs.clear();
+			valeurs.put("code", r.getDocument().getCode());
+			valeurs.put("titre", r.getDocument().getTitre());
+			valeurs.put("auteur", r.getDocument().getAuteur());
+			valeurs.put("limite",
+					HorlogeSysteme.texte(r.getEmprunt().getDateLimite()));
+			valeurs.put("rappel", r.estPremier() ? "premier rappel" : "relance");
+			ligne.appliquer(valeurs, docs);
+		}
+		valeurs.clear();
+		valeurs.put("mediatheque", mediatheque);
+		valeurs.put("date", rappels.isEmpty() ? ""
+				: HorlogeSysteme.texte(rappels.get(0).getDate()));
+		valeurs.put("nom", client.getNom());
+		valeurs.put("prenom", client.getPrenom());
+		valeurs.put("adresse", client.getAdresse());
+		valeurs.put("documents", docs.toString());
+		lettre.appliquer(valeurs, texte);
+		ajouter(texte);
+		nbLettres++;
+	}
+
+	/**
+	 * retourne le nombre de lettres imprimees.
+	 * @return nombre de lettres
+	 */
+	public int getNbLettres() {
+		return nbLettres;
+	}
+
+	/**
+	 * Ecrit le dernier lot, synchronise et ferme le fichier.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			vider();
+			canal.force(false);
+		} finally {
+			canal.close();
+		}
+	}
+
+	/**
+	 * Encode une lettre dans le lot, qui est ecrit chaque fois qu'il
+	 * est plein.
+	 * @param s lettre
+	 * @throws IOException ecriture impossible
+	 */
+	private void ajouter(final CharSequence s) throws IOException {
+		CharBuffer cb = CharBuffer.wrap(s);
+		codeur.reset();
+		CoderResult res;
+		do {
+			res = codeur.encode(cb, lot, true);
+			if (res.isOverflow()) {
+				vider();
+			}
+		} while (res.isOverflow());
+		while (codeur.flush(lot).isOverflow()) {
+			vider();
+		}
+	}
+
+	/**
+	 * Ecrit le lot en cours.
+	 * @throws IOException ecriture impossible
+	 */
+	private void vider() throws IOException {
+		lot.flip();
+		while (lot.hasRemaining()) {
+			canal.write(lot);
+		}
+		lot.clear();
+	}
+
+	/**
+	 * Modele analyse une fois pour toutes : alternance de textes fixes
+	 * et de noms de variables.
+	 */
+	static final class Modele {
+		/** Textes fixes (indices pairs) et variables (indices impairs). */
+		private final String[] morceaux;
+
+		/**
+		 * Constructeur.
+		 * @param modele texte du modele
+		 */
+		Modele(final String modele) {
+			List<String> l = new ArrayList<String>();
+			int pos = 0;
+			int debut = modele.indexOf("${");
+			while (debut >= 0) {
+				int fin = modele.indexOf('}', debut);
+				if (fin < 0) {
+					break;
+				}
+				l.add(modele.substring(pos, debut));
+				l.add(modele.substring(debut + 2, fin));
+				pos = fin + 1;
+				debut = modele.indexOf("${", pos);
+			}
+			l.add(modele.substring(pos));
+			morceaux = l.toArray(new String[l.size()]);
+		}
+
+		/**
+		 * Compose un texte.
+		 * @param valeurs valeur de chaque variable ; une variable
+		 *    inconnue est laissee vide
+		 * @param sb destination
+		 */
+		void appliquer(final Map<String, String> valeurs,
+				final StringBuilder sb) {
+			for (int i = 0; i < morceaux.length; i++) {
+				if (i % 2 == 0) {
+					sb.append(morceaux[i]);
+				} else {
+					String v = valeurs.get(morceaux[i]);
+					if (v != null) {
+						sb.append(v);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package mediatheque;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Vector;
+
+/**
+ * La classe <code>EmpruntsEnCours</code> range les emprunts en cours de
+ * la mediatheque dans l'ordre des emprunts. Chaque fiche retient sa
+ * place dans la liste : le retrait d'une fiche laisse une case vide, en
+ * temps constant. Les cases vides sont resorbees quand elles occupent
+ * la moitie de la liste, ou avant un acces par indice ; le parcours les
+ * saute. Une fiche n'appartient qu'a une liste.
+ * <P>
+ * La liste est serialisee sous la forme d'un <code>Vector</code>, comme
+ * dans les versions precedentes. Comme la mediatheque qui la modifie
+ * sous son verrou, elle n'est pas synchronisee.
+ * @see ListeEmprunts
+ */
+final class EmpruntsEnCours extends AbstractList<FicheEmprunt>
+		implements RandomAccess, Serializable {
+	/** serial version. */
+	private static final long serialVersionUID = 1L;
+
+	/** Fiches et cases vides, de 0 a fin exclue. */
+	private FicheEmprunt[] fiches = new FicheEmprunt[16];
+	/** Nombre de cases utilisees, vides comprises. */
+	private int fin;
+	/** Nombre de fiches. */
+	private int taille;
+
+	/**
+	 * Constructeur d'une liste vide.
+	 */
+	EmpruntsEnCours() {
+	}
+
+	/**
+	 * Constructeur.
+	 * @param c fiches, dans l'ordre des emprunts
+	 */
+	EmpruntsEnCours(final Collection<FicheEmprunt> c) {
+		fiches = new FicheEmprunt[Math.max(16, c.size())];
+		for (FicheEmprunt fe : c) {
+			add(fe);
+		}
+	}
+
+	@Override
+	public FicheEmprunt get(final int i) {
+		if (i < 0 || i >= taille) {
+			throw new IndexOutOfBoundsException("Emprunt " + i + " sur "
+					+ taille);
+		}
+		tasser();
+		return fiches[i];
+	}
+
+	@Override
+	public int size() {
+		return taille;
+	}
+
+	@Override
+	public boolean add(final FicheEmprunt fe) {
+		if (fin == fiches.length) {
+			if (2 * taille <= fin) {
+				tasser();
+			} else {
+				fiches = Arrays.copyOf(fiches, 2 * fin);
+			}
+		}
+		fe.setPlace(fin);
+		fiches[fin++] = fe;
+		taille++;
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public boolean contains(final Object o) {
+		return place(o) >= 0;
+	}
+
+	@Override
+	public boolean remove(final Object o) {
+		int p = place(o);
+		if (p < 0) {
+			return false;
+		}
+		fiches[p] = null;
+		((FicheEmprunt) o).setPlace(-1);
+		taille--;
+		modCount++;
+		if (p == fin - 1) {
+			fin--;
+		}
+		if (2 * taille < fin && fin > 16) {
+			tasser();
+		}
+		return true;
+	}
+
+	@Override
+	public FicheEmprunt remove(final int i) {
+		FicheEmprunt fe = get(i);
+		remove(fe);
+		return fe;
+	}
+
+	@Override
+	public void clear() {
+		for (int i = 0; i < fin; i++) {
+			if (fiches[i] != null) {
+				fiches[i].setPlace(-1);
+				fiches[i] = null;
+			}
+		}
+		fin = 0;
+		taille = 0;
+		modCount++;
+	}
+
+	@Override
+	public Iterator<FicheEmprunt> iterator() {
+		return new Iterator<FicheEmprunt>() {
+			/** Case de la fiche suivante. */
+			private int i = suivante(0);
+			/** Case de la derniere fiche rendue, -1 sans fiche. */
+			private int derniere = -1;
+			/** Modifications attendues de la liste. */
+			private int attendu = modCount;
+
+			@Override
+			public boolean hasNext() {
+				return i < fin;
+			}
+
+			@Override
+			public FicheEmprunt next() {
+				if (attendu != modCount) {
+					throw new ConcurrentModificationException();
+				}
+				if (i >= fin) {
+					throw new NoSuchElementException();
+				}
+				derniere = i;
+				i = suivante(i + 1);
+				return fiches[derniere];
+			}
+
+			@Override
+			public void remove() {
+				if (derniere < 0) {
+					throw new IllegalStateException();
+				}
+				if (attendu != modCount) {
+					throw new ConcurrentModificationException();
+				}
+				FicheEmprunt fe = fiches[derniere];
+				fiches[derniere] = null;
+				fe.setPlace(-1);
+				taille--;
+				modCount++;
+				attendu = modCount;
+				derniere = -1;
+			}
+		};
+	}
+
+	/**
+	 * case de la prochaine fiche.
+	 * @param depuis premiere case examinee
+	 * @return case, fin s'il n'y en a plus
+	 */
+	private int suivante(final int depuis) {
+		int i = depuis;
+		while (i < fin && fiches[i] == null) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * place d'une fiche de la liste.
+	 * @param o objet cherche
+	 * @return case, -1 si l'objet n'est pas une fiche de la liste
+	 */
+	private int place(final Object o) {
+		if (o instanceof FicheEmprunt) {
+			int p = ((FicheEmprunt) o).getPlace();
+			if (p >= 0 && p < fin && fiches[p] == o) {
+				return p;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * resorbe les cases vides, dans l'ordre des fiches.
+	 */
+	private void tasser() {
+		if (taille == fin) {
+			return;
+		}
+		int n = 0;
+		for (int i = 0; i < fin; i++) {
+			FicheEmprunt fe = fiches[i];
+			if (fe != null) {
+				fe.setPlace(n);
+				fiches[n++] = fe;
+			}
+		}
+		Arrays.fill(fiches, n, fin, null);
+		fin = n;
+		modCount++;
+	}
+
+	/**
+	 * Serialisation sous la forme des versions precedentes.
+	 * @return fiches dans un <code>Vector</code>
+	 */
+	private Object writeReplace() {
+		return new Vector<FicheEmprunt>(this);
+	}
+}
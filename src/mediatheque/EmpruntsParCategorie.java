@@ -0,0 +1,143 @@
+package mediatheque;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import mediatheque.client.CategorieClient;
+import mediatheque.client.Client;
+import util.InvariantBroken;
+
+/**
+ * La classe <code>EmpruntsParCategorie</code> range les fiches
+ * d'emprunt en cours selon la categorie de leur client. Un changement
+ * des parametres d'une categorie ne recalcule que les emprunts de ses
+ * clients. Les categories sont comparees par identite : leur nom peut
+ * changer.
+ */
+final class EmpruntsParCategorie {
+	/** Emprunts en cours par categorie du client. */
+	private final Map<CategorieClient, Set<FicheEmprunt>> parCategorie =
+			new IdentityHashMap<CategorieClient, Set<FicheEmprunt>>();
+
+	/**
+	 * Constructeur.
+	 * @param fiches fiches d'emprunt en cours
+	 */
+	EmpruntsParCategorie(final Collection<FicheEmprunt> fiches) {
+		for (FicheEmprunt fe : fiches) {
+			ajouter(fe);
+		}
+	}
+
+	/**
+	 * ajoute un emprunt a la categorie de son client.
+	 * @param fe fiche d'emprunt
+	 */
+	void ajouter(final FicheEmprunt fe) {
+		fiches(fe.getClient().getCategorie()).add(fe);
+	}
+
+	/**
+	 * retire un emprunt restitue.
+	 * @param fe fiche d'emprunt
+	 */
+	void retirer(final FicheEmprunt fe) {
+		Set<FicheEmprunt> s = parCategorie.get(fe.getClient().getCategorie());
+		if (s != null) {
+			s.remove(fe);
+		}
+	}
+
+	/**
+	 * range les emprunts d'un client qui vient de changer de categorie.
+	 * @param c client
+	 * @param ancienne categorie precedente du client
+	 */
+	void deplacer(final Client c, final CategorieClient ancienne) {
+		if (ancienne == c.getCategorie()) {
+			return;
+		}
+		Set<FicheEmprunt> s = parCategorie.get(ancienne);
+		Set<FicheEmprunt> dest = fiches(c.getCategorie());
+		for (FicheEmprunt fe : c.getEmprunts()) {
+			if (s != null) {
+				s.remove(fe);
+			}
+			dest.add(fe);
+		}
+	}
+
+	/**
+	 * emprunts en cours des clients d'une categorie.
+	 * @param cat categorie
+	 * @return fiches d'emprunt, creees au premier usage
+	 */
+	private Set<FicheEmprunt> fiches(final CategorieClient cat) {
+		Set<FicheEmprunt> s = parCategorie.get(cat);
+		if (s == null) {
+			s = new LinkedHashSet<FicheEmprunt>();
+			parCategorie.put(cat, s);
+		}
+		return s;
+	}
+
+	/**
+	 * emprunts en cours des clients d'une categorie.
+	 * @param cat categorie
+	 * @return fiches d'emprunt, en lecture seule
+	 */
+	Set<FicheEmprunt> emprunts(final CategorieClient cat) {
+		Set<FicheEmprunt> s = parCategorie.get(cat);
+		return s == null ? Collections.<FicheEmprunt>emptySet()
+				: Collections.unmodifiableSet(s);
+	}
+
+	/**
+	 * nombre d'emprunts en cours des clients d'une categorie.
+	 * @param cat categorie
+	 * @return nombre d'emprunts
+	 */
+	int taille(final CategorieClient cat) {
+		Set<FicheEmprunt> s = parCategorie.get(cat);
+		return s == null ? 0 : s.size();
+	}
+
+	/**
+	 * recalcule en une passe la date limite des emprunts en cours des
+	 * clients d'une categorie, apres un changement de son coefficient
+	 * de duree. Les emprunts ne sont plus marques depasses, et chaque
+	 * client concerne voit son nombre d'emprunts en retard diminue une
+	 * seule fois ; la prochaine verification marque ceux qui le sont
+	 * encore.
+	 * @param cat categorie modifiee
+	 * @return nombre d'emprunts recalcules
+	 * @throws OperationImpossible en relai de changementCategorie
+	 * @throws InvariantBroken en relai de changementCategorie
+	 */
+	int recalculer(final CategorieClient cat)
+			throws OperationImpossible, InvariantBroken {
+		Set<FicheEmprunt> s = parCategorie.get(cat);
+		if (s == null) {
+			return 0;
+		}
+		Map<Client, int[]> retards = new IdentityHashMap<Client, int[]>();
+		for (FicheEmprunt fe : s) {
+			if (fe.changementCategorie()) {
+				int[] n = retards.get(fe.getClient());
+				if (n == null) {
+					n = new int[1];
+					retards.put(fe.getClient(), n);
+				}
+				n[0]++;
+			}
+		}
+		for (Map.Entry<Client, int[]> e : retards.entrySet()) {
+			e.getKey().annulerRetards(e.getValue()[0]);
+		}
+		return s.size();
+	}
+}
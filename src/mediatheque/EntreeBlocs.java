@@ -0,0 +1,273 @@
+package mediatheque;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * La classe <code>EntreeBlocs</code> relit un flux ecrit par
+ * <code>SortieBlocs</code>. Chaque bloc est controle avant que ses
+ * octets ne soient rendus : la verification se fait au fil de la
+ * lecture, sans seconde passe sur le fichier. Un bloc altere, un flux
+ * tronque ou une fin absente provoquent une <code>IOException</code>.
+ * Les blocs d'un flux compresse sont lus en avance et decompresses en
+ * parallele sur le <code>ForkJoinPool</code> commun.
+ * @see SortieBlocs
+ */
+final class EntreeBlocs extends InputStream {
+	/** Flux source. */
+	private final DataInputStream entree;
+	/** Blocs compresses. */
+	private final boolean compresse;
+	/** Sommes couvrant les longueurs, hors premiere version. */
+	private final boolean entetes;
+	/** Bloc en cours de lecture. */
+	private byte[] bloc;
+	/** Nombre d'octets du bloc en cours. */
+	private int rempli;
+	/** Position dans le bloc en cours. */
+	private int pos;
+	/** Nombre d'octets lus depuis le debut du flux. */
+	private long total;
+	/** Somme de controle. */
+	private final CRC32C crc = new CRC32C();
+	/** Decompressions en cours, dans l'ordre des blocs. */
+	private final Deque<ForkJoinTask<byte[]>> enCours =
+			new ArrayDeque<ForkJoinTask<byte[]>>();
+	/** Longueur totale annoncee par la fin du flux, -1 avant la fin. */
+	private long totalAnnonce = -1;
+
+	/**
+	 * Constructeur.
+	 * @param in flux source
+	 * @throws IOException entete absente ou invalide
+	 */
+	EntreeBlocs(final InputStream in) throws IOException {
+		if (in.markSupported()) {
+			entree = new DataInputStream(in);
+		} else {
+			entree = new DataInputStream(new BufferedInputStream(in));
+		}
+		int magique = entree.readInt();
+		if (magique != SortieBlocs.MAGIQUE
+				&& magique != SortieBlocs.MAGIQUE_COMPRESSE
+				&& magique != SortieBlocs.MAGIQUE_V1
+				&& magique != SortieBlocs.MAGIQUE_COMPRESSE_V1) {
+			throw new IOException("Flux de blocs invalide");
+		}
+		compresse = magique == SortieBlocs.MAGIQUE_COMPRESSE
+				|| magique == SortieBlocs.MAGIQUE_COMPRESSE_V1;
+		entetes = magique == SortieBlocs.MAGIQUE
+				|| magique == SortieBlocs.MAGIQUE_COMPRESSE;
+		bloc = compresse ? null : new byte[SortieBlocs.TAILLE_BLOC];
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (pos == rempli && !lireBloc()) {
+			return -1;
+		}
+		return bloc[pos++] & 0xFF;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len)
+			throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (pos == rempli && !lireBloc()) {
+			return -1;
+		}
+		int n = Math.min(len, rempli - pos);
+		System.arraycopy(bloc, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return rempli - pos;
+	}
+
+	/**
+	 * Lit le reste du flux jusqu'a sa fin, pour verifier qu'il est
+	 * complet apres la lecture de son contenu utile.
+	 * @throws IOException flux altere, tronque ou sans fin
+	 */
+	void verifierFin() throws IOException {
+		while (pos < rempli || lireBloc()) {
+			pos = rempli;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		entree.close();
+	}
+
+	/**
+	 * Passe au bloc suivant.
+	 * @return false a la fin du flux
+	 * @throws IOException flux altere ou tronque
+	 */
+	private boolean lireBloc() throws IOException {
+		try {
+			if (compresse) {
+				return lireCompresse();
+			}
+			if (!lireEntete()) {
+				return fin();
+			}
+			int lg = entree.readInt();
+			if (lg < 0 || lg > bloc.length) {
+				throw new IOException("Bloc de longueur invalide : " + lg);
+			}
+			int somme = entree.readInt();
+			entree.readFully(bloc, 0, lg);
+			crc.reset();
+			if (entetes) {
+				SortieBlocs.ajouterEntier(crc, lg);
+			}
+			crc.update(bloc, 0, lg);
+			if ((int) crc.getValue() != somme) {
+				throw new IOException("Bloc altere a l'octet " + total);
+			}
+			rempli = lg;
+			pos = 0;
+			total += lg;
+			return true;
+		} catch (EOFException eof) {
+			throw new IOException("Flux de blocs tronque a l'octet " + total);
+		}
+	}
+
+	/**
+	 * Lit la longueur du bloc suivant sans la consommer et traite la fin
+	 * du flux.
+	 * @return false si la fin du flux est atteinte
+	 * @throws IOException fin incoherente
+	 */
+	private boolean lireEntete() throws IOException {
+		if (totalAnnonce >= 0) {
+			return false;
+		}
+		entree.mark(Integer.BYTES);
+		if (entree.readInt() != 0) {
+			entree.reset();
+			return true;
+		}
+		totalAnnonce = entree.readLong();
+		return false;
+	}
+
+	/**
+	 * Controle la fin du flux.
+	 * @return false
+	 * @throws IOException longueur totale differente de celle annoncee
+	 */
+	private boolean fin() throws IOException {
+		if (totalAnnonce != total) {
+			throw new IOException("Flux de blocs incomplet");
+		}
+		return false;
+	}
+
+	/**
+	 * Passe au bloc compresse suivant, apres avoir lance la lecture en
+	 * avance des blocs suivants.
+	 * @return false a la fin du flux
+	 * @throws IOException flux altere ou tronque
+	 */
+	private boolean lireCompresse() throws IOException {
+		while (enCours.size() < SortieBlocs.EN_VOL && lireEntete()) {
+			int lg = entree.readInt();
+			if (lg < 0 || lg > 2 * SortieBlocs.TAILLE_BLOC) {
+				throw new IOException("Bloc de longueur invalide : " + lg);
+			}
+			final int somme = entree.readInt();
+			final int brut = entree.readInt();
+			if (brut <= 0 || brut > SortieBlocs.TAILLE_BLOC) {
+				throw new IOException("Bloc de longueur invalide : " + brut);
+			}
+			final byte[] b = new byte[lg];
+			entree.readFully(b);
+			final boolean e = entetes;
+			enCours.add(ForkJoinPool.commonPool().submit(
+					new Callable<byte[]>() {
+						@Override
+						public byte[] call() {
+							return decompresser(b, somme, brut, e);
+						}
+					}));
+		}
+		if (enCours.isEmpty()) {
+			return fin();
+		}
+		try {
+			bloc = enCours.poll().join();
+		} catch (UncheckedIOException uioe) {
+			throw new IOException(uioe.getCause().getMessage()
+					+ " apres l'octet " + total, uioe);
+		}
+		rempli = bloc.length;
+		pos = 0;
+		total += rempli;
+		return true;
+	}
+
+	/**
+	 * Controle et decompresse un bloc.
+	 * @param b octets compresses
+	 * @param somme somme attendue
+	 * @param brut longueur non compressee
+	 * @param entete somme couvrant aussi les longueurs
+	 * @return octets du bloc
+	 */
+	static byte[] decompresser(final byte[] b, final int somme,
+			final int brut, final boolean entete) {
+		CRC32C c = new CRC32C();
+		if (entete) {
+			SortieBlocs.ajouterEntier(c, b.length);
+			SortieBlocs.ajouterEntier(c, brut);
+		}
+		c.update(b, 0, b.length);
+		if ((int) c.getValue() != somme) {
+			throw new UncheckedIOException(new IOException("Bloc altere"));
+		}
+		Inflater i = new Inflater();
+		try {
+			i.setInput(b);
+			byte[] res = new byte[brut];
+			int n = 0;
+			while (n < brut && !i.finished()) {
+				int k = i.inflate(res, n, brut - n);
+				if (k == 0 && (i.needsInput() || i.needsDictionary())) {
+					break;
+				}
+				n += k;
+			}
+			if (n != brut) {
+				throw new UncheckedIOException(
+						new IOException("Bloc de longueur incoherente"));
+			}
+			return res;
+		} catch (DataFormatException dfe) {
+			throw new UncheckedIOException(new IOException(
+					"Bloc mal compresse : " + dfe.getMessage()));
+		} finally {
+			i.end();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package mediatheque;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+
+/**
+ * La classe <code>EntreeEntites</code> relit les enregistrements ecrits
+ * par <code>SortieEntites</code> en resolvant chaque
+ * <code>ReferenceEntite</code> vers l'instance de la mediatheque.
+ * @see SortieEntites
+ */
+final class EntreeEntites extends ObjectInputStream {
+	/** Mediatheque servant a resoudre les references. */
+	private final Mediatheque media;
+
+	/**
+	 * Constructeur.
+	 * @param in flux source
+	 * @param m mediatheque qui resout les references
+	 * @throws IOException en relai de ObjectInputStream
+	 */
+	EntreeEntites(final InputStream in, final Mediatheque m)
+			throws IOException {
+		super(in);
+		media = m;
+		enableResolveObject(true);
+	}
+
+	@Override
+	protected Object resolveObject(final Object obj) throws IOException {
+		if (!(obj instanceof ReferenceEntite)) {
+			return obj;
+		}
+		ReferenceEntite ref = (ReferenceEntite) obj;
+		Object res;
+		switch (ref.getType()) {
+		case ReferenceEntite.GENRE:
+			res = media.chercherGenre(ref.getCle());
+			break;
+		case ReferenceEntite.LOCALISATION:
+			res = media.chercherLocalisation(ref.getCle(), ref.getCle2());
+			break;
+		case ReferenceEntite.CATEGORIE:
+			res = media.chercherCatClient(ref.getCle());
+			break;
+		case ReferenceEntite.CLIENT:
+			res = media.chercherClient(ref.getCle(), ref.getCle2());
+			break;
+		case ReferenceEntite.DOCUMENT:
+			res = media.chercherDocument(ref.getCle());
+			break;
+		default:
+			res = null;
+		}
+		if (res == null) {
+			throw new InvalidObjectException("Reference inconnue " + ref);
+		}
+		return res;
+	}
+}
@@ -0,0 +1,463 @@
+package mediatheque;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.function.Predicate;
+
+import mediatheque.client.Client;
+import mediatheque.document.Document;
+
+/**
+ * La classe <code>Export</code> ecrit une liste de la mediatheque en CSV
+ * ou en JSON, dans un fichier ou sur un <code>Writer</code>. Les
+ * elements sont lus un a un et chacun est compose dans une ligne
+ * reutilisee, puis ajoute a un lot de taille fixe ; le lot est ecrit
+ * chaque fois qu'il est plein. L'ecriture est bloquante : tant que le
+ * lot n'est pas ecrit, l'element suivant n'est pas lu, et la memoire
+ * utilisee ne depend pas du nombre d'elements.
+ * <P>
+ * Un export contient une seule liste. En CSV, une ligne d'en-tete puis
+ * une ligne par element ; en JSON, un tableau d'objets. Les dates sont
+ * au format ISO (aaaa-mm-jj), les montants en centimes.
+ * @see Mediatheque#exporterDocuments(Export, Predicate)
+ */
+public final class Export implements Closeable {
+	/** Taille d'un lot d'ecriture. */
+	private static final int TAILLE_LOT = 64 * 1024;
+
+	/**
+	 * Format d'un export.
+	 */
+	public enum Format {
+		/** Valeurs separees par des virgules, RFC 4180. */
+		CSV,
+		/** Tableau d'objets JSON. */
+		JSON
+	}
+
+	/** Format de l'export. */
+	private final Format format;
+	/** Fichier de l'export, null pour un Writer. */
+	private final FileChannel canal;
+	/** Lot d'octets en cours, pour un fichier. */
+	private final ByteBuffer lot;
+	/** Encodage, pour un fichier ; un texte mal forme est remplace. */
+	private final CharsetEncoder codeur;
+	/** Destination, null pour un fichier. */
+	private final Writer ecrivain;
+	/** Lot de caracteres en cours, pour un Writer. */
+	private final char[] caracteres;
+	/** Nombre de caracteres du lot. */
+	private int nbCaracteres;
+	/** Element en cours de composition. */
+	private final StringBuilder ligne = new StringBuilder(256);
+	/** Noms des colonnes de la liste en cours, null avant la liste. */
+	private String[] colonnes;
+	/** Colonne suivante de l'element en cours. */
+	private int colonne;
+	/** Nombre d'elements ecrits. */
+	private int nbElements;
+
+	/**
+	 * Constructeur d'un export dans un fichier.
+	 * @param fichier fichier a creer, qui ne doit pas exister
+	 * @param f format
+	 * @throws IOException creation du fichier impossible
+	 */
+	public Export(final Path fichier, final Format f) throws IOException {
+		format = f;
+		canal = FileChannel.open(fichier, StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.WRITE);
+		lot = ByteBuffer.allocateDirect(TAILLE_LOT);
+		codeur = StandardCharsets.UTF_8.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		ecrivain = null;
+		caracteres = null;
+	}
+
+	/**
+	 * Constructeur d'un export sur un Writer, qui n'est pas ferme par
+	 * l'export.
+	 * @param w destination
+	 * @param f format
+	 */
+	public Export(final Writer w, final Format f) {
+		format = f;
+		canal = null;
+		lot = null;
+		codeur = null;
+		ecrivain = w;
+		caracteres = new char[TAILLE_LOT];
+	}
+
+	/**
+	 * exporte des documents.
+	 * @param docs documents
+	 * @param filtre documents a exporter, null pour tous
+	 * @return nombre de documents exportes
+	 * @throws IOException ecriture impossible
+	 */
+	public int documents(final Iterable<? extends Document> docs,
+			final Predicate<? super Document> filtre) throws IOException {
+		commencer("code", "type", "titre", "auteur", "annee", "genre",
+				"salle", "rayon", "empruntable", "emprunte", "nbEmprunts");
+		for (Document d : docs) {
+			if (filtre == null || filtre.test(d)) {
+				texte(d.getCode());
+				texte(d.getClass().getSimpleName());
+				texte(d.getTitre());
+				texte(d.getAuteur());
+				texte(d.getAnnee());
+				texte(d.getGenre().getNom());
+				texte(d.getLocalisation().getSalle());
+				texte(d.getLocalisation().getRayon());
+				valeur(d.estEmpruntable());
+				valeur(d.estEmprunte());
+				valeur(d.getNbEmprunts());
+				finir();
+			}
+		}
+		return terminer();
+	}
+
+	/**
+	 * exporte des clients.
+	 * @param clients clients
+	 * @param filtre clients a exporter, null pour tous
+	 * @return nombre de clients exportes
+	 * @throws IOException ecriture impossible
+	 */
+	public int clients(final Iterable<? extends Client> clients,
+			final Predicate<? super Client> filtre) throws IOException {
+		commencer("nom", "prenom", "adresse", "categorie", "inscription",
+				"cotisation", "empruntsEnCours", "empruntsEnRetard",
+				"penalites");
+		for (Client c : clients) {
+			if (filtre == null || filtre.test(c)) {
+				texte(c.getNom());
+				texte(c.getPrenom());
+				texte(c.getAdresse());
+				texte(c.getCategorie().getNom());
+				date(c.getDateInscription());
+				date(c.getDateCotisation());
+				valeur(c.getNbEmpruntsEnCours());
+				valeur(c.getNbEmpruntsEnRetard());
+				valeur(c.getPenalites());
+				finir();
+			}
+		}
+		return terminer();
+	}
+
+	/**
+	 * exporte des emprunts.
+	 * @param emprunts fiches d'emprunt
+	 * @param filtre emprunts a exporter, null pour tous
+	 * @return nombre d'emprunts exportes
+	 * @throws IOException ecriture impossible
+	 */
+	public int emprunts(final Iterable<? extends FicheEmprunt> emprunts,
+			final Predicate<? super FicheEmprunt> filtre) throws IOException {
+		commencer("code", "nom", "prenom", "emprunt", "limite", "depasse",
+				"tarif");
+		for (FicheEmprunt fe : emprunts) {
+			if (filtre == null || filtre.test(fe)) {
+				texte(fe.getDocument().getCode());
+				texte(fe.getClient().getNom());
+				texte(fe.getClient().getPrenom());
+				date(fe.getDateEmprunt());
+				date(fe.getDateLimite());
+				valeur(fe.getDepasse());
+				valeur(fe.getTarifCentimes());
+				finir();
+			}
+		}
+		return terminer();
+	}
+
+	/**
+	 * exporte des genres.
+	 * @param genres genres
+	 * @param filtre genres a exporter, null pour tous
+	 * @return nombre de genres exportes
+	 * @throws IOException ecriture impossible
+	 */
+	public int genres(final Iterable<? extends Genre> genres,
+			final Predicate<? super Genre> filtre) throws IOException {
+		commencer("nom", "nbEmprunts");
+		for (Genre g : genres) {
+			if (filtre == null || filtre.test(g)) {
+				texte(g.getNom());
+				valeur(g.getNbEmprunts());
+				finir();
+			}
+		}
+		return terminer();
+	}
+
+	/**
+	 * exporte des localisations.
+	 * @param locs localisations
+	 * @param filtre localisations a exporter, null pour toutes
+	 * @return nombre de localisations exportees
+	 * @throws IOException ecriture impossible
+	 */
+	public int localisations(final Iterable<? extends Localisation> locs,
+			final Predicate<? super Localisation> filtre) throws IOException {
+		commencer("salle", "rayon");
+		for (Localisation l : locs) {
+			if (filtre == null || filtre.test(l)) {
+				texte(l.getSalle());
+				texte(l.getRayon());
+				finir();
+			}
+		}
+		return terminer();
+	}
+
+	/**
+	 * retourne le nombre d'elements exportes.
+	 * @return nombre d'elements
+	 */
+	public int getNbElements() {
+		return nbElements;
+	}
+
+	/**
+	 * Ecrit le dernier lot ; un fichier est synchronise et ferme, un
+	 * Writer est seulement vide.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (canal == null) {
+			vider();
+			ecrivain.flush();
+			return;
+		}
+		try {
+			vider();
+			canal.force(false);
+		} finally {
+			canal.close();
+		}
+	}
+
+	/**
+	 * commence la liste : en-tete CSV ou debut du tableau JSON.
+	 * @param noms noms des colonnes
+	 * @throws IOException ecriture impossible
+	 */
+	private void commencer(final String... noms) throws IOException {
+		if (colonnes != null) {
+			throw new IllegalStateException("Export deja utilise");
+		}
+		colonnes = noms;
+		ligne.setLength(0);
+		if (format == Format.CSV) {
+			for (int i = 0; i < noms.length; i++) {
+				if (i > 0) {
+					ligne.append(',');
+				}
+				ligne.append(noms[i]);
+			}
+			ligne.append("\r\n");
+		} else {
+			ligne.append('[');
+		}
+		ajouter(ligne);
+		ligne.setLength(0);
+	}
+
+	/**
+	 * prepare la colonne suivante de l'element en cours.
+	 */
+	private void separer() {
+		if (format == Format.CSV) {
+			if (colonne > 0) {
+				ligne.append(',');
+			}
+		} else {
+			ligne.append(colonne > 0 ? ",\"" : (nbElements > 0 ? ",\n{\""
+					: "\n{\"")).append(colonnes[colonne]).append("\":");
+		}
+		colonne++;
+	}
+
+	/**
+	 * ajoute un texte a l'element en cours.
+	 * @param s texte, null pour une valeur vide
+	 */
+	private void texte(final String s) {
+		separer();
+		if (s == null) {
+			if (format == Format.JSON) {
+				ligne.append("null");
+			}
+		} else if (format == Format.CSV) {
+			csv(s);
+		} else {
+			json(s);
+		}
+	}
+
+	/**
+	 * ajoute une valeur numerique a l'element en cours.
+	 * @param v valeur
+	 */
+	private void valeur(final long v) {
+		separer();
+		ligne.append(v);
+	}
+
+	/**
+	 * ajoute une valeur booleenne a l'element en cours.
+	 * @param v valeur
+	 */
+	private void valeur(final boolean v) {
+		separer();
+		ligne.append(v);
+	}
+
+	/**
+	 * ajoute une date a l'element en cours.
+	 * @param d date, null pour une valeur vide
+	 */
+	private void date(final LocalDate d) {
+		texte(d == null ? null : d.toString());
+	}
+
+	/**
+	 * texte CSV, entre guillemets s'il contient un separateur, un
+	 * guillemet ou une fin de ligne.
+	 * @param s texte
+	 */
+	private void csv(final String s) {
+		boolean guillemets = false;
+		for (int i = 0; i < s.length() && !guillemets; i++) {
+			char c = s.charAt(i);
+			guillemets = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!guillemets) {
+			ligne.append(s);
+			return;
+		}
+		ligne.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"') {
+				ligne.append('"');
+			}
+			ligne.append(c);
+		}
+		ligne.append('"');
+	}
+
+	/**
+	 * chaine JSON.
+	 * @param s texte
+	 */
+	private void json(final String s) {
+		ligne.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				ligne.append('\\').append(c);
+			} else if (c < 0x20) {
+				ligne.append("\\u00").append(Character.forDigit(c >> 4, 16))
+						.append(Character.forDigit(c & 0xF, 16));
+			} else {
+				ligne.append(c);
+			}
+		}
+		ligne.append('"');
+	}
+
+	/**
+	 * termine l'element en cours et l'ajoute au lot.
+	 * @throws IOException ecriture impossible
+	 */
+	private void finir() throws IOException {
+		ligne.append(format == Format.CSV ? "\r\n" : "}");
+		ajouter(ligne);
+		ligne.setLength(0);
+		colonne = 0;
+		nbElements++;
+	}
+
+	/**
+	 * termine la liste.
+	 * @return nombre d'elements exportes
+	 * @throws IOException ecriture impossible
+	 */
+	private int terminer() throws IOException {
+		if (format == Format.JSON) {
+			ligne.append(nbElements > 0 ? "\n]\n" : "]\n");
+			ajouter(ligne);
+			ligne.setLength(0);
+		}
+		return nbElements;
+	}
+
+	/**
+	 * ajoute un texte au lot, qui est ecrit chaque fois qu'il est
+	 * plein.
+	 * @param s texte
+	 * @throws IOException ecriture impossible
+	 */
+	private void ajouter(final StringBuilder s) throws IOException {
+		if (canal == null) {
+			for (int i = 0; i < s.length();) {
+				if (nbCaracteres == caracteres.length) {
+					vider();
+				}
+				int n = Math.min(s.length() - i,
+						caracteres.length - nbCaracteres);
+				s.getChars(i, i + n, caracteres, nbCaracteres);
+				nbCaracteres += n;
+				i += n;
+			}
+			return;
+		}
+		CharBuffer cb = CharBuffer.wrap(s);
+		codeur.reset();
+		CoderResult res;
+		do {
+			res = codeur.encode(cb, lot, true);
+			if (res.isOverflow()) {
+				vider();
+			}
+		} while (res.isOverflow());
+		while (codeur.flush(lot).isOverflow()) {
+			vider();
+		}
+	}
+
+	/**
+	 * ecrit le lot en cours.
+	 * @throws IOException ecriture impossible
+	 */
+	private void vider() throws IOException {
+		if (canal == null) {
+			ecrivain.write(caracteres, 0, nbCaracteres);
+			nbCaracteres = 0;
+			return;
+		}
+		lot.flip();
+		while (lot.hasRemaining()) {
+			canal.write(lot);
+		}
+		lot.clear();
+	}
+}
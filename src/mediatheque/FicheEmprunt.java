@@ -1,6 +1,11 @@
 package mediatheque;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.time.LocalDate;
 import java.util.Date;
 
 import mediatheque.client.Client;
@@ -12,24 +17,47 @@ import util.InvariantBroken;
  * La classe FicheEmprunt gere les fiches d'emprunts de la mediatheque.
  * Il y a une fiche par document emprunte et par client emprunteur.
  */
-public final class FicheEmprunt implements Serializable {
+public final class FicheEmprunt
+		implements Serializable, Cloneable, Modifiable {
 	/** serial version. */
 	private static final long serialVersionUID = 3L;
+	/**
+	 * Forme serialisee : les champs d'origine, dates comprises en
+	 * <code>Date</code>, et le dernier jour de penalite. Les fichiers
+	 * anterieurs aux dates en jours restent lisibles.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("client", Client.class),
+		new ObjectStreamField("document", Document.class),
+		new ObjectStreamField("dateEmprunt", Date.class),
+		new ObjectStreamField("dateLimite", Date.class),
+		new ObjectStreamField("depasse", Boolean.TYPE),
+		new ObjectStreamField("dateRappel", Date.class),
+		new ObjectStreamField("jourPenalite", Integer.TYPE)
+	};
 	// Associations
 	/** Emprunteur. */
 	private Client client;
 	/** Document emprunte. */
 	private Document document;
 
-	// Attributs
+	// Attributs, dates en jours depuis le 1er janvier 1970
 	/** Date de l'emprunt.	 */
-	private Date dateEmprunt;
+	private int dateEmprunt;
 	/** Date limite de restitution.	 */
-	private Date dateLimite;
+	private int dateLimite;
 	/** Indicateur d'emprunt depasse. */
 	private boolean depasse;
 	/** date de rappel si emprunt depasse.  */
-	private Date dateRappel;
+	private int dateRappel;
+	/** Dernier jour de retard compte dans les penalites du client. */
+	private int jourPenalite;
+	/** Place dans la liste des emprunts du client, -1 hors liste. */
+	private transient int rang = -1;
+	/** Place dans les emprunts de la mediatheque, -1 hors liste. */
+	private transient int place = -1;
+	/** Suivi a prevenir des modifications, ou null. */
+	private transient SuiviModifications suivi;
 
 	/**
 	 * Nombre d'emprunts total de documents de la mediatheque.
@@ -46,16 +74,30 @@ public final class FicheEmprunt implements Serializable {
 	 */
 	public FicheEmprunt(final Client c, final Document d)
 			throws OperationImpossible, InvariantBroken {
+		this(c, d, HorlogeSysteme.INSTANCE);
+	}
+
+	/**
+	 * Constructeur.
+	 * @param d document associe
+	 * @param c client associe
+	 * @param h horloge qui donne la date d'emprunt
+	 * @throws OperationImpossible en relai de emprunter sur document et client
+	 * @throws InvariantBroken en relai de emprunter sur document
+	 */
+	public FicheEmprunt(final Client c, final Document d, final Horloge h)
+			throws OperationImpossible, InvariantBroken {
 		client = c;
 		document = d;
-		dateEmprunt = Datutil.dateDuJour();
+		dateEmprunt = h.jour();
 		int duree = document.dureeEmprunt();
 		dateLimite = client.dateRetour(dateEmprunt, duree);
 		depasse = false;
 		document.emprunter();
 		client.emprunter(this);
 		nbEmpruntsTotal++;
-		System.out.println("\tTarif = " + getTarifEmprunt() + " euros");
+		System.out.println("\tTarif = " + Montant.toString(getTarifCentimes())
+				+ " euros");
 	}
 
 	/**
@@ -63,11 +105,19 @@ public final class FicheEmprunt implements Serializable {
 	 * @return booleen si depasse pour la première fois.
 	 */
 	public boolean verifier() {
+		return verifier(HorlogeSysteme.INSTANCE);
+	}
+
+	/**
+	 * <TT>verifier</TT> teste si la date de fin de prêt est depassée.
+	 * @param h horloge qui donne la date du jour
+	 * @return booleen si depasse pour la première fois.
+	 */
+	public boolean verifier(final Horloge h) {
 		if (depasse) {
 			return false;
 		} else {
-			Date dateActuelle = Datutil.dateDuJour();
-			if (dateLimite.before(dateActuelle)) {
+			if (dateLimite < h.jour()) {
 				return true;
 			}
 		}
@@ -80,10 +130,21 @@ public final class FicheEmprunt implements Serializable {
 	 * @throws InvariantBroken en relai de client.marquer().
 	 */
 	public boolean premierRappel() throws InvariantBroken {
+		return premierRappel(HorlogeSysteme.INSTANCE);
+	}
+
+	/**
+	 * Le client est marque ; la lettre de rappel est cree.
+	 * @param h horloge qui donne la date du rappel
+	 * @return booleen egal a depasse
+	 * @throws InvariantBroken en relai de client.marquer().
+	 */
+	public boolean premierRappel(final Horloge h) throws InvariantBroken {
 		if(!depasse) {
 			depasse = true;
 			client.marquer();
-			dateRappel = Datutil.dateDuJour();
+			dateRappel = h.jour();
+			signaler();
 		}
 		return depasse;
 	}
@@ -94,18 +155,48 @@ public final class FicheEmprunt implements Serializable {
 	 * @return true si changement de date de relance false sinon
 	 */
 	public boolean relancer() {
-		Date dateActuelle = Datutil.dateDuJour();
+		return relancer(HorlogeSysteme.INSTANCE);
+	}
+
+	/**
+	 * <TT>relancer</TT> verifie si l'emprunt est depasse, auquel cas
+	 * il faudra relancer le client retardataire.
+	 * @param h horloge qui donne la date du jour
+	 * @return true si changement de date de relance false sinon
+	 */
+	public boolean relancer(final Horloge h) {
 		if (depasse) {
-			Date dateRelance = Datutil.addDate(dateRappel, 
-					Datutil.DAYSINWEEK);
-			if (dateRelance.before(dateActuelle)) {
+			int dateActuelle = h.jour();
+			if (dateRappel + Datutil.DAYSINWEEK < dateActuelle) {
 				dateRappel = dateActuelle;
+				signaler();
 				return true;
 			}
 		}
 		return false;
 	}
 
+	/**
+	 * <TT>accumulerPenalite</TT> ajoute au solde du client la penalite
+	 * des jours de retard ecoules depuis le dernier calcul. Appelee
+	 * a chaque verification et a la restitution, elle ne compte
+	 * chaque jour de retard qu'une fois.
+	 * @param jour jour du calcul, depuis le 1er janvier 1970
+	 * @return penalite ajoutee en centimes
+	 */
+	public long accumulerPenalite(final int jour) {
+		int debut = Math.max(jourPenalite, dateLimite);
+		if (jour <= debut) {
+			return 0;
+		}
+		long montant = (jour - debut)
+				* client.sommeDue(document.penaliteJour());
+		jourPenalite = jour;
+		client.penaliser(montant);
+		signaler();
+		return montant;
+	}
+
 	/**
 	 * modifie le client associe a l'emprunt pour permettre les modifications
 	 * de nom et prenom dans la hashtable.
@@ -113,6 +204,7 @@ public final class FicheEmprunt implements Serializable {
 	 */
 	void modifierClient(final Client newClient) {
 		client = newClient;
+		signaler();
 	}
 
 	/**
@@ -154,15 +246,25 @@ public final class FicheEmprunt implements Serializable {
 	 * retourne la date d'emprunt.
 	 * @return date d'emprunt
 	 */
-	public Date getDateEmprunt() {
-		return dateEmprunt;
+	public LocalDate getDateEmprunt() {
+		return LocalDate.ofEpochDay(dateEmprunt);
 	}
 	/**
 	 * retourne la date limite.
 	 * @return date limite
 	 */
-	public Date getDateLimite() {
-		return dateLimite;
+	public LocalDate getDateLimite() {
+		return LocalDate.ofEpochDay(dateLimite);
+	}
+	/**
+	 * retourne la date du dernier rappel.
+	 * @return date de rappel, null si l'emprunt n'est pas depasse
+	 */
+	public LocalDate getDateRappel() {
+		if (!depasse) {
+			return null;
+		}
+		return LocalDate.ofEpochDay(dateRappel);
 	}
 	/**
 	 * retourne la valeur du booleen depasse.
@@ -176,10 +278,7 @@ public final class FicheEmprunt implements Serializable {
 	 * @return duree d'emprunt
 	 */
 	public int getDureeEmprunt() {
-		return (int) Math.round(((dateLimite.getTime() - dateEmprunt.getTime()) 
-				/ ((double)Datutil.MILLISINSEC * Datutil.SECSINMIN 
-						* Datutil.MINSINHOUR * Datutil.HOURSINDAY)));
-
+		return dateLimite - dateEmprunt;
 	}
 	/**
 	 * retourne le tarif d'emprunt calcule à partir du tarifnominal du 
@@ -187,16 +286,27 @@ public final class FicheEmprunt implements Serializable {
 	 * @return tarif
 	 */
 	public double getTarifEmprunt() { 
-		double tarifNominal = document.tarifEmprunt();
-		return  client.sommeDue(tarifNominal);
+		return Montant.euros(getTarifCentimes());
+	}
+
+	/**
+	 * retourne le tarif d'emprunt en centimes.
+	 * @return tarif en centimes
+	 * @see #getTarifEmprunt()
+	 */
+	public long getTarifCentimes() {
+		long tarifNominal = document.tarifEmprunt();
+		return client.sommeDue(tarifNominal);
 	}
 
 	/**
 	 * changementCategorie est appele apres un changement de 
-	 *  categorie du client calcule si l'emprunt est en retard ou non.
+	 *  categorie du client : la date limite est recalculee et l'emprunt
+	 *  n'est plus marque depasse ; la prochaine verification, a la date
+	 *  de l'horloge de la mediatheque, le marque s'il l'est encore.
 	 * @return boolean true si l'emprunt etait depasse
-	 * @throws OperationImpossible en relai de verifier
-	 * @throws InvariantBroken en relai de verifier
+	 * @throws OperationImpossible non levee, gardee pour les appelants
+	 * @throws InvariantBroken non levee, gardee pour les appelants
 	 */
 	public boolean changementCategorie() throws InvariantBroken, OperationImpossible {
 		boolean oldDepasse = depasse;
@@ -205,23 +315,154 @@ public final class FicheEmprunt implements Serializable {
 		}
 		int duree = document.dureeEmprunt();
 		dateLimite = client.dateRetour(dateEmprunt, duree);
-		verifier();
+		signaler();
 		return oldDepasse;
 	}
 
+	/**
+	 * place de la fiche dans la liste des emprunts de son client.
+	 * @return rang, -1 hors liste
+	 * @see ListeEmprunts
+	 */
+	int getRang() {
+		return rang;
+	}
+
+	/**
+	 * change la place de la fiche dans la liste des emprunts de son
+	 * client.
+	 * @param r rang, -1 hors liste
+	 */
+	void setRang(final int r) {
+		rang = r;
+	}
+
+	/**
+	 * place de la fiche dans les emprunts en cours de la mediatheque.
+	 * @return place, -1 hors liste
+	 * @see EmpruntsEnCours
+	 */
+	int getPlace() {
+		return place;
+	}
+
+	/**
+	 * change la place de la fiche dans les emprunts en cours de la
+	 * mediatheque.
+	 * @param p place, -1 hors liste
+	 */
+	void setPlace(final int p) {
+		place = p;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void suivre(final SuiviModifications s) {
+		suivi = s;
+	}
+
+	/**
+	 * Previent le suivi eventuel de la modification.
+	 */
+	private void signaler() {
+		if (suivi != null) {
+			suivi.modifiee(this);
+		}
+	}
+
+	/**
+	 * copie figee de la fiche, pour la vue de la mediatheque.
+	 * @param c copie figee du client
+	 * @param d copie figee du document
+	 * @return copie a ne pas modifier, hors liste et sans suivi
+	 */
+	FicheEmprunt copieFigee(final Client c, final Document d) {
+		try {
+			FicheEmprunt fe = (FicheEmprunt) clone();
+			fe.client = c;
+			fe.document = d;
+			fe.rang = -1;
+			fe.place = -1;
+			fe.suivi = null;
+			return fe;
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Serialisation des dates en <code>Date</code>, voir
+	 * serialPersistentFields.
+	 * @param out flux destination
+	 * @throws IOException en relai de writeFields
+	 */
+	private void writeObject(final ObjectOutputStream out)
+			throws IOException {
+		ObjectOutputStream.PutField f = out.putFields();
+		f.put("client", client);
+		f.put("document", document);
+		f.put("dateEmprunt", HorlogeSysteme.date(dateEmprunt));
+		f.put("dateLimite", HorlogeSysteme.date(dateLimite));
+		f.put("depasse", depasse);
+		f.put("dateRappel", depasse ? HorlogeSysteme.date(dateRappel) : null);
+		f.put("jourPenalite", jourPenalite);
+		out.writeFields();
+	}
+
+	/**
+	 * Deserialisation : les dates sont ramenees en jours. Un fichier
+	 * anterieur aux penalites n'a pas de dernier jour de penalite.
+	 * @param in flux source
+	 * @throws IOException en relai de readFields
+	 * @throws ClassNotFoundException en relai de readFields
+	 */
+	private void readObject(final ObjectInputStream in)
+			throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField f = in.readFields();
+		client = (Client) f.get("client", null);
+		document = (Document) f.get("document", null);
+		dateEmprunt = jour((Date) f.get("dateEmprunt", null));
+		dateLimite = jour((Date) f.get("dateLimite", null));
+		depasse = f.get("depasse", false);
+		dateRappel = jour((Date) f.get("dateRappel", null));
+		jourPenalite = f.get("jourPenalite", 0);
+	}
+
+	/**
+	 * jour d'une date relue.
+	 * @param d date, ou null
+	 * @return jour depuis le 1er janvier 1970, 0 si null
+	 */
+	private static int jour(final Date d) {
+		return d == null ? 0 : HorlogeSysteme.jour(d);
+	}
+
 	/**
 	 *<TT>toString</TT> affiche les caracteristiques de l'emprunt.
 	 *  @return Caracteristiques de l'emprunt
 	 */
 	@Override
 	public String toString() {
-		String s = "\"" + document.getCode() + "\" par \"" + client.getNom()
-				+ "\" le " + Datutil.dateToString(dateEmprunt) + " pour le "
-				+ Datutil.dateToString(dateLimite);
+		return ecrire(new StringBuilder(64)).toString();
+	}
+
+	/**
+	 * ecrit le texte de toString a la suite d'un tampon ; les dates
+	 * sont lues dans la table de <code>HorlogeSysteme.texte</code>.
+	 *  @param sb destination
+	 *  @return destination
+	 */
+	public StringBuilder ecrire(final StringBuilder sb) {
+		sb.append('"').append(document.getCode()).append("\" par \"")
+				.append(client.getNom()).append("\" le ")
+				.append(HorlogeSysteme.texte(dateEmprunt)).append(" pour le ")
+				.append(HorlogeSysteme.texte(dateLimite));
 		if (depasse) {
-			s = s + " (depasse)";
+			sb.append(" (depasse)");
 		}
-		return s;
+		return sb;
 	}
 
 	/**
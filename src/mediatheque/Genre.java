@@ -5,7 +5,7 @@ import java.io.Serializable;
  * dans la mediatheque. Les genres sont utilises pour classifier
  * les documents.
  */
-public final class Genre implements Serializable {
+public final class Genre implements Serializable, Cloneable, Modifiable {
 	/** serial version. */
 	private static final long serialVersionUID = 3L;
 
@@ -17,6 +17,10 @@ public final class Genre implements Serializable {
 	 */
 	private int nbEmprunts;
 
+
+	/** Suivi a prevenir des modifications, ou null. */
+	private transient SuiviModifications suivi;
+
 	/**
 	 * Constructeur de Genre.
 	 *   @param n chaine de caracteres devrivant le genre
@@ -32,6 +36,7 @@ public final class Genre implements Serializable {
 	 */
 	public void emprunter() {
 		nbEmprunts++;
+		signaler();
 	}
 
 	/**
@@ -48,7 +53,17 @@ public final class Genre implements Serializable {
 	 */
 	@Override
 	public String toString() { 
-		return "Genre: " + nom + ", nbemprunts:" + nbEmprunts;
+		return ecrire(new StringBuilder(32)).toString();
+	}
+
+	/**
+	 * ecrit le texte de toString a la suite d'un tampon.
+	 *   @param sb destination
+	 *   @return destination
+	 */
+	public StringBuilder ecrire(final StringBuilder sb) {
+		return sb.append("Genre: ").append(nom).append(", nbemprunts:")
+				.append(nbEmprunts);
 	}
 
 	/**
@@ -58,6 +73,38 @@ public final class Genre implements Serializable {
 	 */
 	public void modifier(final String nouveau) {
 		nom = nouveau;
+		signaler();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void suivre(final SuiviModifications s) {
+		suivi = s;
+	}
+
+	/**
+	 * Previent le suivi eventuel de la modification.
+	 */
+	private void signaler() {
+		if (suivi != null) {
+			suivi.modifiee(this);
+		}
+	}
+
+	/**
+	 * copie figee du genre, pour la vue de la mediatheque.
+	 *   @return copie sans suivi
+	 */
+	Genre copieFigee() {
+		try {
+			Genre g = (Genre) clone();
+			g.suivi = null;
+			return g;
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
 	}
 /**
  * retourne le nombre d'emprunts pour ce genre.
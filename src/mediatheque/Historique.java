@@ -0,0 +1,672 @@
+package mediatheque;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import mediatheque.client.HashClient;
+
+/**
+ * La classe <code>Historique</code> garde la trace de tous les emprunts,
+ * y compris ceux qui ont ete restitues. Documents et clients sont
+ * numerotes dans l'ordre de leur premier emprunt. Chaque client a un
+ * journal de couples (jour, numero de document) et chaque document un
+ * journal de couples (jour, numero de client), en ajout seulement. Un
+ * couple est code par l'ecart au jour precedent du journal et par le
+ * numero, en entiers de longueur variable : quelques octets par
+ * emprunt, sans objet par emprunt.
+ * <P>
+ * Une fois suivi, l'historique retient les journaux prolonges et les
+ * clients renommes depuis la derniere suite : une suite ne contient
+ * que les nouvelles cles, les nouvelles cles des clients renommes et
+ * les octets ajoutes a chaque journal.
+ */
+public final class Historique implements Prolongeable {
+	/** serial version. */
+	private static final long serialVersionUID = 1L;
+
+	/** Code de chaque document, par numero. */
+	private final List<String> codes = new ArrayList<String>();
+	/** Numero de chaque document. */
+	private final Map<String, Integer> numerosDocs =
+			new HashMap<String, Integer>();
+	/** Cle de chaque client, par numero. */
+	private final List<HashClient> clients = new ArrayList<HashClient>();
+	/** Numero de chaque client. */
+	private final Map<HashClient, Integer> numerosClients =
+			new HashMap<HashClient, Integer>();
+	/** Journal de chaque client, par numero de client. */
+	private final List<Journal> parClient = new ArrayList<Journal>();
+	/** Journal de chaque document, par numero de document. */
+	private final List<Journal> parDocument = new ArrayList<Journal>();
+	/** Ajouts suivis depuis une sauvegarde complete. */
+	private transient boolean suivi;
+	/** Nombre de documents lors de la derniere suite. */
+	private transient int docsSauves;
+	/** Nombre de clients lors de la derniere suite. */
+	private transient int clientsSauves;
+	/** Clients anterieurs a la derniere suite renommes depuis. */
+	private transient Set<Integer> renommes;
+	/** Clients dont le journal est prolonge depuis la derniere suite. */
+	private transient List<Integer> clientsProlonges;
+	/** Documents dont le journal est prolonge depuis la derniere suite. */
+	private transient List<Integer> docsProlonges;
+
+	/**
+	 * enregistre un emprunt.
+	 * @param jour jour de l'emprunt, depuis le 1er janvier 1970
+	 * @param client cle du client
+	 * @param code code du document
+	 */
+	synchronized void enregistrer(final int jour, final HashClient client,
+			final String code) {
+		int nc = numero(numerosClients, clients, parClient, client);
+		int nd = numero(numerosDocs, codes, parDocument, code);
+		if (suivi) {
+			prolonge(parClient, clientsProlonges, nc);
+			prolonge(parDocument, docsProlonges, nd);
+		}
+		parClient.get(nc).ajouter(jour, nd);
+		parDocument.get(nd).ajouter(jour, nc);
+	}
+
+	/**
+	 * retient un journal prolonge pour la prochaine suite, avant son
+	 * premier ajout depuis la suite precedente.
+	 * @param journaux journal de chaque numero
+	 * @param prolonges numeros des journaux prolonges
+	 * @param n numero du journal
+	 */
+	private static void prolonge(final List<Journal> journaux,
+			final List<Integer> prolonges, final int n) {
+		Journal j = journaux.get(n);
+		if (j.sauve == j.taille) {
+			prolonges.add(n);
+		}
+	}
+
+	/**
+	 * numero d'une cle, attribue au premier usage avec un journal vide.
+	 * @param <K> type des cles
+	 * @param numeros numero de chaque cle
+	 * @param cles cle de chaque numero
+	 * @param journaux journal de chaque numero
+	 * @param cle cle
+	 * @return numero
+	 */
+	private static <K> int numero(final Map<K, Integer> numeros,
+			final List<K> cles, final List<Journal> journaux, final K cle) {
+		Integer n = numeros.get(cle);
+		if (n == null) {
+			n = cles.size();
+			numeros.put(cle, n);
+			cles.add(cle);
+			journaux.add(new Journal());
+		}
+		return n;
+	}
+
+	/**
+	 * reporte l'historique d'un client renomme sur sa nouvelle cle.
+	 * @param ancienne ancienne cle
+	 * @param nouvelle nouvelle cle
+	 */
+	synchronized void renommer(final HashClient ancienne,
+			final HashClient nouvelle) {
+		Integer n = numerosClients.remove(ancienne);
+		if (n == null || numerosClients.containsKey(nouvelle)) {
+			if (n != null) {
+				numerosClients.put(ancienne, n);
+			}
+			return;
+		}
+		numerosClients.put(nouvelle, n);
+		clients.set(n, nouvelle);
+		if (suivi && n < clientsSauves) {
+			renommes.add(n);
+		}
+	}
+
+	/**
+	 * emprunts d'un client sur une periode, dans l'ordre du journal.
+	 * @param client cle du client
+	 * @param debut premier jour, inclus
+	 * @param fin dernier jour, inclus
+	 * @return emprunts
+	 */
+	public synchronized List<Passage> duClient(final HashClient client,
+			final LocalDate debut, final LocalDate fin) {
+		List<Passage> res = new ArrayList<Passage>();
+		Integer n = numerosClients.get(client);
+		if (n != null) {
+			Journal j = parClient.get(n);
+			long d = debut.toEpochDay();
+			long f = fin.toEpochDay();
+			int[] couple = new int[2];
+			for (int pos = 0; pos < j.taille;) {
+				pos = j.lire(pos, couple);
+				if (couple[0] >= d && couple[0] <= f) {
+					res.add(new Passage(couple[0], client,
+							codes.get(couple[1])));
+				}
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * emprunts d'un document sur une periode, dans l'ordre du journal.
+	 * @param code code du document
+	 * @param debut premier jour, inclus
+	 * @param fin dernier jour, inclus
+	 * @return emprunts
+	 */
+	public synchronized List<Passage> duDocument(final String code,
+			final LocalDate debut, final LocalDate fin) {
+		List<Passage> res = new ArrayList<Passage>();
+		Integer n = numerosDocs.get(code);
+		if (n != null) {
+			Journal j = parDocument.get(n);
+			long d = debut.toEpochDay();
+			long f = fin.toEpochDay();
+			int[] couple = new int[2];
+			for (int pos = 0; pos < j.taille;) {
+				pos = j.lire(pos, couple);
+				if (couple[0] >= d && couple[0] <= f) {
+					res.add(new Passage(couple[0], clients.get(couple[1]),
+							code));
+				}
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * numero d'un document.
+	 * @param code code du document
+	 * @return numero, -1 si le document n'a jamais ete emprunte
+	 */
+	synchronized int numeroDocument(final String code) {
+		Integer n = numerosDocs.get(code);
+		return n == null ? -1 : n;
+	}
+
+	/**
+	 * code d'un document.
+	 * @param n numero du document
+	 * @return code
+	 */
+	synchronized String code(final int n) {
+		return codes.get(n);
+	}
+
+	/**
+	 * nombre de clients ayant emprunte.
+	 * @return nombre de journaux de clients
+	 */
+	synchronized int nbClients() {
+		return clients.size();
+	}
+
+	/**
+	 * numeros des derniers documents empruntes par un client, dans
+	 * l'ordre. Seule la fin du journal est decodee.
+	 * @param client cle du client
+	 * @param nb nombre maximal d'emprunts
+	 * @return numeros de documents, vide si le client n'a pas emprunte
+	 */
+	synchronized int[] derniersDocuments(final HashClient client,
+			final int nb) {
+		Integer n = numerosClients.get(client);
+		return n == null ? new int[0] : parClient.get(n).derniersNumeros(nb);
+	}
+
+	/**
+	 * numeros des documents empruntes par un client, dans l'ordre.
+	 * @param nc numero du client
+	 * @return numeros de documents
+	 */
+	synchronized int[] documentsDuClient(final int nc) {
+		Journal j = parClient.get(nc);
+		int[] res = new int[8];
+		int nb = 0;
+		int[] couple = new int[2];
+		for (int pos = 0; pos < j.taille;) {
+			pos = j.lire(pos, couple);
+			if (nb == res.length) {
+				res = Arrays.copyOf(res, 2 * nb);
+			}
+			res[nb++] = couple[1];
+		}
+		return Arrays.copyOf(res, nb);
+	}
+
+	/**
+	 * taille des journaux.
+	 * @return nombre d'octets des journaux des clients et des documents
+	 */
+	public synchronized long getTaille() {
+		long t = 0;
+		for (Journal j : parClient) {
+			t += j.taille;
+		}
+		for (Journal j : parDocument) {
+			t += j.taille;
+		}
+		return t;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void suivre() {
+		for (Journal j : parClient) {
+			j.sauve = j.taille;
+		}
+		for (Journal j : parDocument) {
+			j.sauve = j.taille;
+		}
+		marquerSuite();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized Prolongeable copie() {
+		Historique c = new Historique();
+		c.codes.addAll(codes);
+		c.numerosDocs.putAll(numerosDocs);
+		c.clients.addAll(clients);
+		c.numerosClients.putAll(numerosClients);
+		for (Journal j : parClient) {
+			c.parClient.add(j.copie());
+		}
+		for (Journal j : parDocument) {
+			c.parDocument.add(j.copie());
+		}
+		return c;
+	}
+
+	/**
+	 * repart de l'etat courant pour la prochaine suite.
+	 */
+	private void marquerSuite() {
+		suivi = true;
+		docsSauves = codes.size();
+		clientsSauves = clients.size();
+		renommes = new LinkedHashSet<Integer>();
+		clientsProlonges = new ArrayList<Integer>();
+		docsProlonges = new ArrayList<Integer>();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized boolean estSuivi() {
+		return suivi;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized Serializable suite() {
+		if (docsSauves == codes.size() && clientsSauves == clients.size()
+				&& renommes.isEmpty() && clientsProlonges.isEmpty()) {
+			return null;
+		}
+		int[] ren = new int[renommes.size()];
+		HashClient[] cles = new HashClient[ren.length];
+		int i = 0;
+		for (int n : renommes) {
+			ren[i] = n;
+			cles[i++] = clients.get(n);
+		}
+		Suite s = new Suite(docsSauves, clientsSauves,
+				new ArrayList<String>(codes.subList(docsSauves, codes.size())),
+				new ArrayList<HashClient>(clients.subList(clientsSauves,
+						clients.size())), ren, cles,
+				new Ajouts(parClient, clientsProlonges),
+				new Ajouts(parDocument, docsProlonges));
+		marquerSuite();
+		return s;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void prolonger(final Object suite)
+			throws IOException {
+		Suite s = (Suite) suite;
+		if (s.premierDoc != codes.size() || s.premierClient != clients.size()) {
+			throw new InvalidObjectException("Suite d'historique a partir de "
+					+ s.premierDoc + "/" + s.premierClient + " sur "
+					+ codes.size() + "/" + clients.size());
+		}
+		for (String code : s.codes) {
+			numero(numerosDocs, codes, parDocument, code);
+		}
+		for (int n : s.renommes) {
+			if (Integer.valueOf(n).equals(numerosClients.get(clients.get(n)))) {
+				numerosClients.remove(clients.get(n));
+			}
+		}
+		for (int i = 0; i < s.renommes.length; i++) {
+			clients.set(s.renommes[i], s.nouvellesCles[i]);
+			numerosClients.put(s.nouvellesCles[i], s.renommes[i]);
+		}
+		for (HashClient c : s.clients) {
+			numero(numerosClients, clients, parClient, c);
+		}
+		s.parClient.prolonger(parClient);
+		s.parDocument.prolonger(parDocument);
+	}
+
+	/**
+	 * La classe <code>Passage</code> decrit un emprunt de l'historique.
+	 */
+	public static final class Passage {
+		/** Jour de l'emprunt. */
+		private final int jour;
+		/** Emprunteur. */
+		private final HashClient client;
+		/** Code du document. */
+		private final String code;
+
+		/**
+		 * Constructeur.
+		 * @param j jour de l'emprunt
+		 * @param c emprunteur
+		 * @param d code du document
+		 */
+		Passage(final int j, final HashClient c, final String d) {
+			jour = j;
+			client = c;
+			code = d;
+		}
+
+		/**
+		 * retourne la date de l'emprunt.
+		 * @return date
+		 */
+		public LocalDate getDate() {
+			return LocalDate.ofEpochDay(jour);
+		}
+
+		/**
+		 * retourne l'emprunteur.
+		 * @return cle du client
+		 */
+		public HashClient getClient() {
+			return client;
+		}
+
+		/**
+		 * retourne le code du document emprunte.
+		 * @return code
+		 */
+		public String getCode() {
+			return code;
+		}
+
+		@Override
+		public String toString() {
+			return getDate() + " " + client.getNom() + " "
+					+ client.getPrenom() + " " + code;
+		}
+	}
+
+	/**
+	 * La classe <code>Suite</code> contient les ajouts a l'historique
+	 * depuis la suite precedente.
+	 */
+	private static final class Suite implements Serializable {
+		/** serial version. */
+		private static final long serialVersionUID = 1L;
+		/** Numero du premier nouveau document. */
+		private final int premierDoc;
+		/** Numero du premier nouveau client. */
+		private final int premierClient;
+		/** Codes des nouveaux documents. */
+		private final List<String> codes;
+		/** Cles des nouveaux clients. */
+		private final List<HashClient> clients;
+		/** Numeros des clients renommes. */
+		private final int[] renommes;
+		/** Nouvelle cle de chaque client renomme. */
+		private final HashClient[] nouvellesCles;
+		/** Ajouts aux journaux des clients. */
+		private final Ajouts parClient;
+		/** Ajouts aux journaux des documents. */
+		private final Ajouts parDocument;
+
+		/**
+		 * Constructeur.
+		 * @param pd numero du premier nouveau document
+		 * @param pc numero du premier nouveau client
+		 * @param d codes des nouveaux documents
+		 * @param c cles des nouveaux clients
+		 * @param r numeros des clients renommes
+		 * @param n nouvelles cles des clients renommes
+		 * @param ac ajouts aux journaux des clients
+		 * @param ad ajouts aux journaux des documents
+		 */
+		Suite(final int pd, final int pc, final List<String> d,
+				final List<HashClient> c, final int[] r,
+				final HashClient[] n, final Ajouts ac, final Ajouts ad) {
+			premierDoc = pd;
+			premierClient = pc;
+			codes = d;
+			clients = c;
+			renommes = r;
+			nouvellesCles = n;
+			parClient = ac;
+			parDocument = ad;
+		}
+	}
+
+	/**
+	 * La classe <code>Ajouts</code> contient les octets ajoutes a des
+	 * journaux depuis la suite precedente.
+	 */
+	private static final class Ajouts implements Serializable {
+		/** serial version. */
+		private static final long serialVersionUID = 1L;
+		/** Numero de chaque journal prolonge. */
+		private final int[] numeros;
+		/** Octets ajoutes a chaque journal. */
+		private final byte[][] octets;
+		/** Jour du dernier couple de chaque journal. */
+		private final int[] derniersJours;
+
+		/**
+		 * Constructeur : prend les ajouts des journaux prolonges.
+		 * @param journaux journal de chaque numero
+		 * @param prolonges numeros des journaux prolonges
+		 */
+		Ajouts(final List<Journal> journaux, final List<Integer> prolonges) {
+			numeros = new int[prolonges.size()];
+			octets = new byte[numeros.length][];
+			derniersJours = new int[numeros.length];
+			for (int i = 0; i < numeros.length; i++) {
+				numeros[i] = prolonges.get(i);
+				Journal j = journaux.get(numeros[i]);
+				octets[i] = Arrays.copyOfRange(j.octets, j.sauve, j.taille);
+				derniersJours[i] = j.dernierJour;
+				j.sauve = j.taille;
+			}
+		}
+
+		/**
+		 * ajoute les octets relus a la fin des journaux.
+		 * @param journaux journal de chaque numero
+		 * @throws IOException journal inexistant
+		 */
+		void prolonger(final List<Journal> journaux) throws IOException {
+			for (int i = 0; i < numeros.length; i++) {
+				if (numeros[i] >= journaux.size()) {
+					throw new InvalidObjectException("Journal " + numeros[i]
+							+ " inexistant");
+				}
+				Journal j = journaux.get(numeros[i]);
+				j.octets = Arrays.copyOf(j.octets, j.taille + octets[i].length);
+				System.arraycopy(octets[i], 0, j.octets, j.taille,
+						octets[i].length);
+				j.taille += octets[i].length;
+				j.dernierJour = derniersJours[i];
+			}
+		}
+	}
+
+	/**
+	 * La classe <code>Journal</code> est une suite d'octets ou chaque
+	 * couple est code par l'ecart au jour precedent, en zigzag pour
+	 * admettre un retour en arriere de l'horloge, puis par le numero,
+	 * tous deux par groupes de 7 bits.
+	 */
+	private static final class Journal implements Serializable {
+		/** serial version. */
+		private static final long serialVersionUID = 1L;
+		/** Octets du journal. */
+		private byte[] octets = new byte[8];
+		/** Nombre d'octets utilises. */
+		private int taille;
+		/** Jour du dernier couple. */
+		private int dernierJour;
+		/** Nombre d'octets lors de la derniere suite. */
+		private transient int sauve;
+
+		/**
+		 * ajoute un couple.
+		 * @param jour jour depuis le 1er janvier 1970
+		 * @param numero numero de document ou de client
+		 */
+		void ajouter(final int jour, final int numero) {
+			int ecart = jour - dernierJour;
+			ecrire((ecart << 1) ^ (ecart >> 31));
+			ecrire(numero);
+			dernierJour = jour;
+		}
+
+		/**
+		 * copie independante du journal, reduite aux octets utilises.
+		 * @return copie
+		 */
+		Journal copie() {
+			Journal j = new Journal();
+			j.octets = Arrays.copyOf(octets, Math.max(taille, 1));
+			j.taille = taille;
+			j.dernierJour = dernierJour;
+			return j;
+		}
+
+		/**
+		 * ecrit un entier positif par groupes de 7 bits.
+		 * @param v valeur, vue comme non signee
+		 */
+		private void ecrire(final int v) {
+			if (octets.length - taille < 5) {
+				octets = Arrays.copyOf(octets,
+						Math.max(2 * octets.length, taille + 5));
+			}
+			int x = v;
+			while ((x & ~0x7F) != 0) {
+				octets[taille++] = (byte) ((x & 0x7F) | 0x80);
+				x >>>= 7;
+			}
+			octets[taille++] = (byte) x;
+		}
+
+		/**
+		 * lit un couple. Le jour du couple precedent est dans couple[0].
+		 * @param pos position du couple
+		 * @param couple jour, puis numero
+		 * @return position du couple suivant
+		 */
+		int lire(final int pos, final int[] couple) {
+			int p = pos;
+			int z = 0;
+			for (int dec = 0;; dec += 7) {
+				byte b = octets[p++];
+				z |= (b & 0x7F) << dec;
+				if (b >= 0) {
+					break;
+				}
+			}
+			int n = 0;
+			for (int dec = 0;; dec += 7) {
+				byte b = octets[p++];
+				n |= (b & 0x7F) << dec;
+				if (b >= 0) {
+					break;
+				}
+			}
+			couple[0] = (pos == 0 ? 0 : couple[0]) + ((z >>> 1) ^ -(z & 1));
+			couple[1] = n;
+			return p;
+		}
+
+		/**
+		 * lit les numeros des derniers couples, en remontant depuis la
+		 * fin : un entier se termine par le seul de ses octets dont le
+		 * bit de poids fort est nul, ce qui suffit a delimiter les
+		 * entiers sans decoder les ecarts de jours.
+		 * @param nb nombre maximal de couples
+		 * @return numeros, dans l'ordre du journal
+		 */
+		int[] derniersNumeros(final int nb) {
+			int[] res = new int[nb];
+			int k = nb;
+			int p = taille;
+			while (p > 0 && k > 0) {
+				int debut = debutEntier(p - 1);
+				int n = 0;
+				for (int i = debut, dec = 0; i < p; i++, dec += 7) {
+					n |= (octets[i] & 0x7F) << dec;
+				}
+				res[--k] = n;
+				p = debutEntier(debut - 1);
+			}
+			return Arrays.copyOfRange(res, k, nb);
+		}
+
+		/**
+		 * debut d'un entier.
+		 * @param fin position de son dernier octet
+		 * @return position de son premier octet
+		 */
+		private int debutEntier(final int fin) {
+			int i = fin;
+			while (i > 0 && octets[i - 1] < 0) {
+				i--;
+			}
+			return i;
+		}
+
+		/**
+		 * Serialisation des seuls octets utilises.
+		 * @param out flux destination
+		 * @throws IOException en relai de defaultWriteObject
+		 */
+		private void writeObject(final ObjectOutputStream out)
+				throws IOException {
+			if (octets.length != taille) {
+				octets = Arrays.copyOf(octets, Math.max(taille, 1));
+			}
+			out.defaultWriteObject();
+		}
+	}
+}
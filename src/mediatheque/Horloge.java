@@ -0,0 +1,26 @@
+package mediatheque;
+
+import java.util.Date;
+
+/**
+ * L'interface <TT>Horloge</TT> fournit la date du jour a la mediatheque,
+ * aux fiches d'emprunt et aux clients. L'horloge du systeme est
+ * <TT>HorlogeSysteme</TT> ; une <TT>HorlogeManuelle</TT> donne une date
+ * fixe, pour une verification entiere ou pour les tests.
+ * @see Mediatheque#setHorloge(Horloge)
+ */
+public interface Horloge {
+
+    /**
+     * <TT>aujourdhui</TT> retourne la date du jour.
+     *    @return date du jour
+     */
+    Date aujourdhui();
+
+    /**
+     * <TT>jour</TT> retourne la date du jour en nombre de jours depuis
+     * le 1er janvier 1970.
+     *    @return numero du jour
+     */
+    int jour();
+}
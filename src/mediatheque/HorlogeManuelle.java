@@ -0,0 +1,61 @@
+package mediatheque;
+
+import java.util.Date;
+
+import util.Datutil;
+
+/**
+ * La classe <code>HorlogeManuelle</code> donne toujours la meme date,
+ * jusqu'a ce qu'on l'avance. La mediatheque en fige une au debut de
+ * chaque verification : une seule date est creee pour tous les
+ * emprunts. Dans les tests, elle simule le passage des jours.
+ */
+public final class HorlogeManuelle implements Horloge {
+	/** Date du jour. */
+	private Date date;
+	/** Numero du jour. */
+	private int jour;
+
+	/**
+	 * Constructeur.
+	 * @param d date du jour
+	 */
+	public HorlogeManuelle(final Date d) {
+		fixer(d);
+	}
+
+	/**
+	 * Constructeur d'une horloge arretee a la date donnee par une autre.
+	 * @param h horloge
+	 */
+	public HorlogeManuelle(final Horloge h) {
+		this(h.aujourdhui());
+	}
+
+	/**
+	 * change la date du jour.
+	 * @param d date du jour
+	 */
+	public void fixer(final Date d) {
+		date = d;
+		jour = HorlogeSysteme.jour(d);
+	}
+
+	/**
+	 * avance la date du jour.
+	 * @param jours nombre de jours, negatif pour reculer
+	 */
+	public void avancer(final int jours) {
+		fixer(Datutil.addDate(date, jours));
+	}
+
+	@Override
+	public Date aujourdhui() {
+		return date;
+	}
+
+	@Override
+	public int jour() {
+		return jour;
+	}
+}
@@ -0,0 +1,114 @@
+package mediatheque;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+
+import util.Datutil;
+
+/**
+ * La classe <code>HorlogeSysteme</code> est l'horloge par defaut : elle
+ * relaie <code>Datutil.dateDuJour()</code> a chaque appel.
+ */
+public final class HorlogeSysteme implements Horloge {
+	/** Unique instance. */
+	public static final HorlogeSysteme INSTANCE = new HorlogeSysteme();
+	/** Nombre de jours dont le texte est garde, puissance de deux. */
+	private static final int NB_TEXTES = 1024;
+	/** Textes des derniers jours formates, par jour modulo NB_TEXTES. */
+	private static final Texte[] TEXTES = new Texte[NB_TEXTES];
+
+	/**
+	 * Constructeur prive : utiliser INSTANCE.
+	 */
+	private HorlogeSysteme() {
+	}
+
+	@Override
+	public Date aujourdhui() {
+		return Datutil.dateDuJour();
+	}
+
+	@Override
+	public int jour() {
+		return jour(Datutil.dateDuJour());
+	}
+
+	/**
+	 * Numero du jour d'une date dans le fuseau du systeme.
+	 * @param d date
+	 * @return nombre de jours depuis le 1er janvier 1970
+	 */
+	public static int jour(final Date d) {
+		return (int) d.toInstant().atZone(ZoneId.systemDefault())
+				.toLocalDate().toEpochDay();
+	}
+
+	/**
+	 * Date du debut d'un jour dans le fuseau du systeme, pour les
+	 * affichages par <code>Datutil.dateToString</code>.
+	 * @param jour nombre de jours depuis le 1er janvier 1970
+	 * @return date
+	 */
+	public static Date date(final int jour) {
+		return date(LocalDate.ofEpochDay(jour));
+	}
+
+	/**
+	 * Date du debut d'un jour dans le fuseau du systeme.
+	 * @param jour jour du calendrier
+	 * @return date
+	 */
+	public static Date date(final LocalDate jour) {
+		return Date.from(jour.atStartOfDay(ZoneId.systemDefault())
+				.toInstant());
+	}
+
+	/**
+	 * Texte d'un jour par <code>Datutil.dateToString</code>. Les
+	 * affichages portent sur peu de jours distincts : le texte est
+	 * garde dans une table a acces direct et n'est formate qu'au
+	 * premier usage du jour.
+	 * @param jour nombre de jours depuis le 1er janvier 1970
+	 * @return texte de la date
+	 */
+	public static String texte(final int jour) {
+		int i = jour & (NB_TEXTES - 1);
+		Texte t = TEXTES[i];
+		if (t == null || t.jour != jour) {
+			t = new Texte(jour, Datutil.dateToString(date(jour)));
+			TEXTES[i] = t;
+		}
+		return t.texte;
+	}
+
+	/**
+	 * Texte d'un jour du calendrier.
+	 * @param jour jour
+	 * @return texte de la date
+	 */
+	public static String texte(final LocalDate jour) {
+		return texte((int) jour.toEpochDay());
+	}
+
+	/**
+	 * Jour et son texte, immuables pour etre partages entre fils sans
+	 * verrou.
+	 */
+	private static final class Texte {
+		/** Jour depuis le 1er janvier 1970. */
+		private final int jour;
+		/** Texte du jour. */
+		private final String texte;
+
+		/**
+		 * Constructeur.
+		 * @param j jour
+		 * @param t texte
+		 */
+		Texte(final int j, final String t) {
+			jour = j;
+			texte = t;
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package mediatheque;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * La classe <code>IndexTri</code> range des elements dans un arbre
+ * selon une cle de tri, completee par un identifiant unique pour que
+ * deux elements ne soient jamais egaux. Une page commence juste apres
+ * la cle contenue dans le curseur. Le nombre d'elements de chaque cle
+ * numerique est tenu a part : compter les elements d'un intervalle ne
+ * parcourt que ses cles distinctes. Les sous-classes, anonymes,
+ * indiquent la cle de chaque element.
+ * @param <T> type des elements
+ */
+abstract class IndexTri<T> {
+	/** Marque des curseurs de cet index. */
+	private final byte marque;
+	/** Elements par cle. */
+	private final TreeMap<Cle, T> arbre = new TreeMap<Cle, T>();
+	/** Cle de chaque element, par identifiant. */
+	private final Map<String, Cle> cles = new HashMap<String, Cle>();
+	/** Nombre d'elements par cle numerique. */
+	private final TreeMap<Long, int[]> effectifs = new TreeMap<Long, int[]>();
+
+	/**
+	 * Constructeur.
+	 * @param m marque des curseurs, distincte pour chaque index
+	 * @param elements elements a ranger
+	 */
+	IndexTri(final char m, final Iterable<? extends T> elements) {
+		marque = (byte) m;
+		for (T e : elements) {
+			ajouter(e);
+		}
+	}
+
+	/**
+	 * cle de tri d'un element.
+	 * @param e element
+	 * @return cle
+	 */
+	abstract Cle cle(T e);
+
+	/**
+	 * ajoute un element, ou le reclasse si son identifiant est deja
+	 * present.
+	 * @param e element
+	 */
+	final void ajouter(final T e) {
+		Cle c = cle(e);
+		Cle ancienne = cles.put(c.unique, c);
+		if (ancienne != null) {
+			arbre.remove(ancienne);
+			decompter(ancienne.nombre);
+		}
+		arbre.put(c, e);
+		int[] n = effectifs.get(c.nombre);
+		if (n == null) {
+			n = new int[1];
+			effectifs.put(c.nombre, n);
+		}
+		n[0]++;
+	}
+
+	/**
+	 * retire un element du nombre d'elements d'une cle numerique.
+	 * @param nombre cle numerique
+	 */
+	private void decompter(final long nombre) {
+		int[] n = effectifs.get(nombre);
+		if (--n[0] == 0) {
+			effectifs.remove(nombre);
+		}
+	}
+
+	/**
+	 * retire un element.
+	 * @param unique identifiant de l'element
+	 */
+	final void retirer(final String unique) {
+		Cle c = cles.remove(unique);
+		if (c != null) {
+			arbre.remove(c);
+			decompter(c.nombre);
+		}
+	}
+
+	/**
+	 * elements dont la cle numerique est dans un intervalle, dans
+	 * l'ordre de l'index.
+	 * @param min premiere cle numerique, incluse
+	 * @param max derniere cle numerique, incluse
+	 * @return elements
+	 */
+	final List<T> entre(final long min, final long max) {
+		if (min > max) {
+			return new ArrayList<T>(0);
+		}
+		NavigableMap<Cle, T> m = arbre.tailMap(new Cle(min, "", ""), true);
+		if (max < Long.MAX_VALUE) {
+			m = m.headMap(new Cle(max + 1, "", ""), false);
+		}
+		return new ArrayList<T>(m.values());
+	}
+
+	/**
+	 * nombre d'elements dont la cle numerique est dans un intervalle.
+	 * @param min premiere cle numerique, incluse
+	 * @param max derniere cle numerique, incluse
+	 * @return nombre d'elements
+	 */
+	final int compter(final long min, final long max) {
+		if (min > max) {
+			return 0;
+		}
+		int total = 0;
+		for (int[] n : effectifs.subMap(min, true, max, true).values()) {
+			total += n[0];
+		}
+		return total;
+	}
+
+	/**
+	 * page d'elements dans l'ordre de l'index.
+	 * @param filtre elements retenus, null pour tous
+	 * @param taille nombre maximal d'elements
+	 * @param curseur curseur de la page precedente, null pour la premiere
+	 * @return page
+	 * @throws OperationImpossible taille nulle ou curseur invalide
+	 */
+	final Page<T> page(final Predicate<? super T> filtre, final int taille,
+			final String curseur) throws OperationImpossible {
+		if (taille <= 0) {
+			throw new OperationImpossible("Taille de page " + taille);
+		}
+		NavigableMap<Cle, T> suite = curseur == null ? arbre
+				: arbre.tailMap(decoder(curseur), false);
+		List<T> res = new ArrayList<T>(Math.min(taille, 256));
+		Cle derniere = null;
+		for (Map.Entry<Cle, T> e : suite.entrySet()) {
+			if (filtre == null || filtre.test(e.getValue())) {
+				res.add(e.getValue());
+				derniere = e.getKey();
+				if (res.size() == taille) {
+					return new Page<T>(res, coder(derniere));
+				}
+			}
+		}
+		return new Page<T>(res, null);
+	}
+
+	/**
+	 * curseur d'une cle.
+	 * @param c cle
+	 * @return texte opaque
+	 */
+	private String coder(final Cle c) {
+		ByteArrayOutputStream octets = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(octets)) {
+			out.writeByte(marque);
+			out.writeLong(c.nombre);
+			out.writeUTF(c.texte);
+			out.writeUTF(c.unique);
+		} catch (IOException ioe) {
+			throw new IllegalStateException(ioe);
+		}
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(octets.toByteArray());
+	}
+
+	/**
+	 * cle d'un curseur.
+	 * @param curseur texte opaque
+	 * @return cle
+	 * @throws OperationImpossible curseur illisible ou d'un autre index
+	 */
+	private Cle decoder(final String curseur) throws OperationImpossible {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				Base64.getUrlDecoder().decode(curseur)))) {
+			if (in.readByte() == marque) {
+				Cle c = new Cle(in.readLong(), in.readUTF(), in.readUTF());
+				if (in.read() < 0) {
+					return c;
+				}
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			throw new OperationImpossible("Curseur " + curseur + " illisible");
+		}
+		throw new OperationImpossible("Curseur " + curseur
+				+ " d'une autre requete");
+	}
+
+	/**
+	 * La classe <code>Cle</code> ordonne par nombre, puis par texte,
+	 * puis par identifiant.
+	 */
+	static final class Cle implements Comparable<Cle> {
+		/** Premiere cle numerique, 0 si inutilisee. */
+		private final long nombre;
+		/** Cle textuelle. */
+		private final String texte;
+		/** Identifiant unique de l'element. */
+		private final String unique;
+
+		/**
+		 * Constructeur.
+		 * @param n cle numerique
+		 * @param t cle textuelle
+		 * @param u identifiant unique
+		 */
+		Cle(final long n, final String t, final String u) {
+			nombre = n;
+			texte = t;
+			unique = u;
+		}
+
+		@Override
+		public int compareTo(final Cle o) {
+			int c = Long.compare(nombre, o.nombre);
+			if (c == 0) {
+				c = texte.compareTo(o.texte);
+			}
+			return c != 0 ? c : unique.compareTo(o.unique);
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			return o instanceof Cle && compareTo((Cle) o) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return unique.hashCode();
+		}
+	}
+}
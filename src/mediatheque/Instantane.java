@@ -0,0 +1,358 @@
+package mediatheque;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import mediatheque.client.CategorieClient;
+import mediatheque.client.Client;
+import mediatheque.client.HashClient;
+import mediatheque.document.Document;
+
+/**
+ * La classe <code>Instantane</code> ecrit et relit la mediatheque dans
+ * un format permettant un chargement paresseux :
+ * <UL>
+ * <LI>un entete donnant la position de la section chaude ;</LI>
+ * <LI>la section froide : chaque document et chaque client serialise
+ * independamment (<code>SortieEntites</code>) ;</LI>
+ * <LI>la section chaude : genres, localisations, categories, puis
+ * pour chaque document et client sa cle, son etat leger et la position
+ * de sa forme serialisee, enfin les fiches d'emprunt.</LI>
+ * </UL>
+ * Au chargement seule la section chaude est lue ; documents et clients
+ * sont relus a leur premier acces (<code>TableParesseuse</code>).
+ * Les fiches d'emprunt sont relues tout de suite car la verification
+ * quotidienne les parcourt : seuls les clients et documents concernes
+ * par un emprunt en cours sont alors charges.
+ */
+final class Instantane {
+	/** Nombre magique du fichier. */
+	private static final int MAGIQUE = 0x4D454449;
+	/** Taille de l'entete : magique et position de la section chaude. */
+	private static final int ENTETE = 12;
+
+	/** Constructeur prive : classe utilitaire. */
+	private Instantane() {
+	}
+
+	/**
+	 * Etat leger d'un document, disponible sans le charger.
+	 */
+	static final class EtatDocument implements Serializable {
+		/** serial version. */
+		private static final long serialVersionUID = 1L;
+		/** Nom du genre du document. */
+		final String genre;
+		/** Salle de la localisation du document. */
+		final String salle;
+		/** Rayon de la localisation du document. */
+		final String rayon;
+		/** Indicateur d'emprunt. */
+		final boolean emprunte;
+
+		/**
+		 * Constructeur.
+		 * @param d document
+		 */
+		EtatDocument(final Document d) {
+			genre = d.getGenre().getNom();
+			salle = d.getLocalisation().getSalle();
+			rayon = d.getLocalisation().getRayon();
+			emprunte = d.estEmprunte();
+		}
+	}
+
+	/**
+	 * Etat leger d'un client, disponible sans le charger.
+	 */
+	static final class EtatClient implements Serializable {
+		/** serial version. */
+		private static final long serialVersionUID = 1L;
+		/** Nom de la categorie du client. */
+		final String categorie;
+		/** Nombre d'emprunts en cours. */
+		final int nbEmpruntsEnCours;
+		/** Nombre d'emprunts en retard. */
+		final int nbEmpruntsEnRetard;
+
+		/**
+		 * Constructeur.
+		 * @param c client
+		 */
+		EtatClient(final Client c) {
+			categorie = c.getCategorie().getNom();
+			nbEmpruntsEnCours = c.getNbEmpruntsEnCours();
+			nbEmpruntsEnRetard = c.getNbEmpruntsEnRetard();
+		}
+	}
+
+	/**
+	 * Ecrit l'instantane de la mediatheque. Le fichier est ecrit a cote
+	 * puis renomme. Les valeurs non chargees d'une table paresseuse sont
+	 * recopiees sans etre relues et la table pointe ensuite sur le
+	 * nouveau fichier.
+	 * @param m mediatheque
+	 * @param f fichier de l'instantane
+	 * @throws IOException ecriture impossible
+	 */
+	static void sauver(final Mediatheque m, final Path f) throws IOException {
+		Path tmp = f.resolveSibling(f.getFileName() + ".tmp");
+		FileChannel canal = FileChannel.open(tmp, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			canal.position(ENTETE);
+			Map<String, Long> posDocs = new HashMap<String, Long>();
+			Map<HashClient, Long> posClients = new HashMap<HashClient, Long>();
+			ByteArrayOutputStream chaud = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(chaud);
+			out.writeObject(m.genres());
+			out.writeObject(m.localisations());
+			out.writeObject(m.categories());
+			Map<String, Document> docs = m.documents();
+			out.writeBoolean(docs instanceof CatalogueMappe);
+			if (docs instanceof CatalogueMappe) {
+				out.writeObject(docs);
+			} else {
+				out.writeInt(docs.size());
+				for (String code : docs.keySet()) {
+					Object etat = etat(docs, code);
+					byte[] brut = brut(docs, code);
+					if (etat == null) {
+						Document d = docs.get(code);
+						etat = new EtatDocument(d);
+						brut = encoder(d);
+					}
+					long pos = ecrire(canal, brut);
+					posDocs.put(code, pos);
+					out.writeUTF(code);
+					out.writeObject(etat);
+					out.writeLong(pos);
+					out.writeInt(brut.length);
+				}
+			}
+			Map<HashClient, Client> clients = m.clients();
+			out.writeInt(clients.size());
+			for (HashClient hc : clients.keySet()) {
+				Object etat = etat(clients, hc);
+				byte[] brut = brut(clients, hc);
+				if (etat == null) {
+					Client c = clients.get(hc);
+					etat = new EtatClient(c);
+					brut = encoder(c);
+				}
+				long pos = ecrire(canal, brut);
+				posClients.put(hc, pos);
+				out.writeObject(hc);
+				out.writeObject(etat);
+				out.writeLong(pos);
+				out.writeInt(brut.length);
+			}
+			List<FicheEmprunt> fiches = m.fiches();
+			ByteArrayOutputStream bfiches = new ByteArrayOutputStream();
+			try (SortieEntites sf = new SortieEntites(bfiches)) {
+				sf.writeInt(fiches.size());
+				for (FicheEmprunt fe : fiches) {
+					sf.ecrire(fe);
+				}
+			}
+			out.writeObject(bfiches.toByteArray());
+			out.writeObject(m.recettes());
+			out.writeObject(m.historique());
+			out.close();
+			long posChaud = ecrire(canal, chaud.toByteArray());
+			ByteBuffer entete = ByteBuffer.allocate(ENTETE);
+			entete.putInt(MAGIQUE).putLong(posChaud).flip();
+			canal.write(entete, 0);
+			canal.force(true);
+			Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			deplacer(docs, canal, posDocs);
+			deplacer(clients, canal, posClients);
+			if (!(docs instanceof TableParesseuse)
+					&& !(clients instanceof TableParesseuse)) {
+				canal.close();
+			}
+		} catch (IOException | RuntimeException e) {
+			canal.close();
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+	}
+
+	/**
+	 * Charge la section chaude d'un instantane dans la mediatheque.
+	 * Le fichier reste ouvert tant que des valeurs ne sont pas chargees.
+	 * @param m mediatheque
+	 * @param f fichier de l'instantane
+	 * @throws IOException lecture impossible ou fichier invalide
+	 */
+	static void charger(final Mediatheque m, final Path f)
+			throws IOException {
+		FileChannel canal = FileChannel.open(f, StandardOpenOption.READ);
+		try {
+			ByteBuffer entete = ByteBuffer.allocate(ENTETE);
+			while (entete.hasRemaining()
+					&& canal.read(entete, entete.position()) >= 0) {
+				continue;
+			}
+			entete.flip();
+			if (entete.remaining() < ENTETE || entete.getInt() != MAGIQUE) {
+				throw new IOException("Fichier " + f + " n'est pas un "
+						+ "instantane");
+			}
+			canal.position(entete.getLong());
+			ObjectInputStream in = new ObjectInputStream(
+					Channels.newInputStream(canal));
+			@SuppressWarnings("unchecked")
+			List<Genre> genres = (List<Genre>) in.readObject();
+			@SuppressWarnings("unchecked")
+			List<Localisation> locs = (List<Localisation>) in.readObject();
+			@SuppressWarnings("unchecked")
+			List<CategorieClient> cats =
+					(List<CategorieClient>) in.readObject();
+			m.initialiserReferentiels(genres, locs, cats);
+			Map<String, Document> docs;
+			if (in.readBoolean()) {
+				@SuppressWarnings("unchecked")
+				Map<String, Document> catalogue =
+						(Map<String, Document>) in.readObject();
+				docs = catalogue;
+			} else {
+				TableParesseuse<String, Document> t =
+						new TableParesseuse<String, Document>(canal, m);
+				for (int n = in.readInt(); n > 0; n--) {
+					String code = in.readUTF();
+					Object etat = in.readObject();
+					t.ajouterFroid(code, in.readLong(), in.readInt(), etat);
+				}
+				docs = t;
+			}
+			TableParesseuse<HashClient, Client> clients =
+					new TableParesseuse<HashClient, Client>(canal, m);
+			for (int n = in.readInt(); n > 0; n--) {
+				HashClient hc = (HashClient) in.readObject();
+				Object etat = in.readObject();
+				clients.ajouterFroid(hc, in.readLong(), in.readInt(), etat);
+			}
+			byte[] bfiches = (byte[]) in.readObject();
+			m.initialiserRecettes((Recettes) in.readObject());
+			m.initialiserHistorique((Historique) in.readObject());
+			m.initialiserTables(docs, clients);
+			List<FicheEmprunt> fiches = new Vector<FicheEmprunt>();
+			try (EntreeEntites ef = new EntreeEntites(
+					new ByteArrayInputStream(bfiches), m)) {
+				for (int n = ef.readInt(); n > 0; n--) {
+					fiches.add((FicheEmprunt) ef.readObject());
+				}
+			}
+			m.initialiserEmprunts(fiches);
+		} catch (ClassNotFoundException cnfe) {
+			canal.close();
+			throw new IOException("Instantane " + f + " : " + cnfe);
+		} catch (IOException | RuntimeException e) {
+			canal.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Serialise un document ou un client de la section froide.
+	 * @param o document ou client
+	 * @return octets
+	 * @throws IOException en relai de SortieEntites
+	 */
+	private static byte[] encoder(final Object o) throws IOException {
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		try (SortieEntites out = new SortieEntites(b)) {
+			out.ecrire(o);
+		}
+		return b.toByteArray();
+	}
+
+	/**
+	 * Ajoute des octets a la fin du fichier.
+	 * @param canal fichier
+	 * @param brut octets
+	 * @return position des octets
+	 * @throws IOException ecriture impossible
+	 */
+	private static long ecrire(final FileChannel canal, final byte[] brut)
+			throws IOException {
+		long pos = canal.position();
+		ByteBuffer b = ByteBuffer.wrap(brut);
+		while (b.hasRemaining()) {
+			canal.write(b);
+		}
+		return pos;
+	}
+
+	/**
+	 * Etat leger d'une valeur non chargee d'une table paresseuse.
+	 * @param <K> type des cles
+	 * @param t table
+	 * @param cle cle
+	 * @return etat, ou null si la table n'est pas paresseuse ou la valeur
+	 * chargee
+	 */
+	private static <K> Object etat(final Map<K, ?> t, final K cle) {
+		if (t instanceof TableParesseuse) {
+			@SuppressWarnings("unchecked")
+			TableParesseuse<K, ?> tp = (TableParesseuse<K, ?>) t;
+			return tp.etat(cle);
+		}
+		return null;
+	}
+
+	/**
+	 * Octets d'une valeur non chargee d'une table paresseuse.
+	 * @param <K> type des cles
+	 * @param t table
+	 * @param cle cle
+	 * @return octets, ou null si la table n'est pas paresseuse ou la
+	 * valeur chargee
+	 * @throws IOException lecture impossible
+	 */
+	private static <K> byte[] brut(final Map<K, ?> t, final K cle)
+			throws IOException {
+		if (t instanceof TableParesseuse) {
+			@SuppressWarnings("unchecked")
+			TableParesseuse<K, ?> tp = (TableParesseuse<K, ?>) t;
+			return tp.brut(cle);
+		}
+		return null;
+	}
+
+	/**
+	 * Fait pointer une table paresseuse sur le nouvel instantane.
+	 * @param <K> type des cles
+	 * @param t table
+	 * @param canal nouveau fichier
+	 * @param positions positions des valeurs
+	 * @throws IOException fermeture de l'ancien fichier
+	 */
+	private static <K> void deplacer(final Map<K, ?> t,
+			final FileChannel canal, final Map<K, Long> positions)
+					throws IOException {
+		if (t instanceof TableParesseuse) {
+			@SuppressWarnings("unchecked")
+			TableParesseuse<K, ?> tp = (TableParesseuse<K, ?>) t;
+			tp.deplacer(canal, positions);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package mediatheque;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * La classe <code>ListeEmprunts</code> range les emprunts en cours
+ * d'un client. Chaque fiche retient sa place dans la liste de son
+ * client : l'ajout et le retrait se font en temps constant, le retrait
+ * deplacant la derniere fiche a la place liberee. L'ordre des fiches
+ * n'est donc pas conserve. Une fiche n'appartient qu'a une liste.
+ * Comme le client, la liste n'est pas synchronisee : elle est modifiee
+ * sous le verrou de la mediatheque.
+ */
+public final class ListeEmprunts extends AbstractList<FicheEmprunt>
+		implements RandomAccess {
+	/** Fiches, de 0 a taille exclue. */
+	private FicheEmprunt[] fiches = new FicheEmprunt[4];
+	/** Nombre de fiches. */
+	private int taille;
+
+	@Override
+	public FicheEmprunt get(final int i) {
+		if (i < 0 || i >= taille) {
+			throw new IndexOutOfBoundsException("Emprunt " + i + " sur "
+					+ taille);
+		}
+		return fiches[i];
+	}
+
+	@Override
+	public int size() {
+		return taille;
+	}
+
+	@Override
+	public boolean add(final FicheEmprunt fe) {
+		if (taille == fiches.length) {
+			fiches = Arrays.copyOf(fiches, 2 * taille);
+		}
+		fe.setRang(taille);
+		fiches[taille++] = fe;
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public boolean contains(final Object o) {
+		return indexOf(o) >= 0;
+	}
+
+	@Override
+	public int indexOf(final Object o) {
+		if (o instanceof FicheEmprunt) {
+			int r = ((FicheEmprunt) o).getRang();
+			if (r >= 0 && r < taille && fiches[r] == o) {
+				return r;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public boolean remove(final Object o) {
+		int r = indexOf(o);
+		if (r < 0) {
+			return false;
+		}
+		remove(r);
+		return true;
+	}
+
+	@Override
+	public FicheEmprunt remove(final int i) {
+		FicheEmprunt fe = get(i);
+		FicheEmprunt derniere = fiches[--taille];
+		fiches[taille] = null;
+		if (derniere != fe) {
+			fiches[i] = derniere;
+			derniere.setRang(i);
+		}
+		fe.setRang(-1);
+		modCount++;
+		return fe;
+	}
+
+	@Override
+	public void clear() {
+		for (int i = 0; i < taille; i++) {
+			fiches[i].setRang(-1);
+			fiches[i] = null;
+		}
+		taille = 0;
+		modCount++;
+	}
+}
@@ -6,7 +6,8 @@ import java.io.Serializable;
  * la mediatheque. Il s'agit uniquement du stockage des informations necessaires
  * et non de la gestion des salles et rayonnages.
  */
-public final class Localisation implements Serializable {
+public final class Localisation implements Serializable, Cloneable,
+        Modifiable {
 	  /** serial number.	 */
     private static final long serialVersionUID = 3L;
 
@@ -20,6 +21,10 @@ public final class Localisation implements Serializable {
      */
     private String rayon;
 
+
+    /** Suivi a prevenir des modifications, ou null. */
+    private transient SuiviModifications suivi;
+
     /**
      * Constructeur de localisation.
      * 
@@ -45,6 +50,7 @@ public final class Localisation implements Serializable {
      */
     void setSalle(final String s) {
         salle = s;
+        signaler();
     }
     /**
      * <tt>getRayon</tt> permet de connaitre le rayon.
@@ -61,6 +67,40 @@ public final class Localisation implements Serializable {
      */
     void setRayon(final String r) {
         rayon = r;
+        signaler();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void suivre(final SuiviModifications s) {
+        suivi = s;
+    }
+
+    /**
+     * Previent le suivi eventuel de la modification.
+     */
+    private void signaler() {
+        if (suivi != null) {
+            suivi.modifiee(this);
+        }
+    }
+
+    /**
+     * <TT>copieFigee</TT> copie la localisation pour la vue de la
+     * mediatheque.
+     * 
+     * @return copie sans suivi
+     */
+    Localisation copieFigee() {
+        try {
+            Localisation l = (Localisation) clone();
+            l.suivi = null;
+            return l;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
     }
     /**
      * <TT>toString</TT> permet de connaitre la salle et le rayon.
@@ -69,7 +109,18 @@ public final class Localisation implements Serializable {
      */
     @Override
     public String toString() {
-        return "Salle/Rayon : " + salle + "/" + rayon;
+        return ecrire(new StringBuilder(32)).toString();
+    }
+
+    /**
+     * <TT>ecrire</TT> ecrit le texte de toString a la suite d'un tampon.
+     * 
+     * @param sb destination
+     * @return destination
+     */
+    public StringBuilder ecrire(final StringBuilder sb) {
+        return sb.append("Salle/Rayon : ").append(salle).append('/')
+                .append(rayon);
     }
 
     @Override
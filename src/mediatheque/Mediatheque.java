@@ -1,18 +1,37 @@
 package mediatheque;
 
 import java.io.Serializable;
+import java.io.BufferedInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Vector;
 import java.util.List;
 import java.util.Iterator;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 import mediatheque.client.Client;
 import mediatheque.client.CategorieClient;
@@ -57,6 +76,44 @@ public final class Mediatheque implements Serializable {
 	private Map<String, Document> lesDocuments;
 	/** Objets geres par la mediatheque : Client. */
 	private Map<HashClient, Client> lesClients;
+	/** Emprunts en cours par categorie de client, construit au premier usage. */
+	private transient EmpruntsParCategorie empruntsParCategorie;
+	/** Journal et cumuls des recettes. */
+	private Recettes recettes;
+	/** Historique des emprunts par client et par document. */
+	private Historique historique;
+	/** Co-emprunts pour les recommandations, construit au premier usage. */
+	private transient Recommandations recommandations;
+	/** Dernier instantane en lecture, construit au premier usage. */
+	private transient volatile Vue vue;
+	/**
+	 * Suivi des entites : chaque modification publie la copie figee de
+	 * l'entite dans la vue et dans les segments a reecrire.
+	 */
+	private final transient SuiviModifications suivi =
+			new SuiviModifications() {
+				@Override
+				public void modifiee(final Modifiable entite) {
+					publier(entite);
+				}
+			};
+	/** Copies figees des genres, localisations et categories. */
+	private final transient Map<Object, Object> referentielsFiges =
+			Collections.synchronizedMap(new IdentityHashMap<Object, Object>());
+	/** Index des requetes paginees, construit au premier usage. */
+	private transient Requetes requetes;
+	/** Recherche des clients par nom ou adresse, construite au premier usage. */
+	private transient RechercheClients recherche;
+	/** Sauvegarde incrementale en segments, creee au premier usage. */
+	private transient Segments segments;
+	/** Clients par date de renouvellement, construit au premier usage. */
+	private transient Renouvellements renouvellements;
+	/** Horloge qui donne la date du jour, null pour celle du systeme. */
+	private transient volatile Horloge horloge;
+	/** Duree des etapes du dernier demarrage. */
+	private transient Chronometre demarrage;
+	/** Points de controle en arriere-plan, null s'ils sont arretes. */
+	private transient ScheduledExecutorService pointsDeControle;
 
 	/** boolean pour debuger la classe par des affichages.	 */
 	private static boolean debug = false;
@@ -68,18 +125,94 @@ public final class Mediatheque implements Serializable {
 	 *    @param nom Nom de la mediatheque
 	 */
 	public Mediatheque(final String nom) {
+		this(nom, false);
+	}
+
+	/**
+	 * Constructeur de la mediatheque. En mode paresseux, si un
+	 * instantane existe, seules les cles et l'etat leger des documents
+	 * et des clients sont charges ; le reste est relu au premier acces.
+	 * Sinon, les segments sont relus s'ils existent, puis a defaut le
+	 * fichier nom.data. Toute sauvegarde complete ou en segments
+	 * supprime l'instantane, qui n'est donc jamais plus ancien
+	 * qu'elles.
+	 *    @param nom Nom de la mediatheque
+	 *    @param paresseux chargement paresseux depuis l'instantane
+	 *    @see #sauverInstantane()
+	 *    @see #sauverSegments()
+	 */
+	public Mediatheque(final String nom, final boolean paresseux) {
 		this.nomMedia = nom;
 		if (debug) {
 			System.out.println("Mediatheque \"" + nom + "\"");
 		}
+		Chronometre chrono = new Chronometre();
 		empty();
-		initFromFile();
+		boolean lu;
+		lu = false;
+		if (paresseux) {
+			lu = initFromInstantane();
+			chrono.etape("instantane");
+		}
+		if (!lu) {
+			lu = chargerSegments(chrono);
+		}
+		if (!lu) {
+			initFromFile();
+			chrono.etape("fichier");
+		}
 		try {
-			verifier();
+			verifier(ForkJoinPool.commonPool());
 		} catch (InvariantBroken ib) {
 			System.out.println("Donnees mediatheque incoherentes"
 					+ "reinitialisez le fichier" + nom + ".data");
 		}
+		chrono.etape("verification");
+		demarrage = chrono;
+		if (debug) {
+			System.out.print(chrono);
+		}
+	}
+
+	/**
+	 * remplace l'horloge qui donne la date du jour aux emprunts, aux
+	 * inscriptions et aux verifications. Une verification lit la date
+	 * une seule fois, pour tous les emprunts.
+	 * @param h horloge, null pour l'horloge du systeme
+	 * @see HorlogeManuelle
+	 */
+	public void setHorloge(final Horloge h) {
+		horloge = h;
+	}
+
+	/**
+	 * retourne l'horloge de la mediatheque.
+	 * @return horloge
+	 */
+	public Horloge getHorloge() {
+		return horloge();
+	}
+
+	/**
+	 * horloge de la mediatheque, celle du systeme par defaut.
+	 * @return horloge
+	 */
+	private Horloge horloge() {
+		Horloge h = horloge;
+		if (h == null) {
+			return HorlogeSysteme.INSTANCE;
+		}
+		return h;
+	}
+
+	/**
+	 * duree des etapes du demarrage de la mediatheque : lecture des
+	 * referentiels, des documents et clients, des emprunts, liaison
+	 * des emprunts puis verification, ou lecture du fichier.
+	 * @return duree de chaque etape en millisecondes, dans l'ordre
+	 */
+	public Map<String, Long> getTempsDemarrage() {
+		return demarrage.durees();
 	}
 
 	/**
@@ -90,8 +223,17 @@ public final class Mediatheque implements Serializable {
 		lesLocalisations = new Vector<Localisation>();
 		lesDocuments = new Hashtable<String, Document>();
 		lesClients = new Hashtable<HashClient, Client>();
-		lesEmprunts = new Vector<FicheEmprunt>();
+		lesEmprunts = new EmpruntsEnCours();
 		lesCatsClient = new Vector<CategorieClient>();
+		recettes = new Recettes();
+		historique = new Historique();
+		recommandations = null;
+		renouvellements = null;
+		empruntsParCategorie = null;
+		vue = null;
+		referentielsFiges.clear();
+		requetes = null;
+		recherche = null;
 	}
 
 	// Methodes pour manipuler les genres
@@ -118,7 +260,7 @@ public final class Mediatheque implements Serializable {
 	 *    @param n du Genre a supprimer
 	 *    @exception OperationImpossible genre inexistant
 	 */
-	public void supprimerGenre(final String n) throws OperationImpossible {
+	public synchronized void supprimerGenre(final String n) throws OperationImpossible {
 		if (debug) {
 			System.out.println("Mediatheque: suppression d'un genre.");
 			System.out.println("\t" + n);
@@ -132,6 +274,7 @@ public final class Mediatheque implements Serializable {
 						+ "Il existe au moins un document associe au genre " + g);
 			}
 			if (lesGenres.remove(g)) {
+				referentielModifie(g);
 				if (debug) {
 					System.out.println("Mediatheque: Genre \"" + n + "\" retire");
 				}
@@ -147,14 +290,17 @@ public final class Mediatheque implements Serializable {
 	 *    @param n du Genre a ajouter
 	 *    @exception OperationImpossible genre deja present
 	 */
-	public void ajouterGenre(final String n) throws OperationImpossible {
+	public synchronized void ajouterGenre(final String n) throws OperationImpossible {
 		if (debug) {
 			System.out.println("Mediatheque: ajouter un genre.");
 			System.out.println("\t" + n);
 		}		
 		Genre g = chercherGenre(n);
 		if (g == null) {
-			lesGenres.add(new Genre(n));
+			g = new Genre(n);
+			g.suivre(suivi);
+			lesGenres.add(g);
+			referentielModifie(g);
 		} else {
 			throw new OperationImpossible("ajouter Genre existant:" + n);
 		}
@@ -166,14 +312,17 @@ public final class Mediatheque implements Serializable {
 	 *    @param neuf nouveau nom du Genre
 	 *    @exception OperationImpossible genre deja present
 	 */
-	public void modifierGenre(final String old, final String neuf) 
+	public synchronized void modifierGenre(final String old, final String neuf) 
 			throws OperationImpossible {
 		Genre g = chercherGenre(old);
 		if (g == null) {
 			throw new OperationImpossible("Genre \""
 					+ old + "\" inexistant");
 		} else {
+			List<Document> aReecrire = documentsAReecrire(g);
 			g.modifier(neuf);
+			reecrireDocuments(aReecrire);
+			oublierCopies();
 		}
 	}
 	/**
@@ -185,8 +334,10 @@ public final class Mediatheque implements Serializable {
 					+ "  listage des genres au " 
 					+ Datutil.dateToString(Datutil.dateDuJour()));
 		}
+		StringBuilder sb = new StringBuilder(128);
 		for (Genre g : lesGenres) {
-			System.out.println(g);
+			sb.setLength(0);
+			System.out.println(g.ecrire(sb));
 		}
 	}
 	/**
@@ -214,7 +365,7 @@ public final class Mediatheque implements Serializable {
 	 *    @param rayon nom du rayon
 	 *    @exception OperationImpossible localisation inexistante
 	 */
-	public void supprimerLocalisation(final String salle, final String rayon)
+	public synchronized void supprimerLocalisation(final String salle, final String rayon)
 			throws OperationImpossible {
 		if (debug) {
 			System.out.println("Mediatheque: suppression d'une localisation.");
@@ -231,6 +382,7 @@ public final class Mediatheque implements Serializable {
 						+ " moins un document a la localisation " + l);
 			}
 			if (lesLocalisations.remove(l)) {
+				referentielModifie(l);
 				if (debug) {
 					System.out.println("Mediatheque: Localisation \"" + salle + "/"
 							+ rayon + "\" retiree");
@@ -265,7 +417,7 @@ public final class Mediatheque implements Serializable {
 	 *    @param r rayon
 	 *    @exception OperationImpossible localisation existante
 	 */
-	public void ajouterLocalisation(final String s, final String r)
+	public synchronized void ajouterLocalisation(final String s, final String r)
 			throws OperationImpossible {
 		if (debug) {
 			System.out.println("Localisation: ajouter une localisation.");
@@ -275,7 +427,10 @@ public final class Mediatheque implements Serializable {
 			throw new OperationImpossible("Localisation \""
 					+ s + " " + r + "\" deja existant");
 		} else {
-			lesLocalisations.add(new Localisation(s, r));
+			Localisation l = new Localisation(s, r);
+			l.suivre(suivi);
+			lesLocalisations.add(l);
+			referentielModifie(l);
 		}
 	}
 	/**
@@ -285,19 +440,22 @@ public final class Mediatheque implements Serializable {
 	 * @param r nouveau rayon
 	 * @exception OperationImpossible localisation n'est pas dans la collection.
 	 */
-	public void modifierLocalisation(final Localisation loc, final String s, 
+	public synchronized void modifierLocalisation(final Localisation loc, final String s, 
 			final String r) throws OperationImpossible {
 		Localisation inVector = chercherLocalisation(loc.getSalle(), 
 				loc.getRayon());
 		if (inVector == null) {
 			throw new OperationImpossible("Modifier Localisation inexistante");
 		}
+		List<Document> aReecrire = documentsAReecrire(inVector);
 		if (!inVector.getSalle().equals(s)) {
 			inVector.setSalle(s);
 		}
 		if (!inVector.getRayon().equals(r)) {
 			inVector.setRayon(r);
 		}
+		reecrireDocuments(aReecrire);
+		oublierCopies();
 	}
 	/**
 	 * permet d'afficher toutes les localisations.
@@ -307,9 +465,11 @@ public final class Mediatheque implements Serializable {
 				+ "  listage des localisations au "
 				+ Datutil.dateToString(Datutil.dateDuJour()));
 		Localisation l = null;
+		StringBuilder sb = new StringBuilder(128);
 		for (int i = 0; i < lesLocalisations.size(); i++) {
 			l = (Localisation) lesLocalisations.get(i);
-			System.out.println(l);
+			sb.setLength(0);
+			System.out.println(l.ecrire(sb));
 		}
 	}
 	/**
@@ -353,7 +513,7 @@ public final class Mediatheque implements Serializable {
 	 *    @throws OperationImpossible categorie inexistante, 
 	 *    ou client dans cette categorie
 	 */
-	public void supprimerCatClient(final String catName) 
+	public synchronized void supprimerCatClient(final String catName) 
 			throws OperationImpossible {
 		if (debug) {
 			System.out.println("Mediatheque: suppression d'une categorie.");
@@ -369,6 +529,7 @@ public final class Mediatheque implements Serializable {
 						"Il existe un client dans la categorie " + catName);
 			}
 			if (lesCatsClient.remove(c)) {
+				referentielModifie(c);
 				if (debug) {
 					System.out.println("Mediatheque: Categorie \"" + catName 
 							+ "\" retire");
@@ -393,7 +554,7 @@ public final class Mediatheque implements Serializable {
 	 * @throws OperationImpossible categorie existe déjà
 	 */
 
-	public CategorieClient ajouterCatClient(final String name, final int max, 
+	public synchronized CategorieClient ajouterCatClient(final String name, final int max, 
 			final double cot, final double coefDuree, final double coefTarif, 
 			final boolean codeReducUsed) 
 					throws OperationImpossible {
@@ -408,14 +569,18 @@ public final class Mediatheque implements Serializable {
 		} else {
 			c = new CategorieClient(name, max, cot, coefDuree, coefTarif, 
 					codeReducUsed);
+			c.suivre(suivi);
 			lesCatsClient.add(c);
+			referentielModifie(c);
 		}
 		return c;
 	}
 
 	/**
 	 * permet de modifier une categorie dans la
-	 * collection des categories.
+	 * collection des categories. Un changement du coefficient de duree
+	 * recalcule la date limite des emprunts en cours des seuls clients
+	 * de la categorie.
 	 * @param co categorie a modifier
 	 * @param name nouveau nom
 	 * @param max nombre maximum d'emprunts
@@ -424,9 +589,10 @@ public final class Mediatheque implements Serializable {
 	 * @param coefTarif coefficient sur le tarif
 	 * @param codeReducUsed code de reduction utilise
 	 * @return CategorieClient la categorie modifiee
-	 * @throws OperationImpossible categorie inexistante
+	 * @throws OperationImpossible categorie inexistante, ou emprunts de
+	 * la categorie incoherents
 	 */
-	public CategorieClient modifierCatClient(final CategorieClient co, 
+	public synchronized CategorieClient modifierCatClient(final CategorieClient co, 
 			final String name, final int max, final double cot, 
 			final double coefDuree,
 			final double coefTarif, final boolean codeReducUsed)
@@ -437,6 +603,7 @@ public final class Mediatheque implements Serializable {
 					+ co.getNom() + "\" inexistante");
 		} else {
 			if (!co.getNom().equals(name)) {
+				chargerClients(co);
 				co.modifierNom(name);
 			}
 			if (co.getNbEmpruntMax() != max) {
@@ -447,6 +614,18 @@ public final class Mediatheque implements Serializable {
 			}
 			if (co.getCoefDuree() != coefDuree) {
 				co.modifierCoefDuree(coefDuree);
+				try {
+					empruntsParCategorie().recalculer(co);
+					if (requetes != null) {
+						for (FicheEmprunt fe
+								: empruntsParCategorie().emprunts(co)) {
+							requetes.ajouter(fe);
+						}
+					}
+				} catch (InvariantBroken ib) {
+					throw new OperationImpossible("Emprunts de la categorie \""
+							+ co.getNom() + "\" incoherents : " + ib);
+				}
 			}
 			if (co.getCoefTarif() != coefTarif) {
 				co.modifierCoefTarif(coefTarif);
@@ -454,9 +633,24 @@ public final class Mediatheque implements Serializable {
 			if (co.getCodeReducUtilise() != codeReducUsed) {
 				co.modifierCodeReducActif(codeReducUsed);
 			}
+			oublierCopies();
 		}
 		return c;
 	}
+	/**
+	 * Charge les clients d'une categorie non encore relus de
+	 * l'instantane, qui referencent leur categorie par son nom.
+	 * @param cat categorie qui va etre renommee
+	 */
+	private void chargerClients(final CategorieClient cat) {
+		for (HashClient hc : lesClients.keySet()) {
+			Instantane.EtatClient etat = etatClient(hc);
+			if (etat != null && etat.categorie.equals(cat.getNom())) {
+				lesClients.get(hc);
+			}
+		}
+	}
+
 	/**
 	 * liste les categories de client.
 	 */
@@ -466,8 +660,10 @@ public final class Mediatheque implements Serializable {
 					+ "  listage des categories de clients " 
 					+ Datutil.dateToString(Datutil.dateDuJour()));
 		}
+		StringBuilder sb = new StringBuilder(128);
 		for (CategorieClient c : lesCatsClient) {
-			System.out.println(c);
+			sb.setLength(0);
+			System.out.println(c.ecrire(sb));
 		}
 	}
 	/**
@@ -503,7 +699,7 @@ public final class Mediatheque implements Serializable {
 	 *    @param doc Document a ajouter
 	 *    @throws OperationImpossible Code deja attribue
 	 */
-	public void ajouterDocument(final Document doc) throws OperationImpossible {
+	public synchronized void ajouterDocument(final Document doc) throws OperationImpossible {
 		if (debug) {
 			System.out.println("Mediatheque: ajouter un document.");
 			System.out.println("\t" + doc.getCode() + " \"" + doc.getTitre() 
@@ -523,7 +719,17 @@ public final class Mediatheque implements Serializable {
 				throw new OperationImpossible("Ajout d'un document avec une " 
 						+ "localisation inexistante");
 			}
-			lesDocuments.put(doc.getCode(), doc);
+			try {
+				lesDocuments.put(doc.getCode(), doc);
+			} catch (IllegalArgumentException | IllegalStateException e) {
+				throw new OperationImpossible("Ajout du document \"" 
+						+ doc.getCode() + "\" impossible : " + e.getMessage());
+			}
+			doc.suivre(suivi);
+			publierDocument(doc, true);
+			if (requetes != null) {
+				requetes.ajouter(doc);
+			}
 		}
 	}
 	/**
@@ -534,7 +740,7 @@ public final class Mediatheque implements Serializable {
 	 *    @param code Code du document a retirer
 	 *    @throws OperationImpossible En cas d'erreur (voir ci-dessus)
 	 */
-	public void retirerDocument(final String code) 
+	public synchronized void retirerDocument(final String code) 
 			throws OperationImpossible {
 		if (lesDocuments.containsKey(code)) {
 			Document doc = lesDocuments.get(code);
@@ -543,6 +749,11 @@ public final class Mediatheque implements Serializable {
 						+ code + "\" emprunte");
 			}
 			lesDocuments.remove(code);
+			doc.suivre(null);
+			oublierDocument(code);
+			if (requetes != null) {
+				requetes.retirerDocument(code);
+			}
 		} else {
 			throw new OperationImpossible("Document " + code + " inexistant");
 		}
@@ -553,7 +764,7 @@ public final class Mediatheque implements Serializable {
 	 *  @exception OperationImpossible Document inexistant
 	 *  @exception InvariantBroken relai l'exception levée par metEmpruntable. 
 	 */
-	public void metEmpruntable(final String code)
+	public synchronized void metEmpruntable(final String code)
 			throws OperationImpossible, InvariantBroken {
 		Document doc = chercherDocument(code);
 		if (doc == null) {
@@ -569,7 +780,7 @@ public final class Mediatheque implements Serializable {
 	 *	@exception OperationImpossible Document inexistant
 	 *  @exception InvariantBroken relai l'exception levée par metConsulatble
 	 */
-	public void metConsultable(final String code)
+	public synchronized void metConsultable(final String code)
 			throws OperationImpossible, InvariantBroken {
 		Document doc = chercherDocument(code);
 		if (doc == null) {
@@ -588,11 +799,14 @@ public final class Mediatheque implements Serializable {
 					+ "  listage des documents au " 
 					+ Datutil.dateToString(Datutil.dateDuJour()));
 		}
-		if (lesDocuments.isEmpty()) {
+		Map<String, Document> docs = vue().getDocuments();
+		if (docs.isEmpty()) {
 			System.out.println("(neant)");
 		} else {
-			for (Document d : lesDocuments.values()) {
-				System.out.println(d);
+			StringBuilder sb = new StringBuilder(128);
+			for (Document d : docs.values()) {
+				sb.setLength(0);
+				System.out.println(d.ecrire(sb));
 			}
 		}
 	}
@@ -604,6 +818,16 @@ public final class Mediatheque implements Serializable {
 	 *    @return true s'il en existe un false sinon
 	 */
 	private boolean existeDocument(final Genre g) {
+		if (lesDocuments instanceof TableParesseuse) {
+			for (String code : lesDocuments.keySet()) {
+				Instantane.EtatDocument etat = etatDocument(code);
+				if (etat == null ? chercherDocument(code).getGenre().equals(g)
+						: etat.genre.equals(g.getNom())) {
+					return true;
+				}
+			}
+			return false;
+		}
 		Collection<Document> e = lesDocuments.values();
 		for (Document d : e) {
 			if (d.getGenre().equals(g)) {
@@ -620,6 +844,18 @@ public final class Mediatheque implements Serializable {
 	 *    @return true s'il en existe un false sinon
 	 */
 	private boolean existeDocument(final Localisation l) {
+		if (lesDocuments instanceof TableParesseuse) {
+			for (String code : lesDocuments.keySet()) {
+				Instantane.EtatDocument etat = etatDocument(code);
+				if (etat == null 
+						? chercherDocument(code).getLocalisation().equals(l)
+						: etat.salle.equals(l.getSalle())
+						&& etat.rayon.equals(l.getRayon())) {
+					return true;
+				}
+			}
+			return false;
+		}
 		Collection<Document> e = lesDocuments.values();
 		for (Document d : e) {
 			if (d.getLocalisation().equals(l)) {
@@ -628,6 +864,117 @@ public final class Mediatheque implements Serializable {
 		}
 		return false;
 	}
+	/**
+	 * Etat leger d'un document non encore relu de l'instantane.
+	 * @param code code du document
+	 * @return etat leger ou null si le document est en memoire
+	 */
+	private Instantane.EtatDocument etatDocument(final String code) {
+		if (lesDocuments instanceof TableParesseuse) {
+			return (Instantane.EtatDocument) 
+					((TableParesseuse<String, Document>) lesDocuments)
+					.etat(code);
+		}
+		return null;
+	}
+
+	/**
+	 * Documents stockes hors du tas qui referencent un genre ou une
+	 * localisation : ils doivent etre reecrits apres un renommage car
+	 * le catalogue les reference par leur nom. Les documents non encore
+	 * relus d'un instantane sont charges avant le renommage pour la
+	 * meme raison.
+	 * @param entite genre ou localisation qui va etre renomme
+	 * @return documents a reecrire, vide si catalogue en memoire
+	 */
+	private List<Document> documentsAReecrire(final Object entite) {
+		List<Document> res = new Vector<Document>();
+		if (lesDocuments instanceof CatalogueMappe) {
+			for (Document d : lesDocuments.values()) {
+				if (d.getGenre() == entite || d.getLocalisation() == entite) {
+					res.add(d);
+				}
+			}
+		} else if (lesDocuments instanceof TableParesseuse) {
+			for (String code : lesDocuments.keySet()) {
+				Instantane.EtatDocument etat = etatDocument(code);
+				if (etat != null && (entite instanceof Genre 
+						? etat.genre.equals(((Genre) entite).getNom())
+						: etat.salle.equals(((Localisation) entite).getSalle())
+						&& etat.rayon.equals(
+								((Localisation) entite).getRayon()))) {
+					chercherDocument(code);
+				}
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Reecrit des documents dans la collection.
+	 * @param docs documents a reecrire
+	 */
+	private void reecrireDocuments(final List<Document> docs) {
+		for (Document d : docs) {
+			lesDocuments.put(d.getCode(), d);
+			publierDocument(d, true);
+			if (requetes != null) {
+				requetes.ajouter(d);
+			}
+		}
+	}
+
+	/**
+	 * Range les documents dans un catalogue projete en memoire plutot
+	 * que dans le tas. Si le fichier n'existe pas, il est cree avec la
+	 * capacite indiquee ; les documents deja presents sont copies dans
+	 * le catalogue. La sauvegarde de la mediatheque ne contient ensuite
+	 * plus que le chemin du catalogue.
+	 * @param fichier chemin du fichier du catalogue
+	 * @param capacite nombre maximal de documents si creation
+	 * @throws OperationImpossible fichier illisible ou catalogue plein
+	 */
+	public synchronized void utiliserCatalogueMappe(final String fichier, 
+			final int capacite) throws OperationImpossible {
+		if (lesDocuments instanceof CatalogueMappe) {
+			throw new OperationImpossible("Catalogue projete deja utilise");
+		}
+		CatalogueMappe catalogue;
+		try {
+			catalogue = CatalogueMappe.ouvrir(Paths.get(fichier), capacite,
+					CatalogueMappe.TAILLE_ENREG);
+		} catch (IOException ioe) {
+			throw new OperationImpossible("Catalogue " + fichier 
+					+ " : " + ioe);
+		}
+		catalogue.attacher(this);
+		try {
+			catalogue.putAll(lesDocuments);
+		} catch (IllegalArgumentException | IllegalStateException e) {
+			throw new OperationImpossible("Copie dans le catalogue " 
+					+ fichier + " impossible : " + e.getMessage());
+		}
+		lesDocuments = catalogue;
+		oublierCopies();
+		requetes = null;
+		recommandations = null;
+		relierCatalogue();
+	}
+
+	/**
+	 * Rattache un catalogue projete relu a la mediatheque : les
+	 * documents des fiches d'emprunt sont les instances de reference.
+	 */
+	private void relierCatalogue() {
+		if (lesDocuments instanceof CatalogueMappe) {
+			CatalogueMappe catalogue = (CatalogueMappe) lesDocuments;
+			catalogue.attacher(this);
+			for (FicheEmprunt emprunt : lesEmprunts) {
+				catalogue.enregistrer(emprunt.getDocument());
+			}
+		}
+	}
+
 	/**
 	 * retourne le neme document de la collection.
 	 * @param n rang du document.
@@ -674,7 +1021,7 @@ public final class Mediatheque implements Serializable {
 	 *    @exception InvariantBroken relai de l'exception en provenance du
 	 *    constructeur de la fiche d'emprunt.
 	 */
-	public void emprunter(final String nom, final String prenom, 
+	public synchronized void emprunter(final String nom, final String prenom, 
 			final String code)
 					throws OperationImpossible, InvariantBroken {
 		Client client = chercherClient(nom, prenom);
@@ -682,7 +1029,7 @@ public final class Mediatheque implements Serializable {
 			throw new OperationImpossible("Client " + nom + " " + prenom
 					+ " inexistant");
 		}
-		if (!client.peutEmprunter()) {
+		if (!client.peutEmprunter(horloge().jour())) {
 			throw new OperationImpossible("Client " + client.getNom()
 					+ " non autorise a emprunter");
 		}
@@ -699,8 +1046,24 @@ public final class Mediatheque implements Serializable {
 			throw new OperationImpossible("Document " + doc.getCode()
 					+ " deja emprunte");
 		}
-		FicheEmprunt emprunt = new FicheEmprunt(client, doc);
+		Horloge h = horloge();
+		FicheEmprunt emprunt = new FicheEmprunt(client, doc, h);
+		emprunt.suivre(suivi);
 		lesEmprunts.add(emprunt);
+		if (empruntsParCategorie != null) {
+			empruntsParCategorie.ajouter(emprunt);
+		}
+		publierEmprunt(emprunt, true);
+		if (requetes != null) {
+			requetes.ajouter(emprunt);
+		}
+		recettes.enregistrer(h.jour(), emprunt.getTarifCentimes(),
+				client.getCategorie().getNom(), doc.getClass().getSimpleName());
+		HashClient hc = new HashClient(client.getNom(), client.getPrenom());
+		historique.enregistrer(h.jour(), hc, code);
+		if (recommandations != null) {
+			recommandations.emprunter(hc);
+		}
 		return;
 	}
 
@@ -715,7 +1078,7 @@ public final class Mediatheque implements Serializable {
 	 *    @exception OperationImpossible Restitution impossible
 	 *    @exception InvariantBroken relai du a emprunt.restituer()
 	 */
-	public void restituer(final String nom, final String prenom, 
+	public synchronized void restituer(final String nom, final String prenom, 
 			final String code)
 					throws OperationImpossible, InvariantBroken {
 		Client client = chercherClient(nom, prenom);
@@ -727,11 +1090,19 @@ public final class Mediatheque implements Serializable {
 		if (doc == null) {
 			throw new OperationImpossible("Document " + code + " inexistant");
 		}
-		for (int i = 0; i < lesEmprunts.size(); i++) {
-			FicheEmprunt emprunt = lesEmprunts.get(i);
+		for (FicheEmprunt emprunt : client.getEmprunts()) {
 			if (emprunt.correspond(client, doc)) {
+				emprunt.accumulerPenalite(horloge().jour());
 				emprunt.restituer();
-				lesEmprunts.remove(i);
+				emprunt.suivre(null);
+				lesEmprunts.remove(emprunt);
+				if (empruntsParCategorie != null) {
+					empruntsParCategorie.retirer(emprunt);
+				}
+				oublierEmprunt(emprunt);
+				if (requetes != null) {
+					requetes.retirer(emprunt);
+				}
 				return;
 			}
 		}
@@ -743,25 +1114,159 @@ public final class Mediatheque implements Serializable {
 	 * verifier est lancee chaque jour afin de determiner
 	 * les emprunts non restitues dans les delais.
 	 * Chaque emprunt detecte depasse pour la premiere fois provoque
-	 * l'impression d'une lettre de rappel au client.
+	 * l'impression d'une lettre de rappel au client. Les penalites
+	 * des jours de retard s'ajoutent au solde des clients.
+	 * @return rappels a envoyer, dans l'ordre des emprunts
 	 * @throws InvariantBroken relai de la methode verifier
 	 */
-	public void verifier() throws InvariantBroken {
+	public synchronized List<Rappel> verifier() throws InvariantBroken {
 		if (debug) {
-			System.out.println("Mediatheque: verification le " 
+			System.out.println("Mediatheque: verification le "
 					+ 	Datutil.dateToString(Datutil.dateDuJour()));
 		}
+		Horloge jour = new HorlogeManuelle(horloge());
+		List<Rappel> rappels = new ArrayList<Rappel>();
 		for (FicheEmprunt emprunt : lesEmprunts) {
-			if(emprunt.getDepasse()){
-				emprunt.relancer();
-			} else {
-				if (emprunt.verifier()) {
-					emprunt.premierRappel();
+			Rappel r = verifier(emprunt, jour);
+			if (r != null) {
+				rappels.add(r);
+			}
+		}
+		return rappels;
+	}
+
+	/**
+	 * impression des lettres de rappel rendues par une verification,
+	 * une par client, dans un nouveau fichier du repertoire nomme
+	 * d'apres la mediatheque et la date du jour. L'impression ne
+	 * modifie pas les emprunts : imprimer deux fois les memes rappels
+	 * donne les memes lettres.
+	 * @param repertoire repertoire des courriers
+	 * @param rappels rappels rendus par verifier
+	 * @return fichier des lettres
+	 * @throws IOException ecriture impossible
+	 * @see Courrier
+	 * @see #verifier(ForkJoinPool)
+	 */
+	public Path imprimerRappels(final Path repertoire,
+			final List<Rappel> rappels) throws IOException {
+		Files.createDirectories(repertoire);
+		String base = nomMedia + "-rappels-" 
+				+ new SimpleDateFormat("yyyyMMdd").format(horloge().aujourdhui());
+		Path f = repertoire.resolve(base + ".txt");
+		for (int n = 1; Files.exists(f); n++) {
+			f = repertoire.resolve(base + "-" + n + ".txt");
+		}
+		try (Courrier courrier = new Courrier(f, nomMedia)) {
+			int n = courrier.imprimer(rappels);
+			if (debug) {
+				System.out.println(n + " lettres de rappel dans " + f);
+			}
+		}
+		return f;
+	}
+
+	/**
+	 * verification d'un emprunt : penalite des jours de retard ecoules
+	 * depuis la verification precedente, premier rappel s'il vient
+	 * d'etre depasse, relance sinon.
+	 * @param emprunt fiche d'emprunt
+	 * @param jour horloge arretee a la date de la verification
+	 * @return rappel a envoyer, ou null
+	 * @throws InvariantBroken en relai de premierRappel
+	 */
+	private static Rappel verifier(final FicheEmprunt emprunt,
+			final Horloge jour) throws InvariantBroken {
+		emprunt.accumulerPenalite(jour.jour());
+		if(emprunt.getDepasse()){
+			if (emprunt.relancer(jour)) {
+				return new Rappel(emprunt, false, emprunt.getDateRappel());
+			}
+		} else {
+			if (emprunt.verifier(jour)) {
+				emprunt.premierRappel(jour);
+				return new Rappel(emprunt, true, emprunt.getDateRappel());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * version parallele de verifier. Les emprunts sont repartis selon
+	 * leur client : les compteurs d'un client ne sont modifies que par
+	 * une seule tache. Le resultat est celui de la version sequentielle,
+	 * rappels compris, dans le meme ordre.
+	 * @param pool pool d'execution des taches
+	 * @return rappels a envoyer, dans l'ordre des emprunts
+	 * @throws InvariantBroken relai de la methode verifier
+	 * @see #verifier()
+	 */
+	public synchronized List<Rappel> verifier(final ForkJoinPool pool)
+			throws InvariantBroken {
+		final FicheEmprunt[] fiches =
+				lesEmprunts.toArray(new FicheEmprunt[lesEmprunts.size()]);
+		final Rappel[] rappels = new Rappel[fiches.length];
+		final Horloge jour = new HorlogeManuelle(horloge());
+		int nbParts = Math.max(1, Math.min(fiches.length,
+				4 * pool.getParallelism()));
+		int[] tailles = new int[nbParts];
+		int[] part = new int[fiches.length];
+		for (int i = 0; i < fiches.length; i++) {
+			part[i] = Math.floorMod(fiches[i].getClient().hashCode(), nbParts);
+			tailles[part[i]]++;
+		}
+		int[][] indices = new int[nbParts][];
+		for (int p = 0; p < nbParts; p++) {
+			indices[p] = new int[tailles[p]];
+			tailles[p] = 0;
+		}
+		for (int i = 0; i < fiches.length; i++) {
+			indices[part[i]][tailles[part[i]]++] = i;
+		}
+		List<ForkJoinTask<Void>> taches = new ArrayList<ForkJoinTask<Void>>();
+		for (final int[] ind : indices) {
+			if (ind.length == 0) {
+				continue;
+			}
+			taches.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws InvariantBroken {
+					for (int i : ind) {
+						rappels[i] = verifier(fiches[i], jour);
+					}
+					return null;
+				}
+			}));
+		}
+		InvariantBroken erreur = null;
+		for (ForkJoinTask<Void> t : taches) {
+			try {
+				t.get();
+			} catch (ExecutionException ee) {
+				if (!(ee.getCause() instanceof InvariantBroken)) {
+					throw new IllegalStateException(ee.getCause());
 				}
+				if (erreur == null) {
+					erreur = (InvariantBroken) ee.getCause();
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Verification interrompue", ie);
+			}
+		}
+		if (erreur != null) {
+			throw erreur;
+		}
+		List<Rappel> res = new ArrayList<Rappel>();
+		for (Rappel r : rappels) {
+			if (r != null) {
+				res.add(r);
 			}
 		}
+		return res;
 	}
 
+
 	/**
 	 * affiche les emprunts en cours.
 	 */
@@ -771,11 +1276,14 @@ public final class Mediatheque implements Serializable {
 					+ "  listage des empruts au " 
 					+ Datutil.dateToString(Datutil.dateDuJour()));
 		}
-		if (lesEmprunts.size() == 0) {
+		Map<String, FicheEmprunt> emprunts = vue().getEmprunts();
+		if (emprunts.isEmpty()) {
 			System.out.println("(neant)");
 		} else {
-			for (FicheEmprunt emprunt : lesEmprunts) {
-				System.out.println(emprunt);
+			StringBuilder sb = new StringBuilder(128);
+			for (FicheEmprunt emprunt : emprunts.values()) {
+				sb.setLength(0);
+				System.out.println(emprunt.ecrire(sb));
 			}
 		}
 	}
@@ -809,7 +1317,7 @@ public final class Mediatheque implements Serializable {
 	 * @return double tarif pour ce client
 	 * @exception OperationImpossible en cas d'erreur (voir ci-dessus)
 	 */
-	public double inscrire(final String nom, final String prenom, 
+	public synchronized double inscrire(final String nom, final String prenom, 
 			final String adresse, 
 			final String nomcat) throws OperationImpossible {
 
@@ -831,7 +1339,7 @@ public final class Mediatheque implements Serializable {
 	 * @return double tarif pour ce client
 	 * @exception OperationImpossible en cas d'erreur (voir ci-dessus)
 	 */
-	public double inscrire(final String nom, final String prenom, 
+	public synchronized double inscrire(final String nom, final String prenom, 
 			final String adresse, 
 			final String nomcat, final int code)
 					throws OperationImpossible {
@@ -854,7 +1362,7 @@ public final class Mediatheque implements Serializable {
 	 * @return double tarif pour ce client
 	 * @exception OperationImpossible en cas d'erreur (voir ci-dessus)
 	 */
-	public double inscrire(final String nom, final String prenom, 
+	public synchronized double inscrire(final String nom, final String prenom, 
 			final String adresse, 
 			final CategorieClient cat, final int code) 
 					throws OperationImpossible {
@@ -872,12 +1380,25 @@ public final class Mediatheque implements Serializable {
 		} else {
 			Client client;
 			if (cat.getCodeReducUtilise()) {
-				client = new Client(nom, prenom, adresse, cat, code);
+				client = new Client(nom, prenom, adresse, cat, code, horloge());
 			} else {
-				client = new Client(nom, prenom, adresse, cat);
+				client = new Client(nom, prenom, adresse, cat, horloge());
 			}
 			tarif = cat.getCotisation();
 			lesClients.put(hc, client);
+			client.suivre(suivi);
+			publierClient(hc, client, true);
+			if (requetes != null) {
+				requetes.ajouter(client);
+			}
+			if (recherche != null) {
+				recherche.ajouter(client);
+			}
+			recettes.enregistrer(horloge().jour(), cat.getCotisationCentimes(),
+					cat.getNom(), Recettes.COTISATION);
+			if (renouvellements != null) {
+				renouvellements.ajouter(client);
+			}
 		}
 		return tarif;
 	}
@@ -890,7 +1411,7 @@ public final class Mediatheque implements Serializable {
 	 *   @param prenom Prenom du client
 	 *   @exception OperationImpossible En cas d'erreur (voir ci-dessus)
 	 */
-	public void resilier(final String nom, final String prenom)
+	public synchronized void resilier(final String nom, final String prenom)
 			throws OperationImpossible {
 		HashClient hc = new HashClient(nom, prenom);
 		Client client = null;
@@ -905,6 +1426,17 @@ public final class Mediatheque implements Serializable {
 					+ " n'a pas restitue tous ses emprunts");
 		}
 		lesClients.remove(hc);
+		client.suivre(null);
+		if (renouvellements != null) {
+			renouvellements.retirer(client);
+		}
+		oublierClient(hc);
+		if (requetes != null) {
+			requetes.retirerClient(hc);
+		}
+		if (recherche != null) {
+			recherche.retirer(client);
+		}
 		if (debug) {
 			System.out.println("Mediatheque: desinscrire le client \"" 
 					+ nom + " " + prenom + "\".");
@@ -912,151 +1444,876 @@ public final class Mediatheque implements Serializable {
 		client.afficherStatCli();
 	}
 	/**
-	 * Modifier les informations d'un client. Nom, ou prénom, 
-	 * ou adresse ou categorie.
-	 * @param client a modifier
-	 * @param nom ancien ou nouveau nom.
-	 * @param prenom ancien ou nouveau prenom.
-	 * @param adresse ancienne ou nouvelle adresse.
-	 * @param catnom categorie.
-	 * @param code reduction.
-	 * @throws OperationImpossible client inexistant.
-	 * @throws InvariantBroken problemen consistance client.
+	 * <TT>renouveler</TT> prolonge d'un an la cotisation d'un client.
+	 * L'exception <TT>OperationImpossible</TT> est levee si le client
+	 * n'appartient pas a la mediatheque.
+	 *   @param nom Nom du client
+	 *   @param prenom Prenom du client
+	 *   @return montant de la cotisation, selon la categorie du client
+	 *   @exception OperationImpossible client inexistant
 	 */
-	public void modifierClient(final Client client, final String nom, 
-			final String prenom, 
-			final String adresse,
-			final String catnom, final int code) 
-					throws OperationImpossible, InvariantBroken {
-		HashClient newHash;
-		HashClient oldHash = 
-				new HashClient(client.getNom(), client.getPrenom());
-		boolean needNewHash = false;
-		if (!lesClients.containsKey(oldHash)) {
+	public synchronized double renouveler(final String nom, final String prenom)
+			throws OperationImpossible {
+		Client client = chercherClient(nom, prenom);
+		if (client == null) {
 			throw new OperationImpossible("Client " + nom + " " + prenom
 					+ " inexistant");
 		}
-		if (!adresse.equals(client.getAdresse())) {
-			client.setAddresse(adresse);
-		}
-		if (!nom.equals(client.getNom())) {
-			client.setNom(nom);
-			needNewHash = true;
-		}
-		if (!prenom.equals(client.getPrenom())) {
-			client.setPrenom(prenom);
-			needNewHash = true;
-		}
+		Renouvellements r = renouvellements();
+		r.retirer(client);
+		int jour = horloge().jour();
+		long tarif = client.renouveler(jour);
+		r.ajouter(client);
+		recettes.enregistrer(jour, tarif, client.getCategorie().getNom(),
+				Recettes.COTISATION);
+		return Montant.euros(tarif);
+	}
 
-		if (needNewHash) {
-			newHash = new HashClient(nom, prenom);
-			lesClients.remove(oldHash);
-			lesClients.put(newHash, client);
-		}
-		CategorieClient catcli = chercherCatClient(catnom);
-		if (!catcli.equals(client.getCategorie())) {
-			if (catcli.getCodeReducUtilise()) {
-				client.setCategorie(catcli, code);
-			} else {
-				client.setCategorie(catcli);
-			}
+	/**
+	 * <TT>reglerPenalites</TT> enregistre le paiement de penalites de
+	 * retard par un client.
+	 *   @param nom Nom du client
+	 *   @param prenom Prenom du client
+	 *   @param centimes Montant paye en centimes
+	 *   @return Solde restant du en centimes
+	 *   @exception OperationImpossible client inexistant ou montant
+	 *   superieur au solde
+	 */
+	public synchronized long reglerPenalites(final String nom,
+			final String prenom, final long centimes)
+					throws OperationImpossible {
+		Client client = chercherClient(nom, prenom);
+		if (client == null) {
+			throw new OperationImpossible("Client " + nom + " " + prenom
+					+ " inexistant");
 		}
+		return client.reglerPenalites(centimes);
 	}
 
 	/**
-	 * changerCategorie modifie la categorie du client.
-	 * @param nom du client
-	 * @param prenom du client
-	 * @param catName nom de la nouvelle categorie
-	 * @param reduc reduction si utilisee
-	 * @throws OperationImpossible si client non trouvé,
-	 * ou si categorie non trouvée.
-	 * @throws InvariantBroken problemen consistance client.
+	 * journal des recettes : cotisations et tarifs des emprunts, avec
+	 * leurs cumuls par jour, par categorie de client et par type de
+	 * document.
+	 *   @return recettes
 	 */
-	public void changerCategorie(final String nom, final String prenom, 
-			final String catName, final int reduc)
-					throws OperationImpossible, InvariantBroken {
-		Client c = chercherClient(nom, prenom);
-		if (c == null) {
-			throw new OperationImpossible("Client " + nom + " " 
-					+ prenom + " non trouve");
-		}
-		CategorieClient cat = chercherCatClient(catName);
-		if (cat == null) {
-			throw new OperationImpossible("Categorie client " 
-					+ catName + " non trouvee");
-		}
-		if (cat.getCodeReducUtilise()) {
-			c.setCategorie(cat, reduc);
-		} else {
-			c.setCategorie(cat);
-		}
+	public Recettes getRecettes() {
+		return recettes;
 	}
 
 	/**
-	 * changerCodeReduction modifie le code de reduction d'un client.
-	 * @param nom du client
-	 * @param prenom du client
-	 * @param reduc  code de réduction
-	 * @throws OperationImpossible si client inexistant ou 
-	 * si changement de code de reduction sur une categorie sans 
-	 * code de reduction.
+	 * page de documents dans l'ordre d'un tri. La premiere page est
+	 * demandee sans curseur, les suivantes avec celui de la page
+	 * precedente.
+	 *   @param tri ordre des documents
+	 *   @param filtre documents retenus, null pour tous
+	 *   @param taille nombre maximal de documents de la page
+	 *   @param curseur curseur de la page precedente, null pour la premiere
+	 *   @return page
+	 *   @throws OperationImpossible taille nulle ou curseur invalide
 	 */
-	public void changerCodeReduction(final String nom, final String prenom, 
-			final int reduc)
-					throws OperationImpossible {
-		Client c = chercherClient(nom, prenom);
-		if (c == null) {
-			throw new OperationImpossible("Client " + nom + " " 
-					+ prenom + " non trouve");
-		}
-		CategorieClient cat = c.getCategorie();
-		if (cat.getCodeReducUtilise()) {
-			c.setReduc(reduc);
-		} else {
-			throw new OperationImpossible("Changement de code de reduction "
-					+ "sur une categorie sans code");
-		}
+	public synchronized Page<Document> pageDocuments(final Page.Tri tri,
+			final Predicate<? super Document> filtre, final int taille,
+			final String curseur) throws OperationImpossible {
+		return requetes().documents(tri, filtre, taille, curseur);
 	}
 
 	/**
-	 * <TT>chercherClient</TT> cherche le client dont les nom et
-	 * prenom sont donnes en parametre.
-	 *    @param nom Nom du client a chercher
-	 *    @param prenom Prenom du client a chercher
-	 *    @return Le client ou <code>null</code> en cas d'echec
+	 * page de clients par nom puis prenom.
+	 *   @param filtre clients retenus, null pour tous
+	 *   @param taille nombre maximal de clients de la page
+	 *   @param curseur curseur de la page precedente, null pour la premiere
+	 *   @return page
+	 *   @throws OperationImpossible taille nulle ou curseur invalide
 	 */
-	public Client chercherClient(final String nom, final String prenom) {
-		HashClient hc = new HashClient(nom, prenom);
-		if (lesClients.containsKey(hc)) {
-			return lesClients.get(hc);
-		}
-		return null;
+	public synchronized Page<Client> pageClients(
+			final Predicate<? super Client> filtre, final int taille,
+			final String curseur) throws OperationImpossible {
+		return requetes().clients(filtre, taille, curseur);
 	}
 
 	/**
-	 * affiche les Clients en cours.
+	 * page d'emprunts en cours par date limite.
+	 *   @param filtre emprunts retenus, null pour tous
+	 *   @param taille nombre maximal d'emprunts de la page
+	 *   @param curseur curseur de la page precedente, null pour la premiere
+	 *   @return page
+	 *   @throws OperationImpossible taille nulle ou curseur invalide
 	 */
-	public void listerClients() {
-		System.out.println("Mediatheque " + nomMedia 
-				+ "  listage des clients au "
-				+ Datutil.dateToString(Datutil.dateDuJour()));
-		if (lesClients.isEmpty()) {
-			System.out.println("(neant)");
-		} else {
-			for (Client c : lesClients.values()) {
-				System.out.println(c);
-			}
-		}
+	public synchronized Page<FicheEmprunt> pageEmprunts(
+			final Predicate<? super FicheEmprunt> filtre, final int taille,
+			final String curseur) throws OperationImpossible {
+		return requetes().emprunts(filtre, taille, curseur);
 	}
 
 	/**
-	 * existeClient teste s'il existe un client de cette categorie
-	 * pour eviter de detruire une categorie si un client la reference encore.
-	 * @param cat la categorie du client
-	 * @return true si elle existe false sinon
+	 * emprunts en cours a rendre dans les jours a venir, aujourd'hui
+	 * compris, par date limite : par exemple pour prevenir les clients
+	 * avant l'echeance.
+	 *   @param jours nombre de jours apres aujourd'hui
+	 *   @return fiches d'emprunt
 	 */
-	public boolean existeClient(final CategorieClient cat) {
+	public synchronized List<FicheEmprunt> empruntsAEcheance(
+			final int jours) {
+		int jour = horloge().jour();
+		return requetes().echeances(jour, (long) jour + jours);
+	}
+
+	/**
+	 * nombre d'emprunts en cours a rendre dans les jours a venir,
+	 * aujourd'hui compris.
+	 *   @param jours nombre de jours apres aujourd'hui
+	 *   @return nombre d'emprunts
+	 */
+	public synchronized int nbEmpruntsAEcheance(final int jours) {
+		int jour = horloge().jour();
+		return requetes().nbEcheances(jour, (long) jour + jours);
+	}
+
+	/**
+	 * emprunts en cours dont la date limite est passee, du plus en
+	 * retard au moins en retard.
+	 *   @return fiches d'emprunt
+	 */
+	public synchronized List<FicheEmprunt> empruntsEnRetard() {
+		return requetes().echeances(Long.MIN_VALUE, horloge().jour() - 1L);
+	}
+
+	/**
+	 * nombre d'emprunts en cours dont la date limite est passee.
+	 *   @return nombre d'emprunts
+	 */
+	public synchronized int nbEmpruntsEnRetard() {
+		return requetes().nbEcheances(Long.MIN_VALUE, horloge().jour() - 1L);
+	}
+
+	/**
+	 * index des requetes paginees, cree au premier usage sur les
+	 * tables courantes.
+	 *   @return index
+	 */
+	private Requetes requetes() {
+		if (requetes == null) {
+			requetes = new Requetes(lesDocuments, lesClients, lesEmprunts);
+		}
+		return requetes;
+	}
+
+	/**
+	 * clients dont le nom ou le prenom contient chacun des mots
+	 * cherches, sans tenir compte de la casse ni des accents. Un mot de
+	 * moins de trois lettres doit commencer un nom, un prenom ou un mot
+	 * de l'adresse ; un mot plus long peut en etre une partie.
+	 *   @param texte mots cherches, par exemple "dup jea"
+	 *   @param adresse true pour chercher aussi dans l'adresse
+	 *   @return clients par nom puis prenom, vide si aucun mot
+	 */
+	public synchronized List<Client> rechercherClients(final String texte,
+			final boolean adresse) {
+		if (recherche == null) {
+			recherche = new RechercheClients(lesClients.values());
+		}
+		return recherche.chercher(texte, adresse);
+	}
+
+	/**
+	 * exporte les documents de la vue courante, sans bloquer la
+	 * mediatheque pendant l'ecriture.
+	 *   @param export export a remplir
+	 *   @param filtre documents a exporter, null pour tous
+	 *   @return nombre de documents exportes
+	 *   @throws IOException ecriture impossible
+	 */
+	public int exporterDocuments(final Export export,
+			final Predicate<? super Document> filtre) throws IOException {
+		return export.documents(vue().getDocuments().values(), filtre);
+	}
+
+	/**
+	 * exporte les clients de la vue courante, sans bloquer la
+	 * mediatheque pendant l'ecriture.
+	 *   @param export export a remplir
+	 *   @param filtre clients a exporter, null pour tous
+	 *   @return nombre de clients exportes
+	 *   @throws IOException ecriture impossible
+	 */
+	public int exporterClients(final Export export,
+			final Predicate<? super Client> filtre) throws IOException {
+		return export.clients(vue().getClients().values(), filtre);
+	}
+
+	/**
+	 * exporte les emprunts en cours de la vue courante, sans bloquer la
+	 * mediatheque pendant l'ecriture.
+	 *   @param export export a remplir
+	 *   @param filtre emprunts a exporter, null pour tous
+	 *   @return nombre d'emprunts exportes
+	 *   @throws IOException ecriture impossible
+	 */
+	public int exporterEmprunts(final Export export,
+			final Predicate<? super FicheEmprunt> filtre) throws IOException {
+		return export.emprunts(vue().getEmprunts().values(), filtre);
+	}
+
+	/**
+	 * exporte les genres, recopies sous le verrou de la mediatheque.
+	 *   @param export export a remplir
+	 *   @param filtre genres a exporter, null pour tous
+	 *   @return nombre de genres exportes
+	 *   @throws IOException ecriture impossible
+	 */
+	public int exporterGenres(final Export export,
+			final Predicate<? super Genre> filtre) throws IOException {
+		List<Genre> genres;
+		synchronized (this) {
+			genres = new ArrayList<Genre>(lesGenres);
+		}
+		return export.genres(genres, filtre);
+	}
+
+	/**
+	 * exporte les localisations, recopiees sous le verrou de la
+	 * mediatheque.
+	 *   @param export export a remplir
+	 *   @param filtre localisations a exporter, null pour toutes
+	 *   @return nombre de localisations exportees
+	 *   @throws IOException ecriture impossible
+	 */
+	public int exporterLocalisations(final Export export,
+			final Predicate<? super Localisation> filtre) throws IOException {
+		List<Localisation> locs;
+		synchronized (this) {
+			locs = new ArrayList<Localisation>(lesLocalisations);
+		}
+		return export.localisations(locs, filtre);
+	}
+
+	/**
+	 * historique de tous les emprunts, restitues ou non, par client et
+	 * par document.
+	 *   @return historique
+	 */
+	public Historique getHistorique() {
+		return historique;
+	}
+
+	/**
+	 * instantane en lecture des documents, des clients et des emprunts
+	 * en cours. L'obtenir ne bloque pas la mediatheque, sauf la premiere
+	 * fois ou apres un rechargement, ou toutes les entites sont copiees ;
+	 * ensuite chaque modification d'une entite publie sa copie figee dans
+	 * une vue qui partage le reste avec la precedente.
+	 *   @return derniere vue
+	 */
+	public Vue vue() {
+		Vue v = vue;
+		if (v == null) {
+			synchronized (this) {
+				if (vue == null) {
+					vue = nouvelleVue();
+				}
+				v = vue;
+			}
+		}
+		return v;
+	}
+
+	/**
+	 * construit une vue des copies figees des documents, des clients et
+	 * des emprunts en cours ; les fiches referencent les copies des
+	 * tables.
+	 *   @return vue complete
+	 */
+	private Vue nouvelleVue() {
+		TablePersistante<String, Document> docs = TablePersistante.vide();
+		for (Document d : lesDocuments.values()) {
+			docs = docs.avec(d.getCode(), figer(d));
+		}
+		TablePersistante<HashClient, Client> clients = TablePersistante.vide();
+		for (Map.Entry<HashClient, Client> e : lesClients.entrySet()) {
+			clients = clients.avec(e.getKey(), figer(e.getValue()));
+		}
+		TablePersistante<String, FicheEmprunt> emprunts =
+				TablePersistante.vide();
+		for (FicheEmprunt fe : lesEmprunts) {
+			String code = fe.getDocument().getCode();
+			Client c = clients.get(new HashClient(fe.getClient().getNom(),
+					fe.getClient().getPrenom()));
+			Document d = docs.get(code);
+			emprunts = emprunts.avec(code, fe.copieFigee(
+					c == null ? figer(fe.getClient()) : c,
+					d == null ? figer(fe.getDocument()) : d));
+		}
+		return new Vue(docs, clients, emprunts);
+	}
+
+	/**
+	 * publie la copie figee d'une entite modifiee dans la vue et dans
+	 * les segments a reecrire. Les fils de la verification parallele
+	 * publient en meme temps : la publication se fait sous le verrou du
+	 * suivi.
+	 *   @param e entite modifiee
+	 */
+	private void publier(final Modifiable e) {
+		if (e instanceof Document) {
+			publierDocument((Document) e, false);
+		} else if (e instanceof Client) {
+			Client c = (Client) e;
+			publierClient(new HashClient(c.getNom(), c.getPrenom()), c, false);
+		} else if (e instanceof FicheEmprunt) {
+			publierEmprunt((FicheEmprunt) e, false);
+		} else {
+			referentielModifie(e);
+		}
+	}
+
+	/**
+	 * oublie la copie figee d'un genre, d'une localisation ou d'une
+	 * categorie ajoute, retire ou modifie, et salit son segment.
+	 *   @param e referentiel
+	 */
+	private void referentielModifie(final Object e) {
+		synchronized (suivi) {
+			referentielsFiges.remove(e);
+			Segments s = segments;
+			if (s != null) {
+				s.referentielModifie(e);
+			}
+		}
+	}
+
+	/**
+	 * oublie les copies figees de la vue et des segments, reconstruites
+	 * au premier usage : apres le renommage d'un referentiel que les
+	 * documents ou les clients referencent par son nom, ou le passage
+	 * au catalogue projete.
+	 */
+	private void oublierCopies() {
+		vue = null;
+		if (segments != null) {
+			segments.oublier();
+		}
+	}
+
+	/**
+	 * indique si la vue ou les segments attendent les copies figees des
+	 * entites modifiees.
+	 *   @return true si une copie est a publier
+	 */
+	private boolean aPublier() {
+		Segments s = segments;
+		return vue != null || s != null && s.suit();
+	}
+
+	/**
+	 * publie la copie figee d'un document.
+	 *   @param d document
+	 *   @param ajout false pour ne remplacer qu'une copie presente
+	 */
+	private void publierDocument(final Document d, final boolean ajout) {
+		synchronized (suivi) {
+			if (!aPublier()) {
+				return;
+			}
+			Document f = figer(d);
+			Vue v = vue;
+			if (v != null
+					&& (ajout || v.getDocuments().containsKey(d.getCode()))) {
+				vue = v.avecDocument(f);
+			}
+			Segments s = segments;
+			if (s != null) {
+				s.mettreDocument(d.getCode(), f, ajout);
+			}
+		}
+	}
+
+	/**
+	 * retire la copie figee d'un document.
+	 *   @param code code du document
+	 */
+	private void oublierDocument(final String code) {
+		synchronized (suivi) {
+			Vue v = vue;
+			if (v != null) {
+				vue = v.sansDocument(code);
+			}
+			Segments s = segments;
+			if (s != null) {
+				s.mettreDocument(code, null, false);
+			}
+		}
+	}
+
+	/**
+	 * publie la copie figee d'un client, et dans la vue celles de ses
+	 * emprunts, qui referencent la copie. Les fiches d'emprunt des
+	 * segments referencent le client par son nom : elles sont reecrites
+	 * quand il change de cle.
+	 *   @param hc cle du client
+	 *   @param c client
+	 *   @param ajout true pour une nouvelle cle, false pour ne remplacer
+	 *     qu'une copie presente
+	 */
+	private void publierClient(final HashClient hc, final Client c,
+			final boolean ajout) {
+		synchronized (suivi) {
+			if (!aPublier()) {
+				return;
+			}
+			Client fc = figer(c);
+			Vue v = vue;
+			if (v != null && (ajout || v.getClients().containsKey(hc))) {
+				v = v.avecClient(hc, fc);
+				for (FicheEmprunt fe : c.getEmprunts()) {
+					String code = fe.getDocument().getCode();
+					if (v.getEmprunts().containsKey(code)) {
+						v = v.avecEmprunt(
+								fe.copieFigee(fc, figer(fe.getDocument())));
+					}
+				}
+				vue = v;
+			}
+			Segments s = segments;
+			if (s != null) {
+				s.mettreClient(hc, fc, ajout);
+				if (ajout) {
+					for (FicheEmprunt fe : c.getEmprunts()) {
+						s.mettreEmprunt(fe.getDocument().getCode(),
+								fe.copieFigee(fc, figer(fe.getDocument())),
+								false);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * retire la copie figee d'un client.
+	 *   @param hc cle du client
+	 */
+	private void oublierClient(final HashClient hc) {
+		synchronized (suivi) {
+			Vue v = vue;
+			if (v != null) {
+				vue = v.sansClient(hc);
+			}
+			Segments s = segments;
+			if (s != null) {
+				s.mettreClient(hc, null, false);
+			}
+		}
+	}
+
+	/**
+	 * publie la copie figee d'une fiche d'emprunt.
+	 *   @param fe fiche
+	 *   @param ajout false pour ne remplacer qu'une copie presente
+	 */
+	private void publierEmprunt(final FicheEmprunt fe, final boolean ajout) {
+		synchronized (suivi) {
+			if (!aPublier()) {
+				return;
+			}
+			FicheEmprunt f = figer(fe);
+			String code = fe.getDocument().getCode();
+			Vue v = vue;
+			if (v != null && (ajout || v.getEmprunts().containsKey(code))) {
+				vue = v.avecEmprunt(f);
+			}
+			Segments s = segments;
+			if (s != null) {
+				s.mettreEmprunt(code, f, ajout);
+			}
+		}
+	}
+
+	/**
+	 * retire la copie figee d'une fiche d'emprunt restituee.
+	 *   @param fe fiche
+	 */
+	private void oublierEmprunt(final FicheEmprunt fe) {
+		synchronized (suivi) {
+			Vue v = vue;
+			if (v != null) {
+				vue = v.sansEmprunt(fe);
+			}
+			Segments s = segments;
+			if (s != null) {
+				s.mettreEmprunt(fe.getDocument().getCode(), null, false);
+			}
+		}
+	}
+
+	/**
+	 * copie figee d'un document.
+	 *   @param d document
+	 *   @return copie avec les copies figees de ses genre et localisation
+	 */
+	Document figer(final Document d) {
+		return d.copieFigee(figer(d.getGenre()), figer(d.getLocalisation()));
+	}
+
+	/**
+	 * copie figee d'un client.
+	 *   @param c client
+	 *   @return copie avec la copie figee de sa categorie
+	 */
+	Client figer(final Client c) {
+		return c.copieFigee(figer(c.getCategorie()));
+	}
+
+	/**
+	 * copie figee d'une fiche d'emprunt.
+	 *   @param fe fiche
+	 *   @return copie avec les copies figees de son client et son document
+	 */
+	FicheEmprunt figer(final FicheEmprunt fe) {
+		return fe.copieFigee(figer(fe.getClient()), figer(fe.getDocument()));
+	}
+
+	/**
+	 * copie figee d'un genre, partagee jusqu'a sa prochaine modification.
+	 *   @param g genre
+	 *   @return copie
+	 */
+	private Genre figer(final Genre g) {
+		Genre f = (Genre) referentielsFiges.get(g);
+		if (f == null) {
+			f = g.copieFigee();
+			referentielsFiges.put(g, f);
+		}
+		return f;
+	}
+
+	/**
+	 * copie figee d'une localisation, partagee jusqu'a sa prochaine
+	 * modification.
+	 *   @param l localisation
+	 *   @return copie
+	 */
+	private Localisation figer(final Localisation l) {
+		Localisation f = (Localisation) referentielsFiges.get(l);
+		if (f == null) {
+			f = l.copieFigee();
+			referentielsFiges.put(l, f);
+		}
+		return f;
+	}
+
+	/**
+	 * copie figee d'une categorie, partagee jusqu'a sa prochaine
+	 * modification.
+	 *   @param cat categorie
+	 *   @return copie
+	 */
+	private CategorieClient figer(final CategorieClient cat) {
+		CategorieClient f = (CategorieClient) referentielsFiges.get(cat);
+		if (f == null) {
+			f = cat.copieFigee();
+			referentielsFiges.put(cat, f);
+		}
+		return f;
+	}
+
+	/**
+	 * suit les modifications d'une entite relue au premier acces, d'un
+	 * instantane ou du catalogue projete.
+	 *   @param entite entite relue
+	 */
+	void suivre(final Modifiable entite) {
+		entite.suivre(suivi);
+	}
+
+	/**
+	 * suit les modifications des entites relues. Les documents et les
+	 * clients des tables relues au premier acces sont suivis a leur
+	 * chargement. Les copies figees des segments, perimees, sont
+	 * reconstruites a la prochaine capture.
+	 */
+	private void suivreTout() {
+		referentielsFiges.clear();
+		if (segments != null) {
+			segments.oublier();
+		}
+		for (Genre g : lesGenres) {
+			g.suivre(suivi);
+		}
+		for (Localisation l : lesLocalisations) {
+			l.suivre(suivi);
+		}
+		for (CategorieClient c : lesCatsClient) {
+			c.suivre(suivi);
+		}
+		if (!(lesDocuments instanceof TableParesseuse)
+				&& !(lesDocuments instanceof CatalogueMappe)) {
+			for (Document d : lesDocuments.values()) {
+				d.suivre(suivi);
+			}
+		}
+		if (!(lesClients instanceof TableParesseuse)) {
+			for (Client c : lesClients.values()) {
+				c.suivre(suivi);
+			}
+		}
+		for (FicheEmprunt fe : lesEmprunts) {
+			fe.suivre(suivi);
+			fe.getDocument().suivre(suivi);
+		}
+	}
+
+	/**
+	 * documents le plus souvent empruntes par les clients qui ont
+	 * emprunte un document, par poids decroissant ; un co-emprunt de
+	 * meme genre compte double.
+	 *   @param code code du document
+	 *   @param k nombre maximal de suggestions
+	 *   @return codes des documents suggeres, vide si le document n'a
+	 *   jamais ete emprunte
+	 */
+	public synchronized List<String> recommander(final String code,
+			final int k) {
+		if (recommandations == null) {
+			recommandations = new Recommandations(historique, lesDocuments);
+		}
+		return recommandations.recommander(code, k);
+	}
+
+	/**
+	 * clients dont la cotisation arrive a echeance dans les jours a
+	 * venir, aujourd'hui compris, par date de renouvellement.
+	 *   @param jours nombre de jours apres aujourd'hui
+	 *   @return clients a relancer pour leur cotisation
+	 */
+	public synchronized List<Client> clientsAEcheance(final int jours) {
+		int jour = horloge().jour();
+		return renouvellements().entre(jour, jour + jours);
+	}
+
+	/**
+	 * clients dont la cotisation est echue : ils ne peuvent plus
+	 * emprunter avant de l'avoir renouvelee.
+	 *   @return clients, par date de renouvellement
+	 */
+	public synchronized List<Client> clientsEchus() {
+		return renouvellements().avant(horloge().jour());
+	}
+
+	/**
+	 * index des clients par date de renouvellement, construit au
+	 * premier usage a partir de la table des clients.
+	 *   @return index
+	 */
+	private Renouvellements renouvellements() {
+		if (renouvellements == null) {
+			renouvellements = new Renouvellements(lesClients.values());
+		}
+		return renouvellements;
+	}
+
+	/**
+	 * Modifier les informations d'un client. Nom, ou prénom, 
+	 * ou adresse ou categorie.
+	 * @param client a modifier
+	 * @param nom ancien ou nouveau nom.
+	 * @param prenom ancien ou nouveau prenom.
+	 * @param adresse ancienne ou nouvelle adresse.
+	 * @param catnom categorie.
+	 * @param code reduction.
+	 * @throws OperationImpossible client inexistant.
+	 * @throws InvariantBroken problemen consistance client.
+	 */
+	public synchronized void modifierClient(final Client client, final String nom, 
+			final String prenom, 
+			final String adresse,
+			final String catnom, final int code) 
+					throws OperationImpossible, InvariantBroken {
+		HashClient newHash;
+		HashClient oldHash = 
+				new HashClient(client.getNom(), client.getPrenom());
+		boolean needNewHash = false;
+		boolean reindexer = false;
+		if (!lesClients.containsKey(oldHash)) {
+			throw new OperationImpossible("Client " + nom + " " + prenom
+					+ " inexistant");
+		}
+		if (!adresse.equals(client.getAdresse())) {
+			client.setAddresse(adresse);
+			reindexer = true;
+		}
+		client.suivre(null);
+		if (!nom.equals(client.getNom())) {
+			client.setNom(nom);
+			needNewHash = true;
+		}
+		if (!prenom.equals(client.getPrenom())) {
+			client.setPrenom(prenom);
+			needNewHash = true;
+		}
+		client.suivre(suivi);
+
+		if (needNewHash) {
+			newHash = new HashClient(nom, prenom);
+			lesClients.remove(oldHash);
+			lesClients.put(newHash, client);
+			oublierClient(oldHash);
+			publierClient(newHash, client, true);
+			if (requetes != null) {
+				requetes.retirerClient(oldHash);
+				requetes.ajouter(client);
+			}
+			historique.renommer(oldHash, newHash);
+		}
+		if (recherche != null && (reindexer || needNewHash)) {
+			recherche.ajouter(client);
+		}
+		CategorieClient catcli = chercherCatClient(catnom);
+		if (!catcli.equals(client.getCategorie())) {
+			changerCategorie(client, catcli, code);
+		}
+	}
+
+	/**
+	 * changerCategorie modifie la categorie du client.
+	 * @param nom du client
+	 * @param prenom du client
+	 * @param catName nom de la nouvelle categorie
+	 * @param reduc reduction si utilisee
+	 * @throws OperationImpossible si client non trouvé,
+	 * ou si categorie non trouvée.
+	 * @throws InvariantBroken problemen consistance client.
+	 */
+	public synchronized void changerCategorie(final String nom, final String prenom, 
+			final String catName, final int reduc)
+					throws OperationImpossible, InvariantBroken {
+		Client c = chercherClient(nom, prenom);
+		if (c == null) {
+			throw new OperationImpossible("Client " + nom + " " 
+					+ prenom + " non trouve");
+		}
+		CategorieClient cat = chercherCatClient(catName);
+		if (cat == null) {
+			throw new OperationImpossible("Categorie client " 
+					+ catName + " non trouvee");
+		}
+		changerCategorie(c, cat, reduc);
+	}
+
+	/**
+	 * change la categorie d'un client et range ses emprunts en cours
+	 * dans leur nouvelle categorie.
+	 * @param c client
+	 * @param cat nouvelle categorie
+	 * @param reduc code de reduction, si la categorie en utilise un
+	 * @throws OperationImpossible relai de setCategorie
+	 * @throws InvariantBroken relai de setCategorie
+	 */
+	private void changerCategorie(final Client c, final CategorieClient cat,
+			final int reduc) throws OperationImpossible, InvariantBroken {
+		CategorieClient ancienne = c.getCategorie();
+		if (cat.getCodeReducUtilise()) {
+			c.setCategorie(cat, reduc);
+		} else {
+			c.setCategorie(cat);
+		}
+		if (empruntsParCategorie != null) {
+			empruntsParCategorie.deplacer(c, ancienne);
+		}
+		if (requetes != null) {
+			for (FicheEmprunt fe : c.getEmprunts()) {
+				requetes.ajouter(fe);
+			}
+		}
+	}
+
+	/**
+	 * index des emprunts en cours par categorie de client, construit
+	 * au premier usage a partir des fiches d'emprunt.
+	 * @return index
+	 */
+	private EmpruntsParCategorie empruntsParCategorie() {
+		if (empruntsParCategorie == null) {
+			empruntsParCategorie = new EmpruntsParCategorie(lesEmprunts);
+		}
+		return empruntsParCategorie;
+	}
+
+	/**
+	 * changerCodeReduction modifie le code de reduction d'un client.
+	 * @param nom du client
+	 * @param prenom du client
+	 * @param reduc  code de réduction
+	 * @throws OperationImpossible si client inexistant ou 
+	 * si changement de code de reduction sur une categorie sans 
+	 * code de reduction.
+	 */
+	public synchronized void changerCodeReduction(final String nom, final String prenom, 
+			final int reduc)
+					throws OperationImpossible {
+		Client c = chercherClient(nom, prenom);
+		if (c == null) {
+			throw new OperationImpossible("Client " + nom + " " 
+					+ prenom + " non trouve");
+		}
+		CategorieClient cat = c.getCategorie();
+		if (cat.getCodeReducUtilise()) {
+			c.setReduc(reduc);
+		} else {
+			throw new OperationImpossible("Changement de code de reduction "
+					+ "sur une categorie sans code");
+		}
+	}
+
+	/**
+	 * <TT>chercherClient</TT> cherche le client dont les nom et
+	 * prenom sont donnes en parametre.
+	 *    @param nom Nom du client a chercher
+	 *    @param prenom Prenom du client a chercher
+	 *    @return Le client ou <code>null</code> en cas d'echec
+	 */
+	public Client chercherClient(final String nom, final String prenom) {
+		HashClient hc = new HashClient(nom, prenom);
+		if (lesClients.containsKey(hc)) {
+			return lesClients.get(hc);
+		}
+		return null;
+	}
+
+	/**
+	 * affiche les Clients en cours.
+	 */
+	public void listerClients() {
+		System.out.println("Mediatheque " + nomMedia 
+				+ "  listage des clients au "
+				+ Datutil.dateToString(Datutil.dateDuJour()));
+		Map<HashClient, Client> clients = vue().getClients();
+		if (clients.isEmpty()) {
+			System.out.println("(neant)");
+		} else {
+			StringBuilder sb = new StringBuilder(128);
+			for (Client c : clients.values()) {
+				sb.setLength(0);
+				System.out.println(c.ecrire(sb));
+			}
+		}
+	}
+
+	/**
+	 * existeClient teste s'il existe un client de cette categorie
+	 * pour eviter de detruire une categorie si un client la reference encore.
+	 * @param cat la categorie du client
+	 * @return true si elle existe false sinon
+	 */
+	public boolean existeClient(final CategorieClient cat) {
+		if (lesClients instanceof TableParesseuse) {
+			for (HashClient hc : lesClients.keySet()) {
+				Instantane.EtatClient etat = etatClient(hc);
+				if (etat == null ? lesClients.get(hc).getCategorie().equals(cat)
+						: etat.categorie.equals(cat.getNom())) {
+					return true;
+				}
+			}
+			return false;
+		}
 		for (Client c : lesClients.values()) {
 			if (c.getCategorie().equals(cat)) {
 				return true;
@@ -1064,6 +2321,20 @@ public final class Mediatheque implements Serializable {
 		}
 		return false;
 	}
+	/**
+	 * Etat leger d'un client non encore relu de l'instantane.
+	 * @param hc cle du client
+	 * @return etat leger ou null si le client est en memoire
+	 */
+	private Instantane.EtatClient etatClient(final HashClient hc) {
+		if (lesClients instanceof TableParesseuse) {
+			return (Instantane.EtatClient) 
+					((TableParesseuse<HashClient, Client>) lesClients)
+					.etat(hc);
+		}
+		return null;
+	}
+
 	/**
 	 * retourne le client correspondant au rang dans la collection.
 	 * @param n rang du client dans la collection.
@@ -1126,68 +2397,463 @@ public final class Mediatheque implements Serializable {
 	}
 	/**
 	 * initialisation des attributs à partir des objets
-	 *  serialisés dans un fichier.
+	 *  serialisés dans un fichier. Le fichier est controle au fil de
+	 *  la lecture ; s'il est altere ou tronque, il est conserve sous
+	 *  le nom de la mediatheque.data.corrompu et la mediatheque reste vide.
+	 *  Un fichier ecrit par une version incompatible des classes n'est
+	 *  pas ecarte : la mediatheque refuse de demarrer.
 	 * @return true si deserialisation ok, false sinon.
+	 * @throws IllegalStateException version de fichier incompatible
 	 */
 	public boolean initFromFile() {
-		FileInputStream fin;
+		InputStream fin;
 		Mediatheque media = null;
 
 		try {
-			fin = new FileInputStream(nomMedia + ".data");
+			fin = new BufferedInputStream(
+					new FileInputStream(nomMedia + ".data"));
 		} catch (FileNotFoundException fe) {
 			System.out.println(fe);
 			return false;
 		}
-		ObjectInputStream ois;
-
 		try {
-			ois = new ObjectInputStream(fin);
+			InputStream in = fin;
+			EntreeBlocs blocs = null;
+			if (!ancienFormat(fin)) {
+				blocs = new EntreeBlocs(fin);
+				in = blocs;
+			}
+			ObjectInputStream ois = new ObjectInputStream(in);
 			media = (Mediatheque) ois.readObject();
-			lesCatsClient = media.lesCatsClient;
-			lesGenres = media.lesGenres;
-			lesLocalisations = media.lesLocalisations;
-			lesClients = media.lesClients;
-			lesDocuments = media.lesDocuments;
-			lesEmprunts = media.lesEmprunts;
-
+			if (blocs != null) {
+				blocs.verifierFin();
+			}
 			ois.close();
-			fin.close();
+		} catch (InvalidClassException ice) {
+			try {
+				fin.close();
+			} catch (IOException ioe) {
+				System.out.println(ioe);
+			}
+			throw new IllegalStateException("Fichier " + nomMedia
+					+ ".data d'une version incompatible : " + ice.getMessage(),
+					ice);
 		} catch (IOException ioe) {
 			System.out.println(ioe);
 			System.out.println("Error reading mediatheque data");
+			ecarterFichier(fin);
+			return false;
 		} catch (ClassNotFoundException cnfe) {
 			System.out.println(cnfe);
 			System.out.println("Error finding mediatheque class");
+			ecarterFichier(fin);
+			return false;
+		}
+		lesCatsClient = media.lesCatsClient;
+		lesGenres = media.lesGenres;
+		lesLocalisations = media.lesLocalisations;
+		lesClients = media.lesClients;
+		renouvellements = null;
+		recherche = null;
+		if (media.recettes != null) {
+			recettes = media.recettes;
+		}
+		if (media.historique != null) {
+			historique = media.historique;
+		}
+		recommandations = null;
+		lesDocuments = media.lesDocuments;
+		lesEmprunts = new EmpruntsEnCours(media.lesEmprunts);
+		empruntsParCategorie = null;
+		vue = null;
+		requetes = null;
+		relierEmprunts();
+		relierCatalogue();
+		suivreTout();
+		return true;
+	}
+
+	/**
+	 * indique si le fichier est une serialisation sans blocs controles,
+	 * ecrite par une version precedente.
+	 * @param in flux supportant mark
+	 * @return true si le flux commence par l'entete de serialisation
+	 * @throws IOException lecture impossible
+	 */
+	private static boolean ancienFormat(final InputStream in)
+			throws IOException {
+		in.mark(2);
+		boolean ancien = in.read() == 0xAC && in.read() == 0xED;
+		in.reset();
+		return ancien;
+	}
+
+	/**
+	 * met de cote un fichier de donnees illisible, pour qu'une
+	 * sauvegarde ulterieure ne l'ecrase pas.
+	 * @param fin flux ouvert sur le fichier
+	 */
+	private void ecarterFichier(final InputStream fin) {
+		try {
+			fin.close();
+			Files.move(Paths.get(nomMedia + ".data"),
+					Paths.get(nomMedia + ".data.corrompu"),
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException ioe) {
+			System.out.println(ioe);
+		}
+		empty();
+	}
+
+	/**
+	 * Rattache les fiches d'emprunt relues a leurs clients.
+	 */
+	private void relierEmprunts() {
+		for (FicheEmprunt emprunt : lesEmprunts) {
+			emprunt.getClient().rattacher(emprunt);
+		}
+	}
+
+	/**
+	 * initialisation paresseuse a partir de l'instantane
+	 * nom de la mediatheque.snap.
+	 * @return true si l'instantane a ete lu, false sinon.
+	 * @see #sauverInstantane()
+	 */
+	public boolean initFromInstantane() {
+		Path f = Paths.get(nomMedia + ".snap");
+		if (!Files.exists(f)) {
+			return false;
+		}
+		try {
+			Instantane.charger(this, f);
+		} catch (IOException ioe) {
+			System.out.println(ioe);
+			System.out.println("Error reading mediatheque snapshot");
+			empty();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * ecriture de l'instantane nom de la mediatheque.snap, relu par
+	 * le constructeur en mode paresseux jusqu'a la prochaine
+	 * sauvegarde complete ou en segments, qui le supprime.
+	 * @return true si ok, false sinon.
+	 */
+	public synchronized boolean sauverInstantane() {
+		try {
+			Instantane.sauver(this, Paths.get(nomMedia + ".snap"));
+		} catch (IOException ioe) {
+			System.out.println(ioe);
+			System.out.println("Error writing mediatheque snapshot");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * initialisation a partir des segments du repertoire
+	 * nom de la mediatheque.seg.
+	 * @return true si les segments ont ete lus, false sinon.
+	 * @see #sauverSegments()
+	 */
+	public boolean initFromSegments() {
+		return chargerSegments(new Chronometre());
+	}
+
+	/**
+	 * chargement parallele des segments. Si une sauvegarde concurrente
+	 * remplace les segments pendant la lecture, la lecture est reprise
+	 * sur la nouvelle generation.
+	 * @param chrono mesure de la duree de chaque etape
+	 * @return true si les segments ont ete lus, false sinon.
+	 */
+	private boolean chargerSegments(final Chronometre chrono) {
+		Segments s = new Segments(Paths.get(nomMedia + ".seg"),
+				Paths.get(nomMedia + ".snap"));
+		if (!s.existe()) {
+			return false;
+		}
+		for (int i = 1; ; i++) {
+			try {
+				s.charger(this, chrono);
+				break;
+			} catch (IOException ioe) {
+				empty();
+				if (i >= Segments.TENTATIVES || !s.remplace()) {
+					System.out.println(ioe);
+					System.out.println("Error reading mediatheque segments");
+					return false;
+				}
+			}
+		}
+		segments = s;
+		return true;
+	}
+
+	/**
+	 * sauvegarde incrementale dans le repertoire nom de la
+	 * mediatheque.seg : seuls les segments contenant une entite
+	 * modifiee, ajoutee ou retiree depuis la derniere sauvegarde
+	 * sont reecrits.
+	 * @return true si ok, false sinon.
+	 */
+	public synchronized boolean sauverSegments() {
+		try {
+			int n = segments().sauver(this);
+			if (debug) {
+				System.out.println(n + " segments reecrits");
+			}
+		} catch (IOException ioe) {
+			System.out.println(ioe);
+			System.out.println("Error writing mediatheque segments");
+			return false;
 		}
 		return true;
 	}
+
+	/**
+	 * segments de la mediatheque, crees au premier usage.
+	 * @return segments
+	 */
+	private synchronized Segments segments() {
+		if (segments == null) {
+			segments = new Segments(Paths.get(nomMedia + ".seg"),
+					Paths.get(nomMedia + ".snap"));
+		}
+		return segments;
+	}
+
+	/**
+	 * demarre les points de controle : les segments modifies sont
+	 * captures a intervalle regulier puis ecrits en arriere-plan, les
+	 * operations n'etant bloquees que le temps de la capture.
+	 * @param periode delai entre la fin d'un point de controle et le
+	 *    debut du suivant
+	 * @param unite unite du delai
+	 * @see #arreterPointsDeControle()
+	 */
+	public void demarrerPointsDeControle(final long periode,
+			final TimeUnit unite) {
+		arreterPointsDeControle();
+		PointDeControle p = new PointDeControle(this, segments());
+		ScheduledExecutorService e =
+				Executors.newSingleThreadScheduledExecutor(p);
+		e.scheduleWithFixedDelay(p, periode, periode, unite);
+		synchronized (this) {
+			pointsDeControle = e;
+		}
+	}
+
+	/**
+	 * arrete les points de controle, attend la fin de celui en cours
+	 * puis sauvegarde les dernieres modifications.
+	 * @return true si la derniere sauvegarde est ok, false sinon.
+	 */
+	public boolean arreterPointsDeControle() {
+		ScheduledExecutorService e;
+		synchronized (this) {
+			e = pointsDeControle;
+			pointsDeControle = null;
+		}
+		if (e == null) {
+			return true;
+		}
+		e.shutdown();
+		try {
+			e.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return sauverSegments();
+	}
+
+	// Acces reserves aux formats de sauvegarde du paquetage
+	/**
+	 * liste des genres.
+	 * @return genres
+	 */
+	List<Genre> genres() {
+		return lesGenres;
+	}
+
+	/**
+	 * liste des localisations.
+	 * @return localisations
+	 */
+	List<Localisation> localisations() {
+		return lesLocalisations;
+	}
+
+	/**
+	 * liste des categories de client.
+	 * @return categories
+	 */
+	List<CategorieClient> categories() {
+		return lesCatsClient;
+	}
+
+	/**
+	 * table des documents.
+	 * @return documents
+	 */
+	Map<String, Document> documents() {
+		return lesDocuments;
+	}
+
+	/**
+	 * table des clients.
+	 * @return clients
+	 */
+	Map<HashClient, Client> clients() {
+		return lesClients;
+	}
+
+	/**
+	 * liste des fiches d'emprunt.
+	 * @return fiches
+	 */
+	List<FicheEmprunt> fiches() {
+		return lesEmprunts;
+	}
+
+	/**
+	 * remplace genres, localisations et categories relus.
+	 * @param genres genres
+	 * @param locs localisations
+	 * @param cats categories de client
+	 */
+	void initialiserReferentiels(final List<Genre> genres, 
+			final List<Localisation> locs, final List<CategorieClient> cats) {
+		lesGenres = genres;
+		lesLocalisations = locs;
+		lesCatsClient = cats;
+	}
+
+	/**
+	 * journal des recettes.
+	 * @return recettes
+	 */
+	Recettes recettes() {
+		return recettes;
+	}
+
+	/**
+	 * remplace le journal des recettes relu.
+	 * @param r recettes
+	 */
+	void initialiserRecettes(final Recettes r) {
+		recettes = r;
+	}
+
+	/**
+	 * historique des emprunts.
+	 * @return historique
+	 */
+	Historique historique() {
+		return historique;
+	}
+
+	/**
+	 * remplace l'historique des emprunts relu.
+	 * @param h historique
+	 */
+	void initialiserHistorique(final Historique h) {
+		historique = h;
+		recommandations = null;
+	}
+
+	/**
+	 * remplace les tables de documents et de clients relues.
+	 * @param docs documents
+	 * @param clients clients
+	 */
+	void initialiserTables(final Map<String, Document> docs, 
+			final Map<HashClient, Client> clients) {
+		lesDocuments = docs;
+		lesClients = clients;
+		renouvellements = null;
+		recherche = null;
+		recommandations = null;
+		vue = null;
+		requetes = null;
+	}
+
+	/**
+	 * remplace les fiches d'emprunt relues et les rattache a leurs
+	 * clients et documents.
+	 * @param fiches fiches d'emprunt
+	 */
+	void initialiserEmprunts(final List<FicheEmprunt> fiches) {
+		lesEmprunts = new EmpruntsEnCours(fiches);
+		empruntsParCategorie = null;
+		vue = null;
+		requetes = null;
+		relierEmprunts();
+		relierCatalogue();
+		suivreTout();
+	}
+
 	/**
 	 * serialisation des attributs dans un fichier du nom de 
-	 * la mediatheque.data.
+	 * la mediatheque.data, en blocs controles. Le fichier est ecrit
+	 * a cote, synchronise sur disque puis renomme : une interruption
+	 * laisse la sauvegarde precedente intacte.
 	 * @return true si ok, false sinon.
 	 */
 	public boolean saveToFile() {
+		return saveToFile(false);
+	}
+
+	/**
+	 * serialisation des attributs dans le fichier nom de la
+	 * mediatheque.data, en blocs eventuellement compresses. Les blocs
+	 * sont compresses en parallele ; initFromFile reconnait les deux
+	 * formats. Les segments eventuels, plus anciens, ne sont plus relus
+	 * au lancement jusqu'a la prochaine sauvegarde en segments ;
+	 * l'instantane eventuel est supprime.
+	 * @param compresse blocs compresses
+	 * @return true si ok, false sinon.
+	 * @see #saveToFile()
+	 */
+	public synchronized boolean saveToFile(final boolean compresse) {
+		Path f = Paths.get(nomMedia + ".data");
+		Path tmp = Paths.get(nomMedia + ".data.tmp");
 		FileOutputStream fout;
 
 		try {
-			fout = new FileOutputStream(nomMedia + ".data");
+			fout = new FileOutputStream(tmp.toFile());
 		} catch (FileNotFoundException fe) {
 			System.out.println(fe);
 			return false;
 		}
-		ObjectOutputStream oos;
-
 		try {
-			oos = new ObjectOutputStream(fout);
+			SortieBlocs blocs = new SortieBlocs(fout, compresse);
+			ObjectOutputStream oos = new ObjectOutputStream(blocs);
 			oos.writeObject(this);
+			oos.flush();
+			blocs.terminer();
+			fout.getFD().sync();
 			oos.close();
-			fout.close();
+			Files.deleteIfExists(Paths.get(nomMedia + ".snap"));
+			Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			segments().invalider();
 		} catch (IOException ioe) {
 			System.out.println(ioe);
 			System.out.println("Error writing mediatheque data");
+			try {
+				fout.close();
+				Files.deleteIfExists(tmp);
+			} catch (IOException e) {
+				System.out.println(e);
+			}
 			return false;
 		}
 		return true;
 	}
+
 }
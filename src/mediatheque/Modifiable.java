@@ -0,0 +1,18 @@
+package mediatheque;
+/**
+ * L'interface <TT>Modifiable</TT> est implementee par les entites de la
+ * mediatheque qui previennent un suivi de chacune de leurs
+ * modifications : la mediatheque en tient a jour la vue en lecture et
+ * les segments a reecrire.
+ * @see SuiviModifications
+ * @see Segments
+ */
+public interface Modifiable {
+
+    /**
+     * <TT>suivre</TT> designe qui prevenir des modifications
+     * suivantes de l'entite.
+     *    @param s suivi a prevenir, ou null
+     */
+    void suivre(SuiviModifications s);
+}
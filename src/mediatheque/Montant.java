@@ -0,0 +1,110 @@
+package mediatheque;
+
+/**
+ * La classe <code>Montant</code> regroupe l'arithmetique en virgule fixe
+ * des sommes d'argent de la mediatheque. Un montant est un
+ * <code>long</code> en centimes et un coefficient tarifaire un
+ * <code>long</code> en dix-milliemes : les calculs et les totaux sont
+ * exacts, sans objet cree ni arrondi cumule. Les conversions depuis et
+ * vers les <code>double</code> ne servent qu'aux saisies et affichages.
+ */
+public final class Montant {
+	/** Nombre de centimes dans un euro. */
+	public static final long EURO = 100;
+	/** Valeur d'un coefficient egal a 1. */
+	public static final long UNITE = 10000;
+
+	/** Classe utilitaire. */
+	private Montant() {
+	}
+
+	/**
+	 * convertit une somme saisie en euros.
+	 * @param euros somme en euros
+	 * @return montant en centimes, arrondi au plus proche
+	 */
+	public static long centimes(final double euros) {
+		return Math.round(euros * EURO);
+	}
+
+	/**
+	 * convertit un montant pour l'affichage.
+	 * @param centimes montant en centimes
+	 * @return somme en euros
+	 */
+	public static double euros(final long centimes) {
+		return (double) centimes / EURO;
+	}
+
+	/**
+	 * convertit un coefficient saisi.
+	 * @param coef coefficient, 1.0 pour le tarif normal
+	 * @return coefficient en dix-milliemes, arrondi au plus proche
+	 */
+	public static long coefficient(final double coef) {
+		return Math.round(coef * UNITE);
+	}
+
+	/**
+	 * convertit un coefficient pour l'affichage.
+	 * @param coef coefficient en dix-milliemes
+	 * @return coefficient
+	 */
+	public static double reel(final long coef) {
+		return (double) coef / UNITE;
+	}
+
+	/**
+	 * applique un coefficient a un montant, arrondi au centime le plus
+	 * proche, les demi-centimes vers le haut.
+	 * @param centimes montant en centimes
+	 * @param coef coefficient en dix-milliemes
+	 * @return montant en centimes
+	 * @throws ArithmeticException en cas de depassement
+	 */
+	public static long appliquer(final long centimes, final long coef) {
+		return Math.floorDiv(Math.addExact(Math.multiplyExact(centimes, coef),
+				UNITE / 2), UNITE);
+	}
+
+	/**
+	 * somme de deux montants.
+	 * @param a montant en centimes
+	 * @param b montant en centimes
+	 * @return somme en centimes
+	 * @throws ArithmeticException en cas de depassement
+	 */
+	public static long ajouter(final long a, final long b) {
+		return Math.addExact(a, b);
+	}
+
+	/**
+	 * ecrit un montant en euros avec deux decimales, par exemple
+	 * <code>-1.05</code>.
+	 * @param centimes montant en centimes
+	 * @param sb destination
+	 * @return destination
+	 */
+	public static StringBuilder ecrire(final long centimes,
+			final StringBuilder sb) {
+		if (centimes < 0) {
+			sb.append('-');
+		}
+		long euros = Math.abs(centimes / EURO);
+		long reste = Math.abs(centimes % EURO);
+		sb.append(euros).append('.');
+		if (reste < 10) {
+			sb.append('0');
+		}
+		return sb.append(reste);
+	}
+
+	/**
+	 * texte d'un montant en euros avec deux decimales.
+	 * @param centimes montant en centimes
+	 * @return texte
+	 */
+	public static String toString(final long centimes) {
+		return ecrire(centimes, new StringBuilder(12)).toString();
+	}
+}
@@ -0,0 +1,60 @@
+package mediatheque;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * La classe <code>Page</code> est le resultat d'une requete paginee de
+ * la mediatheque : les elements de la page et un curseur opaque pour
+ * demander la suivante. Le curseur designe le dernier element rendu et
+ * non un rang : il reste valable si des elements sont ajoutes ou
+ * retires entre deux pages, et la suite se lit en O(log n) quelle que
+ * soit la profondeur.
+ * @param <T> type des elements
+ * @see Mediatheque#pageDocuments(Page.Tri, java.util.function.Predicate,
+ *      int, String)
+ */
+public final class Page<T> {
+	/**
+	 * Ordre des documents.
+	 */
+	public enum Tri {
+		/** Par titre, sans tenir compte de la casse, puis par code. */
+		TITRE,
+		/** Par auteur, sans tenir compte de la casse, puis par code. */
+		AUTEUR
+	}
+
+	/** Elements de la page. */
+	private final List<T> elements;
+	/** Curseur de la page suivante, null si c'est la derniere. */
+	private final String curseur;
+
+	/**
+	 * Constructeur.
+	 * @param e elements
+	 * @param c curseur de la page suivante, null si derniere page
+	 */
+	Page(final List<T> e, final String c) {
+		elements = Collections.unmodifiableList(e);
+		curseur = c;
+	}
+
+	/**
+	 * retourne les elements de la page, dans l'ordre du tri.
+	 * @return elements
+	 */
+	public List<T> getElements() {
+		return elements;
+	}
+
+	/**
+	 * retourne le curseur a passer a la requete pour la page suivante.
+	 * Une page pleine a toujours un curseur, meme si la suivante est
+	 * vide.
+	 * @return curseur, null si la page est la derniere
+	 */
+	public String getCurseur() {
+		return curseur;
+	}
+}
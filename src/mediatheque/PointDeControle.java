@@ -0,0 +1,67 @@
+package mediatheque;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * La classe <code>PointDeControle</code> sauvegarde periodiquement la
+ * mediatheque en arriere-plan. Chaque point de controle capture, sous
+ * le verrou de la mediatheque, les references immuables des seuls
+ * segments modifies depuis le precedent, puis les serialise et les
+ * ecrit sans bloquer les prets.
+ * Les points de controle s'executent sur un unique thread et a delai
+ * fixe : il n'y a jamais plus d'une image en memoire. L'ecriture
+ * partage le verrou des ecritures de <code>Segments</code> avec les
+ * sauvegardes explicites.
+ * @see Segments
+ */
+final class PointDeControle implements Runnable, ThreadFactory {
+	/** Mediatheque sauvegardee. */
+	private final Mediatheque media;
+	/** Segments de la mediatheque. */
+	private final Segments segments;
+
+	/**
+	 * Constructeur.
+	 * @param m mediatheque
+	 * @param s segments de la mediatheque
+	 */
+	PointDeControle(final Mediatheque m, final Segments s) {
+		media = m;
+		segments = s;
+	}
+
+	/**
+	 * Capture puis ecrit les segments modifies.
+	 */
+	@Override
+	public void run() {
+		try {
+			Segments.Image image = segments.capturer(media);
+			if (!image.estVide()) {
+				segments.ecrire(image);
+			}
+		} catch (IOException ioe) {
+			System.out.println(ioe);
+			System.out.println("Error writing mediatheque checkpoint");
+		} catch (RuntimeException re) {
+			// une exception non rattrapee annulerait les points de
+			// controle suivants
+			System.out.println(re);
+			System.out.println("Error writing mediatheque checkpoint");
+		}
+	}
+
+	/**
+	 * Thread des points de controle, qui n'empeche pas l'arret de
+	 * l'application.
+	 * @param r tache
+	 * @return thread demon
+	 */
+	@Override
+	public Thread newThread(final Runnable r) {
+		Thread t = new Thread(r, "Point de controle " + media.getNom());
+		t.setDaemon(true);
+		return t;
+	}
+}
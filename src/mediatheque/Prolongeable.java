@@ -0,0 +1,50 @@
+package mediatheque;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * L'interface <TT>Prolongeable</TT> est implementee par les journaux en
+ * ajout seulement de la mediatheque. Ils sont sauvegardes en entier une
+ * premiere fois, puis par suites : chaque suite ne contient que les
+ * ajouts depuis la precedente, et se relit a la suite de l'image
+ * complete.
+ * @see Segments
+ */
+interface Prolongeable extends Serializable {
+
+	/**
+	 * <TT>suivre</TT> est appelee apres la sauvegarde complete du
+	 * journal : la prochaine suite part de l'etat courant.
+	 */
+	void suivre();
+
+	/**
+	 * <TT>estSuivi</TT> indique si les ajouts sont suivis depuis une
+	 * sauvegarde complete.
+	 *    @return true si une suite peut etre prise
+	 */
+	boolean estSuivi();
+
+	/**
+	 * <TT>suite</TT> retourne les ajouts depuis la sauvegarde complete
+	 * ou la suite precedente, independants du journal ; la suite
+	 * suivante part de l'etat courant.
+	 *    @return ajouts, null s'il n'y en a pas
+	 */
+	Serializable suite();
+
+	/**
+	 * <TT>copie</TT> retourne une copie independante du journal, a
+	 * serialiser en entier sans bloquer les ajouts.
+	 *    @return copie du journal, non suivie
+	 */
+	Prolongeable copie();
+
+	/**
+	 * <TT>prolonger</TT> ajoute une suite relue au journal.
+	 *    @param suite ajouts retournes par <TT>suite</TT>
+	 *    @throws IOException suite qui ne prolonge pas le journal
+	 */
+	void prolonger(Object suite) throws IOException;
+}
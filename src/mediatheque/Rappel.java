@@ -0,0 +1,79 @@
+package mediatheque;
+
+import java.time.LocalDate;
+
+import mediatheque.client.Client;
+import mediatheque.document.Document;
+
+/**
+ * La classe <code>Rappel</code> decrit une lettre de rappel a envoyer
+ * a un client pour un emprunt depasse : premier rappel lorsque la date
+ * limite vient d'etre depassee, relance ensuite chaque semaine.
+ */
+public final class Rappel {
+	/** Emprunt depasse. */
+	private final FicheEmprunt emprunt;
+	/** Premier rappel ou relance. */
+	private final boolean premier;
+	/** Date du rappel. */
+	private final LocalDate date;
+
+	/**
+	 * Constructeur.
+	 * @param fe emprunt depasse
+	 * @param prem true pour un premier rappel, false pour une relance
+	 * @param d date du rappel
+	 */
+	Rappel(final FicheEmprunt fe, final boolean prem, final LocalDate d) {
+		emprunt = fe;
+		premier = prem;
+		date = d;
+	}
+
+	/**
+	 * retourne l'emprunt depasse.
+	 * @return fiche d'emprunt
+	 */
+	public FicheEmprunt getEmprunt() {
+		return emprunt;
+	}
+
+	/**
+	 * retourne le client a relancer.
+	 * @return client
+	 */
+	public Client getClient() {
+		return emprunt.getClient();
+	}
+
+	/**
+	 * retourne le document a restituer.
+	 * @return document
+	 */
+	public Document getDocument() {
+		return emprunt.getDocument();
+	}
+
+	/**
+	 * indique s'il s'agit du premier rappel.
+	 * @return true pour un premier rappel, false pour une relance
+	 */
+	public boolean estPremier() {
+		return premier;
+	}
+
+	/**
+	 * retourne la date du rappel.
+	 * @return date
+	 */
+	public LocalDate getDate() {
+		return date;
+	}
+
+	@Override
+	public String toString() {
+		return (premier ? "Rappel " : "Relance ") + HorlogeSysteme.texte(date)
+				+ " : " + getClient().getNom() + " " + getClient().getPrenom()
+				+ ", " + getDocument().getCode();
+	}
+}
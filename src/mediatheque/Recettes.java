@@ -0,0 +1,375 @@
+package mediatheque;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * La classe <code>Recettes</code> tient le journal des recettes de la
+ * mediatheque : cotisations a l'inscription et au renouvellement,
+ * tarifs des emprunts. Chaque recette est ajoutee au journal et aux
+ * cumuls du jour : total, par categorie de client et par type de
+ * document. Les recettes d'une periode se lisent par difference de
+ * deux sommes cumulees, sans parcourir le journal. Les montants sont
+ * en centimes (<code>Montant</code>).
+ * <P>
+ * Une fois suivi, le journal retient la categorie et le type des
+ * recettes enregistrees depuis la derniere suite : une suite les
+ * rejoue a la relecture, sans reecrire le journal ni les cumuls.
+ */
+public final class Recettes implements Prolongeable {
+	/** serial version. */
+	private static final long serialVersionUID = 1L;
+	/** Type des recettes de cotisation. */
+	public static final String COTISATION = "Cotisation";
+
+	/** Journal : jour de chaque recette, depuis le 1er janvier 1970. */
+	private int[] jours = new int[64];
+	/** Journal : montant de chaque recette en centimes. */
+	private long[] montants = new long[64];
+	/** Nombre de recettes du journal. */
+	private int taille;
+	/** Cumuls de toutes les recettes. */
+	private final Serie total = new Serie();
+	/** Cumuls par categorie de client. */
+	private final Map<String, Serie> parCategorie =
+			new LinkedHashMap<String, Serie>();
+	/** Cumuls par type de document, et des cotisations. */
+	private final Map<String, Serie> parType =
+			new LinkedHashMap<String, Serie>();
+	/** Ajouts suivis depuis une sauvegarde complete. */
+	private transient boolean suivi;
+	/** Nombre de recettes du journal lors de la derniere suite. */
+	private transient int sauvees;
+	/** Categorie de chaque recette depuis la derniere suite. */
+	private transient List<String> categories;
+	/** Type de chaque recette depuis la derniere suite. */
+	private transient List<String> types;
+
+	/**
+	 * enregistre une recette.
+	 * @param jour jour depuis le 1er janvier 1970
+	 * @param centimes montant
+	 * @param categorie nom de la categorie du client
+	 * @param type type de document emprunte, ou <code>COTISATION</code>
+	 */
+	synchronized void enregistrer(final int jour, final long centimes,
+			final String categorie, final String type) {
+		if (taille == jours.length) {
+			jours = Arrays.copyOf(jours, 2 * taille);
+			montants = Arrays.copyOf(montants, 2 * taille);
+		}
+		jours[taille] = jour;
+		montants[taille] = centimes;
+		taille++;
+		total.ajouter(jour, centimes);
+		serie(parCategorie, categorie).ajouter(jour, centimes);
+		serie(parType, type).ajouter(jour, centimes);
+		if (suivi) {
+			categories.add(categorie);
+			types.add(type);
+		}
+	}
+
+	/**
+	 * serie d'une cle, creee au premier usage.
+	 * @param series series par cle
+	 * @param cle cle
+	 * @return serie
+	 */
+	private static Serie serie(final Map<String, Serie> series,
+			final String cle) {
+		Serie s = series.get(cle);
+		if (s == null) {
+			s = new Serie();
+			series.put(cle, s);
+		}
+		return s;
+	}
+
+	/**
+	 * total des recettes d'une periode.
+	 * @param debut premier jour, inclus
+	 * @param fin dernier jour, inclus
+	 * @return montant en centimes
+	 */
+	public synchronized long total(final LocalDate debut, final LocalDate fin) {
+		return total.somme(jour(debut), jour(fin));
+	}
+
+	/**
+	 * recettes d'une periode par categorie de client.
+	 * @param debut premier jour, inclus
+	 * @param fin dernier jour, inclus
+	 * @return montant en centimes par nom de categorie
+	 */
+	public synchronized Map<String, Long> parCategorie(final LocalDate debut,
+			final LocalDate fin) {
+		return sommes(parCategorie, jour(debut), jour(fin));
+	}
+
+	/**
+	 * recettes d'une periode par type de document ; les cotisations
+	 * sont sous la cle <code>COTISATION</code>.
+	 * @param debut premier jour, inclus
+	 * @param fin dernier jour, inclus
+	 * @return montant en centimes par type
+	 */
+	public synchronized Map<String, Long> parType(final LocalDate debut,
+			final LocalDate fin) {
+		return sommes(parType, jour(debut), jour(fin));
+	}
+
+	/**
+	 * nombre de recettes enregistrees.
+	 * @return taille du journal
+	 */
+	public synchronized int getNbRecettes() {
+		return taille;
+	}
+
+	/**
+	 * recettes d'une periode pour chaque serie.
+	 * @param series series par cle
+	 * @param debut premier jour
+	 * @param fin dernier jour
+	 * @return montant par cle, sans les montants nuls
+	 */
+	private static Map<String, Long> sommes(final Map<String, Serie> series,
+			final long debut, final long fin) {
+		Map<String, Long> res = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, Serie> e : series.entrySet()) {
+			long s = e.getValue().somme(debut, fin);
+			if (s != 0) {
+				res.put(e.getKey(), s);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * jour d'une date.
+	 * @param d date
+	 * @return jour depuis le 1er janvier 1970
+	 */
+	private static long jour(final LocalDate d) {
+		return d.toEpochDay();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void suivre() {
+		suivi = true;
+		sauvees = taille;
+		categories = new ArrayList<String>();
+		types = new ArrayList<String>();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized boolean estSuivi() {
+		return suivi;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized Serializable suite() {
+		if (taille == sauvees) {
+			return null;
+		}
+		Suite s = new Suite(sauvees, Arrays.copyOfRange(jours, sauvees, taille),
+				Arrays.copyOfRange(montants, sauvees, taille),
+				categories.toArray(new String[categories.size()]),
+				types.toArray(new String[types.size()]));
+		suivre();
+		return s;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized Prolongeable copie() {
+		Recettes c = new Recettes();
+		c.jours = jours.clone();
+		c.montants = montants.clone();
+		c.taille = taille;
+		c.total.recopier(total);
+		copier(parCategorie, c.parCategorie);
+		copier(parType, c.parType);
+		return c;
+	}
+
+	/**
+	 * recopie des series.
+	 * @param series series a recopier
+	 * @param copies series recopiees, par cle
+	 */
+	private static void copier(final Map<String, Serie> series,
+			final Map<String, Serie> copies) {
+		for (Map.Entry<String, Serie> e : series.entrySet()) {
+			serie(copies, e.getKey()).recopier(e.getValue());
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void prolonger(final Object suite)
+			throws IOException {
+		Suite s = (Suite) suite;
+		if (s.debut != taille) {
+			throw new InvalidObjectException("Suite de recettes a partir de "
+					+ s.debut + " sur " + taille);
+		}
+		for (int i = 0; i < s.jours.length; i++) {
+			enregistrer(s.jours[i], s.montants[i], s.categories[i], s.types[i]);
+		}
+	}
+
+	/**
+	 * La classe <code>Suite</code> contient les recettes enregistrees
+	 * depuis la suite precedente.
+	 */
+	private static final class Suite implements Serializable {
+		/** serial version. */
+		private static final long serialVersionUID = 1L;
+		/** Rang de la premiere recette dans le journal. */
+		private final int debut;
+		/** Jour de chaque recette. */
+		private final int[] jours;
+		/** Montant de chaque recette. */
+		private final long[] montants;
+		/** Categorie de client de chaque recette. */
+		private final String[] categories;
+		/** Type de chaque recette. */
+		private final String[] types;
+
+		/**
+		 * Constructeur.
+		 * @param d rang de la premiere recette
+		 * @param j jours
+		 * @param m montants
+		 * @param c categories
+		 * @param t types
+		 */
+		Suite(final int d, final int[] j, final long[] m, final String[] c,
+				final String[] t) {
+			debut = d;
+			jours = j;
+			montants = m;
+			categories = c;
+			types = t;
+		}
+	}
+
+	/**
+	 * La classe <code>Serie</code> range des montants par jour, a partir
+	 * du premier jour enregistre, avec leurs sommes cumulees. Les
+	 * recettes arrivent dans l'ordre des jours : les cumuls sont
+	 * prolonges a la demande, et ne sont recalcules qu'a partir d'un
+	 * jour anterieur au dernier cumul connu.
+	 */
+	private static final class Serie implements Serializable {
+		/** serial version. */
+		private static final long serialVersionUID = 1L;
+		/** Premier jour de la serie. */
+		private int origine;
+		/** Montant de chaque jour a partir de l'origine. */
+		private long[] parJour = new long[0];
+		/**
+		 * cumul[i] : somme des jours d'indice strictement inferieur a i.
+		 * Recalcule au premier usage apres relecture.
+		 */
+		private transient long[] cumul;
+		/** Nombre de cumuls a jour, cumul[0] compris. */
+		private transient int valides;
+
+		/**
+		 * ajoute un montant a un jour.
+		 * @param jour jour depuis le 1er janvier 1970
+		 * @param centimes montant
+		 */
+		void ajouter(final int jour, final long centimes) {
+			if (parJour.length == 0) {
+				origine = jour;
+			}
+			if (jour < origine) {
+				int decalage = origine - jour;
+				long[] t = new long[parJour.length + decalage];
+				System.arraycopy(parJour, 0, t, decalage, parJour.length);
+				parJour = t;
+				origine = jour;
+				valides = 0;
+			}
+			int i = jour - origine;
+			if (i >= parJour.length) {
+				parJour = Arrays.copyOf(parJour,
+						Math.max(i + 1, 2 * parJour.length));
+			}
+			parJour[i] = Montant.ajouter(parJour[i], centimes);
+			valides = Math.min(valides, i + 1);
+		}
+
+		/**
+		 * recopie les montants d'une autre serie.
+		 * @param s serie recopiee
+		 */
+		void recopier(final Serie s) {
+			origine = s.origine;
+			parJour = s.parJour.clone();
+			valides = 0;
+		}
+
+		/**
+		 * somme des jours d'indice strictement inferieur a i.
+		 * @param i indice de jour, entre 0 et la longueur de la serie
+		 * @return somme cumulee
+		 */
+		private long cumul(final int i) {
+			if (cumul == null || cumul.length < parJour.length + 1) {
+				long[] t = new long[parJour.length + 1];
+				if (cumul != null) {
+					System.arraycopy(cumul, 0, t, 0, valides);
+				}
+				cumul = t;
+			}
+			if (valides == 0) {
+				cumul[0] = 0;
+				valides = 1;
+			}
+			for (; valides <= i; valides++) {
+				cumul[valides] = cumul[valides - 1] + parJour[valides - 1];
+			}
+			return cumul[i];
+		}
+
+		/**
+		 * somme d'une periode.
+		 * @param debut premier jour, inclus
+		 * @param fin dernier jour, inclus
+		 * @return somme
+		 */
+		long somme(final long debut, final long fin) {
+			long d = Math.max(debut - origine, 0);
+			long f = Math.min(fin - origine + 1, parJour.length);
+			if (d >= f) {
+				return 0;
+			}
+			return cumul((int) f) - cumul((int) d);
+		}
+	}
+}
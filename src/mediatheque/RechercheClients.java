@@ -0,0 +1,270 @@
+package mediatheque;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import mediatheque.client.Client;
+
+/**
+ * La classe <code>RechercheClients</code> retrouve les clients a partir
+ * d'une partie de leur nom, prenom ou adresse. Les textes sont
+ * ramenes en minuscules sans accents. Chaque mot de nom, de prenom ou
+ * d'adresse est range dans un arbre, pour les recherches par debut de
+ * mot, et chacun de ses trigrammes (suites de trois caracteres) dans
+ * une table, pour les recherches d'une partie de mot : les candidats
+ * sont les clients qui ont tous les trigrammes du mot cherche, puis
+ * le mot est verifie dans leur texte. Un client modifie est reindexe
+ * a partir des textes gardes a son ajout.
+ */
+final class RechercheClients {
+	/** Longueur d'un trigramme. */
+	private static final int N = 3;
+
+	/** Textes indexes de chaque client. */
+	private final Map<Client, Textes> textes =
+			new IdentityHashMap<Client, Textes>();
+	/** Clients par mot de nom ou de prenom. */
+	private final TreeMap<String, Set<Client>> motsNoms =
+			new TreeMap<String, Set<Client>>();
+	/** Clients par trigramme de nom ou de prenom. */
+	private final Map<String, Set<Client>> trigrammesNoms =
+			new HashMap<String, Set<Client>>();
+	/** Clients par mot d'adresse. */
+	private final TreeMap<String, Set<Client>> motsAdresses =
+			new TreeMap<String, Set<Client>>();
+	/** Clients par trigramme d'adresse. */
+	private final Map<String, Set<Client>> trigrammesAdresses =
+			new HashMap<String, Set<Client>>();
+
+	/**
+	 * Constructeur.
+	 * @param clients clients a indexer
+	 */
+	RechercheClients(final Collection<Client> clients) {
+		for (Client c : clients) {
+			ajouter(c);
+		}
+	}
+
+	/**
+	 * indexe un client, ou le reindexe apres une modification de son
+	 * nom, de son prenom ou de son adresse.
+	 * @param c client
+	 */
+	void ajouter(final Client c) {
+		retirer(c);
+		Textes t = new Textes(replier(c.getNom() + " " + c.getPrenom()),
+				replier(c.getAdresse()));
+		textes.put(c, t);
+		indexer(t.noms, c, motsNoms, trigrammesNoms, true);
+		indexer(t.adresse, c, motsAdresses, trigrammesAdresses, true);
+	}
+
+	/**
+	 * retire un client.
+	 * @param c client
+	 */
+	void retirer(final Client c) {
+		Textes t = textes.remove(c);
+		if (t != null) {
+			indexer(t.noms, c, motsNoms, trigrammesNoms, false);
+			indexer(t.adresse, c, motsAdresses, trigrammesAdresses, false);
+		}
+	}
+
+	/**
+	 * clients dont le nom et le prenom, et l'adresse si demande,
+	 * contiennent chacun des mots cherches. Un mot de moins de trois
+	 * caracteres doit commencer un mot du client.
+	 * @param texte mots cherches
+	 * @param adresse true pour chercher aussi dans l'adresse
+	 * @return clients par nom puis prenom, vide si aucun mot
+	 */
+	List<Client> chercher(final String texte, final boolean adresse) {
+		List<String> mots = mots(replier(texte));
+		if (mots.isEmpty()) {
+			return new ArrayList<Client>(0);
+		}
+		Set<Client> res = null;
+		for (String m : mots) {
+			Set<Client> s = candidats(m, motsNoms, trigrammesNoms);
+			if (adresse) {
+				s.addAll(candidats(m, motsAdresses, trigrammesAdresses));
+			}
+			if (res == null) {
+				res = s;
+			} else {
+				res.retainAll(s);
+			}
+			if (res.isEmpty()) {
+				break;
+			}
+		}
+		List<Client> l = new ArrayList<Client>(res);
+		Collections.sort(l, new Comparator<Client>() {
+			@Override
+			public int compare(final Client a, final Client b) {
+				return textes.get(a).noms.compareTo(textes.get(b).noms);
+			}
+		});
+		return l;
+	}
+
+	/**
+	 * clients qui contiennent un mot.
+	 * @param m mot replie
+	 * @param mots clients par mot
+	 * @param trigrammes clients par trigramme
+	 * @return clients, dans un ensemble modifiable
+	 */
+	private Set<Client> candidats(final String m,
+			final TreeMap<String, Set<Client>> mots,
+			final Map<String, Set<Client>> trigrammes) {
+		Set<Client> res = ensemble();
+		if (m.length() < N) {
+			for (Set<Client> s : mots.subMap(m, true, m + Character.MAX_VALUE,
+					false).values()) {
+				res.addAll(s);
+			}
+			return res;
+		}
+		Set<Client> plusPetit = null;
+		for (int i = 0; i + N <= m.length(); i++) {
+			Set<Client> s = trigrammes.get(m.substring(i, i + N));
+			if (s == null) {
+				return res;
+			}
+			if (plusPetit == null || s.size() < plusPetit.size()) {
+				plusPetit = s;
+			}
+		}
+		boolean noms = mots == motsNoms;
+		for (Client c : plusPetit) {
+			Textes t = textes.get(c);
+			if ((noms ? t.noms : t.adresse).contains(m)) {
+				res.add(c);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * ajoute ou retire un client des index d'un texte.
+	 * @param texte texte replie
+	 * @param c client
+	 * @param mots clients par mot
+	 * @param trigrammes clients par trigramme
+	 * @param ajout true pour ajouter, false pour retirer
+	 */
+	private static void indexer(final String texte, final Client c,
+			final Map<String, Set<Client>> mots,
+			final Map<String, Set<Client>> trigrammes, final boolean ajout) {
+		for (String m : mots(texte)) {
+			modifier(mots, m, c, ajout);
+			for (int i = 0; i + N <= m.length(); i++) {
+				modifier(trigrammes, m.substring(i, i + N), c, ajout);
+			}
+		}
+	}
+
+	/**
+	 * ajoute ou retire un client de l'ensemble d'une cle.
+	 * @param index clients par cle
+	 * @param cle cle
+	 * @param c client
+	 * @param ajout true pour ajouter, false pour retirer
+	 */
+	private static void modifier(final Map<String, Set<Client>> index,
+			final String cle, final Client c, final boolean ajout) {
+		Set<Client> s = index.get(cle);
+		if (ajout) {
+			if (s == null) {
+				s = ensemble();
+				index.put(cle, s);
+			}
+			s.add(c);
+		} else if (s != null && s.remove(c) && s.isEmpty()) {
+			index.remove(cle);
+		}
+	}
+
+	/**
+	 * ensemble de clients compares par identite.
+	 * @return ensemble vide
+	 */
+	private static Set<Client> ensemble() {
+		return Collections.newSetFromMap(new IdentityHashMap<Client, Boolean>());
+	}
+
+	/**
+	 * mots d'un texte replie, separes par ce qui n'est ni lettre ni
+	 * chiffre.
+	 * @param texte texte replie
+	 * @return mots
+	 */
+	private static List<String> mots(final String texte) {
+		List<String> res = new ArrayList<String>();
+		int debut = -1;
+		for (int i = 0; i <= texte.length(); i++) {
+			boolean lettre = i < texte.length()
+					&& Character.isLetterOrDigit(texte.charAt(i));
+			if (lettre && debut < 0) {
+				debut = i;
+			} else if (!lettre && debut >= 0) {
+				res.add(texte.substring(debut, i));
+				debut = -1;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * texte en minuscules, sans accents.
+	 * @param s texte
+	 * @return texte replie, vide si null
+	 */
+	static String replier(final String s) {
+		if (s == null) {
+			return "";
+		}
+		String d = Normalizer.normalize(s, Normalizer.Form.NFD);
+		StringBuilder sb = new StringBuilder(d.length());
+		for (int i = 0; i < d.length(); i++) {
+			char c = d.charAt(i);
+			if (Character.getType(c) != Character.NON_SPACING_MARK) {
+				sb.append(c);
+			}
+		}
+		return sb.toString().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Textes replies d'un client, tels qu'indexes.
+	 */
+	private static final class Textes {
+		/** Nom et prenom. */
+		private final String noms;
+		/** Adresse. */
+		private final String adresse;
+
+		/**
+		 * Constructeur.
+		 * @param n nom et prenom replies
+		 * @param a adresse repliee
+		 */
+		Textes(final String n, final String a) {
+			noms = n;
+			adresse = a;
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package mediatheque;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import mediatheque.client.HashClient;
+import mediatheque.document.Document;
+
+/**
+ * La classe <code>Recommandations</code> propose, pour un document, les
+ * documents le plus souvent empruntes par les memes clients. Elle tient
+ * une matrice creuse de co-emprunts, indexee par les numeros de
+ * documents de l'historique : une ligne par document, table de hachage
+ * d'entiers (numero du voisin, poids). Un emprunt lie le document aux
+ * documents distincts des <code>FENETRE</code> emprunts precedents du
+ * meme client ; le lien compte double si les deux documents ont le
+ * meme genre. Une ligne qui atteint
+ * <code>LIMITE</code> voisins est elaguee : les poids sont divises par
+ * deux et les voisins de poids nul retires, ce qui borne la memoire et
+ * favorise les co-emprunts recents.
+ */
+final class Recommandations {
+	/** Nombre d'emprunts precedents du client lies a un emprunt. */
+	static final int FENETRE = 64;
+	/** Nombre maximal de voisins d'une ligne. */
+	static final int LIMITE = 512;
+
+	/** Historique qui numerote les documents. */
+	private final Historique historique;
+	/** Documents de la mediatheque, pour leur genre. */
+	private final Map<String, Document> documents;
+	/** Ligne de chaque document, par numero. */
+	private Ligne[] lignes = new Ligne[16];
+
+	/**
+	 * Constructeur : la matrice est reconstruite a partir de
+	 * l'historique.
+	 * @param h historique des emprunts
+	 * @param docs documents de la mediatheque
+	 */
+	Recommandations(final Historique h, final Map<String, Document> docs) {
+		historique = h;
+		documents = docs;
+		for (int nc = 0; nc < h.nbClients(); nc++) {
+			int[] suite = h.documentsDuClient(nc);
+			for (int i = 1; i < suite.length; i++) {
+				lier(suite, i);
+			}
+		}
+	}
+
+	/**
+	 * prend en compte un emprunt, deja ajoute a l'historique : seuls
+	 * les derniers emprunts du client sont relus.
+	 * @param client emprunteur
+	 */
+	void emprunter(final HashClient client) {
+		int[] suite = historique.derniersDocuments(client, FENETRE + 1);
+		if (suite.length > 1) {
+			lier(suite, suite.length - 1);
+		}
+	}
+
+	/**
+	 * lie un emprunt d'un client aux documents distincts de ses
+	 * <code>FENETRE</code> emprunts precedents. Un document deja dans
+	 * la fenetre n'est pas lie une seconde fois.
+	 * @param suite documents empruntes par le client, dans l'ordre
+	 * @param i indice de l'emprunt
+	 */
+	private void lier(final int[] suite, final int i) {
+		int d = suite[i];
+		int[] vus = new int[Math.min(i, FENETRE)];
+		int nb = 0;
+		for (int j = i - 1; j >= i - vus.length; j--) {
+			int e = suite[j];
+			if (e == d) {
+				return;
+			}
+			boolean dejaVu = false;
+			for (int k = 0; k < nb && !dejaVu; k++) {
+				dejaVu = vus[k] == e;
+			}
+			if (!dejaVu) {
+				vus[nb++] = e;
+			}
+		}
+		for (int k = 0; k < nb; k++) {
+			int w = poids(d, vus[k]);
+			ligne(d).ajouter(vus[k], w);
+			ligne(vus[k]).ajouter(d, w);
+		}
+	}
+
+	/**
+	 * poids d'un co-emprunt.
+	 * @param d numero d'un document
+	 * @param e numero de l'autre document
+	 * @return 2 si les documents ont le meme genre, 1 sinon
+	 */
+	private int poids(final int d, final int e) {
+		Genre g = genre(d);
+		return g != null && g.equals(genre(e)) ? 2 : 1;
+	}
+
+	/**
+	 * genre d'un document.
+	 * @param n numero du document
+	 * @return genre, null si le document a ete retire
+	 */
+	private Genre genre(final int n) {
+		Document doc = documents.get(historique.code(n));
+		return doc == null ? null : doc.getGenre();
+	}
+
+	/**
+	 * ligne d'un document, creee au premier usage.
+	 * @param n numero du document
+	 * @return ligne
+	 */
+	private Ligne ligne(final int n) {
+		if (n >= lignes.length) {
+			lignes = Arrays.copyOf(lignes, Math.max(n + 1, 2 * lignes.length));
+		}
+		if (lignes[n] == null) {
+			lignes[n] = new Ligne();
+		}
+		return lignes[n];
+	}
+
+	/**
+	 * documents le plus souvent empruntes avec un document, encore
+	 * presents dans la mediatheque, par poids decroissant.
+	 * @param code code du document
+	 * @param k nombre maximal de suggestions
+	 * @return codes des documents suggeres
+	 */
+	List<String> recommander(final String code, final int k) {
+		List<String> res = new ArrayList<String>(k);
+		int n = historique.numeroDocument(code);
+		if (n < 0 || n >= lignes.length || lignes[n] == null) {
+			return res;
+		}
+		long[] tries = lignes[n].tries();
+		for (int i = 0; i < tries.length && res.size() < k; i++) {
+			String c = historique.code((int) tries[i]);
+			if (documents.containsKey(c)) {
+				res.add(c);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * La classe <code>Ligne</code> est une table de hachage a adressage
+	 * ouvert des voisins d'un document et de leur poids.
+	 */
+	private static final class Ligne {
+		/** Numero de chaque voisin plus un, 0 pour une case libre. */
+		private int[] cles = new int[8];
+		/** Poids de chaque voisin. */
+		private int[] poids = new int[8];
+		/** Nombre de voisins. */
+		private int taille;
+
+		/**
+		 * ajoute un poids a un voisin.
+		 * @param voisin numero du voisin
+		 * @param w poids
+		 */
+		void ajouter(final int voisin, final int w) {
+			int i = chercher(voisin);
+			if (cles[i] == 0) {
+				if (taille >= LIMITE) {
+					elaguer();
+				}
+				if (4 * (taille + 1) > 3 * cles.length) {
+					redimensionner(2 * cles.length);
+				}
+				i = chercher(voisin);
+				cles[i] = voisin + 1;
+				taille++;
+			}
+			poids[i] += w;
+		}
+
+		/**
+		 * case d'un voisin, ou case libre ou l'inserer.
+		 * @param voisin numero du voisin
+		 * @return indice de case
+		 */
+		private int chercher(final int voisin) {
+			int masque = cles.length - 1;
+			int i = (voisin * 0x9E3779B9) >>> 16 & masque;
+			while (cles[i] != 0 && cles[i] != voisin + 1) {
+				i = (i + 1) & masque;
+			}
+			return i;
+		}
+
+		/**
+		 * divise les poids par deux et retire les voisins de poids nul,
+		 * jusqu'a liberer au moins la moitie de la ligne.
+		 */
+		private void elaguer() {
+			while (taille > LIMITE / 2) {
+				for (int i = 0; i < cles.length; i++) {
+					poids[i] >>= 1;
+				}
+				redimensionner(cles.length);
+			}
+		}
+
+		/**
+		 * recopie les voisins de poids non nul dans une table.
+		 * @param capacite nombre de cases, puissance de deux
+		 */
+		private void redimensionner(final int capacite) {
+			int[] c = cles;
+			int[] p = poids;
+			cles = new int[capacite];
+			poids = new int[capacite];
+			taille = 0;
+			for (int i = 0; i < c.length; i++) {
+				if (c[i] != 0 && p[i] > 0) {
+					int j = chercher(c[i] - 1);
+					cles[j] = c[i];
+					poids[j] = p[i];
+					taille++;
+				}
+			}
+		}
+
+		/**
+		 * voisins par poids decroissant, a poids egal par numero
+		 * croissant.
+		 * @return numeros des voisins, dans les 32 bits de poids faible
+		 */
+		long[] tries() {
+			long[] t = new long[taille];
+			int n = 0;
+			for (int i = 0; i < cles.length; i++) {
+				if (cles[i] != 0) {
+					t[n++] = ((long) (Integer.MAX_VALUE - poids[i]) << 32)
+							| (cles[i] - 1);
+				}
+			}
+			Arrays.sort(t);
+			for (int i = 0; i < n; i++) {
+				t[i] &= 0xFFFFFFFFL;
+			}
+			return t;
+		}
+	}
+}
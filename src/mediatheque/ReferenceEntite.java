@@ -0,0 +1,73 @@
+package mediatheque;
+
+import java.io.Serializable;
+
+/**
+ * La classe <code>ReferenceEntite</code> remplace, dans un flux
+ * d'enregistrements independants, une entite partagee de la mediatheque
+ * (genre, localisation...) par sa cle. A la relecture, la cle est
+ * resolue vers l'instance deja presente dans la mediatheque afin de
+ * ne pas dupliquer les objets partages.
+ */
+final class ReferenceEntite implements Serializable {
+	/** serial version. */
+	private static final long serialVersionUID = 1L;
+	/** Type d'entite : reference vers un genre. */
+	static final char GENRE = 'G';
+	/** Type d'entite : reference vers une localisation. */
+	static final char LOCALISATION = 'L';
+	/** Type d'entite : reference vers une categorie de client. */
+	static final char CATEGORIE = 'C';
+	/** Type d'entite : reference vers un client. */
+	static final char CLIENT = 'K';
+	/** Type d'entite : reference vers un document. */
+	static final char DOCUMENT = 'D';
+
+	/** Type de l'entite referencee. */
+	private final char type;
+	/** Premiere partie de la cle (nom, salle...). */
+	private final String cle;
+	/** Seconde partie de la cle, eventuellement null (rayon...). */
+	private final String cle2;
+
+	/**
+	 * Constructeur.
+	 * @param t type de l'entite referencee
+	 * @param c premiere partie de la cle
+	 * @param c2 seconde partie de la cle ou null
+	 */
+	ReferenceEntite(final char t, final String c, final String c2) {
+		type = t;
+		cle = c;
+		cle2 = c2;
+	}
+
+	/**
+	 * retourne le type de l'entite referencee.
+	 * @return type
+	 */
+	char getType() {
+		return type;
+	}
+
+	/**
+	 * retourne la premiere partie de la cle.
+	 * @return cle
+	 */
+	String getCle() {
+		return cle;
+	}
+
+	/**
+	 * retourne la seconde partie de la cle.
+	 * @return cle2
+	 */
+	String getCle2() {
+		return cle2;
+	}
+
+	@Override
+	public String toString() {
+		return type + ":" + cle + (cle2 == null ? "" : "/" + cle2);
+	}
+}
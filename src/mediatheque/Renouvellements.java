@@ -0,0 +1,107 @@
+package mediatheque;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+
+import mediatheque.client.Client;
+
+/**
+ * La classe <code>Renouvellements</code> range les clients par date de
+ * renouvellement de leur cotisation. Les clients dont la cotisation
+ * arrive a echeance dans une periode se lisent sur un intervalle de
+ * dates, sans parcourir tous les clients.
+ */
+final class Renouvellements {
+	/** Clients par jour de renouvellement, depuis le 1er janvier 1970. */
+	private final TreeMap<Integer, List<Client>> parJour =
+			new TreeMap<Integer, List<Client>>();
+
+	/**
+	 * Constructeur.
+	 * @param clients clients de la mediatheque
+	 */
+	Renouvellements(final Collection<Client> clients) {
+		for (Client c : clients) {
+			ajouter(c);
+		}
+	}
+
+	/**
+	 * jour de renouvellement d'un client.
+	 * @param c client
+	 * @return jour depuis le 1er janvier 1970
+	 */
+	private static int jour(final Client c) {
+		return (int) c.getDateCotisation().toEpochDay();
+	}
+
+	/**
+	 * ajoute un client a la date de renouvellement de sa cotisation.
+	 * @param c client
+	 */
+	void ajouter(final Client c) {
+		Integer j = jour(c);
+		List<Client> l = parJour.get(j);
+		if (l == null) {
+			l = new ArrayList<Client>(1);
+			parJour.put(j, l);
+		}
+		l.add(c);
+	}
+
+	/**
+	 * retire un client, avant qu'il soit desinscrit ou que sa date de
+	 * renouvellement change. Les clients d'un meme jour sont compares
+	 * par identite : le nom et le prenom peuvent avoir ete modifies.
+	 * @param c client
+	 */
+	void retirer(final Client c) {
+		Integer j = jour(c);
+		List<Client> l = parJour.get(j);
+		if (l == null) {
+			return;
+		}
+		for (int i = 0; i < l.size(); i++) {
+			if (l.get(i) == c) {
+				l.remove(i);
+				break;
+			}
+		}
+		if (l.isEmpty()) {
+			parJour.remove(j);
+		}
+	}
+
+	/**
+	 * clients dont la cotisation arrive a echeance entre deux jours,
+	 * par date de renouvellement.
+	 * @param debut premier jour, inclus
+	 * @param fin dernier jour, inclus
+	 * @return clients
+	 */
+	List<Client> entre(final int debut, final int fin) {
+		List<Client> res = new ArrayList<Client>();
+		if (debut > fin) {
+			return res;
+		}
+		for (List<Client> l : parJour.subMap(debut, true, fin, true).values()) {
+			res.addAll(l);
+		}
+		return res;
+	}
+
+	/**
+	 * clients dont la cotisation est echue avant un jour.
+	 * @param jour jour exclu
+	 * @return clients, par date de renouvellement
+	 */
+	List<Client> avant(final int jour) {
+		List<Client> res = new ArrayList<Client>();
+		for (List<Client> l : parJour.headMap(jour, false).values()) {
+			res.addAll(l);
+		}
+		return res;
+	}
+}
@@ -0,0 +1,244 @@
+package mediatheque;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import mediatheque.client.Client;
+import mediatheque.client.HashClient;
+import mediatheque.document.Document;
+
+/**
+ * La classe <code>Requetes</code> tient les index tries des requetes
+ * paginees : documents par titre et par auteur, clients par nom et
+ * prenom, emprunts en cours par date limite puis code du document.
+ * Chaque index est construit a la premiere requete qui l'utilise, puis
+ * tenu a jour par la mediatheque ; un emprunt dont la date limite
+ * change est reclasse. L'index des emprunts sert aussi aux echeances :
+ * emprunts a rendre dans un intervalle de jours, et leur nombre.
+ */
+final class Requetes {
+	/** Documents de la mediatheque. */
+	private final Map<String, Document> documents;
+	/** Clients de la mediatheque. */
+	private final Map<HashClient, Client> clients;
+	/** Emprunts en cours. */
+	private final Collection<FicheEmprunt> emprunts;
+	/** Documents par titre, null avant la premiere requete. */
+	private IndexTri<Document> parTitre;
+	/** Documents par auteur, null avant la premiere requete. */
+	private IndexTri<Document> parAuteur;
+	/** Clients par nom, null avant la premiere requete. */
+	private IndexTri<Client> parNom;
+	/** Emprunts par date limite, null avant la premiere requete. */
+	private IndexTri<FicheEmprunt> parDateLimite;
+
+	/**
+	 * Constructeur.
+	 * @param d documents
+	 * @param c clients
+	 * @param e emprunts en cours
+	 */
+	Requetes(final Map<String, Document> d, final Map<HashClient, Client> c,
+			final Collection<FicheEmprunt> e) {
+		documents = d;
+		clients = c;
+		emprunts = e;
+	}
+
+	/**
+	 * page de documents.
+	 * @param tri ordre des documents
+	 * @param filtre documents retenus, null pour tous
+	 * @param taille nombre maximal de documents
+	 * @param curseur curseur de la page precedente, null pour la premiere
+	 * @return page
+	 * @throws OperationImpossible taille nulle ou curseur invalide
+	 */
+	Page<Document> documents(final Page.Tri tri,
+			final Predicate<? super Document> filtre, final int taille,
+			final String curseur) throws OperationImpossible {
+		if (tri == Page.Tri.AUTEUR) {
+			if (parAuteur == null) {
+				parAuteur = new IndexTri<Document>('A', documents.values()) {
+					@Override
+					Cle cle(final Document d) {
+						return new Cle(0, minuscules(d.getAuteur()), d.getCode());
+					}
+				};
+			}
+			return parAuteur.page(filtre, taille, curseur);
+		}
+		if (parTitre == null) {
+			parTitre = new IndexTri<Document>('T', documents.values()) {
+				@Override
+				Cle cle(final Document d) {
+					return new Cle(0, minuscules(d.getTitre()), d.getCode());
+				}
+			};
+		}
+		return parTitre.page(filtre, taille, curseur);
+	}
+
+	/**
+	 * page de clients par nom puis prenom.
+	 * @param filtre clients retenus, null pour tous
+	 * @param taille nombre maximal de clients
+	 * @param curseur curseur de la page precedente, null pour la premiere
+	 * @return page
+	 * @throws OperationImpossible taille nulle ou curseur invalide
+	 */
+	Page<Client> clients(final Predicate<? super Client> filtre,
+			final int taille, final String curseur) throws OperationImpossible {
+		if (parNom == null) {
+			parNom = new IndexTri<Client>('N', clients.values()) {
+				@Override
+				Cle cle(final Client c) {
+					return new Cle(0, minuscules(c.getNom()) + '\0'
+							+ minuscules(c.getPrenom()),
+							unique(c.getNom(), c.getPrenom()));
+				}
+			};
+		}
+		return parNom.page(filtre, taille, curseur);
+	}
+
+	/**
+	 * page d'emprunts en cours par date limite, puis code du document.
+	 * @param filtre emprunts retenus, null pour tous
+	 * @param taille nombre maximal d'emprunts
+	 * @param curseur curseur de la page precedente, null pour la premiere
+	 * @return page
+	 * @throws OperationImpossible taille nulle ou curseur invalide
+	 */
+	Page<FicheEmprunt> emprunts(final Predicate<? super FicheEmprunt> filtre,
+			final int taille, final String curseur) throws OperationImpossible {
+		return parDateLimite().page(filtre, taille, curseur);
+	}
+
+	/**
+	 * emprunts en cours dont la date limite est dans un intervalle, par
+	 * date limite puis code du document.
+	 * @param debut premier jour depuis le 1er janvier 1970, inclus
+	 * @param fin dernier jour, inclus
+	 * @return fiches d'emprunt
+	 */
+	List<FicheEmprunt> echeances(final long debut, final long fin) {
+		return parDateLimite().entre(debut, fin);
+	}
+
+	/**
+	 * nombre d'emprunts en cours dont la date limite est dans un
+	 * intervalle.
+	 * @param debut premier jour depuis le 1er janvier 1970, inclus
+	 * @param fin dernier jour, inclus
+	 * @return nombre d'emprunts
+	 */
+	int nbEcheances(final long debut, final long fin) {
+		return parDateLimite().compter(debut, fin);
+	}
+
+	/**
+	 * index des emprunts par date limite, construit au premier usage.
+	 * @return index
+	 */
+	private IndexTri<FicheEmprunt> parDateLimite() {
+		if (parDateLimite == null) {
+			parDateLimite = new IndexTri<FicheEmprunt>('L', emprunts) {
+				@Override
+				Cle cle(final FicheEmprunt fe) {
+					return new Cle(fe.getDateLimite().toEpochDay(), "",
+							fe.getDocument().getCode());
+				}
+			};
+		}
+		return parDateLimite;
+	}
+
+	/**
+	 * range un document ajoute ou reecrit.
+	 * @param d document
+	 */
+	void ajouter(final Document d) {
+		if (parTitre != null) {
+			parTitre.ajouter(d);
+		}
+		if (parAuteur != null) {
+			parAuteur.ajouter(d);
+		}
+	}
+
+	/**
+	 * retire un document.
+	 * @param code code du document
+	 */
+	void retirerDocument(final String code) {
+		if (parTitre != null) {
+			parTitre.retirer(code);
+		}
+		if (parAuteur != null) {
+			parAuteur.retirer(code);
+		}
+	}
+
+	/**
+	 * range un client inscrit ou renomme.
+	 * @param c client
+	 */
+	void ajouter(final Client c) {
+		if (parNom != null) {
+			parNom.ajouter(c);
+		}
+	}
+
+	/**
+	 * retire un client.
+	 * @param hc ancienne cle du client
+	 */
+	void retirerClient(final HashClient hc) {
+		if (parNom != null) {
+			parNom.retirer(unique(hc.getNom(), hc.getPrenom()));
+		}
+	}
+
+	/**
+	 * range un emprunt, nouveau ou dont la date limite a change.
+	 * @param fe fiche d'emprunt
+	 */
+	void ajouter(final FicheEmprunt fe) {
+		if (parDateLimite != null) {
+			parDateLimite.ajouter(fe);
+		}
+	}
+
+	/**
+	 * retire un emprunt restitue.
+	 * @param fe fiche d'emprunt
+	 */
+	void retirer(final FicheEmprunt fe) {
+		if (parDateLimite != null) {
+			parDateLimite.retirer(fe.getDocument().getCode());
+		}
+	}
+
+	/**
+	 * texte en minuscules pour un tri sans tenir compte de la casse.
+	 * @param s texte
+	 * @return texte en minuscules, vide si null
+	 */
+	private static String minuscules(final String s) {
+		return s == null ? "" : s.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * identifiant d'un client.
+	 * @param nom nom
+	 * @param prenom prenom
+	 * @return identifiant
+	 */
+	private static String unique(final String nom, final String prenom) {
+		return nom + '\0' + prenom;
+	}
+}
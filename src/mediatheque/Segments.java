@@ -0,0 +1,1145 @@
+package mediatheque;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import mediatheque.client.CategorieClient;
+import mediatheque.client.Client;
+import mediatheque.client.HashClient;
+import mediatheque.document.Document;
+
+/**
+ * La classe <code>Segments</code> sauvegarde la mediatheque dans un
+ * repertoire de segments : un segment pour les genres, un pour les
+ * localisations, un pour les categories, et pour les documents, les
+ * clients et les fiches d'emprunt un segment par tranche de hachage de
+ * la cle. La mediatheque tient a jour les copies figees des entites de
+ * chaque segment dans des tables persistantes, a chaque ajout, retrait
+ * ou modification (<code>Modifiable</code>) : une sauvegarde ne
+ * reecrit que les segments ainsi salis. Les recettes et l'historique,
+ * journaux en ajout seulement (<code>Prolongeable</code>), ont chacun un
+ * segment complet suivi de segments de suite : une sauvegarde n'ecrit
+ * que les ajouts, dans une nouvelle suite, et le journal n'est reecrit
+ * en entier qu'au-dela de <code>MAX_SUITES</code> suites. La capture,
+ * sous le verrou de la mediatheque, ne retient que des references
+ * immuables : tables persistantes des segments salis, copies des
+ * referentiels, suites des journaux. Leur serialisation se fait a
+ * l'ecriture, qui peut se faire en arriere-plan
+ * (<code>PointDeControle</code>).
+ * <P>
+ * Chaque ecriture est une generation : ses segments sont ecrits dans de
+ * nouveaux fichiers, suffixes par le numero de generation, puis un
+ * manifeste qui designe le fichier courant de chaque segment remplace
+ * atomiquement le precedent. Seuls les fichiers du manifeste sont
+ * relus : une ecriture interrompue laisse la generation precedente
+ * entiere, et ses fichiers orphelins sont supprimes a la suivante.
+ * Une sauvegarde complete dans le fichier .data supprime le manifeste,
+ * pour que des segments plus anciens ne soient pas relus a sa place.
+ * L'instantane du chargement paresseux est supprime avant d'ecrire le
+ * manifeste, pour qu'il ne soit pas relu a la place des segments.
+ * <P>
+ * Les ecritures, sauvegarde explicite ou point de controle, passent une
+ * a une sous un verrou dedie, distinct de celui de la mediatheque.
+ * Chaque image porte son numero de capture : un segment n'est jamais
+ * remplace par celui d'une image capturee avant la sienne, et une image
+ * capturee avant une sauvegarde complete n'est pas ecrite.
+ * <P>
+ * Un segment contient le nombre d'entites puis, pour chacune, sa
+ * longueur et sa forme serialisee par <code>SortieEntites</code>, le
+ * tout decoupe en blocs controles par <code>SortieBlocs</code>.
+ */
+final class Segments {
+	/** Nombre de segments par type de table. */
+	static final int NB_SEGMENTS = 16;
+	/**
+	 * Nombre de lectures tentees quand une sauvegarde concurrente
+	 * remplace les segments en cours de lecture.
+	 */
+	static final int TENTATIVES = 3;
+	/** Nombre magique d'un segment. */
+	private static final int MAGIQUE = 0x4D454453;
+	/** Segment des genres. */
+	private static final String GENRES = "genres";
+	/** Segment des localisations. */
+	private static final String LOCALISATIONS = "localisations";
+	/** Segment des categories de client. */
+	private static final String CATEGORIES = "categories";
+	/** Nombre de suites d'un journal au-dela duquel il est reecrit. */
+	static final int MAX_SUITES = 16;
+	/** Segment des recettes. */
+	private static final String RECETTES = "recettes";
+	/** Segment de l'historique des emprunts. */
+	private static final String HISTORIQUE = "historique";
+	/** Infixe des segments de suite d'un journal. */
+	private static final String SUITE = "-suite-";
+	/** Segment du catalogue projete, s'il est utilise. */
+	private static final String CATALOGUE = "catalogue";
+	/** Segments des documents. */
+	private static final String DOCUMENTS = "documents";
+	/** Segments des clients. */
+	private static final String CLIENTS = "clients";
+	/** Segments des fiches d'emprunt. */
+	private static final String EMPRUNTS = "emprunts";
+	/** Suffixe des fichiers de segment. */
+	private static final String SUFFIXE = ".seg";
+	/** Nombre magique du manifeste. */
+	private static final int MAGIQUE_MANIFESTE = 0x4D45444D;
+	/** Fichier du manifeste. */
+	private static final String MANIFESTE = "manifeste";
+
+	/** Repertoire des segments. */
+	private final Path repertoire;
+	/** Instantane, perime par chaque ecriture de segments. */
+	private final Path instantane;
+	/**
+	 * Copies figees des documents, des clients et des fiches d'emprunt,
+	 * par segment ; null avant la premiere capture ou le chargement, et
+	 * pas de documents avec un catalogue projete.
+	 */
+	private Miroir documents;
+	/** Copies figees des clients. */
+	private Miroir clients;
+	/** Copies figees des fiches d'emprunt, par code de document. */
+	private Miroir emprunts;
+	/** Segments uniques a reecrire : referentiels, catalogue. */
+	private final Set<String> sales = new HashSet<String>();
+	/** Journaux sauves en entier depuis le chargement ou l'invalidation. */
+	private final Set<String> journauxSauves = new HashSet<String>();
+	/** Generation du dernier manifeste ecrit ou relu. */
+	private long generation;
+	/** Fichier de chaque segment dans le dernier manifeste. */
+	private Map<String, String> fichiers = new TreeMap<String, String>();
+	/** Verrou des ecritures. */
+	private final Object ecriture = new Object();
+	/** Numero de la derniere capture. */
+	private long captures;
+	/** Numero de capture du contenu de chaque segment du manifeste. */
+	private final Map<String, Long> versions = new HashMap<String, Long>();
+	/** Numero de la derniere capture anterieure a une invalidation. */
+	private long invalidees;
+	/** Nombre de suites de chaque journal dans le manifeste. */
+	private Map<String, Integer> suites = new HashMap<String, Integer>();
+	/**
+	 * Contenus captures et pas encore ecrits de chaque journal, dans
+	 * l'ordre des captures.
+	 */
+	private final Map<String, EnAttente> enAttente =
+			new HashMap<String, EnAttente>();
+
+	/**
+	 * Constructeur.
+	 * @param rep repertoire des segments
+	 * @param inst instantane de la meme mediatheque
+	 */
+	Segments(final Path rep, final Path inst) {
+		repertoire = rep;
+		instantane = inst;
+	}
+
+	/**
+	 * retourne vrai si le repertoire contient un manifeste a relire.
+	 * @return true si un manifeste existe
+	 */
+	boolean existe() {
+		return Files.isRegularFile(repertoire.resolve(MANIFESTE));
+	}
+
+	/**
+	 * indique si le manifeste a ete remplace depuis sa derniere
+	 * lecture : les fichiers qu'il designait ont pu etre supprimes par
+	 * une sauvegarde concurrente, et une nouvelle lecture peut reussir.
+	 * @return true si le manifeste designe une autre generation
+	 */
+	boolean remplace() {
+		long g;
+		synchronized (this) {
+			g = generation;
+		}
+		try {
+			lireManifeste();
+		} catch (IOException ioe) {
+			return false;
+		}
+		synchronized (this) {
+			return generation != g;
+		}
+	}
+
+	/**
+	 * Sauvegarde les segments modifies de la mediatheque.
+	 * @param m mediatheque
+	 * @return nombre de segments reecrits
+	 * @throws IOException ecriture impossible
+	 */
+	int sauver(final Mediatheque m) throws IOException {
+		Image image = capturer(m);
+		ecrire(image);
+		return image.contenus.size() + image.journaux;
+	}
+
+	/**
+	 * Capture les segments salis, sous le verrou de la mediatheque : le
+	 * resultat est une image coherente de references immuables, que
+	 * <code>ecrire</code> serialise sans bloquer les operations. La
+	 * premiere capture construit les copies figees et salit tous les
+	 * segments. Les contenus captures des journaux sont mis en attente :
+	 * la premiere ecriture qui suit les ecrit tous, dans l'ordre, pour
+	 * qu'une suite prolonge toujours le journal du manifeste.
+	 * @param m mediatheque
+	 * @return image numerotee des segments a reecrire
+	 * @throws IOException lecture d'une entite non chargee impossible
+	 */
+	Image capturer(final Mediatheque m) throws IOException {
+		Map<String, Object> image = new LinkedHashMap<String, Object>();
+		long numero;
+		int journaux = 0;
+		synchronized (m) {
+			synchronized (this) {
+				numero = ++captures;
+				if (clients == null) {
+					construire(m);
+				}
+				capturerListe(image, GENRES, m.genres());
+				capturerListe(image, LOCALISATIONS, m.localisations());
+				capturerListe(image, CATEGORIES, m.categories());
+				journaux += capturerJournal(RECETTES, m.recettes());
+				journaux += capturerJournal(HISTORIQUE, m.historique());
+				Map<String, Document> docs = m.documents();
+				boolean catalogue = sales.remove(CATALOGUE);
+				if (docs instanceof CatalogueMappe) {
+					image.put(CATALOGUE, docs);
+				} else if (catalogue) {
+					image.put(CATALOGUE, null);
+				}
+				if (documents != null) {
+					documents.capturer(image, DOCUMENTS);
+				}
+				clients.capturer(image, CLIENTS);
+				emprunts.capturer(image, EMPRUNTS);
+			}
+		}
+		return new Image(numero, image, journaux);
+	}
+
+	/**
+	 * Ecrit une image capturee dans une nouvelle generation, puis son
+	 * manifeste, sous le verrou des ecritures. Un segment deja ecrit
+	 * par une image plus recente est garde ; une image anterieure a une
+	 * invalidation est ignoree. Les segments sont serialises ici, hors
+	 * du verrou de la mediatheque. Les journaux en attente sont ecrits a
+	 * la suite de ceux du manifeste ; au-dela de <code>MAX_SUITES</code>
+	 * suites, le journal du manifeste est relu, prolonge et reecrit en
+	 * entier. En cas d'echec, les segments captures ne sont plus salis :
+	 * la prochaine capture reprend alors tous les segments.
+	 * @param image segments a ecrire
+	 * @throws IOException ecriture impossible
+	 */
+	void ecrire(final Image image) throws IOException {
+		synchronized (ecriture) {
+			try {
+				long g;
+				Map<String, String> suivants;
+				Map<String, EnAttente> journaux;
+				Map<String, Integer> nbSuites;
+				synchronized (this) {
+					if (image.numero <= invalidees) {
+						return;
+					}
+					g = generation + 1;
+					suivants = new TreeMap<String, String>(fichiers);
+					journaux = new HashMap<String, EnAttente>(enAttente);
+					enAttente.clear();
+					nbSuites = new HashMap<String, Integer>(suites);
+				}
+				Files.createDirectories(repertoire);
+				List<String> ecrits = new ArrayList<String>();
+				for (Map.Entry<String, Object> e : image.contenus.entrySet()) {
+					Long v = versions.get(e.getKey());
+					if (v != null && v > image.numero) {
+						continue;
+					}
+					if (e.getValue() == null) {
+						suivants.remove(e.getKey());
+					} else {
+						String f = e.getKey() + "." + g + SUFFIXE;
+						ecrireAtomique(repertoire.resolve(f),
+								octets(e.getValue()));
+						suivants.put(e.getKey(), f);
+					}
+					ecrits.add(e.getKey());
+				}
+				for (Map.Entry<String, EnAttente> e : journaux.entrySet()) {
+					String type = e.getKey();
+					EnAttente a = e.getValue();
+					int k = nbSuites.containsKey(type) ? nbSuites.get(type) : 0;
+					Object complet = a.complet;
+					List<Serializable> ajouts = a.suites;
+					if (complet == null && k + ajouts.size() > MAX_SUITES) {
+						complet = compacter(type, k, ajouts);
+						ajouts = Collections.emptyList();
+					}
+					if (complet != null) {
+						String f = type + "." + g + SUFFIXE;
+						ecrireAtomique(repertoire.resolve(f),
+								octets(Collections.singletonList(complet)));
+						suivants.put(type, f);
+						for (; k > 0; k--) {
+							suivants.remove(nomSuite(type, k));
+						}
+					}
+					for (Serializable c : ajouts) {
+						String nom = nomSuite(type, ++k);
+						String f = nom + "." + g + SUFFIXE;
+						ecrireAtomique(repertoire.resolve(f),
+								octets(Collections.singletonList(c)));
+						suivants.put(nom, f);
+					}
+					nbSuites.put(type, k);
+				}
+				Files.deleteIfExists(instantane);
+				ecrireAtomique(repertoire.resolve(MANIFESTE),
+						manifeste(g, suivants));
+				synchronized (this) {
+					generation = g;
+					fichiers = suivants;
+					suites = nbSuites;
+				}
+				for (String nom : ecrits) {
+					versions.put(nom, image.numero);
+				}
+				nettoyer(suivants);
+			} catch (IOException ioe) {
+				synchronized (this) {
+					toutSalir();
+				}
+				throw ioe;
+			}
+		}
+	}
+
+	/**
+	 * Relit le journal du manifeste et ses suites, puis le prolonge des
+	 * suites en attente, pour le reecrire en entier.
+	 * @param type nom du segment complet
+	 * @param k nombre de suites du manifeste
+	 * @param ajouts suites en attente
+	 * @return journal prolonge
+	 * @throws IOException lecture impossible, ou suite qui ne prolonge
+	 *    pas le journal
+	 */
+	private Prolongeable compacter(final String type, final int k,
+			final List<Serializable> ajouts) throws IOException {
+		List<Prolongeable> complet = lireSegment(null, type);
+		if (complet.isEmpty()) {
+			throw new IOException("Journal " + type + " absent du manifeste");
+		}
+		Prolongeable j = complet.get(0);
+		for (int i = 1; i <= k; i++) {
+			for (Object suite : lireSegment(null, nomSuite(type, i))) {
+				j.prolonger(suite);
+			}
+		}
+		for (Serializable suite : ajouts) {
+			j.prolonger(suite);
+		}
+		return j;
+	}
+
+	/**
+	 * Supprime le manifeste apres une sauvegarde complete dans un autre
+	 * format : les segments ne sont plus relus, la prochaine capture
+	 * reprend tous les segments et les images deja capturees ne sont
+	 * pas ecrites.
+	 * @throws IOException suppression impossible
+	 */
+	void invalider() throws IOException {
+		synchronized (ecriture) {
+			synchronized (this) {
+				toutSalir();
+				enAttente.clear();
+				invalidees = captures;
+			}
+			Files.deleteIfExists(repertoire.resolve(MANIFESTE));
+		}
+	}
+
+	/**
+	 * Salit tous les segments, et fait reecrire les journaux en entier.
+	 */
+	private void toutSalir() {
+		sales.addAll(Arrays.asList(GENRES, LOCALISATIONS, CATEGORIES,
+				CATALOGUE));
+		for (Miroir mi : Arrays.asList(documents, clients, emprunts)) {
+			if (mi != null) {
+				mi.salir();
+			}
+		}
+		journauxSauves.clear();
+	}
+
+	/**
+	 * Abandonne les copies figees, apres le remplacement des tables de
+	 * la mediatheque : la prochaine capture les reconstruit et reprend
+	 * tous les segments.
+	 */
+	synchronized void oublier() {
+		documents = null;
+		clients = null;
+		emprunts = null;
+		journauxSauves.clear();
+	}
+
+	/**
+	 * indique si les copies figees sont tenues a jour.
+	 * @return true apres la premiere capture ou le chargement
+	 */
+	synchronized boolean suit() {
+		return clients != null;
+	}
+
+	/**
+	 * Salit le segment d'un referentiel ajoute, retire ou modifie.
+	 * @param e genre, localisation ou categorie de client
+	 */
+	synchronized void referentielModifie(final Object e) {
+		if (e instanceof Genre) {
+			sales.add(GENRES);
+		} else if (e instanceof Localisation) {
+			sales.add(LOCALISATIONS);
+		} else {
+			sales.add(CATEGORIES);
+		}
+	}
+
+	/**
+	 * Remplace la copie figee d'un document et salit son segment.
+	 * @param code code du document
+	 * @param copie copie figee, null pour un retrait
+	 * @param ajout false pour ne remplacer qu'une copie presente
+	 */
+	synchronized void mettreDocument(final String code, final Document copie,
+			final boolean ajout) {
+		if (documents != null) {
+			documents.mettre(code, copie, ajout);
+		}
+	}
+
+	/**
+	 * Remplace la copie figee d'un client et salit son segment.
+	 * @param hc cle du client
+	 * @param copie copie figee, null pour un retrait
+	 * @param ajout false pour ne remplacer qu'une copie presente
+	 */
+	synchronized void mettreClient(final HashClient hc, final Client copie,
+			final boolean ajout) {
+		if (clients != null) {
+			clients.mettre(hc, copie, ajout);
+		}
+	}
+
+	/**
+	 * Remplace la copie figee d'une fiche d'emprunt et salit son segment.
+	 * @param code code du document emprunte
+	 * @param copie copie figee, null pour un retrait
+	 * @param ajout false pour ne remplacer qu'une copie presente
+	 */
+	synchronized void mettreEmprunt(final String code,
+			final FicheEmprunt copie, final boolean ajout) {
+		if (emprunts != null) {
+			emprunts.mettre(code, copie, ajout);
+		}
+	}
+
+	/**
+	 * Construit les copies figees des tables de la mediatheque, sous son
+	 * verrou, et salit tous les segments. Les valeurs non chargees d'une
+	 * table paresseuse sont gardees sous leur forme serialisee, sans
+	 * etre relues.
+	 * @param m mediatheque
+	 * @throws IOException lecture d'une valeur non chargee impossible
+	 */
+	private void construire(final Mediatheque m) throws IOException {
+		Map<String, Document> docs = m.documents();
+		documents = docs instanceof CatalogueMappe ? null : miroir(m, docs);
+		clients = miroir(m, m.clients());
+		emprunts = new Miroir();
+		for (FicheEmprunt fe : m.fiches()) {
+			emprunts.mettre(fe.getDocument().getCode(), m.figer(fe), true);
+		}
+		toutSalir();
+	}
+
+	/**
+	 * Copies figees d'une table de documents ou de clients.
+	 * @param <K> type des cles
+	 * @param <V> type des valeurs
+	 * @param m mediatheque qui fige les entites
+	 * @param table entites
+	 * @return copies, par segment
+	 * @throws IOException lecture d'une valeur non chargee impossible
+	 */
+	private static <K, V> Miroir miroir(final Mediatheque m,
+			final Map<K, V> table) throws IOException {
+		TableParesseuse<K, V> paresseuse = null;
+		if (table instanceof TableParesseuse) {
+			paresseuse = (TableParesseuse<K, V>) table;
+		}
+		Miroir res = new Miroir();
+		for (K cle : table.keySet()) {
+			byte[] brut = null;
+			if (paresseuse != null) {
+				brut = paresseuse.brut(cle);
+			}
+			V v = brut == null ? table.get(cle) : null;
+			Object copie = brut;
+			if (v instanceof Document) {
+				copie = m.figer((Document) v);
+			} else if (v instanceof Client) {
+				copie = m.figer((Client) v);
+			}
+			res.mettre(cle, copie, true);
+		}
+		return res;
+	}
+
+	/**
+	 * Contenu d'un manifeste.
+	 * @param g generation
+	 * @param f fichier de chaque segment
+	 * @return octets du manifeste
+	 * @throws IOException en relai de DataOutputStream
+	 */
+	private static byte[] manifeste(final long g, final Map<String, String> f)
+			throws IOException {
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(new SortieBlocs(b));
+		out.writeInt(MAGIQUE_MANIFESTE);
+		out.writeLong(g);
+		out.writeInt(f.size());
+		for (Map.Entry<String, String> e : f.entrySet()) {
+			out.writeUTF(e.getKey());
+			out.writeUTF(e.getValue());
+		}
+		out.close();
+		return b.toByteArray();
+	}
+
+	/**
+	 * Relit le manifeste : generation et fichier de chaque segment.
+	 * @throws IOException manifeste absent ou invalide
+	 */
+	private void lireManifeste() throws IOException {
+		Path f = repertoire.resolve(MANIFESTE);
+		Map<String, String> lus = new TreeMap<String, String>();
+		long g;
+		try (EntreeBlocs blocs = new EntreeBlocs(
+				new BufferedInputStream(Files.newInputStream(f)))) {
+			DataInputStream in = new DataInputStream(blocs);
+			if (in.readInt() != MAGIQUE_MANIFESTE) {
+				throw new IOException("Fichier " + f + " n'est pas un manifeste");
+			}
+			g = in.readLong();
+			for (int n = in.readInt(); n > 0; n--) {
+				String nom = in.readUTF();
+				lus.put(nom, in.readUTF());
+			}
+			blocs.verifierFin();
+		} catch (IOException ioe) {
+			throw new IOException("Manifeste " + f + " : " + ioe.getMessage(),
+					ioe);
+		}
+		synchronized (this) {
+			generation = g;
+			fichiers = lus;
+		}
+	}
+
+	/**
+	 * Supprime les fichiers de segment que le manifeste ne designe pas :
+	 * generations remplacees, ecritures interrompues.
+	 * @param gardes fichier de chaque segment du manifeste
+	 * @throws IOException parcours du repertoire impossible
+	 */
+	private void nettoyer(final Map<String, String> gardes)
+			throws IOException {
+		try (DirectoryStream<Path> d = Files.newDirectoryStream(repertoire,
+				"*.{seg,tmp}")) {
+			for (Path f : d) {
+				if (!gardes.containsValue(f.getFileName().toString())) {
+					Files.deleteIfExists(f);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Charge une mediatheque sauvegardee en segments, d'apres le
+	 * manifeste. Les segments sont decodes en parallele, par etapes : referentiels, puis documents
+	 * et clients, puis fiches d'emprunt, qui font reference aux
+	 * precedents, puis rattachement des fiches et copies figees des
+	 * entites relues, qui ne salissent aucun segment.
+	 * @param m mediatheque
+	 * @param chrono mesure de la duree de chaque etape
+	 * @throws IOException lecture impossible, manifeste absent ou segment
+	 *    invalide
+	 */
+	void charger(final Mediatheque m, final Chronometre chrono)
+			throws IOException {
+		oublier();
+		lireManifeste();
+		ForkJoinTask<List<Genre>> tg = lancer(m, GENRES, -1);
+		ForkJoinTask<List<Localisation>> tl = lancer(m, LOCALISATIONS, -1);
+		ForkJoinTask<List<CategorieClient>> tc = lancer(m, CATEGORIES, -1);
+		List<ForkJoinTask<List<Recettes>>> tr = lancerJournal(m, RECETTES);
+		List<ForkJoinTask<List<Historique>>> th = lancerJournal(m, HISTORIQUE);
+		List<Genre> genres = new Vector<Genre>(attendre(tg));
+		List<Localisation> locs = new Vector<Localisation>(attendre(tl));
+		List<CategorieClient> cats = new Vector<CategorieClient>(attendre(tc));
+		Recettes recettes = attendreJournal(RECETTES, tr);
+		Historique historique = attendreJournal(HISTORIQUE, th);
+		m.initialiserReferentiels(genres, locs, cats);
+		if (recettes != null) {
+			m.initialiserRecettes(recettes);
+		}
+		if (historique != null) {
+			m.initialiserHistorique(historique);
+		}
+		chrono.etape("referentiels");
+
+		Map<String, Document> docs;
+		Path catalogue = fichier(CATALOGUE, -1);
+		if (catalogue != null) {
+			try (ObjectInputStream in = new ObjectInputStream(
+					Files.newInputStream(catalogue))) {
+				@SuppressWarnings("unchecked")
+				Map<String, Document> c = (Map<String, Document>) in.readObject();
+				docs = c;
+			} catch (ClassNotFoundException cnfe) {
+				throw new IOException("Segment " + catalogue + " : " + cnfe);
+			}
+		} else {
+			docs = new Hashtable<String, Document>();
+		}
+		Map<HashClient, Client> clients = new Hashtable<HashClient, Client>();
+		m.initialiserTables(docs, clients);
+		List<ForkJoinTask<List<Document>>> td =
+				new ArrayList<ForkJoinTask<List<Document>>>(NB_SEGMENTS);
+		List<ForkJoinTask<List<Client>>> tk =
+				new ArrayList<ForkJoinTask<List<Client>>>(NB_SEGMENTS);
+		for (int s = 0; s < NB_SEGMENTS; s++) {
+			if (!(docs instanceof CatalogueMappe)) {
+				td.add(this.<Document>lancer(m, DOCUMENTS, s));
+			}
+			tk.add(this.<Client>lancer(m, CLIENTS, s));
+		}
+		if (!(docs instanceof CatalogueMappe)) {
+			for (int s = 0; s < NB_SEGMENTS; s++) {
+				for (Document d : attendre(td.get(s))) {
+					docs.put(d.getCode(), d);
+				}
+			}
+		}
+		for (int s = 0; s < NB_SEGMENTS; s++) {
+			for (Client c : attendre(tk.get(s))) {
+				clients.put(new HashClient(c.getNom(), c.getPrenom()), c);
+			}
+		}
+		chrono.etape("documents et clients");
+
+		List<ForkJoinTask<List<FicheEmprunt>>> tf =
+				new ArrayList<ForkJoinTask<List<FicheEmprunt>>>(NB_SEGMENTS);
+		for (int s = 0; s < NB_SEGMENTS; s++) {
+			tf.add(this.<FicheEmprunt>lancer(m, EMPRUNTS, s));
+		}
+		List<FicheEmprunt> fiches = new Vector<FicheEmprunt>();
+		for (int s = 0; s < NB_SEGMENTS; s++) {
+			fiches.addAll(attendre(tf.get(s)));
+		}
+		chrono.etape("emprunts");
+		m.initialiserEmprunts(fiches);
+		synchronized (this) {
+			construire(m);
+			sales.clear();
+			for (Miroir mi : Arrays.asList(documents, this.clients,
+					emprunts)) {
+				if (mi != null) {
+					mi.nettoyer();
+				}
+			}
+		}
+		chrono.etape("liaison");
+	}
+
+	/**
+	 * Lance le decodage d'un segment sur le <code>ForkJoinPool</code>
+	 * commun.
+	 * @param <T> type des entites
+	 * @param m mediatheque qui resout les references
+	 * @param type type du segment
+	 * @param s numero de segment, -1 si segment unique
+	 * @return tache de decodage
+	 */
+	private <T> ForkJoinTask<List<T>> lancer(final Mediatheque m,
+			final String type, final int s) {
+		return lancer(m, nom(type, s));
+	}
+
+	/**
+	 * Lance le decodage d'un segment sur le <code>ForkJoinPool</code>
+	 * commun.
+	 * @param <T> type des entites
+	 * @param m mediatheque qui resout les references
+	 * @param nom nom du segment
+	 * @return tache de decodage
+	 */
+	private <T> ForkJoinTask<List<T>> lancer(final Mediatheque m,
+			final String nom) {
+		return ForkJoinPool.commonPool().submit(new Callable<List<T>>() {
+			@Override
+			public List<T> call() throws IOException {
+				return lireSegment(m, nom);
+			}
+		});
+	}
+
+	/**
+	 * Lance le decodage du segment complet d'un journal et de ses
+	 * suites.
+	 * @param <T> type du journal
+	 * @param m mediatheque qui resout les references
+	 * @param type nom du segment complet
+	 * @return taches de decodage, segment complet en tete
+	 */
+	private <T> List<ForkJoinTask<List<T>>> lancerJournal(final Mediatheque m,
+			final String type) {
+		List<ForkJoinTask<List<T>>> res = new ArrayList<ForkJoinTask<List<T>>>();
+		res.add(this.<T>lancer(m, type));
+		for (int k = 1; fichier(nomSuite(type, k)) != null; k++) {
+			res.add(this.<T>lancer(m, nomSuite(type, k)));
+		}
+		return res;
+	}
+
+	/**
+	 * Attend le decodage d'un journal, le prolonge de ses suites et en
+	 * reprend le suivi.
+	 * @param <T> type du journal
+	 * @param type nom du segment complet
+	 * @param taches taches de decodage, segment complet en tete
+	 * @return journal, null si le manifeste n'en contient pas
+	 * @throws IOException erreur de decodage, ou suite qui ne prolonge
+	 *    pas le journal
+	 */
+	private <T extends Prolongeable> T attendreJournal(final String type,
+			final List<ForkJoinTask<List<T>>> taches) throws IOException {
+		List<T> complet = attendre(taches.get(0));
+		if (complet.isEmpty()) {
+			return null;
+		}
+		T j = complet.get(0);
+		for (int k = 1; k < taches.size(); k++) {
+			for (Object s : attendre(taches.get(k))) {
+				j.prolonger(s);
+			}
+		}
+		j.suivre();
+		synchronized (this) {
+			journauxSauves.add(type);
+			suites.put(type, taches.size() - 1);
+		}
+		return j;
+	}
+
+	/**
+	 * Attend le resultat d'une tache de decodage.
+	 * @param <T> type du resultat
+	 * @param t tache
+	 * @return resultat
+	 * @throws IOException erreur de la tache, ou attente interrompue
+	 */
+	private static <T> T attendre(final ForkJoinTask<T> t)
+			throws IOException {
+		try {
+			return t.get();
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof IOException) {
+				throw (IOException) ee.getCause();
+			}
+			throw new IOException(ee.getCause());
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Chargement interrompu");
+		}
+	}
+
+	/**
+	 * Capture une liste de referentiels, sauvee dans un segment unique,
+	 * si elle est salie : copies figees de ses elements.
+	 * @param image segments a ecrire
+	 * @param type nom du segment
+	 * @param liste genres, localisations ou categories de client
+	 */
+	private void capturerListe(final Map<String, Object> image,
+			final String type, final List<?> liste) {
+		if (!sales.remove(type)) {
+			return;
+		}
+		List<Object> copies = new ArrayList<Object>(liste.size());
+		for (Object e : liste) {
+			if (e instanceof Genre) {
+				copies.add(((Genre) e).copieFigee());
+			} else if (e instanceof Localisation) {
+				copies.add(((Localisation) e).copieFigee());
+			} else {
+				copies.add(((CategorieClient) e).copieFigee());
+			}
+		}
+		image.put(nom(type, -1), copies);
+	}
+
+	/**
+	 * Capture les ajouts a un journal depuis la capture precedente, ou
+	 * une copie du journal entier s'il n'a pas encore ete sauve ou s'il
+	 * n'est pas suivi. Le contenu capture est mis en attente de la
+	 * prochaine ecriture ; un journal entier remplace les contenus deja
+	 * en attente.
+	 * @param type nom du segment complet
+	 * @param j journal
+	 * @return nombre de segments mis en attente
+	 */
+	private int capturerJournal(final String type, final Prolongeable j) {
+		EnAttente a = enAttente.get(type);
+		if (!journauxSauves.contains(type) || !j.estSuivi()) {
+			a = new EnAttente();
+			a.complet = j.copie();
+			j.suivre();
+			enAttente.put(type, a);
+			journauxSauves.add(type);
+			return 1;
+		}
+		Serializable suite = j.suite();
+		if (suite == null) {
+			return 0;
+		}
+		if (a == null) {
+			a = new EnAttente();
+			enAttente.put(type, a);
+		}
+		a.suites.add(suite);
+		return 1;
+	}
+
+	/**
+	 * Segment d'une cle.
+	 * @param cle cle d'une entite
+	 * @return numero de segment
+	 */
+	static int segment(final Object cle) {
+		return Math.floorMod(cle.hashCode(), NB_SEGMENTS);
+	}
+
+	/**
+	 * Nom d'un segment.
+	 * @param type type du segment
+	 * @param s numero de segment, -1 si segment unique
+	 * @return nom du segment
+	 */
+	private static String nom(final String type, final int s) {
+		return s < 0 ? type : type + "-" + s;
+	}
+
+	/**
+	 * Nom d'un segment de suite d'un journal.
+	 * @param type nom du segment complet
+	 * @param k numero de la suite, a partir de 1
+	 * @return nom du segment
+	 */
+	private static String nomSuite(final String type, final int k) {
+		return type + SUITE + k;
+	}
+
+	/**
+	 * Fichier courant d'un segment d'apres le manifeste.
+	 * @param type type du segment
+	 * @param s numero de segment, -1 si segment unique
+	 * @return chemin du segment, null s'il est absent du manifeste
+	 */
+	private Path fichier(final String type, final int s) {
+		return fichier(nom(type, s));
+	}
+
+	/**
+	 * Fichier courant d'un segment d'apres le manifeste.
+	 * @param nom nom du segment
+	 * @return chemin du segment, null s'il est absent du manifeste
+	 */
+	private synchronized Path fichier(final String nom) {
+		String f = fichiers.get(nom);
+		return f == null ? null : repertoire.resolve(f);
+	}
+
+	/**
+	 * Serialise le contenu capture d'un segment.
+	 * @param c entites, serialisees ou non, ou catalogue projete
+	 * @return octets du segment
+	 * @throws IOException serialisation impossible
+	 */
+	private static byte[] octets(final Object c) throws IOException {
+		if (c instanceof CatalogueMappe) {
+			ByteArrayOutputStream b = new ByteArrayOutputStream();
+			try (ObjectOutputStream out = new ObjectOutputStream(b)) {
+				out.writeObject(c);
+			}
+			return b.toByteArray();
+		}
+		Collection<?> entites = (Collection<?>) c;
+		List<byte[]> enregs = new ArrayList<byte[]>(entites.size());
+		for (Object e : entites) {
+			enregs.add(e instanceof byte[] ? (byte[]) e : encoder(e));
+		}
+		return contenu(enregs);
+	}
+
+	/**
+	 * Serialise une entite, les entites partagees etant des references.
+	 * @param e entite
+	 * @return octets
+	 * @throws IOException en relai de SortieEntites
+	 */
+	private static byte[] encoder(final Object e) throws IOException {
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		try (SortieEntites out = new SortieEntites(b)) {
+			out.ecrire(e);
+		}
+		return b.toByteArray();
+	}
+
+	/**
+	 * Contenu d'un segment.
+	 * @param enregs entites serialisees
+	 * @return octets du segment
+	 * @throws IOException en relai de DataOutputStream
+	 */
+	private static byte[] contenu(final List<byte[]> enregs)
+			throws IOException {
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(new SortieBlocs(b));
+		out.writeInt(MAGIQUE);
+		out.writeInt(enregs.size());
+		for (byte[] e : enregs) {
+			out.writeInt(e.length);
+			out.write(e);
+		}
+		out.close();
+		return b.toByteArray();
+	}
+
+	/**
+	 * Relit les entites d'un segment ; un segment absent du manifeste
+	 * est vide.
+	 * @param <T> type des entites
+	 * @param m mediatheque qui resout les references
+	 * @param nom nom du segment
+	 * @return entites du segment
+	 * @throws IOException lecture impossible ou segment invalide
+	 */
+	private <T> List<T> lireSegment(final Mediatheque m, final String nom)
+			throws IOException {
+		Path f = fichier(nom);
+		List<T> res = new ArrayList<T>();
+		if (f == null) {
+			return res;
+		}
+		try (EntreeBlocs blocs = new EntreeBlocs(
+				new BufferedInputStream(Files.newInputStream(f)))) {
+			DataInputStream in = new DataInputStream(blocs);
+			if (in.readInt() != MAGIQUE) {
+				throw new IOException("Fichier " + f + " n'est pas un segment");
+			}
+			for (int n = in.readInt(); n > 0; n--) {
+				byte[] e = new byte[in.readInt()];
+				in.readFully(e);
+				try (EntreeEntites ee = new EntreeEntites(
+						new ByteArrayInputStream(e), m)) {
+					@SuppressWarnings("unchecked")
+					T t = (T) ee.readObject();
+					res.add(t);
+				} catch (ClassNotFoundException cnfe) {
+					throw new IOException("Segment " + f + " : " + cnfe);
+				}
+			}
+			blocs.verifierFin();
+		} catch (IOException ioe) {
+			throw new IOException("Segment " + f + " : " + ioe.getMessage(),
+					ioe);
+		}
+		return res;
+	}
+
+	/**
+	 * Ecrit un fichier a cote puis le renomme de facon atomique : une
+	 * interruption laisse l'ancienne version intacte.
+	 * @param f fichier
+	 * @param contenu contenu
+	 * @throws IOException ecriture impossible
+	 */
+	static void ecrireAtomique(final Path f, final byte[] contenu)
+			throws IOException {
+		Path tmp = f.resolveSibling(f.getFileName() + ".tmp");
+		try (FileChannel canal = FileChannel.open(tmp,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer b = ByteBuffer.wrap(contenu);
+			while (b.hasRemaining()) {
+				canal.write(b);
+			}
+			canal.force(true);
+		}
+		Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Image capturee des segments a reecrire.
+	 */
+	static final class Image {
+		/** Numero de la capture. */
+		private final long numero;
+		/**
+		 * Contenu de chaque segment, a serialiser : entites, catalogue
+		 * projete, ou null pour un segment a supprimer.
+		 */
+		private final Map<String, Object> contenus;
+		/** Nombre de segments de journal mis en attente par la capture. */
+		private final int journaux;
+
+		/**
+		 * Constructeur.
+		 * @param n numero de la capture
+		 * @param c contenu de chaque segment, par nom de segment
+		 * @param j nombre de segments de journal mis en attente
+		 */
+		Image(final long n, final Map<String, Object> c, final int j) {
+			numero = n;
+			contenus = c;
+			journaux = j;
+		}
+
+		/**
+		 * retourne vrai si aucun segment n'est a reecrire.
+		 * @return true si l'image est vide
+		 */
+		boolean estVide() {
+			return contenus.isEmpty() && journaux == 0;
+		}
+	}
+
+	/**
+	 * Contenus captures d'un journal en attente d'ecriture.
+	 */
+	private static final class EnAttente {
+		/** Copie du journal entier, null s'il prolonge celui du manifeste. */
+		private Prolongeable complet;
+		/** Suites, dans l'ordre des captures. */
+		private final List<Serializable> suites = new ArrayList<Serializable>();
+	}
+
+	/**
+	 * Copies figees des entites d'une table, par segment, dans des
+	 * tables persistantes : une capture retient les tables des segments
+	 * salis sans les recopier. Modifie sous le verrou des segments.
+	 */
+	private static final class Miroir {
+		/** Copies figees ou serialisees de chaque segment, par cle. */
+		private final List<TablePersistante<Object, Object>> tables =
+				new ArrayList<TablePersistante<Object, Object>>(NB_SEGMENTS);
+		/** Segments salis depuis la derniere capture. */
+		private final boolean[] sales = new boolean[NB_SEGMENTS];
+
+		/**
+		 * Constructeur de segments vides.
+		 */
+		Miroir() {
+			for (int s = 0; s < NB_SEGMENTS; s++) {
+				tables.add(TablePersistante.<Object, Object>vide());
+			}
+		}
+
+		/**
+		 * Remplace la copie d'une entite et salit son segment.
+		 * @param cle cle de l'entite
+		 * @param copie copie figee ou serialisee, null pour un retrait
+		 * @param ajout false pour ne remplacer qu'une copie presente
+		 */
+		void mettre(final Object cle, final Object copie,
+				final boolean ajout) {
+			int s = segment(cle);
+			TablePersistante<Object, Object> t = tables.get(s);
+			if (!ajout && !t.containsKey(cle)) {
+				return;
+			}
+			tables.set(s, copie == null ? t.sans(cle) : t.avec(cle, copie));
+			sales[s] = true;
+		}
+
+		/**
+		 * Salit tous les segments.
+		 */
+		void salir() {
+			Arrays.fill(sales, true);
+		}
+
+		/**
+		 * Oublie les segments salis.
+		 */
+		void nettoyer() {
+			Arrays.fill(sales, false);
+		}
+
+		/**
+		 * Capture les copies des segments salis.
+		 * @param image segments a ecrire
+		 * @param type prefixe des segments
+		 */
+		void capturer(final Map<String, Object> image, final String type) {
+			for (int s = 0; s < NB_SEGMENTS; s++) {
+				if (sales[s]) {
+					image.put(nom(type, s), tables.get(s).values());
+					sales[s] = false;
+				}
+			}
+		}
+	}
+}
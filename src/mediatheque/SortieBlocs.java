@@ -0,0 +1,254 @@
+package mediatheque;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32C;
+import java.util.zip.Deflater;
+
+/**
+ * La classe <code>SortieBlocs</code> decoupe un flux en blocs controles :
+ * chaque bloc est precede de sa longueur et de sa somme CRC32C, et le
+ * flux se termine par un bloc vide suivi de la longueur totale. Une
+ * ecriture interrompue ou alteree est ainsi detectee a la relecture.
+ * <P>
+ * Format : entier magique, puis pour chaque bloc sa longueur, sa somme
+ * et ses octets, puis 0 et la longueur totale. La somme couvre la
+ * longueur puis les octets du bloc.
+ * <P>
+ * En format compresse, chaque bloc est compresse independamment
+ * (Deflate) et sa longueur non compressee suit sa somme, calculee sur
+ * la longueur compressee, la longueur non compressee puis les octets
+ * compresses. Les blocs sont compresses en parallele sur le
+ * <code>ForkJoinPool</code> commun et ecrits dans l'ordre.
+ * <P>
+ * Les flux de la premiere version, dont la somme ne couvre que les
+ * octets du bloc, restent lisibles.
+ * @see EntreeBlocs
+ */
+final class SortieBlocs extends OutputStream {
+	/** Nombre magique d'un flux de blocs. */
+	static final int MAGIQUE = 0x4D444232;
+	/** Nombre magique d'un flux de blocs compresses. */
+	static final int MAGIQUE_COMPRESSE = 0x4D44427A;
+	/** Nombre magique d'un flux de blocs de la premiere version. */
+	static final int MAGIQUE_V1 = 0x4D444231;
+	/** Nombre magique d'un flux de blocs compresses de la premiere version. */
+	static final int MAGIQUE_COMPRESSE_V1 = 0x4D44425A;
+	/** Taille maximale d'un bloc. */
+	static final int TAILLE_BLOC = 64 * 1024;
+	/** Nombre maximal de blocs en cours de compression ou de lecture. */
+	static final int EN_VOL =
+			2 * ForkJoinPool.commonPool().getParallelism() + 2;
+
+	/** Flux destination. */
+	private final DataOutputStream sortie;
+	/** Blocs compresses. */
+	private final boolean compresse;
+	/** Bloc en cours de remplissage. */
+	private byte[] bloc = new byte[TAILLE_BLOC];
+	/** Nombre d'octets du bloc en cours. */
+	private int rempli;
+	/** Nombre d'octets ecrits depuis le debut du flux. */
+	private long total;
+	/** Somme de controle. */
+	private final CRC32C crc = new CRC32C();
+	/** Compressions en cours, dans l'ordre des blocs. */
+	private final Deque<ForkJoinTask<byte[]>> enCours =
+			new ArrayDeque<ForkJoinTask<byte[]>>();
+	/** Fin du flux ecrite. */
+	private boolean termine;
+
+	/**
+	 * Constructeur d'un flux non compresse.
+	 * @param out flux destination
+	 * @throws IOException ecriture de l'entete
+	 */
+	SortieBlocs(final OutputStream out) throws IOException {
+		this(out, false);
+	}
+
+	/**
+	 * Constructeur.
+	 * @param out flux destination
+	 * @param comp blocs compresses
+	 * @throws IOException ecriture de l'entete
+	 */
+	SortieBlocs(final OutputStream out, final boolean comp)
+			throws IOException {
+		sortie = new DataOutputStream(out);
+		compresse = comp;
+		sortie.writeInt(comp ? MAGIQUE_COMPRESSE : MAGIQUE);
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		if (rempli == TAILLE_BLOC) {
+			ecrireBloc();
+		}
+		bloc[rempli++] = (byte) b;
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len)
+			throws IOException {
+		int pos = off;
+		int reste = len;
+		while (reste > 0) {
+			if (rempli == TAILLE_BLOC) {
+				ecrireBloc();
+			}
+			int n = Math.min(reste, TAILLE_BLOC - rempli);
+			System.arraycopy(b, pos, bloc, rempli, n);
+			rempli += n;
+			pos += n;
+			reste -= n;
+		}
+	}
+
+	/**
+	 * Le flush n'ecrit pas de bloc partiel : seuls les blocs pleins et
+	 * le dernier bloc, a la fin du flux, sont ecrits.
+	 */
+	@Override
+	public void flush() throws IOException {
+		sortie.flush();
+	}
+
+	/**
+	 * Ecrit le dernier bloc et la fin du flux sans fermer la destination,
+	 * qui peut ensuite etre synchronisee sur disque.
+	 * @throws IOException ecriture impossible
+	 */
+	void terminer() throws IOException {
+		if (termine) {
+			return;
+		}
+		termine = true;
+		ecrireBloc();
+		while (!enCours.isEmpty()) {
+			ecrireCompresse(enCours.poll().join());
+		}
+		sortie.writeInt(0);
+		sortie.writeLong(total);
+		sortie.flush();
+	}
+
+	/**
+	 * Termine le flux puis ferme la destination.
+	 */
+	@Override
+	public void close() throws IOException {
+		terminer();
+		sortie.close();
+	}
+
+	/**
+	 * Ecrit le bloc en cours, ou le confie a la compression.
+	 * @throws IOException ecriture impossible
+	 */
+	private void ecrireBloc() throws IOException {
+		if (rempli == 0) {
+			return;
+		}
+		total += rempli;
+		if (compresse) {
+			final byte[] brut = bloc;
+			final int lg = rempli;
+			enCours.add(ForkJoinPool.commonPool().submit(
+					new Callable<byte[]>() {
+						@Override
+						public byte[] call() {
+							return compresser(brut, lg);
+						}
+					}));
+			bloc = new byte[TAILLE_BLOC];
+			rempli = 0;
+			while (enCours.size() > EN_VOL) {
+				ecrireCompresse(enCours.poll().join());
+			}
+			return;
+		}
+		crc.reset();
+		ajouterEntier(crc, rempli);
+		crc.update(bloc, 0, rempli);
+		sortie.writeInt(rempli);
+		sortie.writeInt((int) crc.getValue());
+		sortie.write(bloc, 0, rempli);
+		rempli = 0;
+	}
+
+	/**
+	 * Ecrit un bloc compresse, deja precede de sa somme et de sa
+	 * longueur non compressee.
+	 * @param b bloc compresse
+	 * @throws IOException ecriture impossible
+	 */
+	private void ecrireCompresse(final byte[] b) throws IOException {
+		sortie.writeInt(b.length - 2 * Integer.BYTES);
+		sortie.write(b);
+	}
+
+	/**
+	 * Compresse un bloc.
+	 * @param brut octets du bloc
+	 * @param lg nombre d'octets
+	 * @return somme, longueur non compressee puis octets compresses
+	 */
+	static byte[] compresser(final byte[] brut, final int lg) {
+		Deflater d = new Deflater(Deflater.BEST_SPEED);
+		try {
+			d.setInput(brut, 0, lg);
+			d.finish();
+			byte[] res = new byte[2 * Integer.BYTES + lg + lg / 8 + 64];
+			int n = 2 * Integer.BYTES;
+			while (!d.finished()) {
+				if (n == res.length) {
+					res = Arrays.copyOf(res, 2 * res.length);
+				}
+				n += d.deflate(res, n, res.length - n);
+			}
+			CRC32C somme = new CRC32C();
+			ajouterEntier(somme, n - 2 * Integer.BYTES);
+			ajouterEntier(somme, lg);
+			somme.update(res, 2 * Integer.BYTES, n - 2 * Integer.BYTES);
+			ecrireEntier(res, 0, (int) somme.getValue());
+			ecrireEntier(res, Integer.BYTES, lg);
+			return Arrays.copyOf(res, n);
+		} finally {
+			d.end();
+		}
+	}
+
+	/**
+	 * Ajoute un entier a une somme de controle, poids fort en tete.
+	 * @param c somme
+	 * @param v valeur
+	 */
+	static void ajouterEntier(final CRC32C c, final int v) {
+		c.update(v >>> 24);
+		c.update(v >>> 16);
+		c.update(v >>> 8);
+		c.update(v);
+	}
+
+	/**
+	 * Ecrit un entier, poids fort en tete.
+	 * @param b tableau destination
+	 * @param pos position
+	 * @param v valeur
+	 */
+	private static void ecrireEntier(final byte[] b, final int pos,
+			final int v) {
+		b[pos] = (byte) (v >>> 24);
+		b[pos + 1] = (byte) (v >>> 16);
+		b[pos + 2] = (byte) (v >>> 8);
+		b[pos + 3] = (byte) v;
+	}
+}
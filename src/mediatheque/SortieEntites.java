@@ -0,0 +1,72 @@
+package mediatheque;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import mediatheque.client.CategorieClient;
+import mediatheque.client.Client;
+import mediatheque.document.Document;
+
+/**
+ * La classe <code>SortieEntites</code> serialise des enregistrements
+ * independants : chaque entite partagee atteinte depuis l'enregistrement
+ * (autre que l'enregistrement lui-meme) est remplacee par une
+ * <code>ReferenceEntite</code>.
+ * @see EntreeEntites
+ */
+final class SortieEntites extends ObjectOutputStream {
+	/** Enregistrement en cours d'ecriture, jamais remplace. */
+	private Object racine;
+
+	/**
+	 * Constructeur.
+	 * @param out flux destination
+	 * @throws IOException en relai de ObjectOutputStream
+	 */
+	SortieEntites(final OutputStream out) throws IOException {
+		super(out);
+		enableReplaceObject(true);
+	}
+
+	/**
+	 * ecrit un enregistrement.
+	 * @param enreg entite a ecrire
+	 * @throws IOException en relai de writeObject
+	 */
+	void ecrire(final Object enreg) throws IOException {
+		racine = enreg;
+		writeObject(enreg);
+		racine = null;
+	}
+
+	@Override
+	protected Object replaceObject(final Object obj) {
+		if (obj == racine) {
+			return obj;
+		}
+		if (obj instanceof Genre) {
+			return new ReferenceEntite(ReferenceEntite.GENRE,
+					((Genre) obj).getNom(), null);
+		}
+		if (obj instanceof Localisation) {
+			Localisation l = (Localisation) obj;
+			return new ReferenceEntite(ReferenceEntite.LOCALISATION,
+					l.getSalle(), l.getRayon());
+		}
+		if (obj instanceof CategorieClient) {
+			return new ReferenceEntite(ReferenceEntite.CATEGORIE,
+					((CategorieClient) obj).getNom(), null);
+		}
+		if (obj instanceof Client) {
+			Client c = (Client) obj;
+			return new ReferenceEntite(ReferenceEntite.CLIENT,
+					c.getNom(), c.getPrenom());
+		}
+		if (obj instanceof Document) {
+			return new ReferenceEntite(ReferenceEntite.DOCUMENT,
+					((Document) obj).getCode(), null);
+		}
+		return obj;
+	}
+}
@@ -0,0 +1,17 @@
+package mediatheque;
+/**
+ * L'interface <TT>SuiviModifications</TT> est implementee par la
+ * mediatheque pour etre prevenue de chaque modification de ses
+ * entites, au moment ou elle se produit.
+ * @see Modifiable#suivre(SuiviModifications)
+ * @see Vue
+ */
+public interface SuiviModifications {
+
+    /**
+     * <TT>modifiee</TT> est appelee a la fin de chaque modification
+     * d'une entite suivie, par le fil qui l'a modifiee.
+     *    @param entite entite modifiee
+     */
+    void modifiee(Modifiable entite);
+}
@@ -0,0 +1,275 @@
+package mediatheque;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * La classe <code>TableParesseuse</code> est une table dont les valeurs
+ * sont relues dans un instantane a leur premier acces. Au chargement,
+ * seules les cles et un etat leger (indicateurs, compteurs) sont en
+ * memoire ; chaque valeur est decrite par sa position dans le fichier.
+ * La serialisation de la table (sauvegarde classique) charge toutes
+ * les valeurs.
+ * @param <K> type des cles
+ * @param <V> type des valeurs
+ * @see Instantane
+ */
+final class TableParesseuse<K, V> extends AbstractMap<K, V>
+		implements Serializable {
+	/** serial version. */
+	private static final long serialVersionUID = 1L;
+
+	/** Valeurs chargees ou emplacements des valeurs non chargees. */
+	private final transient Map<K, Object> contenu =
+			new LinkedHashMap<K, Object>();
+	/** Fichier de l'instantane. */
+	private transient FileChannel canal;
+	/** Mediatheque qui resout les references des valeurs relues. */
+	private final transient Mediatheque media;
+
+	/**
+	 * Emplacement d'une valeur non chargee dans l'instantane.
+	 */
+	static final class Emplacement {
+		/** Position dans le fichier. */
+		private long position;
+		/** Longueur en octets. */
+		private final int longueur;
+		/** Etat leger de la valeur, disponible sans la charger. */
+		private final Object etat;
+
+		/**
+		 * Constructeur.
+		 * @param pos position dans le fichier
+		 * @param lg longueur en octets
+		 * @param e etat leger
+		 */
+		Emplacement(final long pos, final int lg, final Object e) {
+			position = pos;
+			longueur = lg;
+			etat = e;
+		}
+	}
+
+	/**
+	 * Constructeur.
+	 * @param c fichier de l'instantane
+	 * @param m mediatheque qui resout les references
+	 */
+	TableParesseuse(final FileChannel c, final Mediatheque m) {
+		canal = c;
+		media = m;
+	}
+
+	/**
+	 * Ajoute une valeur non chargee.
+	 * @param cle cle de la valeur
+	 * @param pos position dans l'instantane
+	 * @param lg longueur en octets
+	 * @param etat etat leger de la valeur
+	 */
+	void ajouterFroid(final K cle, final long pos, final int lg,
+			final Object etat) {
+		contenu.put(cle, new Emplacement(pos, lg, etat));
+	}
+
+	/**
+	 * retourne l'etat leger d'une valeur non chargee.
+	 * @param cle cle de la valeur
+	 * @return etat leger, ou null si la valeur est chargee ou absente
+	 */
+	synchronized Object etat(final K cle) {
+		Object o = contenu.get(cle);
+		if (o instanceof Emplacement) {
+			return ((Emplacement) o).etat;
+		}
+		return null;
+	}
+
+	/**
+	 * indique si une valeur est en memoire.
+	 * @param cle cle de la valeur
+	 * @return true si la valeur est chargee
+	 */
+	synchronized boolean estCharge(final K cle) {
+		return !(contenu.get(cle) instanceof Emplacement);
+	}
+
+	/**
+	 * retourne les octets d'une valeur non chargee, pour la recopier
+	 * telle quelle dans un nouvel instantane.
+	 * @param cle cle de la valeur
+	 * @return octets, ou null si la valeur est chargee ou absente
+	 * @throws IOException lecture impossible
+	 */
+	synchronized byte[] brut(final K cle) throws IOException {
+		Object o = contenu.get(cle);
+		if (o instanceof Emplacement) {
+			return lire((Emplacement) o);
+		}
+		return null;
+	}
+
+	/**
+	 * Fait pointer la table sur un nouvel instantane ou ses valeurs
+	 * non chargees ont ete recopiees.
+	 * @param c nouveau fichier
+	 * @param positions nouvelle position de chaque valeur non chargee
+	 * @throws IOException fermeture de l'ancien fichier
+	 */
+	synchronized void deplacer(final FileChannel c,
+			final Map<K, Long> positions) throws IOException {
+		for (Map.Entry<K, Object> e : contenu.entrySet()) {
+			if (e.getValue() instanceof Emplacement) {
+				((Emplacement) e.getValue()).position =
+						positions.get(e.getKey());
+			}
+		}
+		if (canal != c) {
+			canal.close();
+		}
+		canal = c;
+	}
+
+	@Override
+	public synchronized int size() {
+		return contenu.size();
+	}
+
+	@Override
+	public synchronized boolean containsKey(final Object key) {
+		return contenu.containsKey(key);
+	}
+
+	@Override
+	public synchronized V get(final Object key) {
+		Object o = contenu.get(key);
+		if (o instanceof Emplacement) {
+			V v = charger((Emplacement) o);
+			@SuppressWarnings("unchecked")
+			K cle = (K) key;
+			contenu.put(cle, v);
+			return v;
+		}
+		@SuppressWarnings("unchecked")
+		V v = (V) o;
+		return v;
+	}
+
+	@Override
+	public synchronized V put(final K key, final V value) {
+		V ancien = get(key);
+		contenu.put(key, value);
+		return ancien;
+	}
+
+	@Override
+	public synchronized V remove(final Object key) {
+		V ancien = get(key);
+		contenu.remove(key);
+		return ancien;
+	}
+
+	/**
+	 * Les cles sont en memoire : leur parcours ne charge rien.
+	 * @return vue non modifiable des cles
+	 */
+	@Override
+	public Set<K> keySet() {
+		return Collections.unmodifiableSet(contenu.keySet());
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<Map.Entry<K, V>>() {
+			@Override
+			public int size() {
+				return TableParesseuse.this.size();
+			}
+
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				final Iterator<K> cles = contenu.keySet().iterator();
+				return new Iterator<Map.Entry<K, V>>() {
+					/** Derniere cle retournee. */
+					private K derniere;
+
+					@Override
+					public boolean hasNext() {
+						return cles.hasNext();
+					}
+
+					@Override
+					public Map.Entry<K, V> next() {
+						derniere = cles.next();
+						return new AbstractMap.SimpleImmutableEntry<K, V>(
+								derniere, get(derniere));
+					}
+
+					@Override
+					public void remove() {
+						cles.remove();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Relit une valeur dans l'instantane.
+	 * @param e emplacement de la valeur
+	 * @return valeur
+	 */
+	private V charger(final Emplacement e) {
+		try (EntreeEntites in = new EntreeEntites(
+				new ByteArrayInputStream(lire(e)), media)) {
+			@SuppressWarnings("unchecked")
+			V v = (V) in.readObject();
+			media.suivre((Modifiable) v);
+			return v;
+		} catch (IOException | ClassNotFoundException ex) {
+			throw new IllegalStateException("Instantane illisible a la "
+					+ "position " + e.position, ex);
+		}
+	}
+
+	/**
+	 * Lit les octets d'une valeur.
+	 * @param e emplacement de la valeur
+	 * @return octets
+	 * @throws IOException lecture impossible
+	 */
+	private byte[] lire(final Emplacement e) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(e.longueur);
+		long pos = e.position;
+		while (buf.hasRemaining()) {
+			int n = canal.read(buf, pos);
+			if (n < 0) {
+				throw new IOException("Instantane tronque");
+			}
+			pos += n;
+		}
+		return buf.array();
+	}
+
+	/**
+	 * La sauvegarde classique ecrit toutes les valeurs.
+	 * @return copie chargee de la table
+	 * @throws ObjectStreamException jamais
+	 */
+	private Object writeReplace() throws ObjectStreamException {
+		return new Hashtable<K, V>(this);
+	}
+}
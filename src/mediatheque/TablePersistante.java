@@ -0,0 +1,500 @@
+package mediatheque;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * La classe <code>TablePersistante</code> est une table associative
+ * immuable, en arbre de hachage a 32 branches par niveau (HAMT). Un
+ * ajout ou un retrait rend une nouvelle table qui partage avec
+ * l'ancienne tous les noeuds hors du chemin modifie : quelques tableaux
+ * de 32 cases au plus sont recopies. Une table peut donc etre lue par
+ * un fil pendant qu'un autre en derive les versions suivantes, sans
+ * verrou ni copie. Les operations de modification de <code>Map</code>
+ * levent <code>UnsupportedOperationException</code>.
+ * @param <K> type des cles
+ * @param <V> type des valeurs
+ */
+public final class TablePersistante<K, V> extends AbstractMap<K, V> {
+	/** Bits du hachage consommes par niveau. */
+	private static final int BITS = 5;
+	/** Masque d'un indice de niveau. */
+	private static final int MASQUE = (1 << BITS) - 1;
+	/** Table vide. */
+	private static final TablePersistante<?, ?> VIDE =
+			new TablePersistante<Object, Object>(new Noeud(0, new Object[0]), 0);
+
+	/** Racine de l'arbre. */
+	private final Noeud racine;
+	/** Nombre d'entrees. */
+	private final int taille;
+	/** Vue des entrees, creee au premier usage. */
+	private Set<Map.Entry<K, V>> entrees;
+
+	/**
+	 * Constructeur.
+	 * @param r racine
+	 * @param t nombre d'entrees
+	 */
+	private TablePersistante(final Noeud r, final int t) {
+		racine = r;
+		taille = t;
+	}
+
+	/**
+	 * table vide.
+	 * @param <K> type des cles
+	 * @param <V> type des valeurs
+	 * @return table vide
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K, V> TablePersistante<K, V> vide() {
+		return (TablePersistante<K, V>) VIDE;
+	}
+
+	/**
+	 * table contenant les entrees d'une table.
+	 * @param <K> type des cles
+	 * @param <V> type des valeurs
+	 * @param m table a recopier
+	 * @return table persistante
+	 */
+	public static <K, V> TablePersistante<K, V> de(
+			final Map<? extends K, ? extends V> m) {
+		TablePersistante<K, V> t = vide();
+		for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+			t = t.avec(e.getKey(), e.getValue());
+		}
+		return t;
+	}
+
+	/**
+	 * table avec une entree ajoutee ou remplacee.
+	 * @param cle cle, non nulle
+	 * @param valeur valeur
+	 * @return nouvelle table, ou celle-ci si elle contient deja l'entree
+	 */
+	public TablePersistante<K, V> avec(final K cle, final V valeur) {
+		int h = hacher(cle);
+		int[] ajout = new int[1];
+		Noeud r = (Noeud) ajouter(racine, 0, h,
+				new Entree<K, V>(h, cle, valeur), ajout);
+		return r == racine ? this : new TablePersistante<K, V>(r,
+				taille + ajout[0]);
+	}
+
+	/**
+	 * table sans une cle.
+	 * @param cle cle
+	 * @return nouvelle table, ou celle-ci si elle ne contient pas la cle
+	 */
+	public TablePersistante<K, V> sans(final Object cle) {
+		if (cle == null) {
+			return this;
+		}
+		Object r = retirer(racine, 0, hacher(cle), cle);
+		return r == racine ? this
+				: new TablePersistante<K, V>((Noeud) r, taille - 1);
+	}
+
+	@Override
+	public V get(final Object cle) {
+		Entree<K, V> e = chercher(cle);
+		return e == null ? null : e.getValue();
+	}
+
+	@Override
+	public boolean containsKey(final Object cle) {
+		return chercher(cle) != null;
+	}
+
+	@Override
+	public int size() {
+		return taille;
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		if (entrees == null) {
+			entrees = new AbstractSet<Map.Entry<K, V>>() {
+				@Override
+				public Iterator<Map.Entry<K, V>> iterator() {
+					return new Parcours<K, V>(racine);
+				}
+
+				@Override
+				public int size() {
+					return taille;
+				}
+			};
+		}
+		return entrees;
+	}
+
+	/**
+	 * hachage d'une cle, les bits de poids fort melanges aux autres.
+	 * @param cle cle
+	 * @return hachage
+	 */
+	private static int hacher(final Object cle) {
+		int h = cle.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * cherche l'entree d'une cle.
+	 * @param cle cle
+	 * @return entree, null si absente
+	 */
+	@SuppressWarnings("unchecked")
+	private Entree<K, V> chercher(final Object cle) {
+		if (cle == null) {
+			return null;
+		}
+		int h = hacher(cle);
+		Object n = racine;
+		for (int decalage = 0;; decalage += BITS) {
+			if (n instanceof Noeud) {
+				Noeud nd = (Noeud) n;
+				int bit = 1 << ((h >>> decalage) & MASQUE);
+				if ((nd.carte & bit) == 0) {
+					return null;
+				}
+				n = nd.enfants[nd.indice(bit)];
+			} else if (n instanceof Entree) {
+				Entree<K, V> e = (Entree<K, V>) n;
+				return e.hachage == h && e.getKey().equals(cle) ? e : null;
+			} else {
+				Collision c = (Collision) n;
+				if (c.hachage != h) {
+					return null;
+				}
+				for (Entree<?, ?> e : c.entrees) {
+					if (e.getKey().equals(cle)) {
+						return (Entree<K, V>) e;
+					}
+				}
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * hachage commun des cles d'une entree ou d'une collision.
+	 * @param n entree ou collision
+	 * @return hachage
+	 */
+	private static int hachage(final Object n) {
+		return n instanceof Entree ? ((Entree<?, ?>) n).hachage
+				: ((Collision) n).hachage;
+	}
+
+	/**
+	 * ajoute une entree sous un element de l'arbre, par recopie du
+	 * chemin.
+	 * @param n noeud, entree ou collision
+	 * @param decalage bits du hachage deja consommes au-dessus de n
+	 * @param h hachage de la cle
+	 * @param e entree a ajouter
+	 * @param ajout ajout[0] mis a 1 si la cle est nouvelle
+	 * @return element remplacant n, n lui-meme si inchange
+	 */
+	private static Object ajouter(final Object n, final int decalage,
+			final int h, final Entree<?, ?> e, final int[] ajout) {
+		if (n instanceof Noeud) {
+			Noeud nd = (Noeud) n;
+			int bit = 1 << ((h >>> decalage) & MASQUE);
+			int i = nd.indice(bit);
+			if ((nd.carte & bit) == 0) {
+				Object[] t = new Object[nd.enfants.length + 1];
+				System.arraycopy(nd.enfants, 0, t, 0, i);
+				t[i] = e;
+				System.arraycopy(nd.enfants, i, t, i + 1,
+						nd.enfants.length - i);
+				ajout[0] = 1;
+				return new Noeud(nd.carte | bit, t);
+			}
+			Object fils = nd.enfants[i];
+			Object nf = ajouter(fils, decalage + BITS, h, e, ajout);
+			if (nf == fils) {
+				return nd;
+			}
+			Object[] t = nd.enfants.clone();
+			t[i] = nf;
+			return new Noeud(nd.carte, t);
+		}
+		if (n instanceof Entree) {
+			Entree<?, ?> ancienne = (Entree<?, ?>) n;
+			if (ancienne.hachage == h && ancienne.getKey().equals(e.getKey())) {
+				return ancienne.getValue() == e.getValue() ? ancienne : e;
+			}
+		} else {
+			Collision c = (Collision) n;
+			if (c.hachage == h) {
+				for (int i = 0; i < c.entrees.length; i++) {
+					if (c.entrees[i].getKey().equals(e.getKey())) {
+						if (c.entrees[i].getValue() == e.getValue()) {
+							return c;
+						}
+						Entree<?, ?>[] t = c.entrees.clone();
+						t[i] = e;
+						return new Collision(h, t);
+					}
+				}
+				Entree<?, ?>[] t = new Entree<?, ?>[c.entrees.length + 1];
+				System.arraycopy(c.entrees, 0, t, 0, c.entrees.length);
+				t[c.entrees.length] = e;
+				ajout[0] = 1;
+				return new Collision(h, t);
+			}
+		}
+		ajout[0] = 1;
+		return fusionner(n, hachage(n), e, h, decalage);
+	}
+
+	/**
+	 * sous-arbre contenant deux elements de hachages distincts, ou une
+	 * collision si les deux cles ont le meme hachage.
+	 * @param a entree ou collision
+	 * @param ha hachage de a
+	 * @param b entree
+	 * @param hb hachage de b
+	 * @param decalage bits du hachage consommes au-dessus du sous-arbre
+	 * @return noeud ou collision
+	 */
+	private static Object fusionner(final Object a, final int ha,
+			final Entree<?, ?> b, final int hb, final int decalage) {
+		if (ha == hb) {
+			return new Collision(ha, new Entree<?, ?>[] {(Entree<?, ?>) a, b});
+		}
+		int ia = (ha >>> decalage) & MASQUE;
+		int ib = (hb >>> decalage) & MASQUE;
+		if (ia == ib) {
+			return new Noeud(1 << ia, new Object[] {
+				fusionner(a, ha, b, hb, decalage + BITS)});
+		}
+		return new Noeud((1 << ia) | (1 << ib),
+				ia < ib ? new Object[] {a, b} : new Object[] {b, a});
+	}
+
+	/**
+	 * retire une cle sous un element de l'arbre, par recopie du chemin.
+	 * Un noeud qui ne garde qu'une entree ou une collision est remplace
+	 * par elle, sauf la racine qui reste un noeud.
+	 * @param n noeud, entree ou collision
+	 * @param decalage bits du hachage deja consommes au-dessus de n
+	 * @param h hachage de la cle
+	 * @param cle cle
+	 * @return element remplacant n, null s'il est vide, n si inchange
+	 */
+	private static Object retirer(final Object n, final int decalage,
+			final int h, final Object cle) {
+		if (n instanceof Noeud) {
+			Noeud nd = (Noeud) n;
+			int bit = 1 << ((h >>> decalage) & MASQUE);
+			if ((nd.carte & bit) == 0) {
+				return nd;
+			}
+			int i = nd.indice(bit);
+			Object fils = nd.enfants[i];
+			Object nf = retirer(fils, decalage + BITS, h, cle);
+			if (nf == fils) {
+				return nd;
+			}
+			boolean racine = decalage == 0;
+			if (nf != null) {
+				if (!racine && nd.enfants.length == 1
+						&& !(nf instanceof Noeud)) {
+					return nf;
+				}
+				Object[] t = nd.enfants.clone();
+				t[i] = nf;
+				return new Noeud(nd.carte, t);
+			}
+			if (!racine && nd.enfants.length == 1) {
+				return null;
+			}
+			if (!racine && nd.enfants.length == 2
+					&& !(nd.enfants[1 - i] instanceof Noeud)) {
+				return nd.enfants[1 - i];
+			}
+			Object[] t = new Object[nd.enfants.length - 1];
+			System.arraycopy(nd.enfants, 0, t, 0, i);
+			System.arraycopy(nd.enfants, i + 1, t, i, t.length - i);
+			return new Noeud(nd.carte & ~bit, t);
+		}
+		if (n instanceof Entree) {
+			Entree<?, ?> e = (Entree<?, ?>) n;
+			return e.hachage == h && e.getKey().equals(cle) ? null : e;
+		}
+		Collision c = (Collision) n;
+		if (c.hachage != h) {
+			return c;
+		}
+		for (int i = 0; i < c.entrees.length; i++) {
+			if (c.entrees[i].getKey().equals(cle)) {
+				if (c.entrees.length == 2) {
+					return c.entrees[1 - i];
+				}
+				Entree<?, ?>[] t = new Entree<?, ?>[c.entrees.length - 1];
+				System.arraycopy(c.entrees, 0, t, 0, i);
+				System.arraycopy(c.entrees, i + 1, t, i, t.length - i);
+				return new Collision(h, t);
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * La classe <code>Noeud</code> range ses enfants presents dans un
+	 * tableau compact ; le bit i de la carte indique si l'enfant
+	 * d'indice i est present.
+	 */
+	private static final class Noeud {
+		/** Enfants presents. */
+		private final int carte;
+		/** Enfants : noeuds, entrees ou collisions. */
+		private final Object[] enfants;
+
+		/**
+		 * Constructeur.
+		 * @param c carte des enfants
+		 * @param e enfants
+		 */
+		Noeud(final int c, final Object[] e) {
+			carte = c;
+			enfants = e;
+		}
+
+		/**
+		 * place d'un enfant dans le tableau.
+		 * @param bit bit de l'enfant dans la carte
+		 * @return indice dans le tableau
+		 */
+		int indice(final int bit) {
+			return Integer.bitCount(carte & (bit - 1));
+		}
+	}
+
+	/**
+	 * La classe <code>Collision</code> range les entrees de cles
+	 * distinctes de meme hachage.
+	 */
+	private static final class Collision {
+		/** Hachage commun. */
+		private final int hachage;
+		/** Entrees, au moins deux. */
+		private final Entree<?, ?>[] entrees;
+
+		/**
+		 * Constructeur.
+		 * @param h hachage commun
+		 * @param e entrees
+		 */
+		Collision(final int h, final Entree<?, ?>[] e) {
+			hachage = h;
+			entrees = e;
+		}
+	}
+
+	/**
+	 * La classe <code>Entree</code> est une entree immuable qui garde le
+	 * hachage de sa cle.
+	 * @param <K> type de la cle
+	 * @param <V> type de la valeur
+	 */
+	private static final class Entree<K, V>
+			extends AbstractMap.SimpleImmutableEntry<K, V> {
+		/** serial version. */
+		private static final long serialVersionUID = 1L;
+		/** Hachage de la cle. */
+		private final int hachage;
+
+		/**
+		 * Constructeur.
+		 * @param h hachage de la cle
+		 * @param cle cle, non nulle
+		 * @param valeur valeur
+		 */
+		Entree(final int h, final K cle, final V valeur) {
+			super(Objects.requireNonNull(cle), valeur);
+			hachage = h;
+		}
+	}
+
+	/**
+	 * La classe <code>Parcours</code> parcourt les entrees en
+	 * profondeur, avec une pile de tableaux d'enfants.
+	 * @param <K> type des cles
+	 * @param <V> type des valeurs
+	 */
+	private static final class Parcours<K, V>
+			implements Iterator<Map.Entry<K, V>> {
+		/** Profondeur maximale : niveaux de noeuds puis collision. */
+		private static final int PROFONDEUR = 32 / BITS + 2;
+		/** Tableaux en cours de parcours. */
+		private final Object[][] pile = new Object[PROFONDEUR][];
+		/** Position dans chaque tableau. */
+		private final int[] positions = new int[PROFONDEUR];
+		/** Hauteur de la pile. */
+		private int hauteur;
+		/** Prochaine entree, null en fin de parcours. */
+		private Entree<K, V> suivante;
+
+		/**
+		 * Constructeur.
+		 * @param racine racine de l'arbre
+		 */
+		Parcours(final Noeud racine) {
+			pile[0] = racine.enfants;
+			hauteur = 1;
+			avancer();
+		}
+
+		/**
+		 * cherche la prochaine entree.
+		 */
+		@SuppressWarnings("unchecked")
+		private void avancer() {
+			suivante = null;
+			while (hauteur > 0) {
+				Object[] t = pile[hauteur - 1];
+				int p = positions[hauteur - 1];
+				if (p == t.length) {
+					hauteur--;
+					continue;
+				}
+				positions[hauteur - 1] = p + 1;
+				Object n = t[p];
+				if (n instanceof Entree) {
+					suivante = (Entree<K, V>) n;
+					return;
+				}
+				pile[hauteur] = n instanceof Noeud ? ((Noeud) n).enfants
+						: ((Collision) n).entrees;
+				positions[hauteur] = 0;
+				hauteur++;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return suivante != null;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if (suivante == null) {
+				throw new NoSuchElementException();
+			}
+			Entree<K, V> e = suivante;
+			avancer();
+			return e;
+		}
+	}
+}
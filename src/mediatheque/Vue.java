@@ -0,0 +1,128 @@
+package mediatheque;
+
+import java.util.Map;
+
+import mediatheque.client.Client;
+import mediatheque.client.HashClient;
+import mediatheque.document.Document;
+
+/**
+ * La classe <code>Vue</code> est un instantane en lecture des documents,
+ * des clients et des emprunts en cours de la mediatheque. Ses tables
+ * sont des <code>TablePersistante</code> : la mediatheque derive une
+ * nouvelle vue a chaque ajout ou retrait, en partageant le reste des
+ * tables avec la precedente. Une vue obtenue reste donc coherente et
+ * peut etre parcourue longuement par un autre fil, sans bloquer
+ * emprunts et restitutions et sans
+ * <code>ConcurrentModificationException</code>.
+ * <P>
+ * Les documents, clients et fiches de la vue sont des copies figees,
+ * prises a leur derniere modification avec les copies de leurs genre,
+ * localisation et categorie : un autre fil les lit sans voir l'etat
+ * change par la mediatheque. Les emprunts en cours d'un client se
+ * lisent dans <code>getEmprunts</code>. Les copies ne doivent pas etre
+ * modifiees.
+ */
+public final class Vue {
+	/** Documents par code. */
+	private final TablePersistante<String, Document> documents;
+	/** Clients par cle. */
+	private final TablePersistante<HashClient, Client> clients;
+	/** Emprunts en cours par code du document emprunte. */
+	private final TablePersistante<String, FicheEmprunt> emprunts;
+
+	/**
+	 * Constructeur.
+	 * @param d copies figees des documents
+	 * @param c copies figees des clients
+	 * @param e copies figees des fiches, par code du document emprunte
+	 */
+	Vue(final TablePersistante<String, Document> d,
+			final TablePersistante<HashClient, Client> c,
+			final TablePersistante<String, FicheEmprunt> e) {
+		documents = d;
+		clients = c;
+		emprunts = e;
+	}
+
+	/**
+	 * documents de la mediatheque.
+	 * @return table immuable des documents par code
+	 */
+	public Map<String, Document> getDocuments() {
+		return documents;
+	}
+
+	/**
+	 * clients de la mediatheque.
+	 * @return table immuable des clients par nom et prenom
+	 */
+	public Map<HashClient, Client> getClients() {
+		return clients;
+	}
+
+	/**
+	 * emprunts en cours.
+	 * @return table immuable des fiches par code du document emprunte
+	 */
+	public Map<String, FicheEmprunt> getEmprunts() {
+		return emprunts;
+	}
+
+	/**
+	 * vue avec un document ajoute ou remplace.
+	 * @param doc copie figee du document
+	 * @return nouvelle vue
+	 */
+	Vue avecDocument(final Document doc) {
+		return new Vue(documents.avec(doc.getCode(), doc), clients, emprunts);
+	}
+
+	/**
+	 * vue sans un document.
+	 * @param code code du document
+	 * @return nouvelle vue
+	 */
+	Vue sansDocument(final String code) {
+		return new Vue(documents.sans(code), clients, emprunts);
+	}
+
+	/**
+	 * vue avec un client ajoute ou remplace.
+	 * @param hc cle du client
+	 * @param c copie figee du client
+	 * @return nouvelle vue
+	 */
+	Vue avecClient(final HashClient hc, final Client c) {
+		return new Vue(documents, clients.avec(hc, c), emprunts);
+	}
+
+	/**
+	 * vue sans un client.
+	 * @param hc cle du client
+	 * @return nouvelle vue
+	 */
+	Vue sansClient(final HashClient hc) {
+		return new Vue(documents, clients.sans(hc), emprunts);
+	}
+
+	/**
+	 * vue avec un emprunt ajoute ou remplace.
+	 * @param fe copie figee de la fiche d'emprunt
+	 * @return nouvelle vue
+	 */
+	Vue avecEmprunt(final FicheEmprunt fe) {
+		return new Vue(documents, clients,
+				emprunts.avec(fe.getDocument().getCode(), fe));
+	}
+
+	/**
+	 * vue sans un emprunt.
+	 * @param fe fiche d'emprunt restituee
+	 * @return nouvelle vue
+	 */
+	Vue sansEmprunt(final FicheEmprunt fe) {
+		return new Vue(documents, clients,
+				emprunts.sans(fe.getDocument().getCode()));
+	}
+}
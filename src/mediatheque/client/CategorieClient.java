@@ -1,28 +1,55 @@
 package mediatheque.client;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+
+import mediatheque.Modifiable;
+import mediatheque.Montant;
+import mediatheque.SuiviModifications;
 /**
  * La classe CategorieClient gere les categories des clients.
  */
-public final class CategorieClient implements Serializable {
+public final class CategorieClient
+		implements Serializable, Cloneable, Modifiable {
 	/** serial number.	 */
 	private static final long serialVersionUID = 2L;
+	/**
+	 * Forme serialisee : les champs d'origine, cotisation en euros et
+	 * coefficient de tarif reel. Les fichiers anterieurs aux montants
+	 * en centimes restent lisibles.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("nomCat", String.class),
+		new ObjectStreamField("nbEmpruntMax", Integer.TYPE),
+		new ObjectStreamField("cotisation", Double.TYPE),
+		new ObjectStreamField("coefDuree", Double.TYPE),
+		new ObjectStreamField("coefTarif", Double.TYPE),
+		new ObjectStreamField("codeReducActif", Boolean.TYPE)
+	};
 	/** Nom de la categorie.  */
 	private String nomCat;
 
 	/** Nombre d'emprunts maximal tarif normal.	 */
 	private int nbEmpruntMax;
 
-	/** Cotisation annuelle.	 */
-	private double cotisation;
+	/** Cotisation annuelle en centimes.	 */
+	private long cotisation;
 	/** Coefficient applique a la duree du document pour les abonnes. */
 	private double coefDuree;
-	/** Coefficient appliquable au tarif du document. */
-	private double coefTarif;
+	/**
+	 * Coefficient appliquable au tarif du document, en dix-milliemes.
+	 * @see Montant#appliquer(long, long)
+	 */
+	private long coefTarif;
 	/**
 	 * is the reduction code used the client associated to that category.
 	 */
 	private boolean codeReducActif;
+	/** Suivi a prevenir des modifications, ou null. */
+	private transient SuiviModifications suivi;
 
 	/**
 	 * Constructeur complet.
@@ -39,9 +66,9 @@ public final class CategorieClient implements Serializable {
 			final boolean codeReducAct) {
 		nomCat = nom;
 		nbEmpruntMax = max;
-		cotisation = cot;
+		cotisation = Montant.centimes(cot);
 		this.coefDuree = coefDur;
-		this.coefTarif = coefTar;
+		this.coefTarif = Montant.coefficient(coefTar);
 		this.codeReducActif = codeReducAct;
 	}
 	/**
@@ -62,6 +89,7 @@ public final class CategorieClient implements Serializable {
 	 */
 	public void modifierNom(final String nouveau) {
 		nomCat = nouveau;
+		signaler();
 	}
 	/**
 	 * Modification du nombre maximum d'emprunts de la categorie.
@@ -69,13 +97,15 @@ public final class CategorieClient implements Serializable {
 	 */
 	public void modifierMax(final int max) {
 		nbEmpruntMax = max;
+		signaler();
 	}
 	/**
 	 * Modification de la cotisation.
 	 * @param cot nouvelle valeur.
 	 */
 	public void modifierCotisation(final double cot) {
-		cotisation = cot;
+		cotisation = Montant.centimes(cot);
+		signaler();
 	}
 	/**
 	 * Modification du coefficient de durée.
@@ -84,13 +114,15 @@ public final class CategorieClient implements Serializable {
 	public void modifierCoefDuree(final double coefDur) {
 
 		this.coefDuree = coefDur;
+		signaler();
 	}
 	/**
 	 * Modification du coefficient de tarif.
 	 * @param coefTar nouveau coefficient.
 	 */
 	public void modifierCoefTarif(final double coefTar) {
-		this.coefTarif = coefTar;
+		this.coefTarif = Montant.coefficient(coefTar);
+		signaler();
 	}
 	/**
 	 * Modification du booleen rendant le code de reduction actif
@@ -99,6 +131,38 @@ public final class CategorieClient implements Serializable {
 	 */
 	public void modifierCodeReducActif(final boolean codeReducAct) {
 		this.codeReducActif = codeReducAct;
+		signaler();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void suivre(final SuiviModifications s) {
+		suivi = s;
+	}
+
+	/**
+	 * Previent le suivi eventuel de la modification.
+	 */
+	private void signaler() {
+		if (suivi != null) {
+			suivi.modifiee(this);
+		}
+	}
+
+	/**
+	 * copie figee de la categorie, pour la vue de la mediatheque.
+	 * @return copie sans suivi
+	 */
+	public CategorieClient copieFigee() {
+		try {
+			CategorieClient c = (CategorieClient) clone();
+			c.suivi = null;
+			return c;
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
 	}
 
 	/**
@@ -114,6 +178,14 @@ public final class CategorieClient implements Serializable {
 	 * @return the cotisation
 	 */
 	public double getCotisation() {
+		return Montant.euros(cotisation);
+	}
+
+	/**
+	 * retourne la cotisation pour cette categorie en centimes.
+	 * @return cotisation en centimes
+	 */
+	public long getCotisationCentimes() {
 		return cotisation;
 	}
 
@@ -130,12 +202,29 @@ public final class CategorieClient implements Serializable {
 	 * @return the coefTarif
 	 */
 	public double getCoefTarif() {
+		return Montant.reel(coefTarif);
+	}
+
+	/**
+	 * retourne le coefficient de tarif en dix-milliemes.
+	 * @return coefficient de tarif
+	 * @see Montant#appliquer(long, long)
+	 */
+	public long getCoefTarifFixe() {
 		return coefTarif;
 	}
 
 	@Override
 	public String toString() {
-		return "Categorie : " + nomCat;
+		return ecrire(new StringBuilder(32)).toString();
+	}
+	/**
+	 * ecrit le texte de toString a la suite d'un tampon.
+	 * @param sb destination
+	 * @return destination
+	 */
+	public StringBuilder ecrire(final StringBuilder sb) {
+		return sb.append("Categorie : ").append(nomCat);
 	}
 	/**
 	 * retourne le nom de cette categorie.
@@ -153,6 +242,42 @@ public final class CategorieClient implements Serializable {
 		return codeReducActif;
 	}
 
+	/**
+	 * Serialisation des montants en euros et du coefficient de tarif
+	 * reel, voir serialPersistentFields.
+	 * @param out flux destination
+	 * @throws IOException en relai de writeFields
+	 */
+	private void writeObject(final ObjectOutputStream out)
+			throws IOException {
+		ObjectOutputStream.PutField f = out.putFields();
+		f.put("nomCat", nomCat);
+		f.put("nbEmpruntMax", nbEmpruntMax);
+		f.put("cotisation", Montant.euros(cotisation));
+		f.put("coefDuree", coefDuree);
+		f.put("coefTarif", Montant.reel(coefTarif));
+		f.put("codeReducActif", codeReducActif);
+		out.writeFields();
+	}
+
+	/**
+	 * Deserialisation : la cotisation est ramenee en centimes et le
+	 * coefficient de tarif en fixe.
+	 * @param in flux source
+	 * @throws IOException en relai de readFields
+	 * @throws ClassNotFoundException en relai de readFields
+	 */
+	private void readObject(final ObjectInputStream in)
+			throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField f = in.readFields();
+		nomCat = (String) f.get("nomCat", null);
+		nbEmpruntMax = f.get("nbEmpruntMax", 0);
+		cotisation = Montant.centimes(f.get("cotisation", 0.0));
+		coefDuree = f.get("coefDuree", 0.0);
+		coefTarif = Montant.coefficient(f.get("coefTarif", 0.0));
+		codeReducActif = f.get("codeReducActif", false);
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
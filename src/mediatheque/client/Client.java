@@ -1,12 +1,23 @@
 package mediatheque.client;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.Vector;
 
 import mediatheque.FicheEmprunt;
+import mediatheque.Horloge;
+import mediatheque.HorlogeSysteme;
+import mediatheque.ListeEmprunts;
+import mediatheque.Modifiable;
+import mediatheque.Montant;
 import mediatheque.OperationImpossible;
+import mediatheque.SuiviModifications;
 
 import util.Datutil;
 import util.HasInvariant;
@@ -18,9 +29,28 @@ import util.InvariantBroken;
  * Ils possedent tous un nom, un prenom, une adresse et des informations
  * statistiques d'emprunt.
  */
-public final class Client implements Serializable, HasInvariant {
+public final class Client
+		implements Serializable, Cloneable, HasInvariant, Modifiable {
 	  /** serial number.	 */
 	private static final long serialVersionUID = 2L;
+	/**
+	 * Forme serialisee : les champs d'origine, dates comprises en
+	 * <code>Date</code>, et le solde des penalites. La liste des
+	 * emprunts des fichiers anterieurs est ignoree.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("nom", String.class),
+		new ObjectStreamField("prenom", String.class),
+		new ObjectStreamField("adresse", String.class),
+		new ObjectStreamField("nbEmpruntsEnCours", Integer.TYPE),
+		new ObjectStreamField("nbEmpruntsDepasses", Integer.TYPE),
+		new ObjectStreamField("nbEmpruntsEffectues", Integer.TYPE),
+		new ObjectStreamField("catClient", CategorieClient.class),
+		new ObjectStreamField("dateRenouvellement", Date.class),
+		new ObjectStreamField("dateInscription", Date.class),
+		new ObjectStreamField("codeReduction", Integer.TYPE),
+		new ObjectStreamField("penalites", Long.TYPE)
+	};
 	/** Nom du client. 	 */
 	private String nom;
 
@@ -52,13 +82,16 @@ public final class Client implements Serializable, HasInvariant {
 	 * Nombre total d'emprunts de tous les clients.
 	 */
 	private static int nbEmpruntsTotal = 0;
-	/** Attributs pour les abonnes date de renouvellement.	 */
-	private Date dateRenouvellement;
+	/**
+	 * Attributs pour les abonnes date de renouvellement, en jours depuis
+	 * le 1er janvier 1970.
+	 */
+	private int dateRenouvellement;
 	/**
 	 * Date de l'inscription : la verification des droits
-	 * a la reduction est annuelle.
+	 * a la reduction est annuelle. En jours depuis le 1er janvier 1970.
 	 */
-	private Date dateInscription;
+	private int dateInscription;
 
 	/** 
 	 * Code de reduction. Ce code n'est utilise que pour certaines 
@@ -66,9 +99,18 @@ public final class Client implements Serializable, HasInvariant {
 	 */
 	private int codeReduction = 0;
 	/**
-	 * Liste des emprunts en cours.
+	 * Solde des penalites de retard dues par le client, en centimes.
 	 */
-	private List<FicheEmprunt> lesEmprunts;
+	private long penalites = 0;
+	/**
+	 * Liste des emprunts en cours, avec ajout et retrait en temps
+	 * constant. Elle n'est pas serialisee : la mediatheque la
+	 * reconstruit a partir de ses fiches d'emprunt.
+	 * @see #rattacher(FicheEmprunt)
+	 */
+	private transient ListeEmprunts lesEmprunts;
+	/** Suivi a prevenir des modifications, ou null. */
+	private transient SuiviModifications suivi;
 	// les methodes
 
 	/**
@@ -79,10 +121,25 @@ public final class Client implements Serializable, HasInvariant {
 	 *    @param cat Categorie du client
 	 *    @exception OperationImpossible si un parameter est null.
 	 */
-	public Client(final String n, final String p, final String a, 
+	public Client(final String n, final String p, final String a,
 			final CategorieClient cat)
 			throws OperationImpossible {
-		initAttr(n, p, a, cat);
+		this(n, p, a, cat, HorlogeSysteme.INSTANCE);
+	}
+
+	/**
+	 * Constructeur de client sans code de réduction.
+	 *    @param n Nom du client
+	 *    @param p Prenom du client
+	 *    @param a Adresse du client
+	 *    @param cat Categorie du client
+	 *    @param h Horloge qui donne la date d'inscription
+	 *    @exception OperationImpossible si un parameter est null.
+	 */
+	public Client(final String n, final String p, final String a,
+			final CategorieClient cat, final Horloge h)
+			throws OperationImpossible {
+		initAttr(n, p, a, cat, h);
 		if (cat.getCodeReducUtilise()) {
 			throw new OperationImpossible("Call with client type " 
 					+ cat.getNom() + " and no reduction code");
@@ -98,15 +155,31 @@ public final class Client implements Serializable, HasInvariant {
 	 *    @param code code de reduction du client
 	 *    @exception OperationImpossible si attribut non initialise
 	 */
-	public Client(final String n, final String p, final String a, 
+	public Client(final String n, final String p, final String a,
 			final CategorieClient catC, final int code)
 			throws OperationImpossible {
+		this(n, p, a, catC, code, HorlogeSysteme.INSTANCE);
+	}
+
+	/**
+	 * Constructeur de client avec code de réduction.
+	 *    @param n Nom du client
+	 *    @param p Prenom du client
+	 *    @param a Adresse du client
+	 *    @param catC Categorie du client
+	 *    @param code code de reduction du client
+	 *    @param h Horloge qui donne la date d'inscription
+	 *    @exception OperationImpossible si attribut non initialise
+	 */
+	public Client(final String n, final String p, final String a,
+			final CategorieClient catC, final int code, final Horloge h)
+			throws OperationImpossible {
 		if (!catC.getCodeReducUtilise()) {
 			throw new OperationImpossible("Call with client type " 
 		+ catC.getNom() + " and reduction code");
 		}
 		this.codeReduction = code;
-		initAttr(n, p, a, catC);
+		initAttr(n, p, a, catC, h);
 	}
 
 	/**
@@ -115,10 +188,11 @@ public final class Client implements Serializable, HasInvariant {
 	 *    @param p Prenom du client
 	 *    @param a Adresse du client
 	 *    @param catC Categorie du client
+	 *    @param h Horloge qui donne la date d'inscription
 	 *    @exception OperationImpossible si attribut non initialise
 	 */
 	private void initAttr(final String n, final String p, final String a, 
-			final CategorieClient catC)
+			final CategorieClient catC, final Horloge h)
 			throws OperationImpossible {
 		if (n == null || p == null || a == null || catC == null) {
 			throw new OperationImpossible(
@@ -130,10 +204,9 @@ public final class Client implements Serializable, HasInvariant {
 		this.prenom = p;
 		this.adresse = a;
 		this.catClient = catC;
-		dateInscription = Datutil.dateDuJour();
-		dateRenouvellement = Datutil.addDate(dateInscription, 
-				Datutil.DAYSINYEAR);
-		lesEmprunts = new Vector<FicheEmprunt>();
+		dateInscription = h.jour();
+		dateRenouvellement = dateInscription + Datutil.DAYSINYEAR;
+		lesEmprunts = new ListeEmprunts();
 	}
 
 	/**
@@ -262,30 +335,75 @@ public final class Client implements Serializable, HasInvariant {
 	 *   @return vrai si l'emprunt est possible, faux sinon
 	 */
 	public boolean peutEmprunter() {
+		return peutEmprunter(HorlogeSysteme.INSTANCE.jour());
+	}
+
+	/**
+	 * <TT>peutEmprunter</TT> verifie de plus que la cotisation du client
+	 * n'est pas echue au jour donne.
+	 *   @param jour jour de l'emprunt, depuis le 1er janvier 1970
+	 *   @return vrai si l'emprunt est possible, faux sinon
+	 */
+	public boolean peutEmprunter(final int jour) {
 		return !(nbEmpruntsDepasses > 0
-				|| nbEmpruntsEnCours >= nbMaxEmprunt());
+				|| nbEmpruntsEnCours >= nbMaxEmprunt()
+				|| !estAJour(jour));
+	}
+
+	/**
+	 * <TT>estAJour</TT> verifie que la cotisation couvre le jour donne.
+	 *   @param jour jour depuis le 1er janvier 1970
+	 *   @return vrai si la cotisation n'est pas echue
+	 */
+	public boolean estAJour(final int jour) {
+		return jour <= dateRenouvellement;
+	}
+
+	/**
+	 * <TT>renouveler</TT> prolonge la cotisation d'un an, a partir de
+	 * l'echeance si elle n'est pas passee, du jour donne sinon.
+	 *   @param jour jour du renouvellement, depuis le 1er janvier 1970
+	 *   @return montant de la cotisation en centimes, selon la categorie
+	 *   du client
+	 */
+	public long renouveler(final int jour) {
+		dateRenouvellement = Math.max(dateRenouvellement, jour)
+				+ Datutil.DAYSINYEAR;
+		signaler();
+		return catClient.getCotisationCentimes();
 	}
 
 	/**
 	 * Le client vient de réaliser un nouvel emprunt.
 	 * Ajoute l'emprunt à la liste des emprunts en cours.
-	 * @see #emprunter()
+	 * @see #emprunter(int)
 	 * @param emprunt à ajouter.
 	 * @throws InvariantBroken si non invariant apres l'emprunt
 	 */
 	public void emprunter(final FicheEmprunt emprunt) throws InvariantBroken {
-		emprunter();
+		emprunter((int) emprunt.getDateEmprunt().toEpochDay());
+		lesEmprunts.add(emprunt);
+	}
+
+	/**
+	 * Rattache au client une fiche d'emprunt relue, sans modifier les
+	 * compteurs qui ont ete relus avec le client.
+	 * @param emprunt fiche d'emprunt du client
+	 */
+	public void rattacher(final FicheEmprunt emprunt) {
 		lesEmprunts.add(emprunt);
 	}
 
 	/**
 	 * Le client vient de réaliser un nouvel emprunt.
+	 * @param jour jour de l'emprunt, selon l'horloge de la mediatheque
 	 * @throws InvariantBroken si non invariant apres l'emprunt
 	 */
-	private void emprunter() throws InvariantBroken {
-		assert peutEmprunter();
+	private void emprunter(final int jour) throws InvariantBroken {
+		assert peutEmprunter(jour);
 		nbEmpruntsEffectues++;
 		nbEmpruntsEnCours++;
+		signaler();
 		if (!invariant()) {
 			throw new InvariantBroken("Client -" + this);
 		}
@@ -302,11 +420,36 @@ public final class Client implements Serializable, HasInvariant {
 	 */
 	public void marquer() throws InvariantBroken {
 		nbEmpruntsDepasses++;
+		signaler();
 		if (!invariant()) {
 			throw new InvariantBroken("Client -" + this);
 		}
 	}
 
+	/**
+	 * <TT>annulerRetards</TT> est appelee quand des emprunts du client
+	 * ne sont plus marques en retard, apres le recalcul de leur date
+	 * limite.
+	 *   @param n nombre d'emprunts qui ne sont plus en retard
+	 *   @exception InvariantBroken si plus de retards annules que
+	 *   d'emprunts en retard
+	 */
+	public void annulerRetards(final int n) throws InvariantBroken {
+		nbEmpruntsDepasses -= n;
+		signaler();
+		if (nbEmpruntsDepasses < 0) {
+			throw new InvariantBroken("Client -" + this);
+		}
+	}
+
+	/**
+	 * Retourne les emprunts en cours du client.
+	 * @return fiches d'emprunt, non modifiables
+	 */
+	public List<FicheEmprunt> getEmprunts() {
+		return Collections.unmodifiableList(lesEmprunts);
+	}
+
 	/**
 	 * <TT>restituer</TT> est appelee lors de la restitution d'un
 	 * document emprunte. S'il s'agissait d'un emprunt en retard
@@ -337,12 +480,16 @@ public final class Client implements Serializable, HasInvariant {
 			throw new OperationImpossible("Restituer sans emprunt " + this);
 		}
 		nbEmpruntsEnCours--;
-		if (enRetard) {
-			if (nbEmpruntsDepasses == 0) {
-				throw new OperationImpossible("Restituer en retard sans retard "
-						+ this);
+		try {
+			if (enRetard) {
+				if (nbEmpruntsDepasses == 0) {
+					throw new OperationImpossible(
+							"Restituer en retard sans retard " + this);
+				}
+				nbEmpruntsDepasses--;
 			}
-			nbEmpruntsDepasses--;
+		} finally {
+			signaler();
 		}
 	}
 
@@ -386,26 +533,38 @@ public final class Client implements Serializable, HasInvariant {
 	 */
 	@Override
 	public String toString() {
-		String s = nom + " " + prenom + " " + adresse + catClient + ", "
-				+ "(nbe " + nbEmpruntsEnCours + ") "
-				+ "(nbed " + nbEmpruntsDepasses + ")";
+		return ecrire(new StringBuilder(96)).toString();
+	}
+
+	/**
+	 * Ecrit le texte de toString a la suite d'un tampon, que les
+	 * listages reutilisent d'un client a l'autre.
+	 *  @param sb destination
+	 *  @return destination
+	 */
+	public StringBuilder ecrire(final StringBuilder sb) {
+		sb.append(nom).append(' ').append(prenom).append(' ').append(adresse);
+		catClient.ecrire(sb).append(", (nbe ").append(nbEmpruntsEnCours)
+				.append(") (nbed ").append(nbEmpruntsDepasses).append(')');
 		if (codeReduction != 0) {
-			s += "(reduc " + codeReduction + ")";
+			sb.append("(reduc ").append(codeReduction).append(')');
 		}
-		return s;
+		return sb;
 	}
 
 	/**
 	 * <TT>dateRetour</TT> retourne la date limite de restitution du
 	 * document emprunte a partir de la date du jour et de la
 	 * duree du pret.
-	 *   @param jour Date du pret (date du jour)
+	 *   @param jour Date du pret (date du jour), en jours depuis le
+	 *   1er janvier 1970
 	 *   @param duree Nombre de jours du pret
-	 *   @return Date limite de restitution du document
+	 *   @return Date limite de restitution du document, en jours depuis
+	 *   le 1er janvier 1970
 	 */
-	public Date dateRetour(final Date jour, final int duree) {
+	public int dateRetour(final int jour, final int duree) {
 		int temp = (int) ((double) duree * catClient.getCoefDuree());
-		return Datutil.addDate(jour, temp);
+		return jour + temp;
 	}
 
 	/**
@@ -414,11 +573,48 @@ public final class Client implements Serializable, HasInvariant {
 	 * Le tarif pour un client a tarif normal est le tarif nominal, mais
 	 * on se reserve la possibilite d'evolution. On suppose que le reglement
 	 * est forcement effectue.
-	 *   @param tarif Tarif nominal de l'emprunt du document
-	 *   @return Tarif de l'emprunt
+	 *   @param tarif Tarif nominal de l'emprunt du document, en centimes
+	 *   @return Tarif de l'emprunt en centimes, arrondi au centime
+	 */
+	public long sommeDue(final long tarif) {
+		return Montant.appliquer(tarif, catClient.getCoefTarifFixe());
+	}
+
+	/**
+	 * <TT>penaliser</TT> ajoute une penalite de retard au solde du client.
+	 *   @param centimes Montant en centimes
+	 */
+	public void penaliser(final long centimes) {
+		if (centimes != 0) {
+			penalites += centimes;
+			signaler();
+		}
+	}
+
+	/**
+	 * <TT>reglerPenalites</TT> deduit un paiement du solde des penalites.
+	 *   @param centimes Montant paye en centimes
+	 *   @return Solde restant du en centimes
+	 *   @exception OperationImpossible si le montant est negatif ou
+	 *   depasse le solde
 	 */
-	public double sommeDue(final double tarif) {
-		return tarif * catClient.getCoefTarif();
+	public long reglerPenalites(final long centimes)
+			throws OperationImpossible {
+		if (centimes < 0 || centimes > penalites) {
+			throw new OperationImpossible("Reglement de " + centimes
+					+ " centimes pour un solde de " + penalites);
+		}
+		penalites -= centimes;
+		signaler();
+		return penalites;
+	}
+
+	/**
+	 * Retourne le solde des penalites de retard.
+	 * @return solde en centimes
+	 */
+	public long getPenalites() {
+		return penalites;
 	}
 
 	/**
@@ -434,16 +630,16 @@ public final class Client implements Serializable, HasInvariant {
 	 * Retourne la date de cotisation.
 	 * @return Date date de cotisation
 	 */
-	public Date getDateCotisation() {
-		return dateRenouvellement;
+	public LocalDate getDateCotisation() {
+		return LocalDate.ofEpochDay(dateRenouvellement);
 	}
 
 	/**
 	 * Retourne la date d'inscription.
 	 * @return la date d'inscription.
 	 */
-	public Date getDateInscription() {
-		return dateInscription;
+	public LocalDate getDateInscription() {
+		return LocalDate.ofEpochDay(dateInscription);
 	}
 
 	/**
@@ -467,7 +663,11 @@ public final class Client implements Serializable, HasInvariant {
 					"Categorie necessite un code de reduction");
 		}
 		catClient = nCat;
-		metAJourEmprunts();
+		try {
+			metAJourEmprunts();
+		} finally {
+			signaler();
+		}
 	}
 
 	/**
@@ -486,7 +686,11 @@ public final class Client implements Serializable, HasInvariant {
 			throw new OperationImpossible("Categorie sans code de reduction");
 		}
 		catClient = nCat;
-		metAJourEmprunts();
+		try {
+			metAJourEmprunts();
+		} finally {
+			signaler();
+		}
 	}
 
 	/**
@@ -495,6 +699,7 @@ public final class Client implements Serializable, HasInvariant {
 	 */
 	public void setReduc(final int val) {
 		codeReduction = val;
+		signaler();
 	}
 
 	/**
@@ -503,6 +708,7 @@ public final class Client implements Serializable, HasInvariant {
 	 */
 	public void setNom(final String val) {
 		nom = val;
+		signaler();
 	}
 
 	/**
@@ -511,6 +717,7 @@ public final class Client implements Serializable, HasInvariant {
 	 */
 	public void setPrenom(final String val) {
 		prenom = val;
+		signaler();
 	}
 
 	/**
@@ -519,6 +726,7 @@ public final class Client implements Serializable, HasInvariant {
 	 */
 	public void setAddresse(final String val) {
 		adresse = val;
+		signaler();
 	}
 
 	/**
@@ -537,6 +745,98 @@ public final class Client implements Serializable, HasInvariant {
 	public static int getNbEmpruntsTotal() {
 		return nbEmpruntsTotal;
 	}
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void suivre(final SuiviModifications s) {
+		suivi = s;
+	}
+
+	/**
+	 * Previent le suivi eventuel de la modification.
+	 */
+	private void signaler() {
+		if (suivi != null) {
+			suivi.modifiee(this);
+		}
+	}
+
+	/**
+	 * Copie figee du client, pour la vue de la mediatheque. Ses
+	 * emprunts en cours ne sont pas copies : ils se lisent dans la vue.
+	 * @param cat copie figee de la categorie
+	 * @return copie a ne pas modifier, sans emprunts ni suivi
+	 */
+	public Client copieFigee(final CategorieClient cat) {
+		try {
+			Client c = (Client) clone();
+			c.catClient = cat;
+			c.lesEmprunts = new ListeEmprunts();
+			c.suivi = null;
+			return c;
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Serialisation des dates en <code>Date</code>, voir
+	 * serialPersistentFields.
+	 * @param out flux destination
+	 * @throws IOException en relai de writeFields
+	 */
+	private void writeObject(final ObjectOutputStream out)
+			throws IOException {
+		ObjectOutputStream.PutField f = out.putFields();
+		f.put("nom", nom);
+		f.put("prenom", prenom);
+		f.put("adresse", adresse);
+		f.put("nbEmpruntsEnCours", nbEmpruntsEnCours);
+		f.put("nbEmpruntsDepasses", nbEmpruntsDepasses);
+		f.put("nbEmpruntsEffectues", nbEmpruntsEffectues);
+		f.put("catClient", catClient);
+		f.put("dateRenouvellement", HorlogeSysteme.date(dateRenouvellement));
+		f.put("dateInscription", HorlogeSysteme.date(dateInscription));
+		f.put("codeReduction", codeReduction);
+		f.put("penalites", penalites);
+		out.writeFields();
+	}
+
+	/**
+	 * Deserialisation : les dates sont ramenees en jours et la liste
+	 * des emprunts est recree vide. Un fichier anterieur aux penalites
+	 * a un solde nul.
+	 * @param in flux source
+	 * @throws IOException en relai de readFields
+	 * @throws ClassNotFoundException en relai de readFields
+	 */
+	private void readObject(final ObjectInputStream in)
+			throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField f = in.readFields();
+		nom = (String) f.get("nom", null);
+		prenom = (String) f.get("prenom", null);
+		adresse = (String) f.get("adresse", null);
+		nbEmpruntsEnCours = f.get("nbEmpruntsEnCours", 0);
+		nbEmpruntsDepasses = f.get("nbEmpruntsDepasses", 0);
+		nbEmpruntsEffectues = f.get("nbEmpruntsEffectues", 0);
+		catClient = (CategorieClient) f.get("catClient", null);
+		dateRenouvellement = jour((Date) f.get("dateRenouvellement", null));
+		dateInscription = jour((Date) f.get("dateInscription", null));
+		codeReduction = f.get("codeReduction", 0);
+		penalites = f.get("penalites", 0L);
+		lesEmprunts = new ListeEmprunts();
+	}
+
+	/**
+	 * jour d'une date relue.
+	 * @param d date, ou null
+	 * @return jour depuis le 1er janvier 1970, 0 si null
+	 */
+	private static int jour(final Date d) {
+		return d == null ? 0 : HorlogeSysteme.jour(d);
+	}
+
 	/**
 	 * un client ne peut avoir plus d'emprunt en retard qu'il n'a d'emprunts.
 	 * un client ne peut avoir plus d'emprunt que sa categorie ne le lui permet.
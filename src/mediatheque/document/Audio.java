@@ -9,7 +9,8 @@ import util.InvariantBroken;
 /**
  * La classe <code>Audio</code> gere les documents de type CD audio.
  * Ils possedent une classification, une duree de pret de
- * 4 semaines et un tarif de pret de 1 euro.
+ * 4 semaines, un tarif de pret de 1 euro et une penalite de
+ * 20 centimes par jour de retard.
  */
 public final class Audio extends Document {
 	  /** serial number.	 */
@@ -26,9 +27,14 @@ public final class Audio extends Document {
 	public static final int DUREE = 4 * Datutil.DAYSINWEEK;
 
 	/**
-	 * Tarif du pret.
+	 * Tarif du pret en centimes.
 	 */
-	public static final  double TARIF = 1.0;
+	public static final long TARIF = 100;
+
+	/**
+	 * Penalite par jour de retard, en centimes.
+	 */
+	public static final long PENALITE = 20;
 
 	/**
 	 * Nombre d'emprunts total de CD.
@@ -108,17 +114,26 @@ public final class Audio extends Document {
 
 	/**
 	 * <TT>tarifEmprunt</TT> retourne le tarif nominal du pret
-	 * du document.
+	 * du document en centimes.
 	 *    @return Tarif du pret
 	 */
 	@Override
-	public double tarifEmprunt() {
+	public long tarifEmprunt() {
 		return TARIF;
 	}
+
+	/**
+	 * <TT>penaliteJour</TT> retourne la penalite nominale par jour de
+	 * retard, en centimes.
+	 *    @return Penalite par jour de retard
+	 */
+	@Override
+	public long penaliteJour() {
+		return PENALITE;
+	}
 	@Override
-	public String toString() {
-		String s = "[Audio] " + super.toString();
-		s += " " + classification;
-		return s;
+	public StringBuilder ecrire(final StringBuilder sb) {
+		return super.ecrire(sb.append("[Audio] ")).append(' ')
+				.append(classification);
 	}
 }
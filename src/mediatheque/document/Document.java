@@ -1,7 +1,9 @@
 package mediatheque.document;
 import mediatheque.Genre;
 import mediatheque.Localisation;
+import mediatheque.Modifiable;
 import mediatheque.OperationImpossible;
+import mediatheque.SuiviModifications;
 
 import java.io.Serializable;
 import util.HasInvariant;
@@ -12,7 +14,7 @@ import util.InvariantBroken;
  * Elles est abstraite et propose l'interface <code>Empruntable</code>.
  */
 public abstract class Document 
-implements Empruntable, Serializable, HasInvariant {
+implements Empruntable, Serializable, Cloneable, HasInvariant, Modifiable {
 	/** serial number.	 */
 	private static final long serialVersionUID = 3L;
 
@@ -64,6 +66,16 @@ implements Empruntable, Serializable, HasInvariant {
 	 */
 	private Localisation localisation;
 
+	/**
+	 * Stockage externe eventuel prevenu des changements d'etat.
+	 */
+	private transient StockageEtat stockage;
+
+	/**
+	 * Suivi a prevenir des modifications, ou null.
+	 */
+	private transient SuiviModifications suivi;
+
  // 2- le(s) constructeur(s)
 
 	/**
@@ -141,6 +153,74 @@ implements Empruntable, Serializable, HasInvariant {
 	 */
 	public final int getNbEmprunts() { return nbEmprunts; }
 
+	/**
+	 * Associe le document a un stockage externe qui sera prevenu
+	 * de chaque changement d'etat.
+	 *   @param s stockage a prevenir, ou null
+	 */
+	public final void attacherStockage(final StockageEtat s) {
+		stockage = s;
+	}
+
+	/**
+	 * Remet l'etat d'un document reconstruit par un stockage externe,
+	 * sans prevenir le stockage ni le suivi.
+	 *   @param estEmpruntable document empruntable
+	 *   @param estEmprunte document emprunte
+	 *   @param nb nombre d'emprunts du document
+	 *   @throws InvariantBroken document emprunte non empruntable
+	 */
+	public final void restaurerEtat(final boolean estEmpruntable,
+			final boolean estEmprunte, final int nb) throws InvariantBroken {
+		empruntable = estEmpruntable;
+		emprunte = estEmprunte;
+		nbEmprunts = nb;
+		if (!invariant()) {
+			throw new InvariantBroken("Document -" + this);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final void suivre(final SuiviModifications s) {
+		suivi = s;
+	}
+
+	/**
+	 * Previent le stockage externe et le suivi eventuels du changement
+	 * d'etat.
+	 */
+	private void signalerEtat() {
+		if (stockage != null) {
+			stockage.etatModifie(this);
+		}
+		if (suivi != null) {
+			suivi.modifiee(this);
+		}
+	}
+
+	/**
+	 * <TT>copieFigee</TT> copie le document pour la vue de la
+	 * mediatheque, sans stockage ni suivi.
+	 *   @param g copie figee du genre
+	 *   @param loc copie figee de la localisation
+	 *   @return copie a ne pas modifier
+	 */
+	public final Document copieFigee(final Genre g, final Localisation loc) {
+		try {
+			Document d = (Document) clone();
+			d.genre = g;
+			d.localisation = loc;
+			d.stockage = null;
+			d.suivi = null;
+			return d;
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 
 	/**
 	 * <TT>equals</TT> est une surcharge de <TT>Object.equals</TT>
@@ -184,23 +264,24 @@ implements Empruntable, Serializable, HasInvariant {
 	 */
 	@Override
 	public String toString() {
-		String s = "\"" + code + "\" " + titre + " " + auteur + " " + annee
-				+ " " + genre + " " + localisation + " " + nbEmprunts;
+		return ecrire(new StringBuilder(128)).toString();
+	}
+
+	/**
+	 * Ecrit le texte de <TT>toString</TT> a la suite d'un tampon, que
+	 * les listages reutilisent d'un document a l'autre.
+	 *  @param sb destination
+	 *  @return destination
+	 */
+	public StringBuilder ecrire(final StringBuilder sb) {
+		sb.append('"').append(code).append("\" ").append(titre).append(' ')
+				.append(auteur).append(' ').append(annee).append(' ');
+		genre.ecrire(sb).append(' ');
+		localisation.ecrire(sb).append(' ').append(nbEmprunts);
 		if (empruntable) {
-			s += " (emp ";
-			if (emprunte) {
-				s += "O";
-			} else {
-				s += "N";
-			}
-			s += ")";
-		}
-		if (invariant()) {
-			s += " SAFE ";
-		} else {
-			s += " UNSAFE ";
+			sb.append(" (emp ").append(emprunte ? 'O' : 'N').append(')');
 		}
-		return s;
+		return sb.append(invariant() ? " SAFE " : " UNSAFE ");
 	}
 
 	/**
@@ -218,6 +299,7 @@ implements Empruntable, Serializable, HasInvariant {
 		if (!invariant()) {
 			throw new InvariantBroken("Document -" + this);
 		}
+		signalerEtat();
 	}
 
 	/**
@@ -239,6 +321,7 @@ implements Empruntable, Serializable, HasInvariant {
 		if (!invariant()) {
 			throw new InvariantBroken("Document -" + this);
 		}
+		signalerEtat();
 	}
 
 	/**
@@ -269,6 +352,7 @@ implements Empruntable, Serializable, HasInvariant {
 		if (!invariant()) {
 			throw new InvariantBroken("Document -" + this);
 		}
+		signalerEtat();
 		return true;
 	}
 
@@ -298,6 +382,7 @@ implements Empruntable, Serializable, HasInvariant {
 		if (!invariant()) {
 			throw new InvariantBroken("Document -" + this);
 		}
+		signalerEtat();
 		System.out.println("Document: ranger \"" + titre + "\" en "
 				+ localisation);
 	}
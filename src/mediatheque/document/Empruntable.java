@@ -14,8 +14,16 @@ public interface Empruntable {
 
     /**
      * <TT>tarifEmprunt</TT> retourne le tarif nominal de l emprunt
-     * du document.
+     * du document en centimes.
      *    @return Tarif emprunt
+     * @see mediatheque.Montant
      */
-    double tarifEmprunt();
+    long tarifEmprunt();
+
+    /**
+     * <TT>penaliteJour</TT> retourne la penalite nominale par jour de
+     * retard, en centimes.
+     *    @return Penalite par jour de retard
+     */
+    long penaliteJour();
 }
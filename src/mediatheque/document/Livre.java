@@ -9,7 +9,8 @@ import util.InvariantBroken;
 /**
  * La classe <code>Livre</code> gere les documents de type livre.
  * Ils possedent un nombre de pages, une duree de pret de 6
- * semaines et un tarif de pret de 0.5 Euros.
+ * semaines, un tarif de pret de 0.5 Euros et une penalite de
+ * 10 centimes par jour de retard.
  */
 public final class Livre extends Document {
 	  /** serial number.	 */
@@ -26,9 +27,14 @@ public final class Livre extends Document {
 	public static final int DUREE = 6 * Datutil.DAYSINWEEK;
 
 	/**
-	 * Tarif du pret.
+	 * Tarif du pret en centimes.
 	 */
-	public static final double TARIF = 0.5;
+	public static final long TARIF = 50;
+
+	/**
+	 * Penalite par jour de retard, en centimes.
+	 */
+	public static final long PENALITE = 10;
 
 	/**
 	 * Nombre d'emprunts total de Livre.
@@ -65,6 +71,14 @@ public final class Livre extends Document {
 		}
 	}
 
+	/**
+	 * retourne le nombre de pages du livre.
+	 *   @return Nombre de pages
+	 */
+	public int getNombrePages() {
+		return nombrePages;
+	}
+
 	/**
 	 * retourne le nombre d'emprunts (statistique)
 	 * de la classe.
@@ -98,19 +112,28 @@ public final class Livre extends Document {
 
 	/**
 	 * <TT>tarifEmprunt</TT> retourne le tarif nominal du pret
-	 * du document.
+	 * du document en centimes.
 	 *    @return Tarif du pret
 	 */
 	@Override
-	public double tarifEmprunt() { return TARIF; }
+	public long tarifEmprunt() { return TARIF; }
+
+	/**
+	 * <TT>penaliteJour</TT> retourne la penalite nominale par jour de
+	 * retard, en centimes.
+	 *    @return Penalite par jour de retard
+	 */
+	@Override
+	public long penaliteJour() { return PENALITE; }
 	/**
-	 *<TT>toString</TT> affiche les caracteristiques du Livre.
-	 *  @return Caracteristiques d'un livre
+	 *<TT>ecrire</TT> ecrit les caracteristiques du Livre.
+	 *  @param sb destination
+	 *  @return destination
 	 */
 	@Override
-	public String toString() {
-		return "[Livre] " + super.toString()
-				+  " " + nombrePages;
+	public StringBuilder ecrire(final StringBuilder sb) {
+		return super.ecrire(sb.append("[Livre] ")).append(' ')
+				.append(nombrePages);
 	}
 
 	/**
@@ -0,0 +1,15 @@
+package mediatheque.document;
+/**
+ * L'interface <TT>StockageEtat</TT> est implementee par les stockages
+ * externes de documents qui doivent etre prevenus de chaque changement
+ * d'etat (empruntable, emprunte, nombre d'emprunts) d'un document.
+ */
+public interface StockageEtat {
+
+    /**
+     * <TT>etatModifie</TT> est appelee apres chaque changement d'etat
+     * du document.
+     *    @param doc document modifie
+     */
+    void etatModifie(Document doc);
+}
@@ -9,7 +9,8 @@ import util.InvariantBroken;
  * La classe Video gere les documents de type DVD video.
  * Elles possedent une duree de film, une mention legale
  * de diffusion, une duree de pret de 2 semaines et un
- * tarif de pret de 1.5 Euros.
+ * tarif de pret de 1.5 Euros, avec une penalite de 50 centimes
+ * par jour de retard.
  */
 public final class Video extends Document {
 	  /** serial number.	 */
@@ -30,9 +31,14 @@ public final class Video extends Document {
 	public static final int DUREE = 2 * Datutil.DAYSINWEEK;
 
 	/**
-	 * Tarif du pret.
+	 * Tarif du pret en centimes.
 	 */
-	public static final double TARIF = 1.5;
+	public static final long TARIF = 150;
+
+	/**
+	 * Penalite par jour de retard, en centimes.
+	 */
+	public static final long PENALITE = 50;
 
 	/**
 	 * Nombre d'emprunts total des films.
@@ -108,11 +114,19 @@ public final class Video extends Document {
 	
 	/**
 	 * <TT>tarifEmprunt</TT> retourne le tarif nominal du pret
-	 * du document.
+	 * du document en centimes.
 	 *    @return Tarif du pret
 	 */
 	@Override
-	public double tarifEmprunt() { return TARIF; }
+	public long tarifEmprunt() { return TARIF; }
+
+	/**
+	 * <TT>penaliteJour</TT> retourne la penalite nominale par jour de
+	 * retard, en centimes.
+	 *    @return Penalite par jour de retard
+	 */
+	@Override
+	public long penaliteJour() { return PENALITE; }
 	/**
 	 * retourne la mention légale.
 	 * @return mention legale
@@ -125,13 +139,14 @@ public final class Video extends Document {
 	public int getDureeFilm() { return dureeFilm; }
 	
 	/**
-	 *<TT>toString</TT> affiche les caracteristiques de la video.
-	 * @return Caracteristiques d'une video
+	 *<TT>ecrire</TT> ecrit les caracteristiques de la video.
+	 * @param sb destination
+	 * @return destination
 	 */
 	@Override
-	public String toString() {
-		return "[Video] " + super.toString()
-				+ " " + dureeFilm + " " + mentionLegale;
+	public StringBuilder ecrire(final StringBuilder sb) {
+		return super.ecrire(sb.append("[Video] ")).append(' ')
+				.append(dureeFilm).append(' ').append(mentionLegale);
 	}
 
 	/** Safety property - film length must be at least 1 minute.
@@ -0,0 +1,38 @@
+package tests;
+
+import java.io.File;
+
+/**
+ * Fichiers de sauvegarde laisses par les tests d'une mediatheque.
+ */
+final class Fichiers {
+	/** Suffixes des fichiers de sauvegarde d'une mediatheque. */
+	private static final String[] SUFFIXES = {".data", ".data.tmp",
+		".data.corrompu", ".snap"};
+
+	/**
+	 * Pas d'instance.
+	 */
+	private Fichiers() {
+	}
+
+	/**
+	 * supprime les sauvegardes d'une mediatheque : fichier complet,
+	 * fichiers temporaire et mis de cote, instantane et repertoire des
+	 * segments.
+	 * @param nom nom de la mediatheque
+	 */
+	static void nettoyer(final String nom) {
+		for (String suffixe : SUFFIXES) {
+			new File(nom + suffixe).delete();
+		}
+		File rep = new File(nom + ".seg");
+		File[] segs = rep.listFiles();
+		if (segs != null) {
+			for (File f : segs) {
+				f.delete();
+			}
+		}
+		rep.delete();
+	}
+}
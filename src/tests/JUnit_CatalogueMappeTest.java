@@ -0,0 +1,151 @@
+package tests;
+
+import java.io.File;
+
+import mediatheque.Genre;
+import mediatheque.Localisation;
+import mediatheque.Mediatheque;
+import mediatheque.OperationImpossible;
+import mediatheque.document.Audio;
+import mediatheque.document.Document;
+import mediatheque.document.Livre;
+import mediatheque.document.Video;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import util.InvariantBroken;
+
+/**
+ * Test du catalogue de documents projete en memoire.
+ */
+public class JUnit_CatalogueMappeTest {
+	private static final String NOM = "CatalogueMappeTest";
+	private File catalogue;
+	private Mediatheque m1;
+
+	@Before
+	public void setUp() throws Exception {
+		Fichiers.nettoyer(NOM);
+		catalogue = File.createTempFile("catalogue", ".map");
+		catalogue.delete();
+		m1 = new Mediatheque(NOM);
+		m1.ajouterGenre("Roman");
+		m1.ajouterLocalisation("Salle1", "Rayon1");
+		m1.ajouterCatClient("TarifNormal", 2, 25, 1.0, 1.0, false);
+		m1.inscrire("nom1", "prenom1", "adresse1", "TarifNormal");
+		m1.ajouterDocument(livre("Avant"));
+		m1.utiliserCatalogueMappe(catalogue.getPath(), 16);
+		m1.ajouterDocument(livre("Apres"));
+	}
+
+	@After
+	public void tearDown() {
+		m1 = null;
+		catalogue.delete();
+		Fichiers.nettoyer(NOM);
+	}
+
+	private Document livre(final String code)
+			throws OperationImpossible, InvariantBroken {
+		Genre g = m1.chercherGenre("Roman");
+		Localisation l = m1.chercherLocalisation("Salle1", "Rayon1");
+		return new Livre(code, l, "Titre " + code, "Auteur", "2000", g, 100);
+	}
+
+	/**
+	 * Les documents ajoutes avant et apres le passage au catalogue
+	 * projete sont retrouves, avec genre et localisation partages.
+	 */
+	@Test
+	public void chercherDocument() {
+		Assert.assertEquals(2, m1.getDocumentsSize());
+		Document d = m1.chercherDocument("Avant");
+		Assert.assertNotNull(d);
+		Assert.assertSame(m1.chercherGenre("Roman"), d.getGenre());
+		Assert.assertNotNull(m1.chercherDocument("Apres"));
+		Assert.assertNull(m1.chercherDocument("Inconnu"));
+	}
+
+	/**
+	 * Les changements d'etat sont ecrits dans le catalogue et le
+	 * document emprunte est l'instance de la fiche d'emprunt.
+	 */
+	@Test
+	public void emprunterRestituer()
+			throws OperationImpossible, InvariantBroken {
+		m1.metEmpruntable("Apres");
+		Assert.assertTrue(m1.chercherDocument("Apres").estEmpruntable());
+		m1.emprunter("nom1", "prenom1", "Apres");
+		Assert.assertSame(m1.getFicheEmpruntAt(0).getDocument(),
+				m1.chercherDocument("Apres"));
+		m1.restituer("nom1", "prenom1", "Apres");
+		Document d = m1.chercherDocument("Apres");
+		Assert.assertFalse(d.estEmprunte());
+		Assert.assertEquals(1, d.getNbEmprunts());
+	}
+
+	/**
+	 * Chaque type de document est reconstruit avec ses champs propres
+	 * et son etat.
+	 */
+	@Test
+	public void champs() throws OperationImpossible, InvariantBroken {
+		Genre g = m1.chercherGenre("Roman");
+		Localisation l = m1.chercherLocalisation("Salle1", "Rayon1");
+		m1.ajouterDocument(new Audio("A1", l, "Été", "Auteur", "2001", g,
+				"Jazz"));
+		m1.ajouterDocument(new Video("V1", l, "Film", "Auteur", "2002", g,
+				90, "Tous publics"));
+		m1.metEmpruntable("V1");
+		Assert.assertEquals("Été", m1.chercherDocument("A1").getTitre());
+		Assert.assertEquals("Jazz",
+				((Audio) m1.chercherDocument("A1")).getClassification());
+		Video v = (Video) m1.chercherDocument("V1");
+		Assert.assertEquals(90, v.getDureeFilm());
+		Assert.assertEquals("Tous publics", v.getMentionLegale());
+		Assert.assertTrue(v.estEmpruntable());
+		Assert.assertSame(l, v.getLocalisation());
+		Assert.assertEquals(100,
+				((Livre) m1.chercherDocument("Avant")).getNombrePages());
+	}
+
+	/**
+	 * Des ajouts et retraits repetes de codes toujours nouveaux ne
+	 * remplissent pas l'index de cases supprimees.
+	 */
+	@Test(timeout = 10000)
+	public void ajoutsRetraitsRepetes()
+			throws OperationImpossible, InvariantBroken {
+		for (int i = 0; i < 500; i++) {
+			m1.ajouterDocument(livre("Passage" + i));
+			Assert.assertNotNull(m1.chercherDocument("Passage" + i));
+			m1.retirerDocument("Passage" + i);
+		}
+		Assert.assertEquals(2, m1.getDocumentsSize());
+		Assert.assertNull(m1.chercherDocument("Passage499"));
+		Assert.assertNotNull(m1.chercherDocument("Avant"));
+		Assert.assertNotNull(m1.chercherDocument("Apres"));
+	}
+
+	/**
+	 * La sauvegarde ne contient que le chemin du catalogue, qui est
+	 * rouvert au chargement.
+	 */
+	@Test
+	public void sauverRecharger()
+			throws OperationImpossible, InvariantBroken {
+		m1.metEmpruntable("Avant");
+		m1.emprunter("nom1", "prenom1", "Avant");
+		m1.retirerDocument("Apres");
+		Assert.assertTrue(m1.saveToFile());
+		Mediatheque m2 = new Mediatheque(NOM);
+		Assert.assertEquals(1, m2.getDocumentsSize());
+		Document d = m2.chercherDocument("Avant");
+		Assert.assertTrue(d.estEmprunte());
+		Assert.assertSame(m2.getFicheEmpruntAt(0).getDocument(), d);
+		Assert.assertSame(m2.chercherGenre("Roman"), d.getGenre());
+	}
+}
@@ -123,4 +123,23 @@ public class JUnit_DocumentTest {
 				"Test_annee2", null, 140, "Test_mentionLegale2");
 	}
 
+	/**
+	 * L'ecriture dans un tampon donne le texte de toString, a la suite
+	 * du contenu du tampon.
+	 */
+	@Test
+	public void ecrire() throws Exception {
+		String attendu = "[Video] \"Test_code1\" Test_titre1 Test_auteur1 "
+				+ "Test_annee1 Genre: Test_nom1, nbemprunts:0 "
+				+ "Salle/Rayon : Test_salle1/Test_rayon1 0 SAFE  120 "
+				+ "Test_mentionLegale1";
+		Assert.assertEquals(attendu, d1.toString());
+		StringBuilder sb = new StringBuilder("> ");
+		Assert.assertSame(sb, d1.ecrire(sb));
+		Assert.assertEquals("> " + attendu, sb.toString());
+		d1.metEmpruntable();
+		sb.setLength(0);
+		Assert.assertTrue(d1.ecrire(sb).toString().contains(" 0 (emp N) SAFE "));
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,106 @@
+package tests;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Predicate;
+
+import mediatheque.Export;
+import mediatheque.Genre;
+import mediatheque.Localisation;
+import mediatheque.Mediatheque;
+import mediatheque.document.Document;
+import mediatheque.document.Livre;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test des exports CSV et JSON.
+ */
+public class JUnit_ExportTest {
+	private Mediatheque m;
+
+	@Before
+	public void setUp() throws Exception {
+		m = new Mediatheque("ExportTest");
+		m.ajouterGenre("Roman");
+		m.ajouterLocalisation("Salle1", "Rayon1");
+		Genre g = m.chercherGenre("Roman");
+		Localisation l = m.chercherLocalisation("Salle1", "Rayon1");
+		m.ajouterDocument(new Livre("L0", l, "Titre, \"long\"", "Auteur",
+				"2000", g, 100));
+		m.ajouterDocument(new Livre("L1", l, "Titre1", "Auteur\n2",
+				"2001", g, 100));
+	}
+
+	/**
+	 * Les textes sont proteges selon le format.
+	 */
+	@Test
+	public void formats() throws Exception {
+		StringWriter w = new StringWriter();
+		try (Export e = new Export(w, Export.Format.CSV)) {
+			Assert.assertEquals(1, m.exporterGenres(e, null));
+		}
+		Assert.assertEquals("nom,nbEmprunts\r\nRoman,0\r\n", w.toString());
+
+		w = new StringWriter();
+		try (Export e = new Export(w, Export.Format.CSV)) {
+			m.exporterDocuments(e, new Predicate<Document>() {
+				@Override
+				public boolean test(final Document d) {
+					return d.getCode().equals("L0");
+				}
+			});
+		}
+		Assert.assertTrue(w.toString().contains(
+				"\r\nL0,Livre,\"Titre, \"\"long\"\"\",Auteur,2000,"));
+
+		w = new StringWriter();
+		try (Export e = new Export(w, Export.Format.JSON)) {
+			m.exporterLocalisations(e, null);
+		}
+		Assert.assertEquals("[\n{\"salle\":\"Salle1\",\"rayon\":\"Rayon1\"}\n]\n",
+				w.toString());
+	}
+
+	/**
+	 * Un export dans un fichier contient tous les elements filtres.
+	 */
+	@Test
+	public void fichier() throws Exception {
+		Path f = Files.createTempFile("export", ".json");
+		Files.delete(f);
+		try (Export e = new Export(f, Export.Format.JSON)) {
+			Assert.assertEquals(2, m.exporterDocuments(e, null));
+		}
+		String s = new String(Files.readAllBytes(f), StandardCharsets.UTF_8);
+		Files.delete(f);
+		Assert.assertTrue(s.startsWith("[\n{\"code\":\""));
+		Assert.assertTrue(s.contains("\"auteur\":\"Auteur\\u000a2\""));
+		Assert.assertTrue(s.endsWith("}\n]\n"));
+	}
+
+	/**
+	 * Un texte mal forme, comme une demi-paire de substitution, est
+	 * exporte avec un caractere de remplacement, comme par un Writer.
+	 */
+	@Test
+	public void texteMalForme() throws Exception {
+		m.ajouterDocument(new Livre("L2", m.chercherLocalisation("Salle1",
+				"Rayon1"), "Titre\uD800", "Auteur", "2002",
+				m.chercherGenre("Roman"), 100));
+		Path f = Files.createTempFile("export", ".csv");
+		Files.delete(f);
+		try (Export e = new Export(f, Export.Format.CSV)) {
+			Assert.assertEquals(3, m.exporterDocuments(e, null));
+		}
+		String s = new String(Files.readAllBytes(f), StandardCharsets.UTF_8);
+		Files.delete(f);
+		Assert.assertTrue(s.contains("Titre?"));
+		Assert.assertTrue(s.contains("L2"));
+	}
+}
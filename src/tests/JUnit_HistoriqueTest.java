@@ -0,0 +1,138 @@
+package tests;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import mediatheque.Genre;
+import mediatheque.Historique;
+import mediatheque.HorlogeManuelle;
+import mediatheque.HorlogeSysteme;
+import mediatheque.Localisation;
+import mediatheque.Mediatheque;
+import mediatheque.client.HashClient;
+import mediatheque.document.Livre;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test de l'historique des emprunts.
+ */
+public class JUnit_HistoriqueTest {
+	private static final String NOM = "HistoriqueTest";
+	private Mediatheque m1;
+
+	@Before
+	public void setUp() throws Exception {
+		Fichiers.nettoyer(NOM);
+		m1 = new Mediatheque(NOM);
+		m1.ajouterGenre("Roman");
+		m1.ajouterLocalisation("Salle1", "Rayon1");
+		m1.ajouterCatClient("TarifNormal", 2, 25, 1.0, 1.0, false);
+		m1.inscrire("nom1", "prenom1", "adresse1", "TarifNormal");
+		m1.inscrire("nom2", "prenom2", "adresse2", "TarifNormal");
+		Genre g = m1.chercherGenre("Roman");
+		Localisation l = m1.chercherLocalisation("Salle1", "Rayon1");
+		m1.ajouterDocument(new Livre("L0", l, "Titre0", "Auteur", "2000", g,
+				100));
+		m1.metEmpruntable("L0");
+		m1.emprunter("nom1", "prenom1", "L0");
+		m1.restituer("nom1", "prenom1", "L0");
+		m1.emprunter("nom2", "prenom2", "L0");
+		m1.modifierClient(m1.chercherClient("nom2", "prenom2"), "nom3",
+				"prenom2", "adresse2", "TarifNormal", 0);
+	}
+
+	@After
+	public void tearDown() {
+		m1 = null;
+		Fichiers.nettoyer(NOM);
+	}
+
+	/**
+	 * L'historique garde les emprunts restitues, dans l'ordre, par
+	 * document et par client.
+	 */
+	@Test
+	public void restitues() {
+		Historique h = m1.getHistorique();
+		List<Historique.Passage> l = h.duDocument("L0", LocalDate.MIN,
+				LocalDate.MAX);
+		Assert.assertEquals(2, l.size());
+		Assert.assertEquals("nom1", l.get(0).getClient().getNom());
+		Assert.assertEquals("nom3", l.get(1).getClient().getNom());
+		l = h.duClient(new HashClient("nom1", "prenom1"), LocalDate.MIN,
+				LocalDate.MAX);
+		Assert.assertEquals(1, l.size());
+		Assert.assertEquals("L0", l.get(0).getCode());
+		Assert.assertTrue(h.duDocument("L9", LocalDate.MIN,
+				LocalDate.MAX).isEmpty());
+	}
+
+	/**
+	 * Les emprunts d'un client renomme sont retrouves sous sa nouvelle
+	 * cle, plus sous l'ancienne.
+	 */
+	@Test
+	public void renommage() {
+		Historique h = m1.getHistorique();
+		Assert.assertTrue(h.duClient(new HashClient("nom2", "prenom2"),
+				LocalDate.MIN, LocalDate.MAX).isEmpty());
+		List<Historique.Passage> l = h.duClient(
+				new HashClient("nom3", "prenom2"), LocalDate.MIN,
+				LocalDate.MAX);
+		Assert.assertEquals(1, l.size());
+		Assert.assertEquals("L0", l.get(0).getCode());
+		Assert.assertEquals(LocalDate.ofEpochDay(
+				HorlogeSysteme.INSTANCE.jour()), l.get(0).getDate());
+	}
+
+	/**
+	 * Les emprunts se lisent par periode, y compris apres un recul de
+	 * l'horloge, code par un ecart negatif.
+	 */
+	@Test
+	public void periodes() throws Exception {
+		HorlogeManuelle h = new HorlogeManuelle(HorlogeSysteme.INSTANCE);
+		m1.setHorloge(h);
+		LocalDate j0 = LocalDate.ofEpochDay(h.jour());
+		m1.restituer("nom3", "prenom2", "L0");
+		h.avancer(10);
+		m1.emprunter("nom1", "prenom1", "L0");
+		m1.restituer("nom1", "prenom1", "L0");
+		h.avancer(-30);
+		m1.emprunter("nom1", "prenom1", "L0");
+		HashClient hc = new HashClient("nom1", "prenom1");
+		Historique hist = m1.getHistorique();
+		List<Historique.Passage> l = hist.duClient(hc, LocalDate.MIN,
+				LocalDate.MAX);
+		Assert.assertEquals(3, l.size());
+		Assert.assertEquals(j0.plusDays(10), l.get(1).getDate());
+		Assert.assertEquals(j0.minusDays(20), l.get(2).getDate());
+		Assert.assertEquals(1, hist.duClient(hc, j0.plusDays(1),
+				LocalDate.MAX).size());
+		Assert.assertEquals(2, hist.duClient(hc, j0.minusDays(20),
+				j0).size());
+		Assert.assertTrue(hist.duDocument("L0", j0.plusDays(1),
+				j0.plusDays(9)).isEmpty());
+	}
+
+	/**
+	 * Un emprunt occupe quelques octets dans les journaux : un ecart de
+	 * jour et un numero par journal, sans objet par emprunt.
+	 */
+	@Test
+	public void taille() throws Exception {
+		m1.restituer("nom3", "prenom2", "L0");
+		for (int i = 0; i < 100; i++) {
+			m1.emprunter("nom1", "prenom1", "L0");
+			m1.restituer("nom1", "prenom1", "L0");
+		}
+		Historique h = m1.getHistorique();
+		Assert.assertEquals(101, h.duClient(new HashClient("nom1",
+				"prenom1"), LocalDate.MIN, LocalDate.MAX).size());
+		Assert.assertTrue(h.getTaille() < 5 * 102);
+	}
+}
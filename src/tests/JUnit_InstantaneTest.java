@@ -0,0 +1,135 @@
+package tests;
+
+import java.io.File;
+
+import mediatheque.Genre;
+import mediatheque.Localisation;
+import mediatheque.Mediatheque;
+import mediatheque.OperationImpossible;
+import mediatheque.client.Client;
+import mediatheque.document.Document;
+import mediatheque.document.Livre;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import util.InvariantBroken;
+
+/**
+ * Test de l'instantane et du chargement paresseux.
+ */
+public class JUnit_InstantaneTest {
+	private static final String NOM = "InstantaneTest";
+	private Mediatheque m1;
+
+	@Before
+	public void setUp() throws Exception {
+		Fichiers.nettoyer(NOM);
+		m1 = new Mediatheque(NOM);
+		m1.ajouterGenre("Roman");
+		m1.ajouterGenre("Essai");
+		m1.ajouterLocalisation("Salle1", "Rayon1");
+		m1.ajouterCatClient("TarifNormal", 2, 25, 1.0, 1.0, false);
+		m1.ajouterCatClient("Vide", 2, 25, 1.0, 1.0, false);
+		m1.inscrire("nom1", "prenom1", "adresse1", "TarifNormal");
+		m1.inscrire("nom2", "prenom2", "adresse2", "TarifNormal");
+		Genre g = m1.chercherGenre("Roman");
+		Localisation l = m1.chercherLocalisation("Salle1", "Rayon1");
+		for (int i = 0; i < 3; i++) {
+			m1.ajouterDocument(new Livre("L" + i, l, "Titre" + i, "Auteur",
+					"2000", g, 100));
+			m1.metEmpruntable("L" + i);
+		}
+		m1.emprunter("nom1", "prenom1", "L0");
+		Assert.assertTrue(m1.sauverInstantane());
+	}
+
+	@After
+	public void tearDown() {
+		m1 = null;
+		Fichiers.nettoyer(NOM);
+	}
+
+	/**
+	 * Une sauvegarde complete posterieure a l'instantane le supprime :
+	 * le chargement paresseux relit alors la sauvegarde.
+	 */
+	@Test
+	public void sauvegardePosterieure() throws Exception {
+		m1.emprunter("nom2", "prenom2", "L2");
+		Assert.assertTrue(m1.saveToFile());
+		Assert.assertFalse(new File(NOM + ".snap").exists());
+		Mediatheque m2 = new Mediatheque(NOM, true);
+		Assert.assertTrue(m2.chercherDocument("L2").estEmprunte());
+		Assert.assertEquals(1, m2.chercherClient("nom2", "prenom2")
+				.getNbEmpruntsEnCours());
+	}
+
+	/**
+	 * Des segments posterieurs a l'instantane le suppriment : le
+	 * chargement paresseux relit alors les segments.
+	 */
+	@Test
+	public void segmentsPosterieurs() throws Exception {
+		m1.emprunter("nom2", "prenom2", "L2");
+		Assert.assertTrue(m1.sauverSegments());
+		Assert.assertFalse(new File(NOM + ".snap").exists());
+		Mediatheque m2 = new Mediatheque(NOM, true);
+		Assert.assertTrue(m2.chercherDocument("L2").estEmprunte());
+		Assert.assertEquals(2, m2.getFicheEmpruntsSize());
+	}
+
+	/**
+	 * Le chargement paresseux retrouve documents, clients et emprunts.
+	 */
+	@Test
+	public void chargementParesseux()
+			throws OperationImpossible, InvariantBroken {
+		Mediatheque m2 = new Mediatheque(NOM, true);
+		Assert.assertEquals(3, m2.getDocumentsSize());
+		Assert.assertEquals(2, m2.getClientsSize());
+		Assert.assertEquals(1, m2.getFicheEmpruntsSize());
+		Client c = m2.chercherClient("nom1", "prenom1");
+		Assert.assertSame(c, m2.getFicheEmpruntAt(0).getClient());
+		Assert.assertEquals(1, c.getNbEmpruntsEnCours());
+		Document d = m2.chercherDocument("L1");
+		Assert.assertSame(m2.chercherGenre("Roman"), d.getGenre());
+		m2.restituer("nom1", "prenom1", "L0");
+		Assert.assertEquals(0, c.getNbEmpruntsEnCours());
+		m2.emprunter("nom2", "prenom2", "L2");
+		Assert.assertTrue(m2.chercherDocument("L2").estEmprunte());
+	}
+
+	/**
+	 * Les verifications sur genre et categorie utilisent l'etat leger.
+	 */
+	@Test
+	public void etatLeger() throws OperationImpossible {
+		Mediatheque m2 = new Mediatheque(NOM, true);
+		try {
+			m2.supprimerGenre("Roman");
+			Assert.fail("Genre utilise par un document non charge");
+		} catch (OperationImpossible oi) {
+			Assert.assertNotNull(oi.getMessage());
+		}
+		m2.supprimerGenre("Essai");
+		Assert.assertTrue(m2.existeClient(m2.chercherCatClient("TarifNormal")));
+		Assert.assertFalse(m2.existeClient(m2.chercherCatClient("Vide")));
+	}
+
+	/**
+	 * Un nouvel instantane recopie les valeurs non chargees.
+	 */
+	@Test
+	public void resauvegarde() throws OperationImpossible, InvariantBroken {
+		Mediatheque m2 = new Mediatheque(NOM, true);
+		m2.inscrire("nom3", "prenom3", "adresse3", "TarifNormal");
+		Assert.assertTrue(m2.sauverInstantane());
+		Assert.assertNotNull(m2.chercherDocument("L2"));
+		Mediatheque m3 = new Mediatheque(NOM, true);
+		Assert.assertEquals(3, m3.getClientsSize());
+		Assert.assertEquals("Titre2", m3.chercherDocument("L2").getTitre());
+	}
+}
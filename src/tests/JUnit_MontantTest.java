@@ -0,0 +1,38 @@
+package tests;
+
+import mediatheque.Montant;
+import mediatheque.document.Video;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test des montants en centimes.
+ */
+public class JUnit_MontantTest {
+
+	/**
+	 * Les tarifs sont en centimes et les totaux restent exacts.
+	 */
+	@Test
+	public void tarifEnCentimes() {
+		Assert.assertEquals(150, Video.TARIF);
+		long coef = Montant.coefficient(0.1);
+		long total = 0;
+		for (int i = 0; i < 1000000; i++) {
+			total = Montant.ajouter(total, Montant.appliquer(Video.TARIF, coef));
+		}
+		Assert.assertEquals(15000000, total);
+		Assert.assertEquals(17, Montant.appliquer(50, Montant.coefficient(1 / 3.0)));
+		Assert.assertEquals("-1.05", Montant.toString(-105));
+		Assert.assertEquals("150000.00", Montant.toString(total));
+	}
+
+	/**
+	 * Un depassement de capacite est signale.
+	 */
+	@Test(expected = ArithmeticException.class)
+	public void depassement() {
+		Montant.ajouter(Long.MAX_VALUE, 1);
+	}
+}
@@ -0,0 +1,144 @@
+package tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import mediatheque.FicheEmprunt;
+import mediatheque.Genre;
+import mediatheque.HorlogeManuelle;
+import mediatheque.HorlogeSysteme;
+import mediatheque.Localisation;
+import mediatheque.Mediatheque;
+import mediatheque.OperationImpossible;
+import mediatheque.Page;
+import mediatheque.client.Client;
+import mediatheque.document.Document;
+import mediatheque.document.Livre;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test des requetes paginees.
+ */
+public class JUnit_PageTest {
+	private Mediatheque m;
+
+	@Before
+	public void setUp() throws Exception {
+		m = new Mediatheque("PageTest");
+		m.ajouterGenre("Roman");
+		m.ajouterLocalisation("Salle1", "Rayon1");
+		m.ajouterCatClient("TarifNormal", 10, 25, 1.0, 1.0, false);
+		Genre g = m.chercherGenre("Roman");
+		Localisation l = m.chercherLocalisation("Salle1", "Rayon1");
+		for (int i = 0; i < 10; i++) {
+			m.ajouterDocument(new Livre("L" + i, l, "Titre" + (9 - i),
+					"Auteur" + (i % 3), "2000", g, 100));
+			m.inscrire("nom" + (9 - i), "prenom", "adresse", "TarifNormal");
+		}
+	}
+
+	/**
+	 * Les pages se suivent dans l'ordre du tri, et un document ajoute
+	 * ou retire entre deux pages ne decale pas la suite.
+	 */
+	@Test
+	public void documentsParTitre() throws Exception {
+		Page<Document> p = m.pageDocuments(Page.Tri.TITRE, null, 4, null);
+		Assert.assertEquals("L9", p.getElements().get(0).getCode());
+		Assert.assertEquals("L6", p.getElements().get(3).getCode());
+		m.retirerDocument("L9");
+		m.ajouterDocument(new Livre("L10", m.chercherLocalisation("Salle1",
+				"Rayon1"), "Titre0bis", "Auteur", "2000",
+				m.chercherGenre("Roman"), 100));
+		List<String> codes = new ArrayList<String>();
+		for (String c = p.getCurseur(); c != null;) {
+			p = m.pageDocuments(Page.Tri.TITRE, null, 4, c);
+			for (Document d : p.getElements()) {
+				codes.add(d.getCode());
+			}
+			c = p.getCurseur();
+		}
+		Assert.assertEquals("[L5, L4, L3, L2, L1, L0]", codes.toString());
+	}
+
+	/**
+	 * Le filtre s'applique avant la taille de page.
+	 */
+	@Test
+	public void filtre() throws Exception {
+		Page<Document> p = m.pageDocuments(Page.Tri.AUTEUR,
+				new Predicate<Document>() {
+					@Override
+					public boolean test(final Document d) {
+						return d.getAuteur().equals("Auteur1");
+					}
+				}, 10, null);
+		Assert.assertEquals(3, p.getElements().size());
+		Assert.assertNull(p.getCurseur());
+	}
+
+	/**
+	 * Clients par nom, y compris apres un renommage, et emprunts par
+	 * date limite.
+	 */
+	@Test
+	public void clientsEtEmprunts() throws Exception {
+		Page<Client> p = m.pageClients(null, 3, null);
+		Assert.assertEquals("nom0", p.getElements().get(0).getNom());
+		m.modifierClient(m.chercherClient("nom1", "prenom"), "nom99",
+				"prenom", "adresse", "TarifNormal", 0);
+		p = m.pageClients(null, 3, p.getCurseur());
+		Assert.assertEquals("nom3", p.getElements().get(0).getNom());
+		p = m.pageClients(null, 100, null);
+		Assert.assertEquals("nom99",
+				p.getElements().get(p.getElements().size() - 1).getNom());
+
+		Page<FicheEmprunt> e = m.pageEmprunts(null, 5, null);
+		Assert.assertTrue(e.getElements().isEmpty());
+		m.metEmpruntable("L0");
+		m.emprunter("nom0", "prenom", "L0");
+		e = m.pageEmprunts(null, 5, null);
+		Assert.assertEquals("L0", e.getElements().get(0).getDocument().getCode());
+		try {
+			m.pageEmprunts(null, 5, m.pageClients(null, 1, null).getCurseur());
+			Assert.fail("curseur d'une autre requete accepte");
+		} catch (OperationImpossible oi) {
+			Assert.assertTrue(oi.getMessage().contains("autre requete"));
+		}
+	}
+
+	/**
+	 * Echeances et retards par date limite, y compris apres un
+	 * changement du coefficient de duree de la categorie.
+	 */
+	@Test
+	public void echeances() throws Exception {
+		HorlogeManuelle h = new HorlogeManuelle(HorlogeSysteme.INSTANCE);
+		m.setHorloge(h);
+		for (int i = 0; i < 3; i++) {
+			m.metEmpruntable("L" + i);
+			m.emprunter("nom0", "prenom", "L" + i);
+			h.avancer(10);
+		}
+		Assert.assertEquals(0, m.nbEmpruntsEnRetard());
+		Assert.assertEquals(1, m.nbEmpruntsAEcheance(12));
+		Assert.assertEquals("L0", m.empruntsAEcheance(12).get(0)
+				.getDocument().getCode());
+		Assert.assertEquals(3, m.nbEmpruntsAEcheance(40));
+		h.avancer(25);
+		List<FicheEmprunt> retards = m.empruntsEnRetard();
+		Assert.assertEquals(2, retards.size());
+		Assert.assertEquals("L0", retards.get(0).getDocument().getCode());
+		Assert.assertEquals("L1", retards.get(1).getDocument().getCode());
+		m.restituer("nom0", "prenom", "L1");
+		Assert.assertEquals(1, m.nbEmpruntsEnRetard());
+		m.modifierCatClient(m.chercherCatClient("TarifNormal"), "TarifNormal",
+				10, 25, 2.0, 1.0, false);
+		Assert.assertEquals(0, m.nbEmpruntsEnRetard());
+		Assert.assertEquals(2, m.nbEmpruntsAEcheance(100));
+	}
+}
@@ -0,0 +1,123 @@
+package tests;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+import mediatheque.Genre;
+import mediatheque.HorlogeManuelle;
+import mediatheque.HorlogeSysteme;
+import mediatheque.Localisation;
+import mediatheque.Mediatheque;
+import mediatheque.Recettes;
+import mediatheque.document.Livre;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test du journal des recettes.
+ */
+public class JUnit_RecettesTest {
+	private static final String NOM = "RecettesTest";
+	private Mediatheque m;
+	private HorlogeManuelle h;
+	private LocalDate j0;
+
+	@Before
+	public void setUp() throws Exception {
+		Fichiers.nettoyer(NOM);
+		m = new Mediatheque(NOM);
+		h = new HorlogeManuelle(HorlogeSysteme.INSTANCE);
+		m.setHorloge(h);
+		j0 = LocalDate.ofEpochDay(h.jour());
+		m.ajouterGenre("Roman");
+		m.ajouterLocalisation("Salle1", "Rayon1");
+		m.ajouterCatClient("TarifNormal", 10, 25, 1.0, 1.0, false);
+		Genre g = m.chercherGenre("Roman");
+		Localisation l = m.chercherLocalisation("Salle1", "Rayon1");
+		m.ajouterDocument(new Livre("L1", l, "Titre", "Auteur", "2000", g, 100));
+		m.metEmpruntable("L1");
+		m.inscrire("nom1", "prenom1", "adresse1", "TarifNormal");
+		h.avancer(10);
+		m.inscrire("nom2", "prenom2", "adresse2", "TarifNormal");
+		m.emprunter("nom2", "prenom2", "L1");
+		h.avancer(5);
+		m.renouveler("nom1", "prenom1");
+	}
+
+	@After
+	public void tearDown() {
+		m = null;
+		Fichiers.nettoyer(NOM);
+	}
+
+	/**
+	 * Les recettes d'une periode se lisent par difference des sommes
+	 * cumulees, bornes comprises.
+	 */
+	@Test
+	public void totaux() {
+		Recettes r = m.getRecettes();
+		Assert.assertEquals(4, r.getNbRecettes());
+		Assert.assertEquals(2500, r.total(j0, j0));
+		Assert.assertEquals(5050, r.total(j0, j0.plusDays(10)));
+		Assert.assertEquals(2550, r.total(j0.plusDays(1), j0.plusDays(14)));
+		Assert.assertEquals(2500, r.total(j0.plusDays(11), j0.plusDays(100)));
+		Assert.assertEquals(0, r.total(j0.minusDays(10), j0.minusDays(1)));
+	}
+
+	/**
+	 * Les recettes sont ventilees par type de document, cotisations a
+	 * part, et par categorie du client.
+	 */
+	@Test
+	public void ventilation() throws Exception {
+		m.ajouterCatClient("TarifReduit", 10, 10, 1.0, 1.0, false);
+		m.inscrire("nom3", "prenom3", "adresse3", "TarifReduit");
+		Recettes r = m.getRecettes();
+		Map<String, Long> types = r.parType(j0, j0.plusDays(15));
+		Assert.assertEquals(Long.valueOf(8500), types.get(Recettes.COTISATION));
+		Assert.assertEquals(Long.valueOf(Livre.TARIF), types.get("Livre"));
+		Map<String, Long> categories = r.parCategorie(j0, j0.plusDays(15));
+		Assert.assertEquals(Long.valueOf(7550), categories.get("TarifNormal"));
+		Assert.assertEquals(Long.valueOf(1000), categories.get("TarifReduit"));
+		Assert.assertEquals(Long.valueOf(1000),
+				r.parCategorie(j0.plusDays(15), j0.plusDays(15))
+						.get("TarifReduit"));
+	}
+
+	/**
+	 * Les cumuls deja calcules sont prolonges par les recettes
+	 * suivantes, sans changer les periodes anterieures.
+	 */
+	@Test
+	public void cumulsProlonges() throws Exception {
+		Recettes r = m.getRecettes();
+		Assert.assertEquals(7550, r.total(j0, j0.plusDays(20)));
+		h.avancer(3);
+		m.renouveler("nom2", "prenom2");
+		Assert.assertEquals(10050, r.total(j0, j0.plusDays(20)));
+		Assert.assertEquals(2500, r.total(j0.plusDays(16), j0.plusDays(20)));
+		Assert.assertEquals(5050, r.total(j0, j0.plusDays(10)));
+	}
+
+	/**
+	 * Une recette anterieure au premier jour enregistre, apres un
+	 * recul de l'horloge, decale les series sans perdre les sommes.
+	 */
+	@Test
+	public void horlogeEnArriere() throws Exception {
+		Recettes r = m.getRecettes();
+		Assert.assertEquals(7550, r.total(j0, j0.plusDays(15)));
+		h.avancer(-30);
+		m.inscrire("nom3", "prenom3", "adresse3", "TarifNormal");
+		Assert.assertEquals(2500, r.total(j0.minusDays(15), j0.minusDays(15)));
+		Assert.assertEquals(7550, r.total(j0, j0.plusDays(15)));
+		Assert.assertEquals(10050, r.total(j0.minusDays(100),
+				j0.plusDays(100)));
+		Assert.assertEquals(Long.valueOf(10000), r.parType(j0.minusDays(15),
+				j0.plusDays(15)).get(Recettes.COTISATION));
+	}
+}
@@ -0,0 +1,115 @@
+package tests;
+
+import java.util.List;
+
+import mediatheque.Mediatheque;
+import mediatheque.client.Client;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test de la recherche de clients par partie de nom ou d'adresse.
+ */
+public class JUnit_RechercheClientsTest {
+	private static final String NOM = "RechercheClientsTest";
+	private Mediatheque m;
+
+	@Before
+	public void setUp() throws Exception {
+		Fichiers.nettoyer(NOM);
+		m = new Mediatheque(NOM);
+		m.ajouterCatClient("TarifNormal", 10, 25, 1.0, 1.0, false);
+		for (int i = 0; i < 10; i++) {
+			m.inscrire("nom" + (9 - i), "prenom", "adresse", "TarifNormal");
+		}
+		m.inscrire("Lefèvre", "Hélène", "12 rue des Écoles", "TarifNormal");
+		m.inscrire("Dupont", "Jean", "3 place Carnot", "TarifNormal");
+	}
+
+	@After
+	public void tearDown() {
+		m = null;
+		Fichiers.nettoyer(NOM);
+	}
+
+	/**
+	 * Les noms et prenoms sont compares sans accents ni casse.
+	 */
+	@Test
+	public void accentsEtCasse() {
+		Assert.assertEquals("Lefèvre",
+				m.rechercherClients("LEFEV", false).get(0).getNom());
+		Assert.assertEquals(1, m.rechercherClients("efev helen", false).size());
+		Assert.assertEquals(1, m.rechercherClients("HÉLÈNE", false).size());
+	}
+
+	/**
+	 * Un mot de moins de trois lettres doit commencer un mot ; un mot
+	 * plus long peut en etre une partie.
+	 */
+	@Test
+	public void partiesDeMots() {
+		Assert.assertEquals("Dupont",
+				m.rechercherClients("du", false).get(0).getNom());
+		Assert.assertTrue(m.rechercherClients("po", false).isEmpty());
+		Assert.assertTrue(m.rechercherClients("ont", false).contains(
+				m.chercherClient("Dupont", "Jean")));
+	}
+
+	/**
+	 * Chaque mot cherche doit etre retrouve, dans le nom, le prenom ou,
+	 * sur demande, l'adresse.
+	 */
+	@Test
+	public void plusieursMots() {
+		Assert.assertEquals(1, m.rechercherClients("dup jea", false).size());
+		Assert.assertTrue(m.rechercherClients("dup hel", false).isEmpty());
+		Assert.assertTrue(m.rechercherClients("ecoles", false).isEmpty());
+		Assert.assertEquals(1, m.rechercherClients("ecoles", true).size());
+		Assert.assertEquals("Dupont",
+				m.rechercherClients("jean carnot", true).get(0).getNom());
+	}
+
+	/**
+	 * Les clients trouves sont tries par nom puis prenom.
+	 */
+	@Test
+	public void tri() {
+		List<Client> l = m.rechercherClients("nom", false);
+		Assert.assertEquals(10, l.size());
+		Assert.assertEquals("nom0", l.get(0).getNom());
+		Assert.assertEquals("nom9", l.get(9).getNom());
+	}
+
+	/**
+	 * Le client modifie est retrouve sous ses nouveaux textes, et plus
+	 * sous les anciens ; le client resilie n'est plus retrouve.
+	 */
+	@Test
+	public void modification() throws Exception {
+		m.modifierClient(m.chercherClient("Dupont", "Jean"), "Durand", "Jean",
+				"5 rue Gambetta", "TarifNormal", 0);
+		Assert.assertTrue(m.rechercherClients("dupont", true).isEmpty());
+		Assert.assertTrue(m.rechercherClients("carnot", true).isEmpty());
+		Assert.assertEquals("Durand",
+				m.rechercherClients("rand gamb", true).get(0).getNom());
+		m.resilier("Durand", "Jean");
+		Assert.assertTrue(m.rechercherClients("durand", false).isEmpty());
+	}
+
+	/**
+	 * L'index deja construit suit les inscriptions.
+	 */
+	@Test
+	public void inscription() throws Exception {
+		m.rechercherClients("nom", false);
+		m.inscrire("Lefebvre", "Paul", "adresse", "TarifNormal");
+		List<Client> l = m.rechercherClients("lef", false);
+		Assert.assertEquals(2, l.size());
+		Assert.assertEquals("Lefebvre", l.get(0).getNom());
+		Assert.assertEquals("Lefèvre", l.get(1).getNom());
+	}
+}
@@ -0,0 +1,188 @@
+package tests;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import mediatheque.Genre;
+import mediatheque.Localisation;
+import mediatheque.Mediatheque;
+import mediatheque.document.Livre;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test des recommandations par emprunts communs.
+ */
+public class JUnit_RecommandationsTest {
+	private static final String NOM = "RecommandationsTest";
+	private Mediatheque m1;
+
+	@Before
+	public void setUp() throws Exception {
+		Fichiers.nettoyer(NOM);
+		m1 = new Mediatheque(NOM);
+		m1.ajouterGenre("Roman");
+		m1.ajouterLocalisation("Salle1", "Rayon1");
+		m1.ajouterCatClient("TarifNormal", 2, 25, 1.0, 1.0, false);
+		m1.inscrire("nom1", "prenom1", "adresse1", "TarifNormal");
+		m1.inscrire("nom2", "prenom2", "adresse2", "TarifNormal");
+		Genre g = m1.chercherGenre("Roman");
+		Localisation l = m1.chercherLocalisation("Salle1", "Rayon1");
+		for (int i = 0; i < 3; i++) {
+			m1.ajouterDocument(new Livre("L" + i, l, "Titre" + i, "Auteur",
+					"2000", g, 100));
+			m1.metEmpruntable("L" + i);
+		}
+		m1.emprunter("nom1", "prenom1", "L0");
+		Assert.assertTrue(m1.recommander("L0", 3).isEmpty());
+		m1.restituer("nom1", "prenom1", "L0");
+		m1.emprunter("nom1", "prenom1", "L1");
+		m1.restituer("nom1", "prenom1", "L1");
+		m1.emprunter("nom1", "prenom1", "L2");
+		m1.restituer("nom1", "prenom1", "L2");
+		m1.emprunter("nom2", "prenom2", "L1");
+		m1.restituer("nom2", "prenom2", "L1");
+		m1.emprunter("nom2", "prenom2", "L2");
+	}
+
+	@After
+	public void tearDown() {
+		m1 = null;
+		Fichiers.nettoyer(NOM);
+	}
+
+	/**
+	 * Les recommandations suivent les emprunts, par nombre
+	 * d'emprunteurs communs.
+	 */
+	@Test
+	public void recommandations() {
+		Assert.assertEquals(Arrays.asList("L1", "L0"), m1.recommander("L2", 3));
+		Assert.assertEquals(Arrays.asList("L1"), m1.recommander("L2", 1));
+		Assert.assertEquals(Arrays.asList("L2", "L0"), m1.recommander("L1", 3));
+		Assert.assertTrue(m1.recommander("L9", 3).isEmpty());
+	}
+
+	/**
+	 * Un co-emprunt de documents du meme genre compte double : il
+	 * passe devant un co-emprunt de genre different, numerote avant
+	 * lui.
+	 */
+	@Test
+	public void genre() throws Exception {
+		m1.ajouterGenre("Policier");
+		Localisation l = m1.chercherLocalisation("Salle1", "Rayon1");
+		m1.ajouterDocument(new Livre("P0", l, "Titre", "Auteur", "2000",
+				m1.chercherGenre("Policier"), 100));
+		m1.metEmpruntable("P0");
+		m1.ajouterDocument(new Livre("R0", l, "Titre", "Auteur", "2000",
+				m1.chercherGenre("Roman"), 100));
+		m1.metEmpruntable("R0");
+		m1.inscrire("nom3", "prenom3", "adresse3", "TarifNormal");
+		m1.inscrire("nom4", "prenom4", "adresse4", "TarifNormal");
+		m1.restituer("nom2", "prenom2", "L2");
+		m1.recommander("L0", 1);
+		emprunterPuisRestituer("nom3", "prenom3", "P0");
+		emprunterPuisRestituer("nom3", "prenom3", "L0");
+		emprunterPuisRestituer("nom4", "prenom4", "R0");
+		emprunterPuisRestituer("nom4", "prenom4", "L0");
+		Assert.assertEquals(Arrays.asList("L1", "L2", "R0", "P0"),
+				m1.recommander("L0", 5));
+	}
+
+	/**
+	 * Une ligne qui depasse 512 voisins est elaguee : les co-emprunts
+	 * isoles disparaissent, le plus frequent reste en tete, et la
+	 * matrice suivie emprunt par emprunt est celle reconstruite a la
+	 * relecture.
+	 */
+	@Test
+	public void elagage() throws Exception {
+		m1.ajouterGenre("Policier");
+		Genre g = m1.chercherGenre("Policier");
+		Localisation l = m1.chercherLocalisation("Salle1", "Rayon1");
+		m1.restituer("nom2", "prenom2", "L2");
+		m1.recommander("L0", 1);
+		for (int c = 0; c < 10; c++) {
+			m1.inscrire("n" + c, "p" + c, "adresse", "TarifNormal");
+			for (int i = 0; i < 63; i++) {
+				String code = "D" + c + "-" + i;
+				m1.ajouterDocument(new Livre(code, l, "Titre", "Auteur",
+						"2000", g, 100));
+				m1.metEmpruntable(code);
+				emprunterPuisRestituer("n" + c, "p" + c, code);
+			}
+			emprunterPuisRestituer("n" + c, "p" + c, "L1");
+			emprunterPuisRestituer("n" + c, "p" + c, "L0");
+		}
+		List<String> voisins = m1.recommander("L0", 1000);
+		Assert.assertEquals("L1", voisins.get(0));
+		Assert.assertTrue(voisins.size() < 512);
+		Assert.assertFalse(voisins.contains("D0-0"));
+		Assert.assertTrue(voisins.contains("D9-62"));
+		Assert.assertTrue(m1.saveToFile());
+		Assert.assertEquals(voisins, new Mediatheque(NOM).recommander("L0",
+				1000));
+	}
+
+	/**
+	 * emprunte puis restitue un document.
+	 * @param nom nom du client
+	 * @param prenom prenom du client
+	 * @param code code du document
+	 */
+	private void emprunterPuisRestituer(final String nom,
+			final String prenom, final String code) throws Exception {
+		m1.emprunter(nom, prenom, code);
+		m1.restituer(nom, prenom, code);
+	}
+
+	/**
+	 * Apres le passage au catalogue projete, un document retire n'est
+	 * plus recommande.
+	 */
+	@Test
+	public void catalogueMappe() throws Exception {
+		File catalogue = File.createTempFile("catalogue", ".map");
+		catalogue.delete();
+		try {
+			m1.utiliserCatalogueMappe(catalogue.getPath(), 16);
+			m1.retirerDocument("L1");
+			Assert.assertEquals(Arrays.asList("L0"), m1.recommander("L2", 3));
+		} finally {
+			catalogue.delete();
+		}
+	}
+
+	/**
+	 * Une fois construites, les recommandations suivent chaque nouvel
+	 * emprunt : a poids egal, le document numerote le premier passe
+	 * devant.
+	 */
+	@Test
+	public void suivi() throws Exception {
+		Assert.assertEquals(Arrays.asList("L1", "L0"), m1.recommander("L2", 3));
+		m1.restituer("nom2", "prenom2", "L2");
+		m1.emprunter("nom2", "prenom2", "L0");
+		Assert.assertEquals(Arrays.asList("L0", "L1"), m1.recommander("L2", 3));
+		Assert.assertEquals(Arrays.asList("L1", "L2"), m1.recommander("L0", 3));
+	}
+
+	/**
+	 * Un client renomme reste le meme emprunteur : ses emprunts
+	 * suivants s'ajoutent a ses co-emprunts precedents.
+	 */
+	@Test
+	public void clientRenomme() throws Exception {
+		Assert.assertEquals(Arrays.asList("L1", "L0"), m1.recommander("L2", 3));
+		m1.modifierClient(m1.chercherClient("nom2", "prenom2"), "nom5",
+				"prenom2", "adresse2", "TarifNormal", 0);
+		m1.restituer("nom5", "prenom2", "L2");
+		m1.emprunter("nom5", "prenom2", "L0");
+		Assert.assertEquals(Arrays.asList("L0", "L1"), m1.recommander("L2", 3));
+	}
+}
@@ -0,0 +1,108 @@
+package tests;
+
+import java.io.File;
+import java.util.List;
+
+import mediatheque.Genre;
+import mediatheque.HorlogeManuelle;
+import mediatheque.HorlogeSysteme;
+import mediatheque.Localisation;
+import mediatheque.Mediatheque;
+import mediatheque.OperationImpossible;
+import mediatheque.client.Client;
+import mediatheque.document.Livre;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import util.Datutil;
+
+/**
+ * Test du renouvellement des cotisations.
+ */
+public class JUnit_RenouvellementTest {
+	private static final String NOM = "RenouvellementTest";
+	private Mediatheque m;
+	private HorlogeManuelle h;
+
+	@Before
+	public void setUp() throws Exception {
+		m = new Mediatheque(NOM);
+		h = new HorlogeManuelle(HorlogeSysteme.INSTANCE);
+		m.setHorloge(h);
+		m.ajouterGenre("Roman");
+		m.ajouterLocalisation("Salle1", "Rayon1");
+		m.ajouterCatClient("TarifNormal", 10, 25, 1.0, 1.0, false);
+		Genre g = m.chercherGenre("Roman");
+		Localisation l = m.chercherLocalisation("Salle1", "Rayon1");
+		m.ajouterDocument(new Livre("L1", l, "Titre", "Auteur", "2000", g, 100));
+		m.metEmpruntable("L1");
+		m.inscrire("nom1", "prenom1", "adresse1", "TarifNormal");
+		h.avancer(10);
+		m.inscrire("nom2", "prenom2", "adresse2", "TarifNormal");
+	}
+
+	@After
+	public void tearDown() {
+		new File(NOM + ".data").delete();
+	}
+
+	/**
+	 * Les echeances se lisent par intervalle de dates ; un client echu
+	 * ne peut plus emprunter jusqu'a son renouvellement.
+	 */
+	@Test
+	public void echeances() throws Exception {
+		Assert.assertTrue(m.clientsAEcheance(Datutil.DAYSINYEAR - 11).isEmpty());
+		List<Client> c = m.clientsAEcheance(Datutil.DAYSINYEAR - 10);
+		Assert.assertEquals(1, c.size());
+		Assert.assertEquals("nom1", c.get(0).getNom());
+		Assert.assertEquals(2, m.clientsAEcheance(Datutil.DAYSINYEAR).size());
+
+		h.avancer(Datutil.DAYSINYEAR - 9);
+		Assert.assertEquals(1, m.clientsEchus().size());
+		try {
+			m.emprunter("nom1", "prenom1", "L1");
+			Assert.fail("cotisation echue");
+		} catch (OperationImpossible oi) {
+			// attendu
+		}
+		Assert.assertEquals(25.0, m.renouveler("nom1", "prenom1"), 0.0);
+		Assert.assertTrue(m.clientsEchus().isEmpty());
+		c = m.clientsAEcheance(9);
+		Assert.assertEquals(1, c.size());
+		Assert.assertEquals("nom2", c.get(0).getNom());
+		m.emprunter("nom1", "prenom1", "L1");
+	}
+
+	/**
+	 * L'emprunt est controle au jour de l'horloge de la mediatheque,
+	 * meme si la cotisation est echue selon l'horloge du systeme.
+	 */
+	@Test
+	public void horlogeEnRetard() throws Exception {
+		h.avancer(-2 * Datutil.DAYSINYEAR);
+		m.inscrire("nom3", "prenom3", "adresse3", "TarifNormal");
+		m.emprunter("nom3", "prenom3", "L1");
+		Assert.assertEquals(1,
+				m.chercherClient("nom3", "prenom3").getNbEmpruntsEnCours());
+	}
+
+	/**
+	 * Une cotisation renouvelee avant l'echeance est prolongee a partir
+	 * de l'echeance ; l'index suit les desinscriptions.
+	 */
+	@Test
+	public void renouvellementAnticipe() throws Exception {
+		Client c = m.chercherClient("nom2", "prenom2");
+		long echeance = c.getDateCotisation().toEpochDay();
+		m.renouveler("nom2", "prenom2");
+		Assert.assertEquals(echeance + Datutil.DAYSINYEAR,
+				c.getDateCotisation().toEpochDay());
+		Assert.assertEquals(1, m.clientsAEcheance(Datutil.DAYSINYEAR).size());
+		m.resilier("nom1", "prenom1");
+		Assert.assertTrue(m.clientsAEcheance(Datutil.DAYSINYEAR).isEmpty());
+	}
+}
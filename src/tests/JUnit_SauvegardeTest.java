@@ -0,0 +1,159 @@
+package tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.util.Date;
+
+import mediatheque.FicheEmprunt;
+import mediatheque.Mediatheque;
+import mediatheque.client.CategorieClient;
+import mediatheque.client.Client;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test de la sauvegarde en blocs controles.
+ */
+public class JUnit_SauvegardeTest {
+	private static final String NOM = "SauvegardeTest";
+	private Mediatheque m1;
+
+	@Before
+	public void setUp() throws Exception {
+		Fichiers.nettoyer(NOM);
+		m1 = new Mediatheque(NOM);
+		m1.ajouterGenre("Roman");
+		m1.ajouterCatClient("TarifNormal", 2, 25, 1.0, 1.0, false);
+		m1.inscrire("nom1", "prenom1", "adresse1", "TarifNormal");
+		Assert.assertTrue(m1.saveToFile());
+	}
+
+	@After
+	public void tearDown() {
+		m1 = null;
+		Fichiers.nettoyer(NOM);
+	}
+
+	/**
+	 * Une sauvegarde complete est relue.
+	 */
+	@Test
+	public void relecture() {
+		Mediatheque m2 = new Mediatheque(NOM);
+		Assert.assertEquals(1, m2.getClientsSize());
+		Assert.assertNotNull(m2.chercherGenre("Roman"));
+		Assert.assertFalse(new File(NOM + ".data.tmp").exists());
+	}
+
+	/**
+	 * La forme serialisee garde les versions et les types d'origine,
+	 * pour relire les fichiers anterieurs aux jours et aux centimes.
+	 */
+	@Test
+	public void formeSerialisee() {
+		ObjectStreamClass c = ObjectStreamClass.lookup(Client.class);
+		Assert.assertEquals(2L, c.getSerialVersionUID());
+		Assert.assertEquals(Date.class, c.getField("dateInscription").getType());
+		c = ObjectStreamClass.lookup(FicheEmprunt.class);
+		Assert.assertEquals(3L, c.getSerialVersionUID());
+		Assert.assertEquals(Date.class, c.getField("dateLimite").getType());
+		c = ObjectStreamClass.lookup(CategorieClient.class);
+		Assert.assertEquals(2L, c.getSerialVersionUID());
+		Assert.assertEquals(Double.TYPE, c.getField("cotisation").getType());
+		Mediatheque m2 = new Mediatheque(NOM);
+		Assert.assertEquals(2500,
+				m2.chercherCatClient("TarifNormal").getCotisationCentimes());
+		Assert.assertEquals(m1.chercherClient("nom1", "prenom1")
+				.getDateInscription(), m2.chercherClient("nom1", "prenom1")
+				.getDateInscription());
+	}
+
+	/**
+	 * Un octet altere est detecte et le fichier est mis de cote.
+	 */
+	@Test
+	public void octetAltere() throws IOException {
+		try (RandomAccessFile f = new RandomAccessFile(NOM + ".data", "rw")) {
+			long pos = f.length() / 2;
+			f.seek(pos);
+			int b = f.read();
+			f.seek(pos);
+			f.write(b ^ 0xFF);
+		}
+		Mediatheque m2 = new Mediatheque(NOM);
+		Assert.assertEquals(0, m2.getClientsSize());
+		Assert.assertTrue(new File(NOM + ".data.corrompu").exists());
+		Assert.assertFalse(new File(NOM + ".data").exists());
+	}
+
+	/**
+	 * Une ecriture interrompue est detectee.
+	 */
+	@Test
+	public void fichierTronque() throws IOException {
+		try (RandomAccessFile f = new RandomAccessFile(NOM + ".data", "rw")) {
+			f.setLength(f.length() - 4);
+		}
+		Mediatheque m2 = new Mediatheque(NOM);
+		Assert.assertEquals(0, m2.getClientsSize());
+		Assert.assertTrue(new File(NOM + ".data.corrompu").exists());
+	}
+
+	/**
+	 * Une sauvegarde compresse de plusieurs blocs est plus petite et
+	 * relue a l'identique.
+	 */
+	@Test
+	public void compression() throws Exception {
+		for (int i = 2; i < 2002; i++) {
+			m1.inscrire("nom" + i, "prenom" + i, "adresse" + i, "TarifNormal");
+		}
+		Assert.assertTrue(m1.saveToFile(false));
+		long brut = new File(NOM + ".data").length();
+		Assert.assertTrue(m1.saveToFile(true));
+		Assert.assertTrue(new File(NOM + ".data").length() < brut / 2);
+		Mediatheque m2 = new Mediatheque(NOM);
+		Assert.assertEquals(2001, m2.getClientsSize());
+		Assert.assertEquals("adresse1999",
+				m2.chercherClient("nom1999", "prenom1999").getAdresse());
+	}
+
+	/**
+	 * Un bloc compresse altere est detecte.
+	 */
+	@Test
+	public void compressionAlteree() throws Exception {
+		Assert.assertTrue(m1.saveToFile(true));
+		try (RandomAccessFile f = new RandomAccessFile(NOM + ".data", "rw")) {
+			f.seek(20);
+			int b = f.read();
+			f.seek(20);
+			f.write(b ^ 0xFF);
+		}
+		Mediatheque m2 = new Mediatheque(NOM);
+		Assert.assertEquals(0, m2.getClientsSize());
+		Assert.assertTrue(new File(NOM + ".data.corrompu").exists());
+	}
+	/**
+	 * Une longueur non compressee alteree est detectee par la somme du
+	 * bloc.
+	 */
+	@Test
+	public void enteteAlteree() throws Exception {
+		Assert.assertTrue(m1.saveToFile(true));
+		try (RandomAccessFile f = new RandomAccessFile(NOM + ".data", "rw")) {
+			f.seek(15);
+			int b = f.read();
+			f.seek(15);
+			f.write(b ^ 0x01);
+		}
+		Mediatheque m2 = new Mediatheque(NOM);
+		Assert.assertEquals(0, m2.getClientsSize());
+		Assert.assertTrue(new File(NOM + ".data.corrompu").exists());
+	}
+}
@@ -0,0 +1,262 @@
+package tests;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import mediatheque.Genre;
+import mediatheque.Localisation;
+import mediatheque.Mediatheque;
+import mediatheque.OperationImpossible;
+import mediatheque.client.Client;
+import mediatheque.client.HashClient;
+import mediatheque.document.Livre;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import util.InvariantBroken;
+
+/**
+ * Test de la sauvegarde incrementale en segments.
+ */
+public class JUnit_SegmentsTest {
+	private static final String NOM = "SegmentsTest";
+	private Mediatheque m1;
+
+	@Before
+	public void setUp() throws Exception {
+		Fichiers.nettoyer(NOM);
+		m1 = new Mediatheque(NOM);
+		m1.ajouterGenre("Roman");
+		m1.ajouterLocalisation("Salle1", "Rayon1");
+		m1.ajouterCatClient("TarifNormal", 2, 25, 1.0, 1.0, false);
+		m1.inscrire("nom1", "prenom1", "adresse1", "TarifNormal");
+		m1.inscrire("nom2", "prenom2", "adresse2", "TarifNormal");
+		Genre g = m1.chercherGenre("Roman");
+		Localisation l = m1.chercherLocalisation("Salle1", "Rayon1");
+		for (int i = 0; i < 3; i++) {
+			m1.ajouterDocument(new Livre("L" + i, l, "Titre" + i, "Auteur",
+					"2000", g, 100));
+			m1.metEmpruntable("L" + i);
+		}
+		m1.emprunter("nom1", "prenom1", "L0");
+		Assert.assertTrue(m1.sauverSegments());
+	}
+
+	@After
+	public void tearDown() {
+		m1 = null;
+		Fichiers.nettoyer(NOM);
+	}
+
+	/**
+	 * Les segments relus redonnent documents, clients et emprunts.
+	 */
+	@Test
+	public void rechargement() throws OperationImpossible {
+		Mediatheque m2 = new Mediatheque(NOM);
+		Assert.assertEquals(3, m2.getDocumentsSize());
+		Assert.assertEquals(2, m2.getClientsSize());
+		Assert.assertEquals(1, m2.getFicheEmpruntsSize());
+		Client c = m2.chercherClient("nom1", "prenom1");
+		Assert.assertSame(c, m2.getFicheEmpruntAt(0).getClient());
+		Assert.assertEquals(1, c.getNbEmpruntsEnCours());
+		Assert.assertTrue(m2.chercherDocument("L0").estEmprunte());
+		Assert.assertSame(m2.chercherGenre("Roman"),
+				m2.chercherDocument("L1").getGenre());
+		Assert.assertEquals(Arrays.asList("referentiels",
+				"documents et clients", "emprunts", "liaison", "verification"),
+				new ArrayList<String>(m2.getTempsDemarrage().keySet()));
+	}
+
+	/**
+	 * fichier courant d'un segment.
+	 */
+	private File fichier(final String segment) {
+		File[] f = new File(NOM + ".seg").listFiles();
+		for (File s : f) {
+			if (s.getName().startsWith(segment + ".")) {
+				return s;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Un segment sans modification n'est pas reecrit.
+	 */
+	@Test
+	public void seulsLesSegmentsModifies()
+			throws OperationImpossible, InvariantBroken {
+		File locs = fichier("localisations");
+		m1.emprunter("nom2", "prenom2", "L2");
+		Assert.assertTrue(m1.sauverSegments());
+		Assert.assertEquals(locs, fichier("localisations"));
+		m1.ajouterLocalisation("Salle2", "Rayon1");
+		Assert.assertTrue(m1.sauverSegments());
+		Assert.assertFalse(locs.equals(fichier("localisations")));
+		Assert.assertFalse(locs.exists());
+		Mediatheque m2 = new Mediatheque(NOM);
+		Assert.assertEquals(2, m2.getFicheEmpruntsSize());
+		Assert.assertNotNull(m2.chercherLocalisation("Salle2", "Rayon1"));
+	}
+
+	/**
+	 * Les fiches d'un client renomme et les documents d'un genre
+	 * renomme, qui les referencent par leur nom, sont reecrits.
+	 */
+	@Test
+	public void renommages() throws Exception {
+		m1.modifierClient(m1.chercherClient("nom1", "prenom1"), "nom3",
+				"prenom1", "adresse1", "TarifNormal", 0);
+		Assert.assertTrue(m1.sauverSegments());
+		Mediatheque m2 = new Mediatheque(NOM);
+		Client c = m2.chercherClient("nom3", "prenom1");
+		Assert.assertSame(c, m2.getFicheEmpruntAt(0).getClient());
+		Assert.assertEquals(1, c.getNbEmpruntsEnCours());
+		m1.modifierGenre("Roman", "Policier");
+		Assert.assertTrue(m1.sauverSegments());
+		m2 = new Mediatheque(NOM);
+		Assert.assertSame(m2.chercherGenre("Policier"),
+				m2.chercherDocument("L1").getGenre());
+	}
+
+	/**
+	 * Les recettes et l'historique ne sont pas reecrits : chaque
+	 * sauvegarde ajoute une suite, emprunts et clients renommes, relue
+	 * a la suite du journal, jusqu'a 16 suites ; le journal est alors
+	 * reecrit en entier.
+	 */
+	@Test
+	public void journauxParSuites() throws Exception {
+		File hist = fichier("historique");
+		File rec = fichier("recettes");
+		m1.restituer("nom1", "prenom1", "L0");
+		m1.emprunter("nom2", "prenom2", "L1");
+		m1.modifierClient(m1.chercherClient("nom1", "prenom1"), "nom4",
+				"prenom1", "adresse1", "TarifNormal", 0);
+		Assert.assertTrue(m1.sauverSegments());
+		Assert.assertEquals(hist, fichier("historique"));
+		Assert.assertEquals(rec, fichier("recettes"));
+		Assert.assertNotNull(fichier("historique-suite-1"));
+		Assert.assertNotNull(fichier("recettes-suite-1"));
+		Mediatheque m2 = new Mediatheque(NOM);
+		Assert.assertEquals(1, m2.getHistorique().duDocument("L1",
+				LocalDate.MIN, LocalDate.MAX).size());
+		Assert.assertEquals("nom4", m2.getHistorique().duDocument("L0",
+				LocalDate.MIN, LocalDate.MAX).get(0).getClient().getNom());
+		Assert.assertEquals(m1.getRecettes().getNbRecettes(),
+				m2.getRecettes().getNbRecettes());
+		for (int i = 0; i < 16; i++) {
+			m1.emprunter("nom4", "prenom1", "L2");
+			m1.restituer("nom4", "prenom1", "L2");
+			Assert.assertTrue(m1.sauverSegments());
+		}
+		Assert.assertNull(fichier("historique-suite-1"));
+		Assert.assertNull(fichier("recettes-suite-1"));
+		Assert.assertFalse(hist.exists());
+		m2 = new Mediatheque(NOM);
+		Assert.assertEquals(17, m2.getHistorique().duClient(
+				new HashClient("nom4", "prenom1"), LocalDate.MIN,
+				LocalDate.MAX).size());
+		Assert.assertEquals(m1.getRecettes().getNbRecettes(),
+				m2.getRecettes().getNbRecettes());
+		Assert.assertEquals(m1.getRecettes().total(LocalDate.MIN,
+				LocalDate.MAX), m2.getRecettes().total(LocalDate.MIN,
+				LocalDate.MAX));
+	}
+
+	/**
+	 * Une sauvegarde complete posterieure aux segments est relue a leur
+	 * place, jusqu'a la prochaine sauvegarde en segments.
+	 */
+	@Test
+	public void sauvegardeCompletePlusRecente() throws OperationImpossible {
+		m1.ajouterGenre("G2");
+		Assert.assertTrue(m1.saveToFile());
+		Mediatheque m2 = new Mediatheque(NOM);
+		Assert.assertNotNull(m2.chercherGenre("G2"));
+		m1.ajouterGenre("G3");
+		Assert.assertTrue(m1.sauverSegments());
+		m2 = new Mediatheque(NOM);
+		Assert.assertNotNull(m2.chercherGenre("G2"));
+		Assert.assertNotNull(m2.chercherGenre("G3"));
+		Assert.assertEquals(2, m2.getClientsSize());
+	}
+
+	/**
+	 * Un segment que le manifeste ne designe pas, reste d'une ecriture
+	 * interrompue, n'est pas relu puis est supprime.
+	 */
+	@Test
+	public void segmentHorsManifeste() throws Exception {
+		File orphelin = new File(NOM + ".seg", "clients-0.999.seg");
+		Assert.assertTrue(orphelin.createNewFile());
+		Mediatheque m2 = new Mediatheque(NOM);
+		Assert.assertEquals(2, m2.getClientsSize());
+		m2.ajouterGenre("G2");
+		Assert.assertTrue(m2.sauverSegments());
+		Assert.assertFalse(orphelin.exists());
+	}
+
+	/**
+	 * Un retrait, sans entite modifiee, est pris en compte.
+	 */
+	@Test
+	public void retrait() throws OperationImpossible, InvariantBroken {
+		m1.retirerDocument("L1");
+		m1.resilier("nom2", "prenom2");
+		Assert.assertTrue(m1.sauverSegments());
+		Mediatheque m2 = new Mediatheque(NOM);
+		Assert.assertEquals(2, m2.getDocumentsSize());
+		Assert.assertNull(m2.chercherDocument("L1"));
+		Assert.assertEquals(1, m2.getClientsSize());
+	}
+
+	/**
+	 * Les points de controle sauvegardent en arriere-plan, et leur
+	 * arret sauvegarde les dernieres modifications.
+	 */
+	@Test
+	public void pointsDeControle() throws Exception {
+		m1.demarrerPointsDeControle(10, TimeUnit.MILLISECONDS);
+		m1.emprunter("nom2", "prenom2", "L2");
+		Mediatheque m2 = new Mediatheque(NOM);
+		for (int i = 0; i < 500 && m2.getFicheEmpruntsSize() < 2; i++) {
+			Thread.sleep(10);
+			m2 = new Mediatheque(NOM);
+		}
+		Assert.assertEquals(2, m2.getFicheEmpruntsSize());
+		m1.demarrerPointsDeControle(1, TimeUnit.HOURS);
+		m1.restituer("nom1", "prenom1", "L0");
+		Assert.assertTrue(m1.arreterPointsDeControle());
+		m2 = new Mediatheque(NOM);
+		Assert.assertEquals(1, m2.getFicheEmpruntsSize());
+		Assert.assertFalse(m2.chercherDocument("L0").estEmprunte());
+	}
+
+	/**
+	 * Des sauvegardes explicites concurrentes des points de controle ne
+	 * perdent aucune modification.
+	 */
+	@Test
+	public void sauvegardesConcurrentes() throws Exception {
+		m1.demarrerPointsDeControle(1, TimeUnit.MILLISECONDS);
+		for (int i = 0; i < 200; i++) {
+			m1.ajouterGenre("G" + i);
+			m1.inscrire("nom" + i, "p", "adresse", "TarifNormal");
+			if (i % 20 == 0) {
+				Assert.assertTrue(m1.sauverSegments());
+			}
+		}
+		Assert.assertTrue(m1.arreterPointsDeControle());
+		Mediatheque m2 = new Mediatheque(NOM);
+		Assert.assertNotNull(m2.chercherGenre("G199"));
+		Assert.assertEquals(202, m2.getClientsSize());
+	}
+}
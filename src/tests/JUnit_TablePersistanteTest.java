@@ -0,0 +1,152 @@
+package tests;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import mediatheque.Genre;
+import mediatheque.Localisation;
+import mediatheque.Mediatheque;
+import mediatheque.TablePersistante;
+import mediatheque.Vue;
+import mediatheque.client.Client;
+import mediatheque.client.HashClient;
+import mediatheque.document.Document;
+import mediatheque.document.Livre;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test de la table persistante et des vues de la mediatheque.
+ */
+public class JUnit_TablePersistanteTest {
+	/**
+	 * Cle dont le hachage ne depend que de sa valeur modulo 64, pour
+	 * provoquer des collisions.
+	 */
+	private static final class Cle {
+		private final int v;
+
+		Cle(final int v) {
+			this.v = v;
+		}
+
+		@Override
+		public int hashCode() {
+			return v % 64;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			return o instanceof Cle && ((Cle) o).v == v;
+		}
+	}
+
+	/**
+	 * Ajouts et retraits au hasard, compares a une HashMap ; chaque
+	 * version precedente reste inchangee.
+	 */
+	@Test
+	public void commeUneHashMap() {
+		Random r = new Random(42);
+		Map<Object, Integer> ref = new HashMap<Object, Integer>();
+		TablePersistante<Object, Integer> t = TablePersistante.vide();
+		for (int i = 0; i < 20000; i++) {
+			int v = r.nextInt(2000);
+			Object k = (i & 1) == 0 ? new Cle(v) : Integer.valueOf(v * 7919);
+			TablePersistante<Object, Integer> avant = t;
+			int tailleAvant = avant.size();
+			if (r.nextInt(3) == 0) {
+				ref.remove(k);
+				t = t.sans(k);
+			} else {
+				ref.put(k, i);
+				t = t.avec(k, i);
+			}
+			Assert.assertEquals(tailleAvant, avant.size());
+			Assert.assertEquals(ref.get(k), t.get(k));
+		}
+		Assert.assertEquals(ref, t);
+		Assert.assertEquals(ref.size(), t.entrySet().size());
+		for (Object k : ref.keySet().toArray()) {
+			t = t.sans(k);
+		}
+		Assert.assertTrue(t.isEmpty());
+		Assert.assertFalse(t.entrySet().iterator().hasNext());
+	}
+
+	/**
+	 * Une vue obtenue ne voit pas les modifications suivantes.
+	 */
+	@Test
+	public void vueFigee() throws Exception {
+		Mediatheque m = new Mediatheque("TablePersistanteTest");
+		m.ajouterGenre("Roman");
+		m.ajouterLocalisation("Salle1", "Rayon1");
+		m.ajouterCatClient("TarifNormal", 2, 25, 1.0, 1.0, false);
+		m.inscrire("nom1", "prenom1", "adresse1", "TarifNormal");
+		Genre g = m.chercherGenre("Roman");
+		Localisation l = m.chercherLocalisation("Salle1", "Rayon1");
+		m.ajouterDocument(new Livre("L0", l, "Titre0", "Auteur", "2000",
+				g, 100));
+		m.metEmpruntable("L0");
+		Vue v1 = m.vue();
+		m.emprunter("nom1", "prenom1", "L0");
+		m.ajouterDocument(new Livre("L1", l, "Titre1", "Auteur", "2000",
+				g, 100));
+		Vue v2 = m.vue();
+		m.restituer("nom1", "prenom1", "L0");
+		m.retirerDocument("L1");
+		Assert.assertEquals(1, v1.getDocuments().size());
+		Assert.assertTrue(v1.getEmprunts().isEmpty());
+		Assert.assertEquals(2, v2.getDocuments().size());
+		Assert.assertEquals("nom1",
+				v2.getEmprunts().get("L0").getClient().getNom());
+		Assert.assertEquals(1, m.vue().getDocuments().size());
+		Assert.assertTrue(m.vue().getEmprunts().isEmpty());
+		Assert.assertEquals(1, m.vue().getClients().size());
+	}
+
+	/**
+	 * Les entites de la vue sont des copies figees : une vue prise
+	 * avant un emprunt ne le voit pas, une vue prise apres ne voit pas
+	 * la restitution, et la vue courante suit chaque modification.
+	 */
+	@Test
+	public void entitesFigees() throws Exception {
+		Mediatheque m = new Mediatheque("TablePersistanteTest");
+		m.ajouterGenre("Roman");
+		m.ajouterLocalisation("Salle1", "Rayon1");
+		m.ajouterCatClient("TarifNormal", 2, 25, 1.0, 1.0, false);
+		m.inscrire("nom1", "prenom1", "adresse1", "TarifNormal");
+		Genre g = m.chercherGenre("Roman");
+		Localisation l = m.chercherLocalisation("Salle1", "Rayon1");
+		m.ajouterDocument(new Livre("L0", l, "Titre0", "Auteur", "2000",
+				g, 100));
+		m.metEmpruntable("L0");
+		Vue v1 = m.vue();
+		m.emprunter("nom1", "prenom1", "L0");
+		Vue v2 = m.vue();
+		m.restituer("nom1", "prenom1", "L0");
+		Document d1 = v1.getDocuments().get("L0");
+		Assert.assertFalse(d1.estEmprunte());
+		Assert.assertEquals(0, d1.getGenre().getNbEmprunts());
+		Assert.assertNotSame(m.chercherDocument("L0"), d1);
+		Assert.assertTrue(v2.getDocuments().get("L0").estEmprunte());
+		Assert.assertEquals(1, v2.getDocuments().get("L0").getGenre()
+				.getNbEmprunts());
+		Client c2 = v2.getEmprunts().get("L0").getClient();
+		Assert.assertEquals(1, c2.getNbEmpruntsEnCours());
+		Assert.assertNotSame(m.chercherClient("nom1", "prenom1"), c2);
+		Client c = m.vue().getClients().get(new HashClient("nom1", "prenom1"));
+		Assert.assertEquals(0, c.getNbEmpruntsEnCours());
+		Assert.assertFalse(m.vue().getDocuments().get("L0").estEmprunte());
+		m.modifierClient(m.chercherClient("nom1", "prenom1"), "nom2",
+				"prenom1", "adresse2", "TarifNormal", 0);
+		Assert.assertNull(m.vue().getClients().get(
+				new HashClient("nom1", "prenom1")));
+		Assert.assertEquals("adresse2", m.vue().getClients().get(
+				new HashClient("nom2", "prenom1")).getAdresse());
+	}
+}
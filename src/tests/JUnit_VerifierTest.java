@@ -0,0 +1,284 @@
+package tests;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import mediatheque.FicheEmprunt;
+import mediatheque.Genre;
+import mediatheque.HorlogeManuelle;
+import mediatheque.HorlogeSysteme;
+import mediatheque.Localisation;
+import mediatheque.Mediatheque;
+import mediatheque.Rappel;
+import mediatheque.client.CategorieClient;
+import mediatheque.client.Client;
+import mediatheque.document.Livre;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import util.Datutil;
+
+/**
+ * Test de la verification parallele des emprunts.
+ */
+public class JUnit_VerifierTest {
+	private static final String NOM = "VerifierTest";
+	private static final int NB_CLIENTS = 20;
+	private Mediatheque seq;
+	private Mediatheque par;
+	private int decalage;
+
+	private Mediatheque creer(final String nom) throws Exception {
+		Mediatheque m = new Mediatheque(nom);
+		m.ajouterGenre("Roman");
+		m.ajouterLocalisation("Salle1", "Rayon1");
+		m.ajouterCatClient("TarifNormal", 10, 25, 1.0, 1.0, false);
+		Genre g = m.chercherGenre("Roman");
+		Localisation l = m.chercherLocalisation("Salle1", "Rayon1");
+		for (int c = 0; c < NB_CLIENTS; c++) {
+			m.inscrire("nom" + c, "prenom" + c, "adresse" + c, "TarifNormal");
+			for (int d = 0; d < 3; d++) {
+				String code = "L" + c + "-" + d;
+				m.ajouterDocument(new Livre(code, l, "Titre", "Auteur",
+						"2000", g, 100));
+				m.metEmpruntable(code);
+				if (c % 4 != 0) {
+					m.emprunter("nom" + c, "prenom" + c, code);
+				}
+			}
+		}
+		return m;
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		seq = creer(NOM + "1");
+		par = creer(NOM + "2");
+	}
+
+	@After
+	public void tearDown() {
+		Datutil.addAuJour(-decalage);
+		new File(NOM + "1.data").delete();
+		new File(NOM + "2.data").delete();
+	}
+
+	private void avancer(final int jours) {
+		Datutil.addAuJour(jours);
+		decalage += jours;
+	}
+
+	private static List<String> textes(final List<Rappel> rappels) {
+		List<String> res = new ArrayList<String>();
+		for (Rappel r : rappels) {
+			res.add(r.toString());
+		}
+		return res;
+	}
+
+	/**
+	 * Les versions sequentielle et parallele donnent les memes rappels
+	 * et les memes compteurs.
+	 */
+	@Test
+	public void memesResultats() throws Exception {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			avancer(100);
+			List<Rappel> r1 = seq.verifier();
+			List<Rappel> r2 = par.verifier(pool);
+			Assert.assertEquals(3 * (NB_CLIENTS - NB_CLIENTS / 4), r1.size());
+			Assert.assertTrue(r1.get(0).estPremier());
+			Assert.assertEquals(textes(r1), textes(r2));
+			for (int c = 0; c < NB_CLIENTS; c++) {
+				Assert.assertEquals(
+						seq.chercherClient("nom" + c, "prenom" + c)
+								.getNbEmpruntsEnRetard(),
+						par.chercherClient("nom" + c, "prenom" + c)
+								.getNbEmpruntsEnRetard());
+			}
+			Assert.assertTrue(par.verifier(pool).isEmpty());
+			avancer(8);
+			r1 = seq.verifier();
+			r2 = par.verifier(pool);
+			Assert.assertFalse(r1.get(0).estPremier());
+			Assert.assertEquals(textes(r1), textes(r2));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Une lettre par client, qui liste ses documents en retard.
+	 * L'impression ne modifie pas les emprunts.
+	 */
+	@Test
+	public void lettresDeRappel() throws Exception {
+		avancer(100);
+		Path rep = Files.createTempDirectory(NOM);
+		List<Rappel> rappels = seq.verifier();
+		Path f = seq.imprimerRappels(rep, rappels);
+		Path g = seq.imprimerRappels(rep, rappels);
+		Path h = seq.imprimerRappels(rep, seq.verifier());
+		try {
+			String texte = new String(Files.readAllBytes(f),
+					StandardCharsets.UTF_8);
+			Assert.assertEquals(NB_CLIENTS - NB_CLIENTS / 4,
+					texte.split("\f", -1).length - 1);
+			Assert.assertTrue(texte.startsWith("nom1 prenom1\nadresse1\n"));
+			Assert.assertTrue(texte.contains("L1-2 Titre (Auteur)"));
+			Assert.assertEquals(texte, new String(Files.readAllBytes(g),
+					StandardCharsets.UTF_8));
+			Assert.assertEquals(0, Files.size(h));
+		} finally {
+			Files.delete(f);
+			Files.delete(g);
+			Files.delete(h);
+			Files.delete(rep);
+		}
+	}
+
+	/**
+	 * Une horloge manuelle simule le passage des jours.
+	 */
+	@Test
+	public void horlogeManuelle() throws Exception {
+		HorlogeManuelle h = new HorlogeManuelle(HorlogeSysteme.INSTANCE);
+		seq.setHorloge(h);
+		Assert.assertTrue(seq.verifier().isEmpty());
+		h.avancer(100);
+		List<Rappel> r = seq.verifier();
+		Assert.assertEquals(3 * (NB_CLIENTS - NB_CLIENTS / 4), r.size());
+		Assert.assertEquals(LocalDate.ofEpochDay(h.jour()), r.get(0).getDate());
+		Assert.assertTrue(seq.verifier().isEmpty());
+		h.avancer(8);
+		Assert.assertEquals(r.size(), seq.verifier().size());
+		Assert.assertTrue(par.verifier().isEmpty());
+	}
+
+	/**
+	 * Les penalites s'accumulent a chaque verification, sans compter
+	 * deux fois le meme jour, jusqu'a la restitution.
+	 */
+	@Test
+	public void penalites() throws Exception {
+		HorlogeManuelle h = new HorlogeManuelle(HorlogeSysteme.INSTANCE);
+		seq.setHorloge(h);
+		par.setHorloge(h);
+		h.avancer(Livre.DUREE + 8);
+		seq.verifier();
+		par.verifier(ForkJoinPool.commonPool());
+		Client c1 = seq.chercherClient("nom1", "prenom1");
+		Assert.assertEquals(3 * 8 * Livre.PENALITE, c1.getPenalites());
+		Assert.assertEquals(0,
+				seq.chercherClient("nom0", "prenom0").getPenalites());
+		seq.verifier();
+		Assert.assertEquals(3 * 8 * Livre.PENALITE, c1.getPenalites());
+		h.avancer(2);
+		seq.restituer("nom1", "prenom1", "L1-0");
+		seq.verifier();
+		par.verifier(ForkJoinPool.commonPool());
+		Assert.assertEquals(3 * 10 * Livre.PENALITE, c1.getPenalites());
+		Assert.assertEquals(c1.getPenalites(),
+				par.chercherClient("nom1", "prenom1").getPenalites());
+		h.avancer(5);
+		seq.verifier();
+		Assert.assertEquals(3 * 10 * Livre.PENALITE + 2 * 5 * Livre.PENALITE,
+				c1.getPenalites());
+		Assert.assertEquals(0, seq.reglerPenalites("nom1", "prenom1",
+				c1.getPenalites()));
+	}
+
+	/**
+	 * Un changement du coefficient de duree d'une categorie recalcule
+	 * les emprunts de ses clients, et d'eux seuls.
+	 */
+	@Test
+	public void coefficientDeDuree() throws Exception {
+		HorlogeManuelle h = new HorlogeManuelle(HorlogeSysteme.INSTANCE);
+		seq.setHorloge(h);
+		seq.ajouterCatClient("Autre", 10, 25, 1.0, 1.0, false);
+		seq.changerCategorie("nom1", "prenom1", "Autre", 0);
+		h.avancer(Livre.DUREE + 5);
+		seq.verifier();
+		Client c1 = seq.chercherClient("nom1", "prenom1");
+		Client c2 = seq.chercherClient("nom2", "prenom2");
+		Assert.assertEquals(3, c2.getNbEmpruntsEnRetard());
+		CategorieClient cat = seq.chercherCatClient("TarifNormal");
+		seq.modifierCatClient(cat, "TarifNormal", 10, 25, 2.0, 1.0, false);
+		Assert.assertEquals(0, c2.getNbEmpruntsEnRetard());
+		for (FicheEmprunt fe : c2.getEmprunts()) {
+			Assert.assertFalse(fe.getDepasse());
+			Assert.assertEquals(2 * Livre.DUREE, fe.getDureeEmprunt());
+		}
+		Assert.assertEquals(3, c1.getNbEmpruntsEnRetard());
+		Assert.assertEquals(Livre.DUREE,
+				c1.getEmprunts().get(0).getDureeEmprunt());
+		Assert.assertTrue(seq.verifier().isEmpty());
+	}
+
+	/**
+	 * Les restitutions dans le desordre laissent la liste des emprunts
+	 * du client coherente.
+	 */
+	@Test
+	public void restitutionsDansLeDesordre() throws Exception {
+		Client c = seq.chercherClient("nom1", "prenom1");
+		FicheEmprunt f0 = c.getEmprunts().get(0);
+		FicheEmprunt f2 = c.getEmprunts().get(2);
+		seq.restituer("nom1", "prenom1", "L1-1");
+		Assert.assertEquals(2, c.getEmprunts().size());
+		Assert.assertTrue(c.getEmprunts().contains(f0));
+		Assert.assertTrue(c.getEmprunts().contains(f2));
+		seq.restituer("nom1", "prenom1", "L1-0");
+		Assert.assertFalse(c.getEmprunts().contains(f0));
+		Assert.assertSame(f2, c.getEmprunts().get(0));
+		seq.restituer("nom1", "prenom1", "L1-2");
+		Assert.assertTrue(c.getEmprunts().isEmpty());
+		Assert.assertEquals(0, c.getNbEmpruntsEnCours());
+	}
+
+	/**
+	 * Les restitutions gardent les emprunts de la mediatheque dans
+	 * l'ordre des emprunts, y compris apres relecture.
+	 */
+	@Test
+	public void ordreDesEmprunts() throws Exception {
+		List<String> attendus = new ArrayList<String>();
+		for (int c = 0; c < NB_CLIENTS; c++) {
+			for (int d = 0; d < 3; d++) {
+				if (c % 4 == 0) {
+					continue;
+				}
+				if (d == 1 || c < 10) {
+					seq.restituer("nom" + c, "prenom" + c, "L" + c + "-" + d);
+				} else {
+					attendus.add("L" + c + "-" + d);
+				}
+			}
+		}
+		Assert.assertEquals(attendus, codes(seq));
+		seq.emprunter("nom1", "prenom1", "L1-1");
+		attendus.add("L1-1");
+		Assert.assertEquals(attendus, codes(seq));
+		Assert.assertTrue(seq.saveToFile());
+		Assert.assertEquals(attendus, codes(new Mediatheque(NOM + "1")));
+	}
+
+	private static List<String> codes(final Mediatheque m) {
+		List<String> res = new ArrayList<String>();
+		for (int i = 0; i < m.getFicheEmpruntsSize(); i++) {
+			res.add(m.getFicheEmpruntAt(i).getDocument().getCode());
+		}
+		return res;
+	}
+}